@@ -0,0 +1,373 @@
+package com.filipov.fileservice.CachingFileStorageImpl;
+
+import com.filipov.fileservice.FileStat;
+import com.filipov.fileservice.FileStorage;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyAlreadyExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.NoFreeSpaceFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException;
+import com.filipov.fileservice.KeyIterator;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Storage, which caches files of the big slow storage (back storage) in the small fast storage (front storage).
+ * Back storage keeps all the files, front storage keeps copies of the recently read or saved files,
+ * which aren't bigger than max cached file size.
+ * <p>
+ * File, which isn't found in the front storage, is read from the back storage and is copied to the front storage
+ * in the background. Concurrent readings of the same missed file share one reading of the back storage.
+ * When the front storage is full, it liberates space by its own purge.
+ * Copy in the front storage is served only while the back storage keeps the file, so the files, deleted by the purge
+ * or the expiration of the back storage, are missing for the user.
+ * Metadata, listing of the keys and free space are taken from the back storage.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class CachingFileStorageImpl implements FileStorage {
+
+    private final static Logger LOGGER = Logger.getLogger(CachingFileStorageImpl.class);
+    private final static int DEFAULT_MAX_CACHED_FILE_SIZE = 1024 * 1024;
+    private final static int MAX_PURGES_PER_FILE = 3;
+
+    private final FileStorage frontStorage;
+    private final FileStorage backStorage;
+    private final WritePolicy writePolicy;
+    private final int maxCachedFileSize;
+    private final ExecutorService populationExecutor;
+    private final ConcurrentMap<String, CompletableFuture<byte[]>> backReads = new ConcurrentHashMap<String, CompletableFuture<byte[]>>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong backReadCount = new AtomicLong();
+
+    /**
+     * Creates write-through cache of the back storage
+     *
+     * @param frontStorage small fast storage
+     * @param backStorage  big slow storage
+     */
+
+    public CachingFileStorageImpl(FileStorage frontStorage, FileStorage backStorage) {
+        this(frontStorage, backStorage, WritePolicy.WRITE_THROUGH, DEFAULT_MAX_CACHED_FILE_SIZE);
+    }
+
+    /**
+     * Creates cache of the back storage with specific write policy
+     *
+     * @param frontStorage      small fast storage
+     * @param backStorage       big slow storage
+     * @param writePolicy       policy of the saving of the new files
+     * @param maxCachedFileSize max size of the cached file in bites. Bigger files are read from the back storage only
+     */
+
+    public CachingFileStorageImpl(FileStorage frontStorage, FileStorage backStorage, WritePolicy writePolicy, int maxCachedFileSize) {
+        if (frontStorage == null || backStorage == null || writePolicy == null)
+            throw new IncorrectArgumentFileStorageException("Value of frontStorage, backStorage or writePolicy is null");
+        if (maxCachedFileSize <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of maxCachedFileSize <= 0");
+        this.frontStorage = frontStorage;
+        this.backStorage = backStorage;
+        this.writePolicy = writePolicy;
+        this.maxCachedFileSize = maxCachedFileSize;
+        this.populationExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "CachingFileStorage population");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void saveFile(String key, InputStream inputStream) throws NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
+        this.saveFileWithLifeTime(key, inputStream, 0);
+    }
+
+    @Override
+    public void saveFile(String key, InputStream inputStream, long fileLifeTime) throws NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
+        if (fileLifeTime <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of fileLifeTime <= 0");
+        this.saveFileWithLifeTime(key, inputStream, fileLifeTime);
+    }
+
+    private void saveFileWithLifeTime(String key, InputStream inputStream, long fileLifeTime) throws NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
+        final CapturingInputStream capturingInputStream = this.writePolicy == WritePolicy.WRITE_THROUGH
+                ? new CapturingInputStream(inputStream, this.maxCachedFileSize) : null;
+        final InputStream backInputStream = capturingInputStream != null ? capturingInputStream : inputStream;
+        if (fileLifeTime > 0)
+            this.backStorage.saveFile(key, backInputStream, fileLifeTime);
+        else
+            this.backStorage.saveFile(key, backInputStream);
+
+        // Copy of the previously deleted file with the same key may be left in the front storage
+        this.deleteFromFrontStorage(key);
+        final byte[] content = capturingInputStream != null ? capturingInputStream.getContent() : null;
+        if (content != null)
+            this.saveToFrontStorage(key, content, fileLifeTime);
+    }
+
+    /**
+     * Reads file from the front storage, or from the back storage if the file isn't cached.
+     * Concurrent readings of the same missed file wait for one reading of the back storage
+     *
+     * @param key specific file key
+     * @return Input Stream of this file
+     * @throws KeyNotExistFileStorageException if the file, associated with this key doesn't exist
+     */
+
+    @Override
+    public InputStream readFile(String key) throws KeyNotExistFileStorageException {
+        InputStream frontInputStream = null;
+        try {
+            frontInputStream = this.frontStorage.readFile(key);
+        } catch (KeyNotExistFileStorageException e) {
+            // File isn't cached
+        }
+        if (frontInputStream != null) {
+            if (this.backStorage.exists(key)) {
+                this.hits.incrementAndGet();
+                return frontInputStream;
+            }
+            // File was purged or expired in the back storage
+            closeQuietly(frontInputStream);
+            this.deleteFromFrontStorage(key);
+        }
+        this.misses.incrementAndGet();
+
+        final CompletableFuture<byte[]> backRead = new CompletableFuture<byte[]>();
+        final CompletableFuture<byte[]> currentBackRead = this.backReads.putIfAbsent(key, backRead);
+        if (currentBackRead != null) {
+            final byte[] content = this.await(key, currentBackRead);
+            return content != null ? new ByteArrayInputStream(content) : this.readBackStorage(key);
+        }
+
+        try {
+            final FileStat fileStat = this.backStorage.stat(key);
+            if (fileStat.getSize() > this.maxCachedFileSize) {
+                backRead.complete(null);
+                return this.readBackStorage(key);
+            }
+            final byte[] content = readAll(this.readBackStorage(key), key);
+            backRead.complete(content);
+            this.populate(key, content, fileStat);
+            return new ByteArrayInputStream(content);
+        } catch (KeyNotExistFileStorageException | RuntimeException e) {
+            backRead.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.backReads.remove(key, backRead);
+        }
+    }
+
+    /**
+     * Deletes file from the back storage and its copy from the front storage
+     *
+     * @param key specific file key
+     * @throws KeyNotExistFileStorageException if the file, associated with this key doesn't exist
+     */
+
+    @Override
+    public void deleteFile(String key) throws KeyNotExistFileStorageException {
+        this.backStorage.deleteFile(key);
+        this.deleteFromFrontStorage(key);
+    }
+
+    @Override
+    public FileStat stat(String key) throws KeyNotExistFileStorageException {
+        return this.backStorage.stat(key);
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return this.backStorage.exists(key);
+    }
+
+    @Override
+    public Stream<String> keys() {
+        return this.backStorage.keys();
+    }
+
+    @Override
+    public Stream<String> keys(String prefix) {
+        return this.backStorage.keys(prefix);
+    }
+
+    @Override
+    public KeyIterator keyIterator(String prefix, String cursor) {
+        return this.backStorage.keyIterator(prefix, cursor);
+    }
+
+    @Override
+    public long freeSpaceInBytes() {
+        return this.backStorage.freeSpaceInBytes();
+    }
+
+    @Override
+    public int freeSpaceInPercents() {
+        return this.backStorage.freeSpaceInPercents();
+    }
+
+    /**
+     * Liberates free space in the back storage. Copies of the deleted files are missing for the user
+     * and are deleted from the front storage by the next reading or by its own purge
+     *
+     * @param discSpaceInBytes target value of the free space
+     */
+
+    @Override
+    public void purge(long discSpaceInBytes) {
+        this.backStorage.purge(discSpaceInBytes);
+    }
+
+    @Override
+    public void purge(int discSpaceInPercents) {
+        this.backStorage.purge(discSpaceInPercents);
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Returns number of the readings of the back storage
+     *
+     * @return number of the readings of the back storage
+     */
+
+    public long getBackReads() {
+        return this.backReadCount.get();
+    }
+
+    private InputStream readBackStorage(String key) throws KeyNotExistFileStorageException {
+        this.backReadCount.incrementAndGet();
+        return this.backStorage.readFile(key);
+    }
+
+    private byte[] await(String key, CompletableFuture<byte[]> backRead) throws KeyNotExistFileStorageException {
+        try {
+            return backRead.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReadWriteFileStorageException("Interrupted while waiting for the file", key, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof KeyNotExistFileStorageException)
+                throw new KeyNotExistFileStorageException("This key doesn't exist: " + key, key);
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new ReadWriteFileStorageException("Can't read the file", key, e.getCause());
+        }
+    }
+
+    /**
+     * Copies the file to the front storage in the background. Copy is dropped, if the file of the back storage
+     * was deleted or replaced after it was read, so the population can't overwrite the newer copy by the old content
+     *
+     * @param key      specific file key
+     * @param content  content of the file
+     * @param fileStat metadata of the back storage file, which the content was read from
+     */
+
+    private void populate(final String key, final byte[] content, final FileStat fileStat) {
+        this.populationExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long expirationTime = fileStat.getExpirationTime();
+                final long fileLifeTime = expirationTime > 0 ? expirationTime - new Date().getTime() : 0;
+                if (expirationTime > 0 && fileLifeTime <= 0)
+                    return;
+                if (!isSameFile(key, fileStat))
+                    return;
+                saveToFrontStorage(key, content, fileLifeTime);
+                // File may be deleted or replaced in the back storage while it was copied.
+                // Replacing, which is finished after this check, deletes the copy by itself
+                if (!isSameFile(key, fileStat))
+                    deleteFromFrontStorage(key);
+            }
+        });
+    }
+
+    private boolean isSameFile(String key, FileStat fileStat) {
+        final FileStat currentFileStat;
+        try {
+            currentFileStat = this.backStorage.stat(key);
+        } catch (KeyNotExistFileStorageException e) {
+            return false;
+        }
+        return currentFileStat.getCreationTime() == fileStat.getCreationTime() && currentFileStat.getVersion() == fileStat.getVersion()
+                && currentFileStat.getSize() == fileStat.getSize() && currentFileStat.isChecksumKnown() == fileStat.isChecksumKnown()
+                && currentFileStat.getChecksum() == fileStat.getChecksum();
+    }
+
+    private void saveToFrontStorage(String key, byte[] content, long fileLifeTime) {
+        for (int attempt = 0; attempt <= MAX_PURGES_PER_FILE; attempt++) {
+            try {
+                if (fileLifeTime > 0)
+                    this.frontStorage.saveFile(key, new ByteArrayInputStream(content), fileLifeTime);
+                else
+                    this.frontStorage.saveFile(key, new ByteArrayInputStream(content));
+                return;
+            } catch (KeyAlreadyExistFileStorageException e) {
+                // File is already cached
+                return;
+            } catch (NoFreeSpaceFileStorageException e) {
+                // Free space of the front storage may be fragmented, so each purge liberates the size of the file more
+                if (attempt < MAX_PURGES_PER_FILE)
+                    this.frontStorage.purge(this.frontStorage.freeSpaceInBytes() + content.length);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Can't cache the file: " + key, e);
+                return;
+            }
+        }
+        LOGGER.debug("No free space in the front storage for the file: " + key);
+    }
+
+    private void deleteFromFrontStorage(String key) {
+        try {
+            this.frontStorage.deleteFile(key);
+        } catch (KeyNotExistFileStorageException e) {
+            // File isn't cached
+        } catch (RuntimeException e) {
+            LOGGER.warn("Can't delete cached file: " + key, e);
+        }
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            LOGGER.debug("Can't close the cached file", e);
+        }
+    }
+
+    private static byte[] readAll(InputStream inputStream, String key) {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[16 * 1024];
+        try {
+            try {
+                int read;
+                while ((read = inputStream.read(buffer)) != -1)
+                    content.write(buffer, 0, read);
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't read the file", key, e);
+        }
+        return content.toByteArray();
+    }
+}
@@ -0,0 +1,70 @@
+package com.filipov.fileservice.CachingFileStorageImpl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream, which keeps a copy of the read content, while the content isn't longer than the limit
+ *
+ * @author Yevhen Filipov
+ */
+
+class CapturingInputStream extends FilterInputStream {
+
+    private final int limit;
+    private ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+    CapturingInputStream(InputStream inputStream, int limit) {
+        super(inputStream);
+        this.limit = limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int read = super.read();
+        if (read != -1 && this.content != null) {
+            this.content.write(read);
+            this.checkLimit();
+        }
+        return read;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        final int read = super.read(buffer, offset, length);
+        if (read > 0 && this.content != null) {
+            this.content.write(buffer, offset, read);
+            this.checkLimit();
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped content isn't known
+        this.content = null;
+        return super.skip(n);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Returns the read content
+     *
+     * @return copy of the read content, {@code null} if it's longer than the limit
+     */
+
+    byte[] getContent() {
+        return this.content != null ? this.content.toByteArray() : null;
+    }
+
+    private void checkLimit() {
+        if (this.content.size() > this.limit)
+            this.content = null;
+    }
+}
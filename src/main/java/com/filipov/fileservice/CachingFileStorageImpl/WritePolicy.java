@@ -0,0 +1,20 @@
+package com.filipov.fileservice.CachingFileStorageImpl;
+
+/**
+ * Policy of the saving of the new files by {@link CachingFileStorageImpl}
+ *
+ * @author Yevhen Filipov
+ */
+
+public enum WritePolicy {
+
+    /**
+     * File is saved to the back storage and to the front storage, if it isn't bigger than max cached file size
+     */
+    WRITE_THROUGH,
+
+    /**
+     * File is saved to the back storage only and is cached by the first reading
+     */
+    WRITE_AROUND
+}
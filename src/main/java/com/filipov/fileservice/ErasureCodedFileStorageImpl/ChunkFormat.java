@@ -0,0 +1,110 @@
+package com.filipov.fileservice.ErasureCodedFileStorageImpl;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Layout of the chunk, which is stored as the file of one storage: header, records of the cells (one cell of each stripe)
+ * and the trailer. Each record is marked by the flag, so the chunk is read in one pass, although the size of the object
+ * is written at its end:
+ * <pre>
+ * header:  magic (4), version (1), data chunks (1), parity chunks (1), index of the chunk (1), cell size (4)
+ * cell:    CELL_FLAG (1), content of the cell (cell size), CRC32 of the cell (4)
+ * trailer: TRAILER_FLAG (1), size of the object (8), CRC32 of the object (4)
+ * </pre>
+ *
+ * @author Yevhen Filipov
+ */
+
+class ChunkFormat {
+
+    final static int MAGIC = 0x46534543;
+    final static int VERSION = 1;
+    final static int HEADER_SIZE = 12;
+    final static int TRAILER_SIZE = 13;
+    final static int CELL_FLAG = 1;
+    final static int TRAILER_FLAG = 0;
+
+    final int dataChunks;
+    final int parityChunks;
+    final int index;
+    final int cellSize;
+
+    ChunkFormat(int dataChunks, int parityChunks, int index, int cellSize) {
+        this.dataChunks = dataChunks;
+        this.parityChunks = parityChunks;
+        this.index = index;
+        this.cellSize = cellSize;
+    }
+
+    int getChunks() {
+        return this.dataChunks + this.parityChunks;
+    }
+
+    /**
+     * @return size of the cell record in the chunk
+     */
+
+    int getRecordSize() {
+        return 1 + this.cellSize + 4;
+    }
+
+    byte[] header() {
+        return ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).put((byte) VERSION).put((byte) this.dataChunks)
+                .put((byte) this.parityChunks).put((byte) this.index).putInt(this.cellSize).array();
+    }
+
+    static ChunkFormat readHeader(DataInputStream input) throws IOException {
+        if (input.readInt() != MAGIC)
+            throw new IOException("File isn't a chunk of the erasure coded storage");
+        final int version = input.readUnsignedByte();
+        if (version != VERSION)
+            throw new IOException("Unsupported version of the chunk: " + version);
+        final int dataChunks = input.readUnsignedByte();
+        final int parityChunks = input.readUnsignedByte();
+        final int index = input.readUnsignedByte();
+        final int cellSize = input.readInt();
+        if (dataChunks == 0 || index >= dataChunks + parityChunks || cellSize <= 0)
+            throw new IOException("Damaged header of the chunk");
+        return new ChunkFormat(dataChunks, parityChunks, index, cellSize);
+    }
+
+    /**
+     * Returns the record of the cell with its flag and checksum
+     */
+
+    static byte[] cellRecord(byte[] cell, int cellSize) {
+        final CRC32 checksum = new CRC32();
+        checksum.update(cell, 0, cellSize);
+        final byte[] record = new byte[1 + cellSize + 4];
+        record[0] = CELL_FLAG;
+        System.arraycopy(cell, 0, record, 1, cellSize);
+        ByteBuffer.wrap(record, 1 + cellSize, 4).putInt((int) checksum.getValue());
+        return record;
+    }
+
+    static byte[] trailer(long objectSize, int objectChecksum) {
+        return ByteBuffer.allocate(TRAILER_SIZE).put((byte) TRAILER_FLAG).putLong(objectSize).putInt(objectChecksum).array();
+    }
+
+    /**
+     * Skips the stream fully, unlike {@link InputStream#skip(long)}
+     */
+
+    static void skipFully(InputStream input, long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            final long skipped = input.skip(remaining);
+            if (skipped > 0) {
+                remaining -= skipped;
+            } else {
+                if (input.read() < 0)
+                    throw new IOException("Chunk is shorter than expected");
+                remaining--;
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.filipov.fileservice.ErasureCodedFileStorageImpl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stream of the chunk, which is saved by the storage in its own thread, while the encoding thread writes the records
+ * of the chunk. Number of the pending records is limited. Records, which are written after the storage stopped
+ * reading the stream, are discarded
+ *
+ * @author Yevhen Filipov
+ */
+
+class ChunkPipe extends InputStream {
+
+    private final static byte[] END = new byte[0];
+
+    private final BlockingQueue<byte[]> records;
+    private byte[] record;
+    private int position;
+    private volatile boolean aborted;
+    private volatile boolean closed;
+
+    ChunkPipe(int maxPendingRecords) {
+        this.records = new ArrayBlockingQueue<byte[]>(maxPendingRecords);
+    }
+
+    void write(byte[] record) throws InterruptedException {
+        while (!this.closed) {
+            if (this.records.offer(record, 100, TimeUnit.MILLISECONDS))
+                return;
+        }
+    }
+
+    /**
+     * Ends the stream
+     */
+
+    void finish() throws InterruptedException {
+        this.write(END);
+    }
+
+    /**
+     * Ends the stream by the IOException, so the storage doesn't save the partial chunk
+     */
+
+    void abort() {
+        this.aborted = true;
+        this.records.clear();
+        this.records.offer(END);
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] single = new byte[1];
+        return this.read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0)
+            return 0;
+        if (this.record == null || this.position == this.record.length) {
+            if (this.record == END)
+                return -1;
+            try {
+                this.record = this.records.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Saving of the chunk was interrupted", e);
+            }
+            this.position = 0;
+            if (this.aborted)
+                throw new IOException("Saving of the object was aborted");
+            if (this.record == END)
+                return -1;
+        }
+        final int read = Math.min(length, this.record.length - this.position);
+        System.arraycopy(this.record, this.position, bytes, offset, read);
+        this.position += read;
+        return read;
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        this.records.clear();
+    }
+}
@@ -0,0 +1,812 @@
+package com.filipov.fileservice.ErasureCodedFileStorageImpl;
+
+import com.filipov.fileservice.FileStat;
+import com.filipov.fileservice.FileStorage;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyAlreadyExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.NoFreeSpaceFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.KeyHashing;
+import com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException;
+import com.filipov.fileservice.KeyIterator;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Storage, which keeps each object in several storages (for example, FileStorageImpl on different discs) without
+ * full mirroring. Object is split by stripes into k data chunks and m parity chunks (Reed-Solomon code), each chunk
+ * is saved as the file with the same key in its own storage, so the object survives the loss of any m storages
+ * and takes (k + m) / k of its size. Objects, which aren't bigger than small object size, are kept as m + 1 copies,
+ * because their chunks would be mostly padding.
+ * <p>
+ * Chunks are saved and read in parallel, parity cells of the stripe are calculated in parallel too. Reading prefers
+ * the data chunks, missing or damaged chunks are restored from the parity ones transparently. Chunks of the replaced
+ * storage are restored by {@link RebuildTask} in the background.
+ * <p>
+ * Chunks of the object are placed in k + m consecutive storages, starting from the storage chosen by the hash of the key,
+ * so the objects are spread evenly over all storages.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class ErasureCodedFileStorageImpl implements FileStorage {
+
+    private final static Logger LOGGER = Logger.getLogger(ErasureCodedFileStorageImpl.class);
+    private final static int DEFAULT_CELL_SIZE = 64 * 1024;
+    private final static int DEFAULT_SMALL_OBJECT_SIZE = 64 * 1024;
+    private final static int MAX_CHUNKS = 256;
+    private final static int MAX_PENDING_RECORDS = 4;
+
+    private final int dataChunks;
+    private final int parityChunks;
+    private final int cellSize;
+    private final int smallObjectSize;
+    private final ReedSolomon codec;
+    // Small objects are kept as copies, Reed-Solomon code with one data chunk copies it to all parity chunks
+    private final ReedSolomon replicationCodec;
+    private final ExecutorService executor;
+    private volatile FileStorage[] storages;
+
+    /**
+     * Creates erasure coded storage with cells of 64 KB, objects up to 64 KB are copied
+     *
+     * @param storages     storages of the chunks, at least dataChunks + parityChunks
+     * @param dataChunks   number of the data chunks of the object (k)
+     * @param parityChunks number of the parity chunks of the object (m), number of storages, which may be lost
+     */
+
+    public ErasureCodedFileStorageImpl(List<FileStorage> storages, int dataChunks, int parityChunks) {
+        this(storages, dataChunks, parityChunks, DEFAULT_CELL_SIZE, DEFAULT_SMALL_OBJECT_SIZE);
+    }
+
+    /**
+     * Creates erasure coded storage
+     *
+     * @param storages        storages of the chunks, at least dataChunks + parityChunks
+     * @param dataChunks      number of the data chunks of the object (k)
+     * @param parityChunks    number of the parity chunks of the object (m), number of storages, which may be lost
+     * @param cellSize        size of the part of the stripe in one chunk in bites
+     * @param smallObjectSize max size of the object in bites, which is copied to m + 1 storages instead of coding
+     */
+
+    public ErasureCodedFileStorageImpl(List<FileStorage> storages, int dataChunks, int parityChunks, int cellSize, int smallObjectSize) {
+        if (storages == null || storages.contains(null))
+            throw new IncorrectArgumentFileStorageException("Value of storages is null or contains null");
+        if (dataChunks <= 0 || parityChunks <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of dataChunks or parityChunks <= 0");
+        if (dataChunks + parityChunks > MAX_CHUNKS)
+            throw new IncorrectArgumentFileStorageException("Value of dataChunks + parityChunks > " + MAX_CHUNKS);
+        if (storages.size() < dataChunks + parityChunks)
+            throw new IncorrectArgumentFileStorageException("Number of storages < dataChunks + parityChunks");
+        if (cellSize <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of cellSize <= 0");
+        if (smallObjectSize < 0)
+            throw new IncorrectArgumentFileStorageException("Value of smallObjectSize < 0");
+        this.storages = storages.toArray(new FileStorage[storages.size()]);
+        this.dataChunks = dataChunks;
+        this.parityChunks = parityChunks;
+        this.cellSize = cellSize;
+        this.smallObjectSize = smallObjectSize;
+        this.codec = new ReedSolomon(dataChunks, parityChunks);
+        this.replicationCodec = new ReedSolomon(1, parityChunks);
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "FileStorage erasure coding");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void saveFile(String key, InputStream inputStream) throws NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
+        this.saveFileWithLifeTime(key, inputStream, 0);
+    }
+
+    @Override
+    public void saveFile(String key, InputStream inputStream, long fileLifeTime) throws NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
+        if (fileLifeTime <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of fileLifeTime <= 0");
+        this.saveFileWithLifeTime(key, inputStream, fileLifeTime);
+    }
+
+    /**
+     * Saves the object, which is considered saved, if at least k chunks are saved. Missing chunks are restored by the rebuild
+     */
+
+    private void saveFileWithLifeTime(String key, InputStream inputStream, long fileLifeTime) throws NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
+        if (inputStream == null)
+            throw new IncorrectArgumentFileStorageException("Value of inputStream is null");
+        final FileStorage[] placement = this.placement(key);
+        for (FileStorage storage : placement) {
+            if (storage.exists(key))
+                throw new KeyAlreadyExistFileStorageException("This key already exist", key);
+        }
+
+        final byte[] head = new byte[this.smallObjectSize + 1];
+        final int headSize;
+        try {
+            headSize = readFully(inputStream, head, head.length);
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't read the file", key, e);
+        }
+        final InputStream headInputStream = new ByteArrayInputStream(head, 0, headSize);
+        if (headSize <= this.smallObjectSize)
+            this.saveChunks(key, placement, headInputStream, this.replicationCodec, Math.max(headSize, 1), fileLifeTime);
+        else
+            this.saveChunks(key, placement, new SequenceInputStream(headInputStream, inputStream), this.codec, this.cellSize, fileLifeTime);
+    }
+
+    private void saveChunks(String key, FileStorage[] placement, InputStream inputStream, ReedSolomon codec, int cellSize,
+                            long fileLifeTime) throws NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
+        final ChunkPipe[] pipes = new ChunkPipe[codec.getDataChunks() + codec.getParityChunks()];
+        final List<Future<Void>> savers = new ArrayList<Future<Void>>();
+        for (int index = 0; index < pipes.length; index++) {
+            pipes[index] = new ChunkPipe(MAX_PENDING_RECORDS);
+            savers.add(this.startSaving(key, placement[index], pipes[index], fileLifeTime));
+        }
+
+        try {
+            this.encode(inputStream, pipes, codec, cellSize);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            for (ChunkPipe pipe : pipes)
+                pipe.abort();
+            final Throwable[] failures = new Throwable[pipes.length];
+            for (int index = 0; index < pipes.length; index++)
+                failures[index] = awaitSaving(savers.get(index));
+            this.deleteSavedChunks(key, placement, failures);
+            if (e instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            throw new ReadWriteFileStorageException("Can't save the file", key, e);
+        }
+
+        final Throwable[] failures = new Throwable[pipes.length];
+        Throwable failure = null;
+        int failedChunks = 0;
+        for (int index = 0; index < pipes.length; index++) {
+            failures[index] = awaitSaving(savers.get(index));
+            if (failures[index] == null)
+                continue;
+            failedChunks++;
+            // Rejection of the storage is more important, than the failure of another one
+            if (failure == null || failures[index] instanceof KeyAlreadyExistFileStorageException
+                    || failures[index] instanceof NoFreeSpaceFileStorageException)
+                failure = failures[index];
+        }
+        if (failure instanceof KeyAlreadyExistFileStorageException || failure instanceof NoFreeSpaceFileStorageException
+                || failedChunks > codec.getParityChunks()) {
+            this.deleteSavedChunks(key, placement, failures);
+            if (failure instanceof KeyAlreadyExistFileStorageException)
+                throw new KeyAlreadyExistFileStorageException("This key already exist", key);
+            if (failure instanceof NoFreeSpaceFileStorageException)
+                throw new NoFreeSpaceFileStorageException("No free space to save the chunk of the file", key);
+            throw new ReadWriteFileStorageException("Only " + (pipes.length - failedChunks) + " of " + pipes.length
+                    + " chunks are saved", key, failure);
+        }
+        if (failedChunks > 0)
+            LOGGER.warn("Only " + (pipes.length - failedChunks) + " of " + pipes.length + " chunks of " + key
+                    + " are saved, the missing chunks can be restored by the rebuild", failure);
+    }
+
+    /**
+     * Splits the stream by stripes and writes the cells and the calculated parity cells to the chunks
+     */
+
+    private void encode(InputStream inputStream, ChunkPipe[] pipes, ReedSolomon codec, int cellSize) throws IOException, InterruptedException {
+        final int dataChunks = codec.getDataChunks();
+        final long stripeSize = (long) dataChunks * cellSize;
+        for (int index = 0; index < pipes.length; index++)
+            pipes[index].write(new ChunkFormat(dataChunks, codec.getParityChunks(), index, cellSize).header());
+
+        final byte[][] dataCells = new byte[dataChunks][cellSize];
+        final byte[][] parityCells = new byte[codec.getParityChunks()][cellSize];
+        final CRC32 checksum = new CRC32();
+        long objectSize = 0;
+        for (long stripe = 0; ; stripe++) {
+            long readStripeSize = 0;
+            for (byte[] dataCell : dataCells) {
+                final int read = readFully(inputStream, dataCell, cellSize);
+                Arrays.fill(dataCell, read, cellSize, (byte) 0);
+                checksum.update(dataCell, 0, read);
+                readStripeSize += read;
+            }
+            // Chunks of the empty object contain one empty stripe
+            if (readStripeSize == 0 && stripe > 0)
+                break;
+            objectSize += readStripeSize;
+            this.encodeParity(codec, dataCells, parityCells, cellSize);
+            for (int index = 0; index < pipes.length; index++)
+                pipes[index].write(ChunkFormat.cellRecord(index < dataChunks ? dataCells[index] : parityCells[index - dataChunks], cellSize));
+            if (readStripeSize < stripeSize)
+                break;
+        }
+
+        final byte[] trailer = ChunkFormat.trailer(objectSize, (int) checksum.getValue());
+        for (ChunkPipe pipe : pipes) {
+            pipe.write(trailer);
+            pipe.finish();
+        }
+    }
+
+    /**
+     * Calculates the parity cells of the stripe, each parity cell in its own thread
+     */
+
+    private void encodeParity(final ReedSolomon codec, final byte[][] dataCells, final byte[][] parityCells, final int cellSize)
+            throws InterruptedException {
+        final List<Future<?>> encodings = new ArrayList<Future<?>>();
+        for (int parityChunk = 1; parityChunk < parityCells.length; parityChunk++) {
+            final int index = parityChunk;
+            encodings.add(this.executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    encodeParityCell(codec, dataCells, parityCells, index, cellSize);
+                }
+            }));
+        }
+        encodeParityCell(codec, dataCells, parityCells, 0, cellSize);
+        for (Future<?> encoding : encodings) {
+            try {
+                encoding.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Parity cell can't be calculated", e.getCause());
+            }
+        }
+    }
+
+    private static void encodeParityCell(ReedSolomon codec, byte[][] dataCells, byte[][] parityCells, int parityChunk, int cellSize) {
+        ReedSolomon.codeRows(new byte[][]{codec.getRow(codec.getDataChunks() + parityChunk)}, dataCells,
+                new byte[][]{parityCells[parityChunk]}, cellSize);
+    }
+
+    private Future<Void> startSaving(final String key, final FileStorage storage, final ChunkPipe pipe, final long fileLifeTime) {
+        return this.executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    if (fileLifeTime > 0)
+                        storage.saveFile(key, pipe, fileLifeTime);
+                    else
+                        storage.saveFile(key, pipe);
+                } finally {
+                    pipe.close();
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Waits for the saving of the chunk, saving can't be abandoned, because its stream is written by the current thread
+     *
+     * @return failure of the saving, {@code null} if the chunk is saved
+     */
+
+    private static Throwable awaitSaving(Future<Void> saving) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    saving.get();
+                    return null;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    return e.getCause();
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private void deleteSavedChunks(String key, FileStorage[] placement, Throwable[] failures) {
+        for (int index = 0; index < failures.length; index++) {
+            if (failures[index] != null)
+                continue;
+            try {
+                placement[index].deleteFile(key);
+            } catch (KeyNotExistFileStorageException | RuntimeException e) {
+                LOGGER.warn("Chunk " + index + " of the unsaved file " + key + " can't be deleted", e);
+            }
+        }
+    }
+
+    /**
+     * Reads the object from its data chunks, missing or damaged data chunks are restored from the parity ones.
+     * Next stripe is read in the background, while the current one is returned
+     *
+     * @param key specific file key
+     * @return Input Stream of this file
+     * @throws KeyNotExistFileStorageException if the file, associated with this key doesn't exist
+     * @throws ReadWriteFileStorageException   if less than k chunks of the file can be read
+     */
+
+    @Override
+    public InputStream readFile(String key) throws KeyNotExistFileStorageException {
+        return new ErasureCodedInputStream(this.openObject(key, this.placement(key), -1), this.executor);
+    }
+
+    /**
+     * Opens the object from the first chunk, which has the correct header
+     *
+     * @param excludedChunk index of the chunk, which shouldn't be read, -1 if all chunks can be read
+     */
+
+    private StripeReader openObject(String key, FileStorage[] placement, int excludedChunk) throws KeyNotExistFileStorageException {
+        Exception failure = null;
+        for (int index = 0; index < placement.length; index++) {
+            if (index == excludedChunk)
+                continue;
+            final DataInputStream inputStream;
+            try {
+                inputStream = new DataInputStream(placement[index].readFile(key));
+            } catch (KeyNotExistFileStorageException e) {
+                continue;
+            } catch (RuntimeException e) {
+                LOGGER.debug("Chunk " + index + " of " + key + " isn't available", e);
+                failure = e;
+                continue;
+            }
+
+            final ChunkFormat format;
+            try {
+                format = ChunkFormat.readHeader(inputStream);
+                if (format.index != index)
+                    throw new IOException("Chunk " + format.index + " is found instead of the chunk " + index);
+            } catch (IOException e) {
+                LOGGER.warn("Chunk " + index + " of " + key + " is damaged", e);
+                closeQuietly(inputStream, key);
+                failure = e;
+                continue;
+            }
+            try {
+                return new StripeReader(key, placement, this.executor, inputStream, format, this.codecOf(format), excludedChunk);
+            } catch (IOException e) {
+                throw new ReadWriteFileStorageException("Can't read the file", key, e);
+            }
+        }
+        if (failure != null)
+            throw new ReadWriteFileStorageException("Can't read the file", key, failure);
+        throw new KeyNotExistFileStorageException("This key doesn't exist: " + key, key);
+    }
+
+    private ReedSolomon codecOf(ChunkFormat format) {
+        if (format.parityChunks == this.parityChunks && format.dataChunks == this.dataChunks)
+            return this.codec;
+        if (format.parityChunks == this.parityChunks && format.dataChunks == 1)
+            return this.replicationCodec;
+        // Object was saved with other settings
+        return new ReedSolomon(format.dataChunks, format.parityChunks);
+    }
+
+    /**
+     * Deletes all chunks of the object. Chunks, which can't be deleted, are left
+     *
+     * @param key specific file key
+     * @throws KeyNotExistFileStorageException if the file, associated with this key doesn't exist
+     * @throws ReadWriteFileStorageException   if no chunk of the file can be deleted
+     */
+
+    @Override
+    public void deleteFile(String key) throws KeyNotExistFileStorageException {
+        final FileStorage[] placement = this.placement(key);
+        boolean deleted = false;
+        RuntimeException failure = null;
+        for (int index = 0; index < placement.length; index++) {
+            try {
+                placement[index].deleteFile(key);
+                deleted = true;
+            } catch (KeyNotExistFileStorageException e) {
+                // Chunk is lost or the object is small
+            } catch (RuntimeException e) {
+                LOGGER.warn("Chunk " + index + " of " + key + " can't be deleted", e);
+                failure = e;
+            }
+        }
+        if (!deleted && failure != null)
+            throw failure;
+        if (!deleted)
+            throw new KeyNotExistFileStorageException("This key doesn't exist: " + key, key);
+    }
+
+    /**
+     * Returns metadata of the object from the first available chunk. Size and checksum of the object are read
+     * from the end of the chunk
+     *
+     * @param key specific file key
+     * @return metadata of this file
+     * @throws KeyNotExistFileStorageException if the file, associated with this key doesn't exist
+     */
+
+    @Override
+    public FileStat stat(String key) throws KeyNotExistFileStorageException {
+        final FileStorage[] placement = this.placement(key);
+        Exception failure = null;
+        for (int index = 0; index < placement.length; index++) {
+            try {
+                final FileStat chunkStat = placement[index].stat(key);
+                try (DataInputStream inputStream = new DataInputStream(placement[index].readFile(key))) {
+                    final ChunkFormat format = ChunkFormat.readHeader(inputStream);
+                    ChunkFormat.skipFully(inputStream, chunkStat.getSize() - ChunkFormat.HEADER_SIZE - ChunkFormat.TRAILER_SIZE);
+                    if (inputStream.readUnsignedByte() != ChunkFormat.TRAILER_FLAG)
+                        throw new IOException("Damaged trailer of the chunk " + index);
+                    final long size = inputStream.readLong();
+                    final int checksum = inputStream.readInt();
+                    return new FileStat(key, size, chunkStat.getStoredSize() * format.getChunks(), chunkStat.getCreationTime(),
+                            chunkStat.getExpirationTime(), true, checksum & 0xffffffffl);
+                }
+            } catch (KeyNotExistFileStorageException e) {
+                // Chunk is lost or the object is small
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Chunk " + index + " of " + key + " can't be read", e);
+                failure = e;
+            }
+        }
+        if (failure != null)
+            throw new ReadWriteFileStorageException("Can't read metadata of the file", key, failure);
+        throw new KeyNotExistFileStorageException("This key doesn't exist: " + key, key);
+    }
+
+    @Override
+    public boolean exists(String key) {
+        for (FileStorage storage : this.placement(key)) {
+            if (storage.exists(key))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Stream<String> keys() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this.keyIterator(null, null),
+                Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public Stream<String> keys(String prefix) {
+        if (prefix == null)
+            throw new IncorrectArgumentFileStorageException("Value of prefix is null");
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this.keyIterator(prefix, null),
+                Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Returns iterator of the stored keys. Keys are listed by the first n - k + 1 storages, any readable object has
+     * a chunk in one of them. Object is listed by the first of these storages, which has its chunk
+     *
+     * @param prefix prefix of the keys, {@code null} for all keys
+     * @param cursor cursor of the previous iteration ({@link KeyIterator#getCursor()}), {@code null} to start from the beginning
+     * @return iterator of the stored keys
+     */
+
+    @Override
+    public KeyIterator keyIterator(String prefix, String cursor) {
+        return new ChunkKeysIterator(this.storages, prefix, cursor);
+    }
+
+    /**
+     * Returns free space for the objects in bites. Chunks are spread evenly, so the fullest storage is the limit
+     *
+     * @return free space of storage in bites
+     */
+
+    @Override
+    public long freeSpaceInBytes() {
+        final FileStorage[] storages = this.storages;
+        long minFreeSpace = Long.MAX_VALUE;
+        for (FileStorage storage : storages)
+            minFreeSpace = Math.min(minFreeSpace, storage.freeSpaceInBytes());
+        return (long) ((double) minFreeSpace * storages.length * this.dataChunks / (this.dataChunks + this.parityChunks));
+    }
+
+    @Override
+    public int freeSpaceInPercents() {
+        int minFreeSpace = 100;
+        for (FileStorage storage : this.storages)
+            minFreeSpace = Math.min(minFreeSpace, storage.freeSpaceInPercents());
+        return minFreeSpace;
+    }
+
+    /**
+     * Liberates free space in the storage to the target value in bites (or more) by deleting of the oldest objects.
+     * Purge of the storages themselves would delete the chunks of the different objects
+     *
+     * @param discSpaceInBytes target value of the free space
+     */
+
+    @Override
+    public void purge(long discSpaceInBytes) {
+        if (discSpaceInBytes <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of discSpaceInBytes <= 0");
+        this.purgeOldestFiles(discSpaceInBytes, 0);
+    }
+
+    @Override
+    public void purge(int discSpaceInPercents) {
+        if (discSpaceInPercents <= 0 || discSpaceInPercents > 100)
+            throw new IncorrectArgumentFileStorageException("Value of discSpaceInPercents <= 0 or > 100");
+        this.purgeOldestFiles(0, discSpaceInPercents);
+    }
+
+    private void purgeOldestFiles(long discSpaceInBytes, int discSpaceInPercents) {
+        if (this.isPurged(discSpaceInBytes, discSpaceInPercents))
+            return;
+
+        final List<FileStat> oldestFiles = new ArrayList<FileStat>();
+        final Iterator<String> keys = this.keyIterator(null, null);
+        while (keys.hasNext()) {
+            final String key = keys.next();
+            try {
+                oldestFiles.add(this.stat(key));
+            } catch (KeyNotExistFileStorageException e) {
+                // File was deleted while listing
+            } catch (RuntimeException e) {
+                LOGGER.warn("Metadata of " + key + " can't be read, it isn't purged", e);
+            }
+        }
+        Collections.sort(oldestFiles, new Comparator<FileStat>() {
+            @Override
+            public int compare(FileStat first, FileStat second) {
+                return Long.compare(first.getCreationTime(), second.getCreationTime());
+            }
+        });
+        for (FileStat fileStat : oldestFiles) {
+            if (this.isPurged(discSpaceInBytes, discSpaceInPercents))
+                break;
+            try {
+                this.deleteFile(fileStat.getKey());
+            } catch (KeyNotExistFileStorageException e) {
+                LOGGER.info("This file was already deleted: " + fileStat.getKey(), e);
+            }
+        }
+    }
+
+    private boolean isPurged(long discSpaceInBytes, int discSpaceInPercents) {
+        return discSpaceInPercents > 0 ? this.freeSpaceInPercents() >= discSpaceInPercents : this.freeSpaceInBytes() >= discSpaceInBytes;
+    }
+
+    /**
+     * Starts the background restoring of the chunks, which are missing in the storage
+     *
+     * @param storageIndex index of the storage in the list of the storages
+     * @return started task
+     */
+
+    public RebuildTask rebuild(int storageIndex) {
+        if (storageIndex < 0 || storageIndex >= this.storages.length)
+            throw new IncorrectArgumentFileStorageException("Value of storageIndex < 0 or >= number of storages");
+        final RebuildTask rebuildTask = new RebuildTask(this, storageIndex);
+        this.executor.execute(rebuildTask);
+        return rebuildTask;
+    }
+
+    /**
+     * Replaces the failed storage by the new one and starts the background restoring of its chunks.
+     * Objects can be read while they are restored, their chunks are decoded from the other storages
+     *
+     * @param storageIndex index of the replaced storage in the list of the storages
+     * @param storage      new storage
+     * @return started rebuild of the new storage
+     */
+
+    public RebuildTask replaceStorage(int storageIndex, FileStorage storage) {
+        if (storage == null)
+            throw new IncorrectArgumentFileStorageException("Value of storage is null");
+        synchronized (this) {
+            if (storageIndex < 0 || storageIndex >= this.storages.length)
+                throw new IncorrectArgumentFileStorageException("Value of storageIndex < 0 or >= number of storages");
+            final FileStorage[] storages = this.storages.clone();
+            storages[storageIndex] = storage;
+            this.storages = storages;
+        }
+        LOGGER.info("Storage " + storageIndex + " is replaced, its chunks are rebuilt in the background");
+        return this.rebuild(storageIndex);
+    }
+
+    /**
+     * Restores the chunk of the object, which belongs to the storage, if it's missing
+     *
+     * @return {@code true} if the chunk was restored
+     */
+
+    boolean rebuildChunk(String key, int storageIndex) {
+        final FileStorage[] storages = this.storages;
+        final int chunkIndex = Math.floorMod(storageIndex - this.firstStorage(key, storages.length), storages.length);
+        if (chunkIndex >= this.dataChunks + this.parityChunks || storages[storageIndex].exists(key))
+            return false;
+
+        final FileStorage[] placement = this.placement(key, storages);
+        final long expirationTime;
+        final StripeReader stripeReader;
+        try {
+            expirationTime = this.stat(key).getExpirationTime();
+            stripeReader = this.openObject(key, placement, chunkIndex);
+        } catch (KeyNotExistFileStorageException e) {
+            // Object was deleted after listing
+            return false;
+        }
+        try {
+            final long fileLifeTime = expirationTime > 0 ? expirationTime - new Date().getTime() : 0;
+            if (chunkIndex >= stripeReader.getFormat().getChunks() || (expirationTime > 0 && fileLifeTime <= 0))
+                return false;
+            this.saveRebuiltChunk(key, placement[chunkIndex], stripeReader, chunkIndex, fileLifeTime);
+            return true;
+        } finally {
+            stripeReader.close();
+        }
+    }
+
+    private void saveRebuiltChunk(String key, FileStorage storage, StripeReader stripeReader, int chunkIndex, long fileLifeTime) {
+        final ChunkFormat format = stripeReader.getFormat();
+        final byte[][] dataCells = new byte[format.dataChunks][format.cellSize];
+        final byte[][] rows = new byte[][]{this.codecOf(format).getRow(chunkIndex)};
+        final byte[][] cells = new byte[1][format.cellSize];
+        final ChunkPipe pipe = new ChunkPipe(MAX_PENDING_RECORDS);
+        final Future<Void> saving = this.startSaving(key, storage, pipe, fileLifeTime);
+        try {
+            pipe.write(new ChunkFormat(format.dataChunks, format.parityChunks, chunkIndex, format.cellSize).header());
+            while (stripeReader.readStripe(dataCells) >= 0) {
+                if (chunkIndex < format.dataChunks)
+                    cells[0] = dataCells[chunkIndex];
+                else
+                    ReedSolomon.codeRows(rows, dataCells, cells, format.cellSize);
+                pipe.write(ChunkFormat.cellRecord(cells[0], format.cellSize));
+            }
+            pipe.write(ChunkFormat.trailer(stripeReader.getObjectSize(), stripeReader.getObjectChecksum()));
+            pipe.finish();
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            pipe.abort();
+            awaitSaving(saving);
+            if (e instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            throw new ReadWriteFileStorageException("Can't restore the chunk " + chunkIndex, key, e);
+        }
+        final Throwable failure = awaitSaving(saving);
+        if (failure != null)
+            throw new ReadWriteFileStorageException("Can't save the restored chunk " + chunkIndex, key, failure);
+    }
+
+    /**
+     * Returns storages of the chunks of the object by the indexes of the chunks
+     */
+
+    private FileStorage[] placement(String key) {
+        return this.placement(key, this.storages);
+    }
+
+    private FileStorage[] placement(String key, FileStorage[] storages) {
+        final int firstStorage = this.firstStorage(key, storages.length);
+        final FileStorage[] placement = new FileStorage[this.dataChunks + this.parityChunks];
+        for (int index = 0; index < placement.length; index++)
+            placement[index] = storages[(firstStorage + index) % storages.length];
+        return placement;
+    }
+
+    private int firstStorage(String key, int numberOfStorages) {
+        if (key == null)
+            throw new IncorrectArgumentFileStorageException("Value of key is null");
+        return Math.floorMod(KeyHashing.hash32(key), numberOfStorages);
+    }
+
+    private static int readFully(InputStream inputStream, byte[] buffer, int length) throws IOException {
+        int position = 0;
+        while (position < length) {
+            final int read = inputStream.read(buffer, position, length - position);
+            if (read < 0)
+                break;
+            position += read;
+        }
+        return position;
+    }
+
+    private static void closeQuietly(Closeable closeable, String key) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            LOGGER.warn("Can't close the chunk of " + key, e);
+        }
+    }
+
+    /**
+     * Iterator of the keys of the first n - k + 1 storages. Cursor is the index of the current storage
+     * and the cursor of its own iterator
+     */
+
+    private class ChunkKeysIterator implements KeyIterator {
+
+        private final FileStorage[] storages;
+        private final String prefix;
+        private int storageIndex;
+        private KeyIterator keys;
+        private String nextKey;
+        private String nextCursor;
+        private String cursor;
+
+        private ChunkKeysIterator(FileStorage[] storages, String prefix, String cursor) {
+            this.storages = storages;
+            this.prefix = prefix;
+            this.cursor = cursor;
+            String storageCursor = null;
+            if (cursor != null) {
+                final int separator = cursor.indexOf(':');
+                try {
+                    this.storageIndex = Integer.parseInt(cursor.substring(0, Math.max(separator, 0)));
+                } catch (NumberFormatException e) {
+                    throw new IncorrectArgumentFileStorageException("Incorrect cursor: " + cursor);
+                }
+                if (this.storageIndex < 0 || this.storageIndex >= this.getListingStorages())
+                    throw new IncorrectArgumentFileStorageException("Incorrect cursor: " + cursor);
+                storageCursor = cursor.substring(separator + 1);
+            }
+            this.keys = storages[this.storageIndex].keyIterator(prefix, storageCursor);
+        }
+
+        private int getListingStorages() {
+            return this.storages.length - dataChunks + 1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.nextKey == null) {
+                if (this.keys.hasNext()) {
+                    final String key = this.keys.next();
+                    if (this.isListed(key)) {
+                        this.nextKey = key;
+                        this.nextCursor = this.storageIndex + ":" + this.keys.getCursor();
+                    }
+                } else if (this.storageIndex + 1 < this.getListingStorages()) {
+                    this.storageIndex++;
+                    this.keys = this.storages[this.storageIndex].keyIterator(this.prefix, null);
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Checks, that the chunk of the current storage belongs to the object, and the previous listing storages
+         * don't have its chunks
+         */
+
+        private boolean isListed(String key) {
+            final int firstStorage = firstStorage(key, this.storages.length);
+            final int chunks = dataChunks + parityChunks;
+            if (Math.floorMod(this.storageIndex - firstStorage, this.storages.length) >= chunks)
+                return false;
+            for (int index = 0; index < this.storageIndex; index++) {
+                if (Math.floorMod(index - firstStorage, this.storages.length) < chunks && this.storages[index].exists(key))
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public String next() {
+            if (!this.hasNext())
+                throw new NoSuchElementException();
+            final String key = this.nextKey;
+            this.nextKey = null;
+            this.cursor = this.nextCursor;
+            return key;
+        }
+
+        @Override
+        public String getCursor() {
+            return this.cursor;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.filipov.fileservice.ErasureCodedFileStorageImpl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * Content of the erasure coded object. Next stripe is read and decoded in the background, while the current one
+ * is returned, and the checksum of the whole object is verified at its end
+ *
+ * @author Yevhen Filipov
+ */
+
+class ErasureCodedInputStream extends InputStream {
+
+    private final StripeReader reader;
+    private final ExecutorService executor;
+    private final int cellSize;
+    // Current stripe is returned from one buffer, while the next one is read to the other
+    private final Stripe[] stripes = new Stripe[2];
+    private final CRC32 checksum = new CRC32();
+    private Future<Stripe> nextStripe;
+    private Stripe stripe;
+    private int position;
+    private long readStripes;
+    private long objectSize;
+    private boolean finished;
+
+    ErasureCodedInputStream(StripeReader reader, ExecutorService executor) {
+        this.reader = reader;
+        this.executor = executor;
+        this.cellSize = reader.getFormat().cellSize;
+        for (int i = 0; i < this.stripes.length; i++)
+            this.stripes[i] = new Stripe(new byte[reader.getFormat().dataChunks][this.cellSize]);
+        this.nextStripe = this.readNextStripe();
+    }
+
+    private Future<Stripe> readNextStripe() {
+        final Stripe stripe = this.stripes[(int) (this.readStripes++ % this.stripes.length)];
+        return this.executor.submit(new Callable<Stripe>() {
+            @Override
+            public Stripe call() throws IOException {
+                stripe.size = reader.readStripe(stripe.cells);
+                return stripe;
+            }
+        });
+    }
+
+    private Stripe takeStripe() throws IOException {
+        try {
+            final Stripe stripe = this.nextStripe.get();
+            this.nextStripe = stripe.size >= 0 ? this.readNextStripe() : null;
+            return stripe;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Reading was interrupted", e);
+        } catch (ExecutionException e) {
+            this.nextStripe = null;
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] single = new byte[1];
+        return this.read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0)
+            return 0;
+        while (this.stripe == null || this.position == this.stripe.size) {
+            if (this.finished)
+                return -1;
+            if (this.nextStripe == null)
+                throw new IOException("Stream is closed or failed");
+            this.stripe = this.takeStripe();
+            this.position = 0;
+            if (this.stripe.size < 0) {
+                this.finished = true;
+                this.verify();
+                return -1;
+            }
+        }
+        final int cellOffset = this.position % this.cellSize;
+        final int read = Math.min(length, Math.min(this.cellSize - cellOffset, this.stripe.size - this.position));
+        System.arraycopy(this.stripe.cells[this.position / this.cellSize], cellOffset, bytes, offset, read);
+        this.checksum.update(bytes, offset, read);
+        this.position += read;
+        this.objectSize += read;
+        return read;
+    }
+
+    private void verify() throws IOException {
+        if (this.objectSize != this.reader.getObjectSize() || (int) this.checksum.getValue() != this.reader.getObjectChecksum())
+            throw new IOException("Checksum of the object doesn't match");
+    }
+
+    @Override
+    public void close() {
+        // Background reading can't be interrupted safely, so it's finished before the chunks are closed
+        if (this.nextStripe != null) {
+            try {
+                this.nextStripe.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // The object isn't read anymore
+            }
+            this.nextStripe = null;
+        }
+        this.finished = true;
+        this.reader.close();
+    }
+
+    private static class Stripe {
+
+        private final byte[][] cells;
+        private int size;
+
+        private Stripe(byte[][] cells) {
+            this.cells = cells;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.filipov.fileservice.ErasureCodedFileStorageImpl;
+
+import org.apache.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background rebuild of the chunks, which are missing in one storage, for example after the replacement of the failed root.
+ * Missing chunk is restored from the other chunks of its object. Objects, which can't be restored, are counted as failed
+ * and are skipped. Task can be cancelled between any two objects, already restored chunks stay restored
+ *
+ * @author Yevhen Filipov
+ */
+
+public class RebuildTask implements Runnable {
+
+    private final static Logger LOGGER = Logger.getLogger(RebuildTask.class);
+
+    private final ErasureCodedFileStorageImpl fileStorage;
+    private final int storageIndex;
+    private final CountDownLatch completion = new CountDownLatch(1);
+
+    private volatile boolean cancelled;
+    private volatile long rebuiltFiles;
+    private volatile long failedFiles;
+    private volatile RuntimeException failure;
+
+    RebuildTask(ErasureCodedFileStorageImpl fileStorage, int storageIndex) {
+        this.fileStorage = fileStorage;
+        this.storageIndex = storageIndex;
+    }
+
+    @Override
+    public void run() {
+        try {
+            final Iterator<String> keys = this.fileStorage.keyIterator(null, null);
+            while (!this.cancelled && keys.hasNext()) {
+                final String key = keys.next();
+                try {
+                    if (this.fileStorage.rebuildChunk(key, this.storageIndex))
+                        this.rebuiltFiles++;
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Chunk of " + key + " can't be rebuilt in the storage " + this.storageIndex, e);
+                    this.failedFiles++;
+                }
+            }
+            LOGGER.info("Rebuild of the storage " + this.storageIndex + " is finished: " + this.rebuiltFiles
+                    + " chunks are rebuilt, " + this.failedFiles + " failed");
+        } catch (RuntimeException e) {
+            this.failure = e;
+            throw e;
+        } finally {
+            this.completion.countDown();
+        }
+    }
+
+    /**
+     * Stops this task after the current object
+     */
+
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    public boolean isDone() {
+        return this.completion.getCount() == 0;
+    }
+
+    /**
+     * Waits until this task will be finished or cancelled
+     *
+     * @param timeout max time to wait in milliseconds
+     * @return {@code true} if task is finished
+     * @throws InterruptedException if current thread was interrupted while waiting
+     * @throws com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException if the keys of the storage can't be listed
+     */
+
+    public boolean await(long timeout) throws InterruptedException {
+        final boolean finished = this.completion.await(timeout, TimeUnit.MILLISECONDS);
+        if (finished && this.failure != null)
+            throw this.failure;
+        return finished;
+    }
+
+    /**
+     * Returns number of the objects, which chunks are already restored by this task
+     *
+     * @return number of the rebuilt chunks
+     */
+
+    public long getRebuiltFiles() {
+        return this.rebuiltFiles;
+    }
+
+    /**
+     * Returns number of the objects, which chunks can't be restored, for example because too many chunks are lost
+     *
+     * @return number of the failed objects
+     */
+
+    public long getFailedFiles() {
+        return this.failedFiles;
+    }
+}
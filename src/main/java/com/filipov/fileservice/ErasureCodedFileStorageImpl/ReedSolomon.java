@@ -0,0 +1,178 @@
+package com.filipov.fileservice.ErasureCodedFileStorageImpl;
+
+import java.util.Arrays;
+
+/**
+ * Systematic Reed-Solomon code over GF(2^8): k data chunks are stored as is and m parity chunks are their linear
+ * combinations, so any k of the k + m chunks restore the rest. Encoding matrix is the Vandermonde matrix, multiplied by
+ * the inverse of its top square, so any k rows of it are invertible
+ *
+ * @author Yevhen Filipov
+ */
+
+class ReedSolomon {
+
+    // Generator polynomial x^8 + x^4 + x^3 + x^2 + 1
+    private final static int POLYNOMIAL = 0x11d;
+    private final static int[] EXP = new int[510];
+    private final static int[] LOG = new int[256];
+    private final static byte[][] MULTIPLICATION = new byte[256][256];
+
+    static {
+        int value = 1;
+        for (int power = 0; power < 255; power++) {
+            EXP[power] = value;
+            LOG[value] = power;
+            value <<= 1;
+            if ((value & 0x100) != 0)
+                value ^= POLYNOMIAL;
+        }
+        for (int power = 255; power < EXP.length; power++)
+            EXP[power] = EXP[power - 255];
+        for (int a = 1; a < 256; a++) {
+            for (int b = 1; b < 256; b++)
+                MULTIPLICATION[a][b] = (byte) EXP[LOG[a] + LOG[b]];
+        }
+    }
+
+    private final int dataChunks;
+    private final int parityChunks;
+    private final byte[][] matrix;
+
+    ReedSolomon(int dataChunks, int parityChunks) {
+        this.dataChunks = dataChunks;
+        this.parityChunks = parityChunks;
+        final int chunks = dataChunks + parityChunks;
+        final byte[][] vandermonde = new byte[chunks][dataChunks];
+        for (int row = 0; row < chunks; row++) {
+            for (int column = 0; column < dataChunks; column++)
+                vandermonde[row][column] = (byte) power(row, column);
+        }
+        final byte[][] top = new byte[dataChunks][];
+        System.arraycopy(vandermonde, 0, top, 0, dataChunks);
+        this.matrix = multiply(vandermonde, invert(top));
+    }
+
+    int getDataChunks() {
+        return dataChunks;
+    }
+
+    int getParityChunks() {
+        return parityChunks;
+    }
+
+    /**
+     * Returns coefficients of the chunk by the data chunks
+     */
+
+    byte[] getRow(int chunk) {
+        return this.matrix[chunk];
+    }
+
+    /**
+     * Returns coefficients of the target chunks by the available chunks
+     *
+     * @param availableChunks indexes of k available chunks
+     * @param targetChunks    indexes of the restored chunks
+     * @return rows of the coefficients, one for each target chunk
+     */
+
+    byte[][] decodingRows(int[] availableChunks, int[] targetChunks) {
+        final byte[][] available = new byte[this.dataChunks][];
+        for (int i = 0; i < this.dataChunks; i++)
+            available[i] = this.matrix[availableChunks[i]];
+        final byte[][] inverse = invert(available);
+        final byte[][] targets = new byte[targetChunks.length][];
+        for (int i = 0; i < targetChunks.length; i++)
+            targets[i] = this.matrix[targetChunks[i]];
+        return multiply(targets, inverse);
+    }
+
+    /**
+     * Calculates outputs[r] = sum of rows[r][c] * inputs[c] for the first length bytes
+     */
+
+    static void codeRows(byte[][] rows, byte[][] inputs, byte[][] outputs, int length) {
+        for (int row = 0; row < rows.length; row++) {
+            final byte[] output = outputs[row];
+            Arrays.fill(output, 0, length, (byte) 0);
+            for (int column = 0; column < inputs.length; column++) {
+                final int coefficient = rows[row][column] & 0xff;
+                if (coefficient == 0)
+                    continue;
+                final byte[] input = inputs[column];
+                if (coefficient == 1) {
+                    for (int i = 0; i < length; i++)
+                        output[i] ^= input[i];
+                    continue;
+                }
+                final byte[] products = MULTIPLICATION[coefficient];
+                for (int i = 0; i < length; i++)
+                    output[i] ^= products[input[i] & 0xff];
+            }
+        }
+    }
+
+    private static int power(int value, int exponent) {
+        if (exponent == 0)
+            return 1;
+        if (value == 0)
+            return 0;
+        return EXP[LOG[value] * exponent % 255];
+    }
+
+    private static int multiply(int a, int b) {
+        return MULTIPLICATION[a][b] & 0xff;
+    }
+
+    private static byte[][] multiply(byte[][] left, byte[][] right) {
+        final byte[][] result = new byte[left.length][right[0].length];
+        for (int row = 0; row < left.length; row++) {
+            for (int column = 0; column < right[0].length; column++) {
+                int value = 0;
+                for (int i = 0; i < right.length; i++)
+                    value ^= multiply(left[row][i] & 0xff, right[i][column] & 0xff);
+                result[row][column] = (byte) value;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Inverts the square matrix by Gauss-Jordan elimination
+     */
+
+    private static byte[][] invert(byte[][] matrix) {
+        final int size = matrix.length;
+        final byte[][] work = new byte[size][size * 2];
+        for (int row = 0; row < size; row++) {
+            System.arraycopy(matrix[row], 0, work[row], 0, size);
+            work[row][size + row] = 1;
+        }
+        for (int column = 0; column < size; column++) {
+            int pivot = column;
+            while (pivot < size && work[pivot][column] == 0)
+                pivot++;
+            if (pivot == size)
+                throw new IllegalArgumentException("Matrix is singular");
+            final byte[] pivotRow = work[pivot];
+            work[pivot] = work[column];
+            work[column] = pivotRow;
+
+            final int inverse = EXP[255 - LOG[pivotRow[column] & 0xff]];
+            for (int i = 0; i < size * 2; i++)
+                pivotRow[i] = (byte) multiply(pivotRow[i] & 0xff, inverse);
+            for (int row = 0; row < size; row++) {
+                final int factor = work[row][column] & 0xff;
+                if (row == column || factor == 0)
+                    continue;
+                for (int i = 0; i < size * 2; i++)
+                    work[row][i] ^= multiply(pivotRow[i] & 0xff, factor);
+            }
+        }
+        final byte[][] inverse = new byte[size][size];
+        for (int row = 0; row < size; row++)
+            System.arraycopy(work[row], size, inverse[row], 0, size);
+        return inverse;
+    }
+}
@@ -0,0 +1,303 @@
+package com.filipov.fileservice.ErasureCodedFileStorageImpl;
+
+import com.filipov.fileservice.FileStorage;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the object by stripes from k chunks in parallel. Data chunks are preferred, so the healthy object isn't decoded.
+ * Chunk, which is missing, can't be read or has damaged cell, is replaced by another chunk from the same stripe,
+ * and the missing data cells are restored from the read ones
+ *
+ * @author Yevhen Filipov
+ */
+
+class StripeReader implements Closeable {
+
+    private final static Logger LOGGER = Logger.getLogger(StripeReader.class);
+
+    private final String key;
+    // Storages of the chunks by their indexes
+    private final FileStorage[] storages;
+    private final ExecutorService executor;
+    private final ChunkFormat format;
+    private final ReedSolomon codec;
+    private final boolean[] unavailable;
+    private final List<Chunk> chunks = new ArrayList<Chunk>();
+    private long stripe;
+    private boolean lastStripe;
+    private long objectSize;
+    private int objectChecksum;
+    private int[] decodedChunks;
+    private byte[][] decodingRows;
+
+    /**
+     * @param firstChunk    stream of the first found chunk after its header. Chunks with the lower indexes weren't found
+     * @param firstFormat   header of the first found chunk
+     * @param excludedChunk index of the chunk, which shouldn't be read, -1 if all chunks can be read
+     */
+
+    StripeReader(String key, FileStorage[] storages, ExecutorService executor, DataInputStream firstChunk, ChunkFormat firstFormat,
+                 ReedSolomon codec, int excludedChunk) throws IOException {
+        this.key = key;
+        this.storages = storages;
+        this.executor = executor;
+        this.format = firstFormat;
+        this.codec = codec;
+        this.unavailable = new boolean[firstFormat.getChunks()];
+        if (excludedChunk >= 0 && excludedChunk < this.unavailable.length)
+            this.unavailable[excludedChunk] = true;
+
+        for (int index = 0; index <= firstFormat.index; index++)
+            this.unavailable[index] = true;
+        final Chunk chunk = new Chunk(firstFormat.index, firstChunk);
+        try {
+            chunk.readFlag();
+            this.chunks.add(chunk);
+            this.openChunks();
+        } catch (IOException e) {
+            this.close();
+            chunk.close();
+            throw e;
+        }
+    }
+
+    ChunkFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Reads the next stripe
+     *
+     * @param dataCells receives the data cells of the stripe, k arrays of the cell size
+     * @return number of the object bytes in the stripe, -1 after the last stripe
+     * @throws IOException if less than k chunks can be read
+     */
+
+    int readStripe(byte[][] dataCells) throws IOException {
+        if (this.lastStripe)
+            return -1;
+
+        List<Chunk> unreadChunks = new ArrayList<Chunk>(this.chunks);
+        while (!unreadChunks.isEmpty()) {
+            final List<Chunk> failedChunks = this.readCells(unreadChunks);
+            if (failedChunks.isEmpty())
+                break;
+            this.chunks.removeAll(failedChunks);
+            final int readChunks = this.chunks.size();
+            this.openChunks();
+            unreadChunks = new ArrayList<Chunk>(this.chunks.subList(readChunks, this.chunks.size()));
+        }
+
+        this.decode(dataCells);
+        this.stripe++;
+        final Chunk chunk = this.chunks.get(0);
+        final long stripeSize = (long) this.format.dataChunks * this.format.cellSize;
+        if (chunk.flag == ChunkFormat.TRAILER_FLAG) {
+            this.lastStripe = true;
+            this.objectSize = chunk.objectSize;
+            this.objectChecksum = chunk.objectChecksum;
+            return (int) Math.max(0, Math.min(stripeSize, this.objectSize - (this.stripe - 1) * stripeSize));
+        }
+        return (int) stripeSize;
+    }
+
+    /**
+     * @return size of the object, it's known after the last stripe
+     */
+
+    long getObjectSize() {
+        return objectSize;
+    }
+
+    /**
+     * @return CRC32 of the object, it's known after the last stripe
+     */
+
+    int getObjectChecksum() {
+        return objectChecksum;
+    }
+
+    /**
+     * Reads the cells of the current stripe in parallel
+     *
+     * @return chunks, which failed
+     */
+
+    private List<Chunk> readCells(List<Chunk> unreadChunks) {
+        final List<Chunk> failedChunks = new ArrayList<Chunk>();
+        final List<Future<?>> reads = new ArrayList<Future<?>>();
+        for (int i = 1; i < unreadChunks.size(); i++) {
+            final Chunk chunk = unreadChunks.get(i);
+            reads.add(this.executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    chunk.readCell();
+                    return null;
+                }
+            }));
+        }
+        try {
+            unreadChunks.get(0).readCell();
+        } catch (IOException e) {
+            this.fail(unreadChunks.get(0), e, failedChunks);
+        }
+        for (int i = 0; i < reads.size(); i++) {
+            try {
+                reads.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.fail(unreadChunks.get(i + 1), e, failedChunks);
+            } catch (ExecutionException e) {
+                this.fail(unreadChunks.get(i + 1), e.getCause(), failedChunks);
+            }
+        }
+        return failedChunks;
+    }
+
+    private void fail(Chunk chunk, Throwable failure, List<Chunk> failedChunks) {
+        LOGGER.warn("Chunk " + chunk.index + " of " + this.key + " can't be read, it's restored from other chunks", failure);
+        chunk.close();
+        failedChunks.add(chunk);
+    }
+
+    /**
+     * Opens available chunks, until k chunks are opened. Data chunks are opened before the parity ones
+     */
+
+    private void openChunks() throws IOException {
+        for (int index = 0; index < this.unavailable.length && this.chunks.size() < this.format.dataChunks; index++) {
+            if (this.unavailable[index])
+                continue;
+            this.unavailable[index] = true;
+            final Chunk chunk = this.openChunk(index);
+            if (chunk != null)
+                this.chunks.add(chunk);
+        }
+        if (this.chunks.size() < this.format.dataChunks)
+            throw new IOException("Only " + this.chunks.size() + " of " + this.format.dataChunks + " required chunks of "
+                    + this.key + " can be read");
+    }
+
+    private Chunk openChunk(int index) {
+        final DataInputStream input;
+        try {
+            input = new DataInputStream(this.storages[index].readFile(this.key));
+        } catch (Exception e) {
+            LOGGER.debug("Chunk " + index + " of " + this.key + " isn't available", e);
+            return null;
+        }
+        final Chunk chunk = new Chunk(index, input);
+        try {
+            final ChunkFormat chunkFormat = ChunkFormat.readHeader(input);
+            if (chunkFormat.index != index || chunkFormat.dataChunks != this.format.dataChunks
+                    || chunkFormat.parityChunks != this.format.parityChunks || chunkFormat.cellSize != this.format.cellSize)
+                throw new IOException("Chunk belongs to other object");
+            ChunkFormat.skipFully(input, this.stripe * this.format.getRecordSize());
+            chunk.readFlag();
+            return chunk;
+        } catch (IOException e) {
+            LOGGER.warn("Chunk " + index + " of " + this.key + " is damaged", e);
+            chunk.close();
+            return null;
+        }
+    }
+
+    private void decode(byte[][] dataCells) {
+        final int[] missingChunks = new int[this.format.dataChunks];
+        int missing = 0;
+        final int[] readChunks = new int[this.format.dataChunks];
+        final byte[][] readCells = new byte[this.format.dataChunks][];
+        final boolean[] present = new boolean[this.format.dataChunks];
+        for (int i = 0; i < this.chunks.size(); i++) {
+            final Chunk chunk = this.chunks.get(i);
+            readChunks[i] = chunk.index;
+            readCells[i] = chunk.cell;
+            if (chunk.index < this.format.dataChunks) {
+                System.arraycopy(chunk.cell, 0, dataCells[chunk.index], 0, this.format.cellSize);
+                present[chunk.index] = true;
+            }
+        }
+        for (int index = 0; index < this.format.dataChunks; index++) {
+            if (!present[index])
+                missingChunks[missing++] = index;
+        }
+        if (missing == 0)
+            return;
+
+        final int[] decodedChunks = Arrays.copyOf(readChunks, readChunks.length + missing);
+        System.arraycopy(missingChunks, 0, decodedChunks, readChunks.length, missing);
+        if (!Arrays.equals(decodedChunks, this.decodedChunks)) {
+            this.decodingRows = this.codec.decodingRows(readChunks, Arrays.copyOf(missingChunks, missing));
+            this.decodedChunks = decodedChunks;
+        }
+        final byte[][] outputs = new byte[missing][];
+        for (int i = 0; i < missing; i++)
+            outputs[i] = dataCells[missingChunks[i]];
+        ReedSolomon.codeRows(this.decodingRows, readCells, outputs, this.format.cellSize);
+    }
+
+    @Override
+    public void close() {
+        for (Chunk chunk : this.chunks)
+            chunk.close();
+        this.chunks.clear();
+    }
+
+    /**
+     * Opened chunk, which is read by one thread at a time
+     */
+
+    private class Chunk {
+
+        private final int index;
+        private final DataInputStream input;
+        private final byte[] cell = new byte[format.cellSize];
+        // Flag of the next record
+        private int flag;
+        private long objectSize;
+        private int objectChecksum;
+
+        private Chunk(int index, DataInputStream input) {
+            this.index = index;
+            this.input = input;
+        }
+
+        private void readFlag() throws IOException {
+            this.flag = this.input.readUnsignedByte();
+            if (this.flag == ChunkFormat.TRAILER_FLAG) {
+                this.objectSize = this.input.readLong();
+                this.objectChecksum = this.input.readInt();
+            } else if (this.flag != ChunkFormat.CELL_FLAG) {
+                throw new IOException("Damaged record of the chunk");
+            }
+        }
+
+        private void readCell() throws IOException {
+            if (this.flag != ChunkFormat.CELL_FLAG)
+                throw new IOException("Chunk is shorter than the other chunks");
+            this.input.readFully(this.cell);
+            final CRC32 checksum = new CRC32();
+            checksum.update(this.cell, 0, this.cell.length);
+            if (this.input.readInt() != (int) checksum.getValue())
+                throw new IOException("Checksum of the cell " + stripe + " doesn't match");
+            this.readFlag();
+        }
+
+        private void close() {
+            try {
+                this.input.close();
+            } catch (IOException e) {
+                LOGGER.warn("Can't close chunk " + this.index + " of " + key, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.filipov.fileservice;
+
+/**
+ * Metadata of the stored file
+ *
+ * @author Yevhen Filipov
+ */
+
+public class FileStat {
+
+    private final String key;
+    private final long size;
+    private final long storedSize;
+    private final long creationTime;
+    private final long expirationTime;
+    private final boolean checksumKnown;
+    private final long checksum;
+    private final long version;
+
+    /**
+     * Creates metadata of the stored file
+     *
+     * @param key            the key of the file
+     * @param size           size of the file in bites
+     * @param creationTime   creation time of the file in milliseconds
+     * @param expirationTime expiration time of the file in milliseconds, 0 if file doesn't expire
+     * @param checksumKnown  {@code true} if checksum of the file is known
+     * @param checksum       CRC32 of the file content
+     */
+
+    public FileStat(String key, long size, long creationTime, long expirationTime, boolean checksumKnown, long checksum) {
+        this(key, size, size, creationTime, expirationTime, checksumKnown, checksum);
+    }
+
+    /**
+     * Creates metadata of the stored file, which may be compressed
+     *
+     * @param key            the key of the file
+     * @param size           size of the file content in bites
+     * @param storedSize     size of the file on the disc in bites
+     * @param creationTime   creation time of the file in milliseconds
+     * @param expirationTime expiration time of the file in milliseconds, 0 if file doesn't expire
+     * @param checksumKnown  {@code true} if checksum of the file is known
+     * @param checksum       CRC32 of the file content
+     */
+
+    public FileStat(String key, long size, long storedSize, long creationTime, long expirationTime, boolean checksumKnown, long checksum) {
+        this(key, size, storedSize, creationTime, expirationTime, checksumKnown, checksum, 1);
+    }
+
+    /**
+     * Creates metadata of the stored file, which content may be replaced
+     *
+     * @param key            the key of the file
+     * @param size           size of the file content in bites
+     * @param storedSize     size of the file on the disc in bites
+     * @param creationTime   creation time of the current content in milliseconds
+     * @param expirationTime expiration time of the file in milliseconds, 0 if file doesn't expire
+     * @param checksumKnown  {@code true} if checksum of the file is known
+     * @param checksum       CRC32 of the file content
+     * @param version        version of the file content, 1 for the first saved content
+     */
+
+    public FileStat(String key, long size, long storedSize, long creationTime, long expirationTime, boolean checksumKnown, long checksum,
+                    long version) {
+        this.key = key;
+        this.size = size;
+        this.storedSize = storedSize;
+        this.creationTime = creationTime;
+        this.expirationTime = expirationTime;
+        this.checksumKnown = checksumKnown;
+        this.checksum = checksum;
+        this.version = version;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns size of the file on the disc, it's less than size of the content if file is compressed
+     *
+     * @return size of the file on the disc in bites
+     */
+
+    public long getStoredSize() {
+        return storedSize;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    /**
+     * Returns expiration time of the file
+     *
+     * @return expiration time of the file in milliseconds, 0 if file doesn't expire
+     */
+
+    public long getExpirationTime() {
+        return expirationTime;
+    }
+
+    public boolean isExpirationFile() {
+        return expirationTime > 0;
+    }
+
+    /**
+     * Returns {@code false} for the files, which were saved by the previous versions of the storage
+     *
+     * @return {@code true} if checksum of the file is known
+     */
+
+    public boolean isChecksumKnown() {
+        return checksumKnown;
+    }
+
+    /**
+     * Returns CRC32 of the file content
+     *
+     * @return CRC32 of the file content (0..2^32-1)
+     */
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Returns version of the file content, which is incremented each time the content is replaced
+     *
+     * @return version of the file content
+     */
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "FileStat{key='" + key + "', size=" + size + ", version=" + version + ", creationTime=" + creationTime +
+                ", expirationTime=" + expirationTime + ", checksum=" + (checksumKnown ? Long.toHexString(checksum) : "unknown") + "}";
+    }
+}
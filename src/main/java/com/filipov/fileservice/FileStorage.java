@@ -12,6 +12,7 @@ import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExist
 import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.NoFreeSpaceFileStorageException;
 
 import java.io.InputStream;
+import java.util.stream.Stream;
 
 public interface FileStorage {
 
@@ -61,6 +62,54 @@ public interface FileStorage {
 
     void deleteFile(String key) throws KeyNotExistFileStorageException;
 
+    /**
+     * Returns metadata of the file with specific key. Doesn't open the file
+     *
+     * @param key specific file key
+     * @return metadata of this file
+     * @throws KeyNotExistFileStorageException if the file, associated with this key doesn't exist
+     */
+
+    FileStat stat(String key) throws KeyNotExistFileStorageException;
+
+    /**
+     * Checks existence of the file with specific key. Doesn't open the file
+     *
+     * @param key specific file key
+     * @return {@code true} if the file, associated with this key exists
+     */
+
+    boolean exists(String key);
+
+    /**
+     * Returns stream of all stored keys. Keys are read lazily by small portions,
+     * parallel stream reads different parts of the storage in parallel
+     *
+     * @return stream of the stored keys
+     */
+
+    Stream<String> keys();
+
+    /**
+     * Returns stream of the stored keys, which start with the prefix
+     *
+     * @param prefix prefix of the keys
+     * @return stream of the stored keys with this prefix
+     */
+
+    Stream<String> keys(String prefix);
+
+    /**
+     * Returns iterator of the stored keys, which can be resumed by the cursor of the previous iteration
+     *
+     * @param prefix prefix of the keys, {@code null} for all keys
+     * @param cursor cursor of the previous iteration ({@link KeyIterator#getCursor()}), {@code null} to start from the beginning
+     * @return iterator of the stored keys
+     * @throws com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException if the cursor is incorrect
+     */
+
+    KeyIterator keyIterator(String prefix, String cursor);
+
     /**
      * Returns free space of storage in bites
      *
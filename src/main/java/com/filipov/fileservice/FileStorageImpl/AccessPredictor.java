@@ -0,0 +1,160 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Predicts the next read keys by the recent reads. Two simple patterns are learned:
+ * <ul>
+ * <li>numbered keys, which are read with the constant step ("part-0007", "part-0008", ...), the sequence is recognized
+ * after three reads with the same prefix, suffix and step;</li>
+ * <li>repeated order of the keys: key, which was read after the same key last time, is expected again.</li>
+ * </ul>
+ * Number of the remembered keys and sequences is limited, the least recently used are forgotten.
+ *
+ * @author Yevhen Filipov
+ */
+
+class AccessPredictor {
+
+    private final static int MAX_SUCCESSORS = 4096;
+    private final static int MAX_SEQUENCES = 256;
+    // Longer numbers don't fit in long
+    private final static int MAX_DIGITS = 18;
+
+    private final int depth;
+    private final Map<String, String> successors = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return this.size() > MAX_SUCCESSORS;
+        }
+    };
+    private final Map<String, Sequence> sequences = new LinkedHashMap<String, Sequence>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Sequence> eldest) {
+            return this.size() > MAX_SEQUENCES;
+        }
+    };
+    private String previousKey;
+
+    /**
+     * @param depth max number of the predicted keys after each read
+     */
+
+    AccessPredictor(int depth) {
+        this.depth = depth;
+    }
+
+    /**
+     * Learns the read of the key and predicts the next reads
+     *
+     * @param key read key
+     * @return keys, which are expected to be read next, in the expected order
+     */
+
+    synchronized List<String> recordAccess(String key) {
+        if (this.previousKey != null && !this.previousKey.equals(key))
+            this.successors.put(this.previousKey, key);
+        this.previousKey = key;
+
+        final List<String> predictedKeys = new ArrayList<String>(this.depth);
+        final Sequence sequence = this.recordSequence(key);
+        if (sequence != null && sequence.isRecognized()) {
+            for (int i = 1; i <= this.depth; i++) {
+                final String predictedKey = sequence.keyAt(sequence.lastNumber + sequence.step * i);
+                if (predictedKey == null)
+                    break;
+                predictedKeys.add(predictedKey);
+            }
+            return predictedKeys;
+        }
+
+        String predictedKey = this.successors.get(key);
+        while (predictedKey != null && predictedKeys.size() < this.depth && !predictedKey.equals(key)
+                && !predictedKeys.contains(predictedKey)) {
+            predictedKeys.add(predictedKey);
+            predictedKey = this.successors.get(predictedKey);
+        }
+        return predictedKeys;
+    }
+
+    /**
+     * Notes the number of the key in its sequence
+     *
+     * @return sequence of the key, {@code null} if the key isn't numbered
+     */
+
+    private Sequence recordSequence(String key) {
+        int end = key.length();
+        while (end > 0 && !Character.isDigit(key.charAt(end - 1)))
+            end--;
+        int start = end;
+        while (start > 0 && Character.isDigit(key.charAt(start - 1)))
+            start--;
+        if (start == end || end - start > MAX_DIGITS)
+            return null;
+
+        final String prefix = key.substring(0, start);
+        final String suffix = key.substring(end);
+        final long number = Long.parseLong(key.substring(start, end));
+        // Zero padded numbers keep their width
+        final int width = key.charAt(start) == '0' && end - start > 1 ? end - start : 0;
+        final String sequenceKey = prefix + '\u0000' + suffix;
+        final Sequence sequence = this.sequences.get(sequenceKey);
+        if (sequence == null) {
+            this.sequences.put(sequenceKey, new Sequence(prefix, suffix, width, number));
+            return null;
+        }
+        sequence.record(number, width);
+        return sequence;
+    }
+
+    private static class Sequence {
+
+        private final String prefix;
+        private final String suffix;
+        private int width;
+        private long lastNumber;
+        private long step;
+        private int confirmations;
+
+        private Sequence(String prefix, String suffix, int width, long number) {
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.width = width;
+            this.lastNumber = number;
+        }
+
+        private void record(long number, int width) {
+            final long step = number - this.lastNumber;
+            if (step != 0 && step == this.step) {
+                this.confirmations++;
+            } else {
+                this.step = step;
+                this.confirmations = 0;
+            }
+            this.lastNumber = number;
+            this.width = Math.max(this.width, width);
+        }
+
+        private boolean isRecognized() {
+            return this.confirmations > 0;
+        }
+
+        /**
+         * @return key with this number, {@code null} if the number is negative
+         */
+
+        private String keyAt(long number) {
+            if (number < 0)
+                return null;
+            final StringBuilder key = new StringBuilder(this.prefix);
+            final String digits = Long.toString(number);
+            for (int i = digits.length(); i < this.width; i++)
+                key.append('0');
+            return key.append(digits).append(this.suffix).toString();
+        }
+    }
+}
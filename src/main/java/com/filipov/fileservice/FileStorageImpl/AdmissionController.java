@@ -0,0 +1,212 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.RejectedOperationFileStorageException;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of the concurrent foreground operations, separately for reads and for writes (save, delete).
+ * Operations over the limit wait in the FIFO queue, operation is rejected by {@link RejectedOperationFileStorageException}
+ * if the queue is full or the operation waited longer than max wait time.
+ * <p>
+ * Limits are adapted by AIMD: when the latency of the operation is below the target latency, the limit grows by one
+ * per the limit of the fast operations, when the latency is above the target, the limit is decreased by the backoff ratio
+ * (not more often than once per target latency). Latency of the big file is counted per megabyte.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class AdmissionController {
+
+    private final static long MEGABYTE = 1024 * 1024;
+    private final static double BACKOFF_RATIO = 0.75;
+
+    private final Lane readLane;
+    private final Lane writeLane;
+    private final int maxQueueLength;
+    private final long maxWaitTimeInNanos;
+    private final long targetLatencyInNanos;
+    private final AtomicLong rejectedOperations = new AtomicLong();
+
+    /**
+     * Creates admission control
+     *
+     * @param maxReadConcurrency  max number of the concurrent reads. Value must be > 0
+     * @param maxWriteConcurrency max number of the concurrent writes. Value must be > 0
+     * @param maxQueueLength      max number of the waiting operations of each type. Value must be >= 0
+     * @param maxWaitTime         max time in milliseconds, which operation waits in the queue
+     * @param targetLatency       latency of the operation in milliseconds, above which the limit is decreased. Value must be > 0
+     */
+
+    public AdmissionController(int maxReadConcurrency, int maxWriteConcurrency, int maxQueueLength, long maxWaitTime, long targetLatency) {
+        if (maxReadConcurrency <= 0 || maxWriteConcurrency <= 0)
+            throw new IncorrectArgumentFileStorageException("Values of maxReadConcurrency and maxWriteConcurrency must be > 0");
+        if (maxQueueLength < 0 || maxWaitTime < 0)
+            throw new IncorrectArgumentFileStorageException("Value of maxQueueLength or maxWaitTime < 0");
+        if (targetLatency <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of targetLatency <= 0");
+        this.readLane = new Lane(maxReadConcurrency);
+        this.writeLane = new Lane(maxWriteConcurrency);
+        this.maxQueueLength = maxQueueLength;
+        this.maxWaitTimeInNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitTime);
+        this.targetLatencyInNanos = TimeUnit.MILLISECONDS.toNanos(targetLatency);
+    }
+
+    /**
+     * Waits until the read can be started
+     *
+     * @param fileKey key of the read file
+     * @return start time of the operation, which is passed to {@link #endRead(long, long)}
+     * @throws RejectedOperationFileStorageException if the read isn't admitted
+     */
+
+    public long beginRead(String fileKey) {
+        return this.readLane.acquire(fileKey);
+    }
+
+    public void endRead(long startTime, long bytes) {
+        this.readLane.release(startTime, bytes);
+    }
+
+    /**
+     * Waits until the write can be started
+     *
+     * @param fileKey key of the written file
+     * @return start time of the operation, which is passed to {@link #endWrite(long, long)}
+     * @throws RejectedOperationFileStorageException if the write isn't admitted
+     */
+
+    public long beginWrite(String fileKey) {
+        return this.writeLane.acquire(fileKey);
+    }
+
+    public void endWrite(long startTime, long bytes) {
+        this.writeLane.release(startTime, bytes);
+    }
+
+    public int getReadLimit() {
+        return this.readLane.getLimit();
+    }
+
+    public int getWriteLimit() {
+        return this.writeLane.getLimit();
+    }
+
+    public long getRejectedOperations() {
+        return this.rejectedOperations.get();
+    }
+
+    private class Lane {
+
+        private final int maxLimit;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ArrayDeque<Waiter> queue = new ArrayDeque<Waiter>();
+        private int limit;
+        private int inFlight;
+        private int fastOperations;
+        private long lastDecreaseTime;
+
+        private Lane(int maxLimit) {
+            this.maxLimit = maxLimit;
+            this.limit = maxLimit;
+            this.lastDecreaseTime = System.nanoTime();
+        }
+
+        private int getLimit() {
+            this.lock.lock();
+            try {
+                return this.limit;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        private long acquire(String fileKey) {
+            this.lock.lock();
+            try {
+                if (this.queue.isEmpty() && this.inFlight < this.limit) {
+                    this.inFlight++;
+                    return System.nanoTime();
+                }
+                if (this.queue.size() >= maxQueueLength)
+                    throw this.reject("Queue of the operations is full", fileKey);
+
+                final Waiter waiter = new Waiter(this.lock.newCondition());
+                this.queue.addLast(waiter);
+                long remainingTime = maxWaitTimeInNanos;
+                while (!waiter.admitted) {
+                    if (remainingTime <= 0) {
+                        this.queue.remove(waiter);
+                        throw this.reject("Operation waited longer than " + TimeUnit.NANOSECONDS.toMillis(maxWaitTimeInNanos) + " ms", fileKey);
+                    }
+                    try {
+                        remainingTime = waiter.condition.awaitNanos(remainingTime);
+                    } catch (InterruptedException e) {
+                        if (waiter.admitted) {
+                            // Admitted operation is returned to the lane
+                            this.inFlight--;
+                            this.admitWaiters();
+                        } else {
+                            this.queue.remove(waiter);
+                        }
+                        Thread.currentThread().interrupt();
+                        throw this.reject("Operation was interrupted while waiting", fileKey);
+                    }
+                }
+                return System.nanoTime();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        private void release(long startTime, long bytes) {
+            final long now = System.nanoTime();
+            final long latency = (now - startTime) * MEGABYTE / Math.max(bytes, MEGABYTE);
+            this.lock.lock();
+            try {
+                this.inFlight--;
+                if (latency <= targetLatencyInNanos) {
+                    if (++this.fastOperations >= this.limit && this.limit < this.maxLimit) {
+                        this.limit++;
+                        this.fastOperations = 0;
+                    }
+                } else if (now - this.lastDecreaseTime >= targetLatencyInNanos) {
+                    this.limit = Math.max(1, (int) (this.limit * BACKOFF_RATIO));
+                    this.fastOperations = 0;
+                    this.lastDecreaseTime = now;
+                }
+                this.admitWaiters();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        private void admitWaiters() {
+            while (this.inFlight < this.limit && !this.queue.isEmpty()) {
+                final Waiter waiter = this.queue.pollFirst();
+                waiter.admitted = true;
+                this.inFlight++;
+                waiter.condition.signal();
+            }
+        }
+
+        private RejectedOperationFileStorageException reject(String message, String fileKey) {
+            rejectedOperations.incrementAndGet();
+            return new RejectedOperationFileStorageException(message, fileKey);
+        }
+    }
+
+    private static class Waiter {
+        private final Condition condition;
+        private boolean admitted;
+
+        private Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+}
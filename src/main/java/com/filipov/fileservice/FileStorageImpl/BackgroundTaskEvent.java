@@ -0,0 +1,51 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event of the background task of the storage: deleting of the expiration files, purge, flush of the
+ * write-behind buffer, compaction of the metadata journal, warm-up, deleting of the abandoned uploads, consistency check,
+ * snapshots and archives. Event is disabled by default, see {@link OperationEvent}
+ *
+ * @author Yevhen Filipov
+ */
+
+@Name("com.filipov.fileservice.BackgroundTask")
+@Label("File Storage Background Task")
+@Category("File Storage")
+@Description("Background task of the file storage")
+@Enabled(false)
+@StackTrace(false)
+class BackgroundTaskEvent extends Event {
+
+    @Label("Task")
+    String task;
+
+    @Label("Files")
+    @Description("Number of the processed files")
+    long files;
+
+    @Label("Bytes")
+    @Description("Number of the written, the deleted or the liberated bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Outcome")
+    @Description("OK or simple name of the thrown exception")
+    String outcome;
+
+    /**
+     * Ends the task and commits this event, if it's enabled and its duration exceeds the threshold
+     */
+
+    void finish(String task, long files, long bytes, Throwable failure) {
+        this.end();
+        if (!this.shouldCommit())
+            return;
+        this.task = task;
+        this.files = files;
+        this.bytes = bytes;
+        this.outcome = OperationEvent.outcomeOf(failure);
+        this.commit();
+    }
+}
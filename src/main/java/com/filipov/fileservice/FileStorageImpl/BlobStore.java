@@ -0,0 +1,192 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyAlreadyExistFileStorageException;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps content of the deduplicated files. Each distinct content is stored once as a blob, named by its digest,
+ * and files of the user data directory are hard links to the blobs. Blob is deleted with the last file, which refers to it.
+ * <p>
+ * Reference counts aren't persisted: they are restored from the metadata at the start, blobs without references
+ * (for example after the crash) are deleted.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class BlobStore {
+
+    private final static Logger LOGGER = Logger.getLogger(BlobStore.class);
+
+    private final Path blobsPath;
+    private final Path temporaryPath;
+    // Digest of the blob -> number of references and size of the blob
+    private final Map<String, long[]> references = new HashMap<String, long[]>();
+
+    /**
+     * Creates store of the blobs
+     *
+     * @param blobsPath path of the blobs directory
+     */
+
+    public BlobStore(String blobsPath) {
+        this.blobsPath = Paths.get(blobsPath);
+        this.temporaryPath = this.blobsPath.resolve("tmp");
+    }
+
+    /**
+     * Returns path for the new content, which digest isn't known yet
+     *
+     * @return path of the temporary file
+     */
+
+    public String createTemporaryPath() {
+        return this.temporaryPath.resolve(UUID.randomUUID().toString()).toString();
+    }
+
+    /**
+     * Adds reference to the blob. If there is no such blob, temporary file becomes the blob, otherwise it is deleted
+     *
+     * @param digest        digest of the content
+     * @param size          size of the content in bites
+     * @param temporaryFile path of the temporary file with the content
+     * @return {@code true} if new blob was created
+     * @throws ReadWriteFileStorageException if blob can't be created
+     */
+
+    public synchronized boolean acquire(String digest, long size, String temporaryFile) {
+        final long[] reference = this.references.get(digest);
+        try {
+            if (reference != null) {
+                reference[0]++;
+                Files.deleteIfExists(Paths.get(temporaryFile));
+                return false;
+            }
+            final Path blob = this.blobPath(digest);
+            Files.createDirectories(blob.getParent());
+            Files.move(Paths.get(temporaryFile), blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't create blob", digest, e);
+        }
+        this.references.put(digest, new long[]{1, size});
+        return true;
+    }
+
+    /**
+     * Creates file of the user data directory, which refers to the blob
+     *
+     * @param digest   digest of the blob
+     * @param filePath path of the file
+     * @throws KeyAlreadyExistFileStorageException if file with this path already exists
+     * @throws ReadWriteFileStorageException       if file system doesn't support hard links
+     */
+
+    public void link(String digest, String filePath) throws KeyAlreadyExistFileStorageException {
+        final Path file = Paths.get(filePath);
+        try {
+            Files.createDirectories(file.getParent());
+            Files.createLink(file, this.blobPath(digest));
+        } catch (FileAlreadyExistsException e) {
+            throw new KeyAlreadyExistFileStorageException("This key already exist", filePath);
+        } catch (IOException | UnsupportedOperationException e) {
+            throw new ReadWriteFileStorageException("Can't create link to the blob", filePath, e);
+        }
+    }
+
+    /**
+     * Removes reference to the blob, the last reference deletes the blob
+     *
+     * @param digest digest of the blob
+     * @return size of the deleted blob in bites, 0 if the blob is still referenced
+     */
+
+    public synchronized long release(String digest) {
+        final long[] reference = this.references.get(digest);
+        if (reference == null || --reference[0] > 0)
+            return 0;
+        this.references.remove(digest);
+        try {
+            Files.deleteIfExists(this.blobPath(digest));
+        } catch (IOException e) {
+            LOGGER.warn("Can't delete blob: " + digest, e);
+        }
+        return reference[1];
+    }
+
+    /**
+     * Restores reference to the blob at the start
+     *
+     * @param digest digest of the blob
+     * @param size   size of the blob in bites
+     * @return {@code true} if it's the first reference to this blob
+     */
+
+    public synchronized boolean restore(String digest, long size) {
+        final long[] reference = this.references.get(digest);
+        if (reference != null) {
+            reference[0]++;
+            return false;
+        }
+        this.references.put(digest, new long[]{1, size});
+        return true;
+    }
+
+    /**
+     * Deletes blobs without references and temporary files
+     *
+     * @return number of the deleted blobs
+     */
+
+    public synchronized int deleteUnreferencedBlobs() {
+        if (!Files.exists(this.blobsPath))
+            return 0;
+
+        final int[] deletedBlobs = new int[1];
+        try {
+            Files.walkFileTree(this.blobsPath, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    final boolean temporaryFile = file.startsWith(temporaryPath);
+                    if (temporaryFile || !references.containsKey(file.getFileName().toString())) {
+                        Files.deleteIfExists(file);
+                        if (!temporaryFile)
+                            deletedBlobs[0]++;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.warn("Can't delete unreferenced blobs: " + this.blobsPath, e);
+        }
+        if (deletedBlobs[0] > 0)
+            LOGGER.info(deletedBlobs[0] + " blobs without references were deleted");
+        return deletedBlobs[0];
+    }
+
+    public synchronized int getNumberOfBlobs() {
+        return this.references.size();
+    }
+
+    /**
+     * Returns disc space of the referenced blobs
+     *
+     * @return size of the blobs in bites
+     */
+
+    public synchronized long getSizeOfBlobs() {
+        long sizeOfBlobs = 0;
+        for (long[] reference : this.references.values())
+            sizeOfBlobs += reference[1];
+        return sizeOfBlobs;
+    }
+
+    private Path blobPath(String digest) {
+        return this.blobsPath.resolve(digest.substring(0, 2)).resolve(digest);
+    }
+}
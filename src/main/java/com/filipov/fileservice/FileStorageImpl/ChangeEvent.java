@@ -0,0 +1,75 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+/**
+ * Change of the storage, which is delivered to {@link ChangeListener}
+ *
+ * @author Yevhen Filipov
+ */
+
+public class ChangeEvent {
+
+    public enum Type {
+        /**
+         * File is saved (including completed multipart upload)
+         */
+        SAVED,
+        /**
+         * File is deleted by the client
+         */
+        DELETED,
+        /**
+         * File is deleted by the purge
+         */
+        PURGED,
+        /**
+         * Expiration file is deleted after its life time
+         */
+        EXPIRED
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final String key;
+    private final long time;
+
+    public ChangeEvent(long sequence, Type type, String key, long time) {
+        this.sequence = sequence;
+        this.type = type;
+        this.key = key;
+        this.time = time;
+    }
+
+    /**
+     * Returns number of the event. Numbers are unique and grow in the order of publishing,
+     * so the gap in the numbers shows the dropped events
+     *
+     * @return number of the event
+     */
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns key of the changed file
+     *
+     * @return key of the file, {@code null} if the key is unknown (file was found on the disc, but wasn't saved by this storage)
+     */
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent{" + sequence + ", " + type + ", " + key + "}";
+    }
+}
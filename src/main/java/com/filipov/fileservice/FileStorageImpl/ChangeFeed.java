@@ -0,0 +1,79 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes changes of the storage to the subscriptions. Without subscriptions publishing does nothing,
+ * so the callers check {@link #hasSubscriptions()} before they read the keys of the purged and expired files
+ *
+ * @author Yevhen Filipov
+ */
+
+class ChangeFeed {
+
+    private final static Logger LOGGER = Logger.getLogger(ChangeFeed.class);
+
+    private final String spillPath;
+    private final int bufferCapacity;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger subscriptionNumber = new AtomicInteger();
+    private final CopyOnWriteArrayList<ChangeSubscription> subscriptions = new CopyOnWriteArrayList<ChangeSubscription>();
+
+    /**
+     * @param spillPath      directory of the spill logs. Logs of the previous run are deleted, because their subscriptions are lost
+     * @param bufferCapacity capacity of the ring buffer of each subscription
+     */
+
+    ChangeFeed(String spillPath, int bufferCapacity) {
+        this.spillPath = spillPath;
+        this.bufferCapacity = bufferCapacity;
+        final File[] spillFiles = new File(spillPath).listFiles();
+        if (spillFiles != null) {
+            for (File spillFile : spillFiles) {
+                if (!spillFile.delete())
+                    LOGGER.warn("Can't delete spilled change events: " + spillFile);
+            }
+        }
+    }
+
+    ChangeSubscription subscribe(ChangeListener listener, OverflowPolicy overflowPolicy) {
+        if (listener == null || overflowPolicy == null)
+            throw new IncorrectArgumentFileStorageException("Value of listener or overflowPolicy is null");
+        final ChangeSubscription subscription = new ChangeSubscription(this, listener, overflowPolicy, this.bufferCapacity,
+                this.spillPath + "/subscription-" + this.subscriptionNumber.incrementAndGet() + ".spill");
+        subscription.start();
+        this.subscriptions.add(subscription);
+        return subscription;
+    }
+
+    void unsubscribe(ChangeSubscription subscription) {
+        this.subscriptions.remove(subscription);
+    }
+
+    /**
+     * Closes all subscriptions, each of them delivers the published events before that
+     */
+
+    void close() {
+        for (ChangeSubscription subscription : this.subscriptions)
+            subscription.close();
+    }
+
+    boolean hasSubscriptions() {
+        return !this.subscriptions.isEmpty();
+    }
+
+    void publish(ChangeEvent.Type type, String key) {
+        if (this.subscriptions.isEmpty())
+            return;
+        final ChangeEvent event = new ChangeEvent(this.sequence.incrementAndGet(), type, key, System.currentTimeMillis());
+        for (ChangeSubscription subscription : this.subscriptions)
+            subscription.publish(event);
+    }
+}
@@ -0,0 +1,21 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import java.util.List;
+
+/**
+ * Receiver of the changes of the storage. Events are delivered in batches by the thread of the subscription,
+ * so the listener of one subscription isn't called concurrently
+ *
+ * @author Yevhen Filipov
+ */
+
+public interface ChangeListener {
+
+    /**
+     * Handles batch of the events
+     *
+     * @param events events in the order of publishing, list is valid only during this call
+     */
+
+    void onChanges(List<ChangeEvent> events);
+}
@@ -0,0 +1,78 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer of the change events with many producers and one consumer.
+ * Producer claims the slot by CAS of the tail and publishes the event by the write to the slot,
+ * consumer takes the published events in the order of the claimed slots and clears the slots.
+ *
+ * @author Yevhen Filipov
+ */
+
+class ChangeRingBuffer {
+
+    private final AtomicReferenceArray<ChangeEvent> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    ChangeRingBuffer(int capacity) {
+        final int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new AtomicReferenceArray<ChangeEvent>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds the event, can be called by many threads
+     *
+     * @return {@code false} if the buffer is full
+     */
+
+    boolean offer(ChangeEvent event) {
+        while (true) {
+            final long currentTail = this.tail.get();
+            if (currentTail - this.head >= this.slots.length())
+                return false;
+            if (this.tail.compareAndSet(currentTail, currentTail + 1)) {
+                this.slots.lazySet((int) currentTail & this.mask, event);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Moves published events to the target list, can be called by one thread only.
+     * Stops on the first claimed slot, which isn't published yet
+     *
+     * @return number of the moved events
+     */
+
+    int drainTo(List<ChangeEvent> target, int maxEvents) {
+        long currentHead = this.head;
+        int drained = 0;
+        while (drained < maxEvents) {
+            final int index = (int) currentHead & this.mask;
+            final ChangeEvent event = this.slots.get(index);
+            if (event == null)
+                break;
+            this.slots.lazySet(index, null);
+            target.add(event);
+            currentHead++;
+            drained++;
+        }
+        // Volatile write makes the cleared slots visible to the producers before the space is released
+        this.head = currentHead;
+        return drained;
+    }
+
+    /**
+     * Checks, that all claimed slots are taken by the consumer
+     */
+
+    boolean isEmpty() {
+        return this.head == this.tail.get();
+    }
+}
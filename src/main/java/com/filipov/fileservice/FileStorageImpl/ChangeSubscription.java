@@ -0,0 +1,297 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Subscription of one listener to the changes of the storage. Events are published to the own ring buffer
+ * of the subscription and are delivered to the listener in batches by the own thread of the subscription.
+ * <p>
+ * When the buffer is full, the event is handled by the overflow policy. Spilled events are appended to the local log,
+ * while the log isn't empty all new events are spilled too, so the events are delivered in the order of publishing.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class ChangeSubscription implements Closeable {
+
+    private final static Logger LOGGER = Logger.getLogger(ChangeSubscription.class);
+    private final static int MAX_BATCH_SIZE = 256;
+    private final static long IDLE_WAIT_TIME = TimeUnit.MILLISECONDS.toNanos(10);
+    private final static long BLOCK_WAIT_TIME = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final ChangeFeed changeFeed;
+    private final ChangeListener listener;
+    private final OverflowPolicy overflowPolicy;
+    private final ChangeRingBuffer ringBuffer;
+    private final Path spillPath;
+    private final Path drainingSpillPath;
+    private final Thread dispatcher;
+    private final Object spillLock = new Object();
+    private final AtomicLong deliveredEvents = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong spilledEvents = new AtomicLong();
+
+    private volatile boolean spilling;
+    private volatile boolean waiting;
+    private volatile boolean closed;
+    private DataOutputStream spillOutput;
+    private long eventsInSpillFile;
+    private boolean draining;
+
+    ChangeSubscription(ChangeFeed changeFeed, ChangeListener listener, OverflowPolicy overflowPolicy, int bufferCapacity, String spillPath) {
+        this.changeFeed = changeFeed;
+        this.listener = listener;
+        this.overflowPolicy = overflowPolicy;
+        this.ringBuffer = new ChangeRingBuffer(bufferCapacity);
+        this.spillPath = Paths.get(spillPath);
+        this.drainingSpillPath = Paths.get(spillPath + ".draining");
+        this.dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "FileStorage change listener");
+        this.dispatcher.setDaemon(true);
+    }
+
+    void start() {
+        this.dispatcher.start();
+    }
+
+    void publish(ChangeEvent event) {
+        if (this.closed)
+            return;
+        if (!this.spilling && this.ringBuffer.offer(event)) {
+            this.wakeUp();
+            return;
+        }
+
+        switch (this.overflowPolicy) {
+            case BLOCK:
+                // Listener, which changes the storage, can't wait for itself
+                if (Thread.currentThread() != this.dispatcher && this.awaitSpace(event)) {
+                    this.wakeUp();
+                    return;
+                }
+                break;
+            case SPILL:
+                if (this.spill(event)) {
+                    this.wakeUp();
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        this.droppedEvents.incrementAndGet();
+    }
+
+    private boolean awaitSpace(ChangeEvent event) {
+        while (!this.ringBuffer.offer(event)) {
+            if (this.closed || Thread.currentThread().isInterrupted())
+                return false;
+            this.wakeUp();
+            LockSupport.parkNanos(this, BLOCK_WAIT_TIME);
+        }
+        return true;
+    }
+
+    private boolean spill(ChangeEvent event) {
+        synchronized (this.spillLock) {
+            if (!this.draining && this.eventsInSpillFile == 0 && this.ringBuffer.offer(event))
+                return true;
+            try {
+                if (this.spillOutput == null) {
+                    Files.createDirectories(this.spillPath.getParent());
+                    this.spillOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(this.spillPath,
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)));
+                }
+                writeEvent(this.spillOutput, event);
+            } catch (IOException e) {
+                LOGGER.warn("Can't spill the change event: " + event, e);
+                return false;
+            }
+            this.eventsInSpillFile++;
+            this.spilledEvents.incrementAndGet();
+            this.spilling = true;
+            return true;
+        }
+    }
+
+    private void wakeUp() {
+        if (this.waiting)
+            LockSupport.unpark(this.dispatcher);
+    }
+
+    private void dispatch() {
+        final List<ChangeEvent> batch = new ArrayList<ChangeEvent>(MAX_BATCH_SIZE);
+        while (true) {
+            if (this.ringBuffer.drainTo(batch, MAX_BATCH_SIZE) > 0) {
+                this.deliver(batch);
+                continue;
+            }
+            // Spilled events are newer than the buffered ones, so they are delivered after all claimed slots are taken
+            if (this.spilling && this.ringBuffer.isEmpty() && this.drainSpill(batch))
+                continue;
+            if (this.closed && this.ringBuffer.isEmpty() && !this.spilling)
+                break;
+            this.waiting = true;
+            if (this.ringBuffer.isEmpty() && !this.spilling && !this.closed)
+                LockSupport.parkNanos(this, IDLE_WAIT_TIME);
+            this.waiting = false;
+        }
+        this.deleteSpillFiles();
+    }
+
+    private boolean drainSpill(List<ChangeEvent> batch) {
+        final long numberOfEvents;
+        synchronized (this.spillLock) {
+            if (this.eventsInSpillFile == 0) {
+                this.spilling = this.draining;
+                return false;
+            }
+            try {
+                this.spillOutput.close();
+                this.spillOutput = null;
+                Files.move(this.spillPath, this.drainingSpillPath, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                LOGGER.warn("Can't read spilled change events: " + this.spillPath, e);
+                this.droppedEvents.addAndGet(this.eventsInSpillFile);
+                this.eventsInSpillFile = 0;
+                this.spilling = false;
+                return false;
+            }
+            numberOfEvents = this.eventsInSpillFile;
+            this.eventsInSpillFile = 0;
+            this.draining = true;
+        }
+
+        long readEvents = 0;
+        try (DataInputStream spillInput = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.drainingSpillPath)))) {
+            for (; readEvents < numberOfEvents; readEvents++) {
+                batch.add(readEvent(spillInput));
+                if (batch.size() == MAX_BATCH_SIZE)
+                    this.deliver(batch);
+            }
+            if (!batch.isEmpty())
+                this.deliver(batch);
+            Files.delete(this.drainingSpillPath);
+        } catch (IOException e) {
+            LOGGER.warn("Can't read spilled change events: " + this.drainingSpillPath, e);
+            batch.clear();
+            this.droppedEvents.addAndGet(numberOfEvents - readEvents);
+        }
+
+        synchronized (this.spillLock) {
+            this.draining = false;
+            this.spilling = this.eventsInSpillFile > 0;
+        }
+        return true;
+    }
+
+    private void deliver(List<ChangeEvent> batch) {
+        try {
+            this.listener.onChanges(batch);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Change listener failed", e);
+        }
+        this.deliveredEvents.addAndGet(batch.size());
+        batch.clear();
+    }
+
+    private void deleteSpillFiles() {
+        synchronized (this.spillLock) {
+            try {
+                if (this.spillOutput != null) {
+                    this.spillOutput.close();
+                    this.spillOutput = null;
+                }
+                Files.deleteIfExists(this.spillPath);
+                Files.deleteIfExists(this.drainingSpillPath);
+            } catch (IOException e) {
+                LOGGER.warn("Can't delete spilled change events: " + this.spillPath, e);
+            }
+        }
+    }
+
+    /**
+     * Stops publishing to this subscription and waits until the published events are delivered
+     */
+
+    @Override
+    public void close() {
+        this.changeFeed.unsubscribe(this);
+        this.closed = true;
+        LockSupport.unpark(this.dispatcher);
+        if (Thread.currentThread() == this.dispatcher)
+            return;
+        try {
+            this.dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return this.overflowPolicy;
+    }
+
+    public long getDeliveredEvents() {
+        return this.deliveredEvents.get();
+    }
+
+    /**
+     * Returns number of the lost events: dropped by DROP policy, not admitted to the full buffer by interrupted
+     * BLOCK publisher, or lost because of the error of the spill log
+     *
+     * @return number of the lost events
+     */
+
+    public long getDroppedEvents() {
+        return this.droppedEvents.get();
+    }
+
+    public long getSpilledEvents() {
+        return this.spilledEvents.get();
+    }
+
+    private static void writeEvent(DataOutputStream output, ChangeEvent event) throws IOException {
+        output.writeLong(event.getSequence());
+        output.writeByte(event.getType().ordinal());
+        output.writeLong(event.getTime());
+        if (event.getKey() == null) {
+            output.writeInt(-1);
+        } else {
+            final byte[] key = event.getKey().getBytes(StandardCharsets.UTF_8);
+            output.writeInt(key.length);
+            output.write(key);
+        }
+    }
+
+    private static ChangeEvent readEvent(DataInputStream input) throws IOException {
+        final long sequence = input.readLong();
+        final ChangeEvent.Type type = ChangeEvent.Type.values()[input.readByte()];
+        final long time = input.readLong();
+        final int keyLength = input.readInt();
+        String key = null;
+        if (keyLength >= 0) {
+            final byte[] keyBytes = new byte[keyLength];
+            input.readFully(keyBytes);
+            key = new String(keyBytes, StandardCharsets.UTF_8);
+        }
+        return new ChangeEvent(sequence, type, key, time);
+    }
+}
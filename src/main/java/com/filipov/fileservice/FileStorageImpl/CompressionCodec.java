@@ -0,0 +1,41 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import java.io.InputStream;
+
+/**
+ * Compression algorithm of the stored files. Additional codecs can be registered by {@link java.util.ServiceLoader}
+ * (META-INF/services/com.filipov.fileservice.FileStorageImpl.CompressionCodec), so the files, which were compressed
+ * by them, can be read by any storage instance.
+ *
+ * @author Yevhen Filipov
+ */
+
+public interface CompressionCodec {
+
+    /**
+     * Returns identifier of the codec, which is written to the header of the compressed file.
+     * Identifier must be unique, identifiers 1..15 are reserved by the storage
+     *
+     * @return identifier of the codec (1..127)
+     */
+
+    byte getId();
+
+    /**
+     * Returns stream of the compressed content. Stream must work in the fixed amount of memory
+     *
+     * @param inputStream stream of the original content
+     * @return stream of the compressed content
+     */
+
+    InputStream compress(InputStream inputStream);
+
+    /**
+     * Returns stream of the decompressed content. Stream must work in the fixed amount of memory
+     *
+     * @param inputStream stream of the compressed content
+     * @return stream of the original content
+     */
+
+    InputStream decompress(InputStream inputStream);
+}
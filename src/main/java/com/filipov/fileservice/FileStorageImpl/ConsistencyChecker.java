@@ -0,0 +1,335 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Checks consistency of the stored files, their metadata and the used disc space, like fsck, and optionally repairs
+ * the found problems. Shards of the metadata table and directories of the user data are checked in parallel,
+ * each file is checked under its lock, so the check runs while the storage is used.
+ * Files, which were changed during the last minute, may be being saved, so they aren't reported as not registered.
+ * <p>
+ * Used disc space is compared with the sizes of the files, when it isn't changed during the comparison.
+ * Drift is reported, if it's the same in two comparisons, so the saving, which has changed the metadata but not the used space yet,
+ * isn't reported. Used disc space of the shared storage root is counted by all processes, so it isn't compared.
+ * <p>
+ * Incremental check checks only the shards of the metadata table, which were changed since the previous check,
+ * and the directories, where files were added or deleted since it. Sums of the file sizes of the unchanged shards
+ * are kept from the previous check. Files, which were changed or deleted outside of the storage, are found by the full check.
+ * <p>
+ * Check can be run offline by {@link #main(String[])}, when the storage root isn't used by other processes.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class ConsistencyChecker {
+
+    private final static Logger LOGGER = Logger.getLogger(ConsistencyChecker.class);
+    final static long RECENT_CHANGE_TIME = 60 * 1000l;
+    private final static long TEMPORARY_FILE_EXPIRATION_TIME = 60 * 60 * 1000l;
+    private final static int USED_SPACE_COMPARISONS = 5;
+
+    private final FileStorageData fileStorageData;
+    private final Path userDataPath;
+    private final String replacingPath;
+    private final MultipartUploads multipartUploads;
+    private final WriteBehindBuffer writeBehindBuffer;
+    private final int parallelism;
+    private final long[] checkedModifications;
+    private final long[][] sizesOfShards;
+    private final long[] summedModifications;
+    private long lastCheckTime;
+
+    /**
+     * Creates checker of the storage
+     *
+     * @param fileStorageData   metadata of the storage
+     * @param userDataPath      path of the user data directory
+     * @param replacingPath     directory of the temporary content of the saving, replacing and the import
+     * @param multipartUploads  uploads of the storage, which use disc space
+     * @param writeBehindBuffer buffer of the files, which aren't written to the disc yet, {@code null} if it isn't used
+     * @param parallelism       number of threads, which check the storage
+     */
+
+    public ConsistencyChecker(FileStorageData fileStorageData, String userDataPath, String replacingPath,
+                              MultipartUploads multipartUploads, WriteBehindBuffer writeBehindBuffer, int parallelism) {
+        this.fileStorageData = fileStorageData;
+        this.userDataPath = Paths.get(userDataPath);
+        this.replacingPath = replacingPath;
+        this.multipartUploads = multipartUploads;
+        this.writeBehindBuffer = writeBehindBuffer;
+        this.parallelism = parallelism;
+        final int numberOfShards = fileStorageData.getNumberOfShards();
+        this.checkedModifications = new long[numberOfShards];
+        this.sizesOfShards = new long[numberOfShards][];
+        this.summedModifications = new long[numberOfShards];
+    }
+
+    /**
+     * Checks all files of the storage
+     *
+     * @param repair {@code true} if the found problems should be repaired
+     * @return report of the check
+     * @throws ReadWriteFileStorageException if the check failed or was interrupted
+     */
+
+    public synchronized ConsistencyReport check(boolean repair) {
+        return this.run(false, repair);
+    }
+
+    /**
+     * Checks files, which were changed since the previous check. Without the previous check all files are checked
+     *
+     * @param repair {@code true} if the found problems should be repaired
+     * @return report of the check
+     * @throws ReadWriteFileStorageException if the check failed or was interrupted
+     */
+
+    public synchronized ConsistencyReport checkRecentChanges(boolean repair) {
+        return this.run(this.lastCheckTime > 0, repair);
+    }
+
+    private ConsistencyReport run(boolean incremental, boolean repair) {
+        final Object event = FlightRecorderEvents.beginBackgroundTask();
+        Throwable failure = null;
+        ConsistencyReport report = null;
+        try {
+            report = this.checkFiles(incremental, repair);
+            return report;
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            FlightRecorderEvents.finishBackgroundTask(event, incremental ? "checkRecentChanges" : "checkConsistency", report != null ? report.getCheckedFiles() : 0, 0, failure);
+        }
+    }
+
+    private ConsistencyReport checkFiles(final boolean incremental, final boolean repair) {
+        this.fileStorageData.awaitWarmUp();
+        final long startTime = System.currentTimeMillis();
+        final long changedAfter = incremental ? this.lastCheckTime - RECENT_CHANGE_TIME : 0;
+        final ConsistencyReport report = new ConsistencyReport(incremental, repair);
+
+        final ExecutorService checkers = Executors.newFixedThreadPool(this.parallelism, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "FileStorage consistency check");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            final List<Future<?>> checks = new ArrayList<Future<?>>();
+            for (int shard = 0; shard < this.checkedModifications.length; shard++) {
+                final int shardNumber = shard;
+                // Changes, which are made during the check, are checked again by the next incremental check
+                final long modifications = this.fileStorageData.getModifications(shard);
+                if (incremental && modifications == this.checkedModifications[shard])
+                    continue;
+                checks.add(checkers.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        fileStorageData.checkShard(shardNumber, startTime, repair, writeBehindBuffer, report);
+                        checkedModifications[shardNumber] = modifications;
+                        report.shardChecked();
+                    }
+                }));
+            }
+            final File[] directories = this.userDataPath.toFile().listFiles();
+            if (directories != null) {
+                for (final File directory : directories) {
+                    checks.add(checkers.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            checkDirectory(directory.toPath(), changedAfter, startTime, repair, report);
+                        }
+                    }));
+                }
+            }
+            for (Future<?> check : checks)
+                check.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReadWriteFileStorageException("Consistency check was interrupted", this.userDataPath.toString(), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new ReadWriteFileStorageException("Consistency check failed", this.userDataPath.toString(), e.getCause());
+        } finally {
+            checkers.shutdownNow();
+        }
+
+        this.checkTemporaryFiles(startTime, repair, report);
+        if (!this.fileStorageData.checkProperties(repair))
+            report.add(ConsistencyReport.Problem.STALE_PROPERTIES, "expiration times of the previous version weren't loaded");
+        if (!this.fileStorageData.isSharedRoot())
+            this.checkUsedSpace(repair, report);
+        this.lastCheckTime = startTime;
+        if (report.getNumberOfProblems() > 0)
+            LOGGER.warn("Consistency check found problems: " + report);
+        return report;
+    }
+
+    /**
+     * Checks, that the files of the directory are registered
+     *
+     * @param changedAfter time, after which the checked directories were changed, 0 to check all directories
+     */
+
+    private void checkDirectory(Path directory, final long changedAfter, final long startTime, final boolean repair,
+                                final ConsistencyReport report) {
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                    // Adding and deleting of the files change the directories, which contain them
+                    final boolean filesDirectory = dir.getParent() != null && userDataPath.equals(dir.getParent().getParent());
+                    if (filesDirectory && attributes.lastModifiedTime().toMillis() < changedAfter)
+                        return FileVisitResult.SKIP_SUBTREE;
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.lastModifiedTime().toMillis() >= startTime - RECENT_CHANGE_TIME)
+                        return FileVisitResult.CONTINUE;
+                    if (!fileStorageData.checkStoredFile(file.toString(), attributes, repair))
+                        report.add(ConsistencyReport.Problem.UNREGISTERED_FILE, file + ": " + attributes.size() + " bites");
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    if (!(e instanceof NoSuchFileException))
+                        report.add(ConsistencyReport.Problem.UNREADABLE_FILE, file + ": " + e);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            report.add(ConsistencyReport.Problem.UNREADABLE_FILE, directory + ": " + e);
+        }
+    }
+
+    private void checkTemporaryFiles(long startTime, boolean repair, ConsistencyReport report) {
+        final File[] temporaryFiles = new File(this.replacingPath).listFiles();
+        if (temporaryFiles == null)
+            return;
+        for (File temporaryFile : temporaryFiles) {
+            if (temporaryFile.lastModified() >= startTime - TEMPORARY_FILE_EXPIRATION_TIME)
+                continue;
+            report.add(ConsistencyReport.Problem.ORPHANED_TEMPORARY_FILE, temporaryFile + ": " + temporaryFile.length() + " bites");
+            if (repair && !temporaryFile.delete())
+                LOGGER.warn("Can't delete orphaned temporary file: " + temporaryFile);
+        }
+    }
+
+    /**
+     * Compares used disc space of the storage and its namespaces with the sizes of the registered files, blobs and uploads
+     */
+
+    private void checkUsedSpace(boolean repair, ConsistencyReport report) {
+        long[] previousDrift = null;
+        for (int comparison = 0; comparison < USED_SPACE_COMPARISONS; comparison++) {
+            final long usedSpace = this.fileStorageData.getTotalSizeOfFiles();
+            final long modifications = this.totalModifications();
+            final long[] sizes = this.sumSizesOfShards();
+            sizes[0] += this.fileStorageData.getSizeOfBlobs() + this.multipartUploads.getSizeOfUploads();
+            final Namespaces namespaces = this.fileStorageData.getNamespaces();
+            final long[] drift = new long[sizes.length];
+            drift[0] = usedSpace - sizes[0];
+            for (int id = 1; id < sizes.length; id++)
+                drift[id] = namespaces.get(id).getUsedSpace() - sizes[id];
+            if (usedSpace != this.fileStorageData.getTotalSizeOfFiles() || modifications != this.totalModifications())
+                continue;
+
+            if (Arrays.equals(drift, new long[drift.length])) {
+                report.setUsedSpaceVerified(true);
+                return;
+            }
+            if (previousDrift != null && Arrays.equals(drift, previousDrift)) {
+                report.setUsedSpaceVerified(true);
+                if (drift[0] != 0) {
+                    report.add(ConsistencyReport.Problem.USED_SPACE_DRIFT, "counted " + usedSpace + " bites, stored " + sizes[0] + " bites");
+                    if (repair)
+                        this.fileStorageData.decreaseTotalSizeOfFiles(drift[0]);
+                }
+                for (int id = 1; id < drift.length; id++) {
+                    if (drift[id] == 0)
+                        continue;
+                    report.add(ConsistencyReport.Problem.NAMESPACE_USAGE_DRIFT, namespaces.get(id).getName() + ": counted "
+                            + namespaces.get(id).getUsedSpace() + " bites, stored " + sizes[id] + " bites");
+                    if (repair)
+                        namespaces.get(id).resizeFile(-drift[id]);
+                }
+                return;
+            }
+            previousDrift = drift;
+        }
+        LOGGER.info("Used disc space wasn't compared with the stored files, because the storage was changed during the comparison");
+    }
+
+    /**
+     * Sums sizes of the files of all shards. Sizes of the shards, which weren't changed since the previous sum, aren't summed again
+     */
+
+    private long[] sumSizesOfShards() {
+        long[] sizes = null;
+        for (int shard = 0; shard < this.sizesOfShards.length; shard++) {
+            final long modifications = this.fileStorageData.getModifications(shard);
+            if (this.sizesOfShards[shard] == null || this.summedModifications[shard] != modifications) {
+                this.sizesOfShards[shard] = this.fileStorageData.getSizeOfShard(shard);
+                this.summedModifications[shard] = modifications;
+            }
+            if (sizes == null)
+                sizes = new long[this.sizesOfShards[shard].length];
+            for (int i = 0; i < sizes.length; i++)
+                sizes[i] += this.sizesOfShards[shard][i];
+        }
+        return sizes;
+    }
+
+    private long totalModifications() {
+        long modifications = 0;
+        for (int shard = 0; shard < this.checkedModifications.length; shard++)
+            modifications += this.fileStorageData.getModifications(shard);
+        return modifications;
+    }
+
+    /**
+     * Checks the storage root, which isn't used by other processes. Storage is opened with the warm-up,
+     * which registers the unknown files and removes the lost ones by itself, so the check reports the rest of the problems.
+     * Arguments: path of the storage root and optional "--repair" to repair the found problems
+     *
+     * @param args arguments of the check
+     */
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2 || args.length == 2 && !"--repair".equals(args[1])) {
+            System.err.println("Usage: ConsistencyChecker <storage root> [--repair]");
+            System.exit(2);
+        }
+        final FileStorageImpl fileStorage = new FileStorageImpl(args[0], Long.MAX_VALUE);
+        final ConsistencyReport report;
+        try {
+            report = fileStorage.checkConsistency(args.length == 2);
+        } finally {
+            fileStorage.close();
+        }
+        System.out.println(report);
+        for (String detail : report.getDetails())
+            System.out.println(detail);
+        System.exit(report.getNumberOfProblems() > 0 && !report.isRepaired() ? 1 : 0);
+    }
+}
@@ -0,0 +1,142 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Report of the consistency check, see {@link ConsistencyChecker}. Contains numbers of the found problems by their types
+ * and the descriptions of the first problems
+ *
+ * @author Yevhen Filipov
+ */
+
+public class ConsistencyReport {
+
+    private final static int MAX_DETAILS = 100;
+
+    /**
+     * Types of the problems, which are found by the check
+     */
+
+    public enum Problem {
+        // Registered file doesn't exist on the disc
+        LOST_FILE,
+        // Size of the file on the disc doesn't match its metadata
+        SIZE_MISMATCH,
+        // File on the disc isn't registered, for example it was left by the failed saving
+        UNREGISTERED_FILE,
+        // File or directory can't be read
+        UNREADABLE_FILE,
+        // Expiration flag and expiration time of the file don't match
+        EXPIRATION_MISMATCH,
+        // Expired file isn't noted for the deletion
+        EXPIRED_FILE,
+        // Content of the replacing or the import, which was left by the failed operation
+        ORPHANED_TEMPORARY_FILE,
+        // Properties file of the previous versions wasn't moved to the metadata journal
+        STALE_PROPERTIES,
+        // Used disc space doesn't match the sizes of the stored files
+        USED_SPACE_DRIFT,
+        // Used disc space of the namespace doesn't match the sizes of its files
+        NAMESPACE_USAGE_DRIFT
+    }
+
+    private final boolean incremental;
+    private final boolean repaired;
+    private final Map<Problem, Long> problems = new EnumMap<Problem, Long>(Problem.class);
+    private final List<String> details = new ArrayList<String>();
+    private final AtomicLong checkedFiles = new AtomicLong();
+    private volatile int checkedShards;
+    private volatile boolean usedSpaceVerified;
+
+    ConsistencyReport(boolean incremental, boolean repaired) {
+        this.incremental = incremental;
+        this.repaired = repaired;
+    }
+
+    synchronized void add(Problem problem, String detail) {
+        final Long number = this.problems.get(problem);
+        this.problems.put(problem, number == null ? 1 : number + 1);
+        if (this.details.size() < MAX_DETAILS)
+            this.details.add(problem + ": " + detail);
+    }
+
+    void fileChecked() {
+        this.checkedFiles.incrementAndGet();
+    }
+
+    synchronized void shardChecked() {
+        this.checkedShards++;
+    }
+
+    void setUsedSpaceVerified(boolean usedSpaceVerified) {
+        this.usedSpaceVerified = usedSpaceVerified;
+    }
+
+    /**
+     * @return {@code true} if only recently changed shards and directories were checked
+     */
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * @return {@code true} if the found problems were repaired
+     */
+
+    public boolean isRepaired() {
+        return repaired;
+    }
+
+    public long getCheckedFiles() {
+        return checkedFiles.get();
+    }
+
+    public int getCheckedShards() {
+        return checkedShards;
+    }
+
+    /**
+     * @return {@code false} if used disc space wasn't compared with the stored files, because the storage was changed
+     * during the comparison or its root is shared
+     */
+
+    public boolean isUsedSpaceVerified() {
+        return usedSpaceVerified;
+    }
+
+    public synchronized long getNumberOfProblems(Problem problem) {
+        final Long number = this.problems.get(problem);
+        return number == null ? 0 : number;
+    }
+
+    public synchronized long getNumberOfProblems() {
+        long number = 0;
+        for (Long problemNumber : this.problems.values())
+            number += problemNumber;
+        return number;
+    }
+
+    /**
+     * Returns descriptions of the first found problems
+     *
+     * @return list of the descriptions
+     */
+
+    public synchronized List<String> getDetails() {
+        return Collections.unmodifiableList(new ArrayList<String>(this.details));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ConsistencyReport{" +
+                "incremental=" + incremental +
+                ", repaired=" + repaired +
+                ", checkedFiles=" + checkedFiles +
+                ", checkedShards=" + checkedShards +
+                ", usedSpaceVerified=" + usedSpaceVerified +
+                ", problems=" + problems +
+                '}';
+    }
+}
@@ -0,0 +1,52 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts bytes, which were read from the stream
+ *
+ * @author Yevhen Filipov
+ */
+
+class CountingInputStream extends FilterInputStream {
+
+    private long count;
+
+    CountingInputStream(InputStream inputStream) {
+        super(inputStream);
+    }
+
+    long getCount() {
+        return this.count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int result = super.read();
+        if (result != -1)
+            this.count++;
+        return result;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        final int result = super.read(bytes, offset, length);
+        if (result > 0)
+            this.count += result;
+        return result;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        final long result = super.skip(n);
+        this.count += result;
+        return result;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,76 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression codec, which uses JDK Deflater and Inflater (zlib format)
+ *
+ * @author Yevhen Filipov
+ */
+
+public class DeflateCodec implements CompressionCodec {
+
+    public final static byte ID = 1;
+    private final static int BUFFER_SIZE = 16 * 1024;
+
+    private final int level;
+
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates codec with specific compression level
+     *
+     * @param level compression level (0..9 or -1 for default level)
+     */
+
+    public DeflateCodec(int level) {
+        if (level < -1 || level > 9)
+            throw new IncorrectArgumentFileStorageException("Value of level must be -1..9");
+        this.level = level;
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public InputStream compress(InputStream inputStream) {
+        final Deflater deflater = new Deflater(this.level);
+        return new DeflaterInputStream(inputStream, deflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                // Native memory of the deflater, which isn't created by the stream, isn't released by the stream
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream decompress(InputStream inputStream) {
+        final Inflater inflater = new Inflater();
+        return new InflaterInputStream(inputStream, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+}
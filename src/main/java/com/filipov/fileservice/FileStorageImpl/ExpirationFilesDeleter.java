@@ -5,40 +5,100 @@ import com.filipov.fileservice.FileStorageImpl.FileStorageOperationServiceImpl.O
 import org.apache.log4j.Logger;
 
 import java.util.Date;
+import java.util.List;
 import java.util.TimerTask;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ExpirationFilesDeleter extends TimerTask {
 
     private final static Logger LOGGER = Logger.getLogger(ExpirationFilesDeleter.class);
     private final FileStorageData fileStorageData;
+    private final IOBudget ioBudget;
+    private final ChangeFeed changeFeed;
 
-    ExpirationFilesDeleter(FileStorageData fileStorageData) {
+    ExpirationFilesDeleter(FileStorageData fileStorageData, IOBudget ioBudget, ChangeFeed changeFeed) {
         this.fileStorageData = fileStorageData;
+        this.ioBudget = ioBudget;
+        this.changeFeed = changeFeed;
     }
 
     @Override
     public void run() {
 
-        if (this.fileStorageData.expirationTimeKeySet().isEmpty())
-            return;
-
         final Date currentTime = new Date();
-        final OperationService operationService = new OperationServiceImpl();
+        final List<String> expiredFiles = this.fileStorageData.findExpiredFiles(currentTime.getTime());
 
-        for (String filePath : this.fileStorageData.expirationTimeKeySet()) {
-            final Long expirationTimeOfFile = this.fileStorageData.getExpirationTime(filePath);
+        if (expiredFiles.isEmpty())
+            return;
 
-            if (expirationTimeOfFile <= currentTime.getTime()) {
+        final Object event = FlightRecorderEvents.beginBackgroundTask();
+        Throwable failure = null;
+        long deletedFiles = 0;
+        long liberatedBytes = 0;
+        try {
+            for (String filePath : expiredFiles) {
                 try {
-                    final long fileSize = operationService.deleteFile(filePath);
-                    this.fileStorageData.decreaseTotalSizeOfFiles(fileSize);
-                    this.fileStorageData.removeExpirationTime(filePath);
-                } catch (KeyNotExistFileStorageException e) {
-                    LOGGER.info("This file not found: " + filePath, e);
-                } catch (ReadWriteFileStorageException readWriteError) {
-                    LOGGER.info("Can't delete this file: " + filePath, readWriteError);
+                    this.ioBudget.acquireOperation();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 }
+                final long deletedBytes = this.deleteExpiredFile(filePath, currentTime.getTime());
+                if (deletedBytes >= 0) {
+                    deletedFiles++;
+                    liberatedBytes += deletedBytes;
+                }
+                if (deletedBytes > 0)
+                    this.ioBudget.chargeBytes(deletedBytes);
             }
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            FlightRecorderEvents.finishBackgroundTask(event, "deleteExpiredFiles", deletedFiles, liberatedBytes, failure);
         }
     }
+
+    /**
+     * Deletes the file, if it's expired. It's called by the foreground operations too, which find the expired file
+     * before this deleter
+     *
+     * @param filePath    path of the file
+     * @param currentTime current time
+     * @return number of the deleted bites on the disc, -1 if file isn't expired
+     */
+
+    long deleteExpiredFile(String filePath, long currentTime) {
+        final OperationService operationService = new OperationServiceImpl();
+        final MetadataEntry entry = new MetadataEntry();
+        final ReentrantLock fileLock = this.fileStorageData.lockFile(filePath);
+        try {
+            // Replaced or touched file has new expiration time
+            if (!this.fileStorageData.getMetadata(filePath, entry) || !isExpired(entry, currentTime))
+                return -1;
+            final String key = this.changeFeed.hasSubscriptions() ? this.fileStorageData.readKey(entry) : null;
+            long deletedBytes = 0;
+            try {
+                deletedBytes = operationService.deleteFile(filePath);
+            } catch (KeyNotExistFileStorageException e) {
+                LOGGER.info("This file not found: " + filePath, e);
+            } catch (ReadWriteFileStorageException readWriteError) {
+                LOGGER.info("Can't delete this file: " + filePath, readWriteError);
+                return -1;
+            }
+            this.removeFile(filePath, key);
+            return deletedBytes;
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    static boolean isExpired(MetadataEntry entry, long currentTime) {
+        return entry.hasFlag(MetadataTable.FLAG_EXPIRATION) && entry.getExpirationTime() <= currentTime;
+    }
+
+    private void removeFile(String filePath, String key) {
+        if (this.fileStorageData.removeFile(filePath))
+            this.changeFeed.publish(ChangeEvent.Type.EXPIRED, key);
+    }
 }
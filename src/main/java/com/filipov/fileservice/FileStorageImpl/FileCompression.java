@@ -0,0 +1,161 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Compresses content of the saved files and decompresses content of the read files.
+ * Before compression the first chunk of the content is compressed as a sample, incompressible content is stored as is.
+ * <p>
+ * Compressed file starts with the header: "FSZ" and identifier of the codec (4 bytes), so the file is decompressed
+ * by the same codec, even if the storage now compresses files by another one. Known codecs are {@link DeflateCodec},
+ * codecs registered by {@link ServiceLoader} and the codec of this storage.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class FileCompression {
+
+    private final static Logger LOGGER = Logger.getLogger(FileCompression.class);
+    private final static byte[] HEADER_MAGIC = {'F', 'S', 'Z'};
+    private final static int HEADER_SIZE = 4;
+    private final static int MIN_SAMPLE_SIZE = 128;
+    private final static double MAX_COMPRESSION_RATIO = 0.9;
+    public final static int SAMPLE_SIZE = 64 * 1024;
+
+    private final CompressionCodec codec;
+    private final Map<Byte, CompressionCodec> codecs = new HashMap<Byte, CompressionCodec>();
+
+    /**
+     * Creates compression of the storage
+     *
+     * @param codec codec, which compresses saved files, {@code null} if saved files aren't compressed
+     */
+
+    public FileCompression(CompressionCodec codec) {
+        this.codec = codec;
+        this.codecs.put(DeflateCodec.ID, new DeflateCodec());
+        for (CompressionCodec registeredCodec : ServiceLoader.load(CompressionCodec.class)) {
+            if (this.codecs.put(registeredCodec.getId(), registeredCodec) != null)
+                LOGGER.warn("Compression codec " + registeredCodec.getClass().getName() + " replaces codec with the same id " + registeredCodec.getId());
+        }
+        if (codec != null)
+            this.codecs.put(codec.getId(), codec);
+    }
+
+    public boolean isEnabled() {
+        return this.codec != null;
+    }
+
+    /**
+     * Checks, if the content is worth compressing, by compression of the sample
+     *
+     * @param sample the first chunk of the content
+     * @param length length of the sample
+     * @return {@code true} if content should be compressed
+     */
+
+    public boolean isCompressible(byte[] sample, int length) {
+        if (this.codec == null || length < MIN_SAMPLE_SIZE)
+            return false;
+
+        final long maxCompressedSize = (long) (length * MAX_COMPRESSION_RATIO);
+        long compressedSize = 0;
+        try (InputStream compressed = this.codec.compress(new ByteArrayInputStream(sample, 0, length))) {
+            final byte[] buffer = new byte[8 * 1024];
+            int read;
+            while ((read = compressed.read(buffer)) != -1) {
+                compressedSize += read;
+                if (compressedSize > maxCompressedSize)
+                    return false;
+            }
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't compress sample of the file", null, e);
+        }
+        return true;
+    }
+
+    /**
+     * Returns stream of the compressed content with the header
+     *
+     * @param inputStream stream of the original content
+     * @return stream of the stored content
+     */
+
+    public InputStream compress(InputStream inputStream) {
+        final byte[] header = new byte[HEADER_SIZE];
+        System.arraycopy(HEADER_MAGIC, 0, header, 0, HEADER_MAGIC.length);
+        header[HEADER_MAGIC.length] = this.codec.getId();
+        return new SequenceInputStream(new ByteArrayInputStream(header), this.codec.compress(inputStream));
+    }
+
+    /**
+     * Compresses small content, which is kept in memory
+     *
+     * @param content array with the original content
+     * @param length  length of the content
+     * @return stored content with the header, {@code null} if content should be stored as is
+     */
+
+    public byte[] compress(byte[] content, int length) {
+        if (this.codec == null || length < MIN_SAMPLE_SIZE)
+            return null;
+
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(length);
+        try (InputStream inputStream = this.compress(new ByteArrayInputStream(content, 0, length))) {
+            final byte[] buffer = new byte[8 * 1024];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                compressed.write(buffer, 0, read);
+                if (compressed.size() > length * MAX_COMPRESSION_RATIO)
+                    return null;
+            }
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't compress the file", null, e);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Returns stream of the decompressed content. Decompressor uses fixed amount of memory
+     *
+     * @param inputStream stream of the stored content with the header
+     * @param filePath    path of the file
+     * @return stream of the original content
+     * @throws ReadWriteFileStorageException if the header is damaged or codec is unknown
+     */
+
+    public InputStream decompress(InputStream inputStream, String filePath) {
+        final byte[] header = new byte[HEADER_SIZE];
+        try {
+            new DataInputStream(inputStream).readFully(header);
+        } catch (IOException e) {
+            closeQuietly(inputStream);
+            throw new ReadWriteFileStorageException("Can't read header of the compressed file", filePath, e);
+        }
+        for (int i = 0; i < HEADER_MAGIC.length; i++) {
+            if (header[i] != HEADER_MAGIC[i]) {
+                closeQuietly(inputStream);
+                throw new ReadWriteFileStorageException("Damaged header of the compressed file", filePath, null);
+            }
+        }
+        final CompressionCodec fileCodec = this.codecs.get(header[HEADER_MAGIC.length]);
+        if (fileCodec == null) {
+            closeQuietly(inputStream);
+            throw new ReadWriteFileStorageException("Unknown compression codec " + header[HEADER_MAGIC.length], filePath, null);
+        }
+        return fileCodec.decompress(inputStream);
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            LOGGER.warn("Can't close stream of the compressed file", e);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Exclusive locks of the one byte regions of the lock file, which coordinate the processes sharing the storage root.
+ * File lock is held on behalf of the whole JVM, so there is one instance of this class per lock file in the JVM,
+ * and each region has the semaphore, which is taken before the file lock: instances of the storage in this JVM
+ * wait for the semaphore, other processes wait for the file lock. Locks are released by the operating system,
+ * when the process exits.
+ * <p>
+ * Interrupted thread closes the file channel, while it waits for the file lock, so the file lock is polled
+ * with the interrupt status cleared and the status is restored after that.
+ *
+ * @author Yevhen Filipov
+ */
+
+class FileRegionLocks {
+
+    private final static Logger LOGGER = Logger.getLogger(FileRegionLocks.class);
+    private final static long RETRY_WAIT_TIME = TimeUnit.MILLISECONDS.toNanos(1);
+    private final static Map<Path, FileRegionLocks> INSTANCES = new HashMap<Path, FileRegionLocks>();
+
+    private final String lockPath;
+    private final FileChannel channel;
+    private final Map<Long, Semaphore> semaphores = new ConcurrentHashMap<Long, Semaphore>();
+    private int users;
+
+    private FileRegionLocks(Path lockPath) {
+        this.lockPath = lockPath.toString();
+        try {
+            Files.createDirectories(lockPath.getParent());
+            this.channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't open lock file of the shared storage root", this.lockPath, e);
+        }
+    }
+
+    /**
+     * Returns locks of the lock file, which are shared by all instances of the storage in this JVM
+     *
+     * @param lockPath path of the lock file
+     * @return locks of the lock file
+     * @throws ReadWriteFileStorageException if the lock file can't be opened
+     */
+
+    static synchronized FileRegionLocks of(String lockPath) {
+        final Path path = Paths.get(lockPath).toAbsolutePath().normalize();
+        FileRegionLocks locks = INSTANCES.get(path);
+        if (locks == null) {
+            locks = new FileRegionLocks(path);
+            INSTANCES.put(path, locks);
+        }
+        locks.users++;
+        return locks;
+    }
+
+    /**
+     * Releases locks, which were returned by {@link #of(String)}. Lock file is closed, when it has no users in this JVM
+     *
+     * @param locks locks of the lock file
+     */
+
+    static synchronized void release(FileRegionLocks locks) {
+        if (--locks.users > 0)
+            return;
+        INSTANCES.remove(Paths.get(locks.lockPath));
+        try {
+            locks.channel.close();
+        } catch (IOException e) {
+            LOGGER.warn("Can't close lock file of the shared storage root: " + locks.lockPath, e);
+        }
+    }
+
+    /**
+     * Locks the region, waits until it's released by other instances and processes
+     *
+     * @param region number of the region
+     * @return locked region, which must be closed by the caller
+     * @throws ReadWriteFileStorageException if the region can't be locked
+     */
+
+    Region lock(long region) {
+        final Semaphore semaphore = this.semaphoreOf(region);
+        semaphore.acquireUninterruptibly();
+        try {
+            return new Region(this.lockFile(region, true), semaphore);
+        } catch (IOException | RuntimeException e) {
+            semaphore.release();
+            throw new ReadWriteFileStorageException("Can't lock the shared storage root", this.lockPath, e);
+        }
+    }
+
+    /**
+     * Locks the region, if it isn't locked by other instances and processes
+     *
+     * @param region number of the region
+     * @return locked region, which must be closed by the caller, {@code null} if the region is locked
+     * @throws ReadWriteFileStorageException if the region can't be locked
+     */
+
+    Region tryLock(long region) {
+        final Semaphore semaphore = this.semaphoreOf(region);
+        if (!semaphore.tryAcquire())
+            return null;
+        final FileLock fileLock;
+        try {
+            fileLock = this.lockFile(region, false);
+        } catch (IOException | RuntimeException e) {
+            semaphore.release();
+            throw new ReadWriteFileStorageException("Can't lock the shared storage root", this.lockPath, e);
+        }
+        if (fileLock == null) {
+            semaphore.release();
+            return null;
+        }
+        return new Region(fileLock, semaphore);
+    }
+
+    private FileLock lockFile(long region, boolean wait) throws IOException {
+        boolean interrupted = Thread.interrupted();
+        try {
+            FileLock fileLock;
+            while ((fileLock = this.channel.tryLock(region, 1, false)) == null && wait) {
+                LockSupport.parkNanos(this, RETRY_WAIT_TIME);
+                interrupted |= Thread.interrupted();
+            }
+            return fileLock;
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private Semaphore semaphoreOf(long region) {
+        Semaphore semaphore = this.semaphores.get(region);
+        if (semaphore == null) {
+            synchronized (this.semaphores) {
+                semaphore = this.semaphores.get(region);
+                if (semaphore == null) {
+                    semaphore = new Semaphore(1);
+                    this.semaphores.put(region, semaphore);
+                }
+            }
+        }
+        return semaphore;
+    }
+
+    /**
+     * Locked region, it's released by {@link #close()}
+     */
+
+    final static class Region implements Closeable {
+
+        private final FileLock fileLock;
+        private final Semaphore semaphore;
+
+        private Region(FileLock fileLock, Semaphore semaphore) {
+            this.fileLock = fileLock;
+            this.semaphore = semaphore;
+        }
+
+        @Override
+        public void close() {
+            try {
+                this.fileLock.release();
+            } catch (IOException e) {
+                LOGGER.warn("Can't release lock of the shared storage root", e);
+            } finally {
+                this.semaphore.release();
+            }
+        }
+    }
+}
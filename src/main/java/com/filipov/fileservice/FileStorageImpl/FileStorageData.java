@@ -5,83 +5,1534 @@ import org.apache.log4j.Logger;
 
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Properties;
-import java.util.Set;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Keeps size and metadata of the stored files.
+ * Metadata is kept out of the heap in {@link MetadataTable} and persisted to {@link MetadataJournal}.
+ * At the start metadata is reconciled with the files, which really exist in the user data directory.
+ * The reconciliation (warm-up) may run in the background: the metadata journal is replayed at once,
+ * so the registered files can be read, and the directory is scanned while the storage is used.
+ * <p>
+ * Compound changes of one file (deleting or replacing on the disc together with the metadata) are made under
+ * the striped lock of the file, see {@link #lockFile(String)}.
+ * <p>
+ * Storage root may be shared by several processes, see {@link SharedRoot}: the metadata journal is appended by all of them,
+ * each process applies the records of other processes to its metadata, before it appends own record and before it reads
+ * the metadata, and the locks of the files are held across the processes. The journal of the shared root isn't compacted,
+ * because other processes refer to its records by their offsets.
+ */
 
 public class FileStorageData {
 
     private final static Logger LOGGER = Logger.getLogger(FileStorageData.class);
+    private final static long DEFAULT_EXPECTED_NUMBER_OF_FILES = 1 << 20;
+    private final static long INITIAL_METADATA_TABLE_CAPACITY = 1 << 16;
+    private final static int METADATA_TABLE_SHARD_BITS = 6;
+    private final static long MIN_GARBAGE_RECORDS_TO_COMPACT = 1 << 16;
+    private final static int MAX_EXPIRED_FILES_PER_SCAN = 10000;
+    final static int FILE_LOCK_STRIPES = 64;
 
+    private final String userDataPath;
     private final String propertiesPath;
-    private final Properties expirationFiles;
-    private volatile long totalSizeOfFiles = 0;
+    private final MetadataTable metadataTable;
+    private final MetadataJournal metadataJournal;
+    private final KeyPresenceFilter storedFilesFilter;
+    private final NavigableSet<String> keyIndex;
+    private final BlobStore blobStore;
+    private final Namespaces namespaces;
+    private final SharedRoot sharedRoot;
+    private final ReadWriteLock journalLock = new ReentrantReadWriteLock();
+    private final AtomicLong garbageRecords = new AtomicLong();
+    private final AtomicLong earliestExpirationTime = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong totalSizeOfFiles = new AtomicLong();
+    private final boolean backgroundWarmUp;
+    private final ReentrantLock[] fileLocks = new ReentrantLock[FILE_LOCK_STRIPES];
+    private final AtomicLongArray contentSequences = new AtomicLongArray(FILE_LOCK_STRIPES);
+    private final CompletableFuture<Void> readiness = new CompletableFuture<Void>();
+    private final AtomicLong scannedFiles = new AtomicLong();
+    private volatile WarmUpProgress.Phase warmUpPhase = WarmUpProgress.Phase.SCANNING;
+    private long registeredFilesAfterReplay;
+    private long journalSizeAfterReplay;
+    private boolean soleProcessAtStart = true;
+    private long warmUpStartTime;
+
+    /**
+     * Loads metadata of the storage
+     *
+     * @param userDataPath   path of the user data directory
+     * @param propertiesPath path of the properties file with expiration times, which were kept by previous versions
+     * @param journalPath    path of the metadata journal
+     */
+
+    public FileStorageData(String userDataPath, String propertiesPath, String journalPath) {
+        this(userDataPath, propertiesPath, journalPath, false);
+    }
+
+    /**
+     * Loads metadata of the storage and optionally builds sorted index of the keys.
+     * The index is kept in heap, it allows to list keys with specific prefix without scanning all the metadata
+     *
+     * @param userDataPath   path of the user data directory
+     * @param propertiesPath path of the properties file with expiration times, which were kept by previous versions
+     * @param journalPath    path of the metadata journal
+     * @param keyIndex       {@code true} if sorted index of the keys should be kept
+     */
+
+    public FileStorageData(String userDataPath, String propertiesPath, String journalPath, boolean keyIndex) {
+        this(userDataPath, propertiesPath, journalPath, keyIndex, null);
+    }
+
+    /**
+     * Loads metadata of the storage and restores reference counts of the blobs, which keep content of the deduplicated files
+     *
+     * @param userDataPath   path of the user data directory
+     * @param propertiesPath path of the properties file with expiration times, which were kept by previous versions
+     * @param journalPath    path of the metadata journal
+     * @param keyIndex       {@code true} if sorted index of the keys should be kept
+     * @param blobStore      store of the blobs, {@code null} if there are no deduplicated files
+     */
+
+    public FileStorageData(String userDataPath, String propertiesPath, String journalPath, boolean keyIndex, BlobStore blobStore) {
+        this(userDataPath, propertiesPath, journalPath, keyIndex, blobStore, false);
+    }
+
+    /**
+     * Replays the metadata journal and optionally leaves the scanning of the user data directory to {@link #warmUp()}.
+     * Until the warm-up is finished, used disc space is estimated by the registered files, files, which were copied
+     * to the storage directly, aren't registered, and the key index isn't available
+     *
+     * @param userDataPath     path of the user data directory
+     * @param propertiesPath   path of the properties file with expiration times, which were kept by previous versions
+     * @param journalPath      path of the metadata journal
+     * @param keyIndex         {@code true} if sorted index of the keys should be kept
+     * @param blobStore        store of the blobs, {@code null} if there are no deduplicated files
+     * @param backgroundWarmUp {@code true} if {@link #warmUp()} is called later, concurrently with the use of the storage
+     */
+
+    public FileStorageData(String userDataPath, String propertiesPath, String journalPath, boolean keyIndex, BlobStore blobStore,
+                           boolean backgroundWarmUp) {
+        this(userDataPath, propertiesPath, journalPath, keyIndex, blobStore, backgroundWarmUp,
+                new Namespaces('/', Collections.<String, Long>emptyMap()));
+    }
+
+    /**
+     * Loads metadata of the storage and counts used space of the namespaces
+     *
+     * @param userDataPath     path of the user data directory
+     * @param propertiesPath   path of the properties file with expiration times, which were kept by previous versions
+     * @param journalPath      path of the metadata journal
+     * @param keyIndex         {@code true} if sorted index of the keys should be kept
+     * @param blobStore        store of the blobs, {@code null} if there are no deduplicated files
+     * @param backgroundWarmUp {@code true} if {@link #warmUp()} is called later, concurrently with the use of the storage
+     * @param namespaces       namespaces of the keys
+     */
+
+    public FileStorageData(String userDataPath, String propertiesPath, String journalPath, boolean keyIndex, BlobStore blobStore,
+                           boolean backgroundWarmUp, Namespaces namespaces) {
+        this(userDataPath, propertiesPath, journalPath, keyIndex, blobStore, backgroundWarmUp, namespaces, null);
+    }
 
-    public FileStorageData(String userDataPath, String propertiesPath) {
-        expirationFiles = new Properties();
+    /**
+     * Loads metadata of the storage, which root may be shared with other processes. The first attached process
+     * resets the shared state of the root by its metadata
+     *
+     * @param userDataPath     path of the user data directory
+     * @param propertiesPath   path of the properties file with expiration times, which were kept by previous versions
+     * @param journalPath      path of the metadata journal
+     * @param keyIndex         {@code true} if sorted index of the keys should be kept
+     * @param blobStore        store of the blobs, {@code null} if there are no deduplicated files
+     * @param backgroundWarmUp {@code true} if {@link #warmUp()} is called later, concurrently with the use of the storage
+     * @param namespaces       namespaces of the keys
+     * @param sharedRoot       shared state of the storage root, {@code null} if the root isn't shared
+     */
+
+    public FileStorageData(String userDataPath, String propertiesPath, String journalPath, boolean keyIndex, BlobStore blobStore,
+                           boolean backgroundWarmUp, Namespaces namespaces, SharedRoot sharedRoot) {
+        this.namespaces = namespaces;
+        this.sharedRoot = sharedRoot;
+        this.userDataPath = userDataPath;
         this.propertiesPath = propertiesPath;
-        loadProperties();
-        OperationService operationService = new OperationServiceImpl();
-        this.totalSizeOfFiles = operationService.getTotalSizeOfFiles(userDataPath);
+        this.metadataTable = new MetadataTable(METADATA_TABLE_SHARD_BITS, INITIAL_METADATA_TABLE_CAPACITY);
+        this.metadataJournal = new MetadataJournal(journalPath);
+        this.storedFilesFilter = new KeyPresenceFilter(DEFAULT_EXPECTED_NUMBER_OF_FILES);
+        this.keyIndex = keyIndex ? new ConcurrentSkipListSet<String>() : null;
+        this.blobStore = blobStore;
+        this.backgroundWarmUp = backgroundWarmUp;
+        for (int i = 0; i < this.fileLocks.length; i++)
+            this.fileLocks[i] = sharedRoot != null ? sharedRoot.fileLock(i) : new ReentrantLock();
+        if (sharedRoot != null) {
+            this.attachToSharedRoot();
+        } else {
+            this.replayJournal();
+            this.registerReplayedFiles();
+        }
+        if (!backgroundWarmUp)
+            this.warmUp();
     }
 
+    /**
+     * Returns used disc space. Used space of the shared root is counted by all processes
+     *
+     * @return used disc space in bites
+     */
+
     public long getTotalSizeOfFiles() {
-        return totalSizeOfFiles;
+        return this.sharedRoot != null ? this.sharedRoot.getUsedSpace() : this.totalSizeOfFiles.get();
     }
 
     public void increaseTotalSizeOfFiles(long fileSize) {
-        this.totalSizeOfFiles += fileSize;
+        this.totalSizeOfFiles.addAndGet(fileSize);
+        if (this.sharedRoot != null)
+            this.sharedRoot.addFilesSpace(fileSize);
     }
 
     public void decreaseTotalSizeOfFiles(long fileSize) {
-        this.totalSizeOfFiles -= fileSize;
+        this.increaseTotalSizeOfFiles(-fileSize);
+    }
+
+    /**
+     * Counts growth of the multipart upload as the used disc space. Uploads of the shared root are counted
+     * apart from the files, because they are restored and counted again by the process, which takes the slot of the exited one
+     *
+     * @param uploadSize growth of the upload in bites, negative when the upload is released
+     */
+
+    public void increaseSizeOfUploads(long uploadSize) {
+        this.totalSizeOfFiles.addAndGet(uploadSize);
+        if (this.sharedRoot != null)
+            this.sharedRoot.addUploadsSpace(uploadSize);
+    }
+
+    /**
+     * Applies the changes, which were made by other processes sharing the storage root. Does nothing, if the root isn't shared
+     */
+
+    public void refresh() {
+        this.metadataJournal.applyForeignRecords();
+    }
+
+    /**
+     * Closes the metadata journal. Metadata can't be changed after that
+     */
+
+    public void close() {
+        this.metadataJournal.close();
+    }
+
+    public long getNumberOfFiles() {
+        return this.metadataTable.size();
+    }
+
+    /**
+     * Registers new stored file
+     *
+     * @param path           path of the file
+     * @param key            the key of the file
+     * @param fileSize       size of the file in bites
+     * @param creationTime   creation time of the file
+     * @param expirationTime expiration time of the file, 0 if file doesn't expire
+     * @param checksum       CRC32 of the file content
+     */
+
+    public void addFile(String path, String key, long fileSize, long creationTime, long expirationTime, int checksum) {
+        this.addFile(path, key, fileSize, fileSize, creationTime, expirationTime, checksum, 0);
+    }
+
+    /**
+     * Registers new stored file, which may be compressed. Stored size of the file is counted as the used disc space
+     *
+     * @param path           path of the file
+     * @param key            the key of the file
+     * @param fileSize       stored size of the file in bites
+     * @param originalSize   size of the file content before compression in bites
+     * @param creationTime   creation time of the file
+     * @param expirationTime expiration time of the file, 0 if file doesn't expire
+     * @param checksum       CRC32 of the file content before compression
+     * @param flags          additional flags of the file ({@link MetadataTable#FLAG_COMPRESSED})
+     */
+
+    public void addFile(String path, String key, long fileSize, long originalSize, long creationTime, long expirationTime, int checksum, int flags) {
+        this.addFile(path, key, fileSize, originalSize, creationTime, expirationTime, checksum, flags, null);
+    }
+
+    /**
+     * Registers new stored file, which may refer to the shared blob. Size of the deduplicated file isn't counted
+     * as the used disc space: the space is counted, when the blob is created
+     *
+     * @param path           path of the file
+     * @param key            the key of the file
+     * @param fileSize       stored size of the file in bites
+     * @param originalSize   size of the file content before compression in bites
+     * @param creationTime   creation time of the file
+     * @param expirationTime expiration time of the file, 0 if file doesn't expire
+     * @param checksum       CRC32 of the file content before compression
+     * @param flags          additional flags of the file ({@link MetadataTable#FLAG_COMPRESSED})
+     * @param digest         digest of the blob, {@code null} if the file isn't deduplicated
+     */
+
+    public void addFile(String path, String key, long fileSize, long originalSize, long creationTime, long expirationTime,
+                        int checksum, int flags, String digest) {
+        final String relativePath = this.relativePath(path);
+        final MetadataEntry entry = new MetadataEntry();
+        entry.hash = KeyHashing.hash64(relativePath);
+        entry.tag = KeyHashing.hash32(relativePath);
+        entry.size = fileSize;
+        entry.originalSize = originalSize;
+        entry.creationTime = creationTime;
+        entry.expirationTime = expirationTime;
+        entry.checksum = checksum;
+        entry.flags = flags | MetadataTable.FLAG_CHECKSUM | (expirationTime > 0 ? MetadataTable.FLAG_EXPIRATION : 0)
+                | (digest != null ? MetadataTable.FLAG_DEDUPLICATED : 0);
+        entry.version = 1;
+        entry.lifeTime = lifeTimeOf(entry);
+        entry.namespace = this.namespaces.idOf(key);
+
+        final ReentrantLock warmUpLock = this.lockAgainstWarmUp(entry.hash);
+        this.journalLock.readLock().lock();
+        try {
+            if (warmUpLock != null)
+                this.releaseScannedFile(entry.hash, entry.tag);
+            entry.journalOffset = this.metadataJournal.appendPut(entry, relativePath, key, digest);
+            if (this.metadataTable.put(entry))
+                this.garbageRecords.incrementAndGet();
+            else
+                this.storedFilesFilter.add(entry.hash);
+            if (this.keyIndex != null)
+                this.keyIndex.add(key);
+            this.addToNamespace(entry);
+        } finally {
+            this.journalLock.readLock().unlock();
+            unlock(warmUpLock);
+        }
+        if (digest == null)
+            this.increaseTotalSizeOfFiles(fileSize);
+        if (expirationTime > 0)
+            this.noteExpirationTime(expirationTime);
+    }
+
+    /**
+     * Unregisters deleted file, includes it expiration time
+     *
+     * @param path path of the file
+     * @return {@code true} if file was registered
+     */
+
+    public boolean removeFile(String path) {
+        return this.removeFileAndReleaseSpace(path) >= 0;
+    }
+
+    /**
+     * Unregisters deleted file and releases the blob of the deduplicated file, if it was the last reference
+     *
+     * @param path path of the file
+     * @return released disc space in bites, -1 if file wasn't registered
+     */
+
+    public long removeFileAndReleaseSpace(String path) {
+        final String relativePath = this.relativePath(path);
+        final long hash = KeyHashing.hash64(relativePath);
+        final int tag = KeyHashing.hash32(relativePath);
+        final MetadataEntry removedEntry = new MetadataEntry();
+        final boolean deduplicated;
+        JournalRecord removedRecord = null;
+
+        // Reference counts of the blobs are restored by the warm-up
+        if (!this.isWarmedUp() && this.blobStore != null && this.getMetadata(path, removedEntry)
+                && removedEntry.hasFlag(MetadataTable.FLAG_DEDUPLICATED))
+            this.awaitWarmUp();
+
+        final ReentrantLock warmUpLock = this.lockAgainstWarmUp(hash);
+        this.journalLock.readLock().lock();
+        try {
+            if (!this.metadataTable.remove(hash, tag, removedEntry))
+                return -1;
+            this.metadataJournal.appendRemove(hash, tag);
+            deduplicated = removedEntry.hasFlag(MetadataTable.FLAG_DEDUPLICATED) && this.blobStore != null;
+            if (deduplicated || (this.keyIndex != null && !removedEntry.hasFlag(MetadataTable.FLAG_UNKNOWN_KEY)))
+                removedRecord = this.metadataJournal.read(removedEntry.journalOffset);
+            if (this.keyIndex != null && !removedEntry.hasFlag(MetadataTable.FLAG_UNKNOWN_KEY))
+                this.keyIndex.remove(removedRecord.key);
+            this.removeFromNamespace(removedEntry);
+        } finally {
+            this.journalLock.readLock().unlock();
+            unlock(warmUpLock);
+        }
+        this.garbageRecords.addAndGet(2);
+        this.storedFilesFilter.remove(hash);
+        final long releasedSpace = deduplicated ? this.blobStore.release(removedRecord.digest) : removedEntry.size;
+        this.decreaseTotalSizeOfFiles(releasedSpace);
+        return releasedSpace;
+    }
+
+    /**
+     * Moves the new content over the file and registers it as the next version of the file.
+     * Readers, which opened the file before, keep reading the previous content. Disc space of the previous content
+     * is released together with the replacing of its metadata, so it's released once even if the file is deleted concurrently.
+     * If the file isn't registered, the content is moved only if there is no file on the disc (for example, written by
+     * the concurrent saving), and it's registered as the first version
+     *
+     * @param path           path of the file
+     * @param key            the key of the file
+     * @param content        file with the new stored content, on the same disc as the file
+     * @param fileSize       stored size of the content in bites
+     * @param originalSize   size of the content before compression in bites
+     * @param creationTime   creation time of the new content
+     * @param expirationTime expiration time of the file, 0 if file doesn't expire
+     * @param checksum       CRC32 of the content before compression
+     * @param flags          additional flags of the file ({@link MetadataTable#FLAG_COMPRESSED})
+     * @return version of the new content
+     * @throws IOException if the content can't be moved, for example if the not registered file exists on the disc
+     */
+
+    public long replaceFile(String path, String key, Path content, long fileSize, long originalSize, long creationTime,
+                            long expirationTime, int checksum, int flags) throws IOException {
+        final String relativePath = this.relativePath(path);
+        final MetadataEntry entry = new MetadataEntry();
+        entry.hash = KeyHashing.hash64(relativePath);
+        entry.tag = KeyHashing.hash32(relativePath);
+        entry.size = fileSize;
+        entry.originalSize = originalSize;
+        entry.creationTime = creationTime;
+        entry.expirationTime = expirationTime;
+        entry.checksum = checksum;
+        entry.flags = flags | MetadataTable.FLAG_CHECKSUM | (expirationTime > 0 ? MetadataTable.FLAG_EXPIRATION : 0);
+        entry.lifeTime = lifeTimeOf(entry);
+        entry.namespace = this.namespaces.idOf(key);
+
+        final MetadataEntry previousEntry = new MetadataEntry();
+        final int stripe = (int) (entry.hash & (FILE_LOCK_STRIPES - 1));
+        final ReentrantLock lock = this.fileLocks[stripe];
+        JournalRecord previousRecord = null;
+        final boolean replaced;
+        lock.lock();
+        try {
+            this.refresh();
+            replaced = this.metadataTable.get(entry.hash, entry.tag, previousEntry);
+            entry.version = replaced ? previousEntry.version + 1 : 1;
+            // Odd sequence marks the stripe as changing, readers retry until it's even again
+            this.advanceContentSequence(stripe);
+            try {
+                Files.createDirectories(Paths.get(path).getParent());
+                if (replaced)
+                    Files.move(content, Paths.get(path), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                else
+                    Files.move(content, Paths.get(path), StandardCopyOption.ATOMIC_MOVE);
+                this.journalLock.readLock().lock();
+                try {
+                    if (replaced && (previousEntry.hasFlag(MetadataTable.FLAG_DEDUPLICATED) && this.blobStore != null
+                            || this.keyIndex != null && !previousEntry.hasFlag(MetadataTable.FLAG_UNKNOWN_KEY)))
+                        previousRecord = this.metadataJournal.read(previousEntry.journalOffset);
+                    entry.journalOffset = this.metadataJournal.appendPut(entry, relativePath, key);
+                    if (this.metadataTable.put(entry))
+                        this.garbageRecords.incrementAndGet();
+                    else
+                        this.storedFilesFilter.add(entry.hash);
+                    if (this.keyIndex != null) {
+                        if (previousRecord != null && previousRecord.key != null)
+                            this.keyIndex.remove(previousRecord.key);
+                        this.keyIndex.add(key);
+                    }
+                    if (replaced)
+                        this.removeFromNamespace(previousEntry);
+                    this.addToNamespace(entry);
+                } finally {
+                    this.journalLock.readLock().unlock();
+                }
+            } finally {
+                this.advanceContentSequence(stripe);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        this.increaseTotalSizeOfFiles(fileSize);
+        if (replaced) {
+            final boolean deduplicated = previousEntry.hasFlag(MetadataTable.FLAG_DEDUPLICATED) && this.blobStore != null;
+            this.decreaseTotalSizeOfFiles(deduplicated ? this.blobStore.release(previousRecord.digest) : previousEntry.size);
+        }
+        if (expirationTime > 0)
+            this.noteExpirationTime(expirationTime);
+        return entry.version;
+    }
+
+    /**
+     * Locks the file against the concurrent changes, which are made under the same lock.
+     * Lock is striped, so it may be shared with other files, and it's reentrant
+     *
+     * @param path path of the file
+     * @return locked lock, which must be unlocked by the caller
+     */
+
+    public ReentrantLock lockFile(String path) {
+        final ReentrantLock lock = this.fileLocks[this.stripeOf(path)];
+        lock.lock();
+        this.refresh();
+        return lock;
     }
 
-    public synchronized void putExpirationTime(String path, long expirationTime) {
-        final Long expirationTimeToLong = expirationTime;
-        expirationFiles.setProperty(path, expirationTimeToLong.toString());
-        this.storeProperties();
+    /**
+     * Starts the reading of the file content, which is validated by {@link #validateContentRead(String, long)}
+     * after the metadata is read and the file is opened
+     *
+     * @param path path of the file
+     * @return stamp of the reading
+     */
+
+    public long beginContentRead(String path) {
+        final int stripe = this.stripeOf(path);
+        long stamp;
+        while (((stamp = this.contentSequence(stripe)) & 1) != 0)
+            Thread.yield();
+        return stamp;
+    }
+
+    /**
+     * Checks, that the content of the file wasn't replaced since {@link #beginContentRead(String)}
+     *
+     * @param path  path of the file
+     * @param stamp stamp of the reading
+     * @return {@code false} if the file could be replaced, so the read metadata may not describe the opened file
+     */
+
+    public boolean validateContentRead(String path, long stamp) {
+        return this.contentSequence(this.stripeOf(path)) == stamp;
+    }
+
+    private long contentSequence(int stripe) {
+        return this.sharedRoot != null ? this.sharedRoot.getContentSequence(stripe) : this.contentSequences.get(stripe);
+    }
+
+    private void advanceContentSequence(int stripe) {
+        if (this.sharedRoot != null)
+            this.sharedRoot.advanceContentSequence(stripe);
+        else
+            this.contentSequences.incrementAndGet(stripe);
+    }
+
+    private int stripeOf(String path) {
+        return (int) (KeyHashing.hash64(this.relativePath(path)) & (FILE_LOCK_STRIPES - 1));
+    }
+
+    /**
+     * Checks, if this file may be stored. Doesn't use the disc
+     *
+     * @param path path of the file
+     * @return {@code false} if file is definitely not stored, {@code true} if it may be stored
+     */
+
+    public boolean mightBeStored(String path) {
+        this.refresh();
+        final String relativePath = this.relativePath(path);
+        final long hash = KeyHashing.hash64(relativePath);
+        return this.storedFilesFilter.mightContain(hash) && this.metadataTable.contains(hash, KeyHashing.hash32(relativePath));
+    }
+
+    /**
+     * Reads metadata of the file. Doesn't use the disc
+     *
+     * @param path   path of the file
+     * @param target entry, which will be filled by the metadata
+     * @return {@code true} if file is registered
+     */
+
+    public boolean getMetadata(String path, MetadataEntry target) {
+        this.refresh();
+        final String relativePath = this.relativePath(path);
+        return this.metadataTable.get(KeyHashing.hash64(relativePath), KeyHashing.hash32(relativePath), target);
     }
 
-    public synchronized long getExpirationTime(String path) {
-        final String expirationTimeString = expirationFiles.getProperty(path);
-        return Long.parseLong(expirationTimeString);
+    /**
+     * Reads journal record with the key and the path of the registered file
+     *
+     * @param entry metadata of the file
+     * @return journal record of the file
+     */
+
+    public JournalRecord readJournalRecord(MetadataEntry entry) {
+        this.journalLock.readLock().lock();
+        try {
+            return this.metadataJournal.read(entry.journalOffset);
+        } finally {
+            this.journalLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads key of the registered file
+     *
+     * @param entry metadata of the file
+     * @return key of the file, {@code null} if the file was found on the disc and its key is unknown
+     */
+
+    public String readKey(MetadataEntry entry) {
+        return entry.hasFlag(MetadataTable.FLAG_UNKNOWN_KEY) ? null : this.readJournalRecord(entry).getKey();
+    }
+
+    /**
+     * Returns sorted index of the keys
+     *
+     * @return unmodifiable view of the index, {@code null} if the index isn't kept
+     */
+
+    public NavigableSet<String> getKeyIndex() {
+        this.refresh();
+        return this.keyIndex == null || !this.isWarmedUp() ? null : Collections.unmodifiableNavigableSet(this.keyIndex);
+    }
+
+    /**
+     * Scans the metadata and compares size of the stored content with the really used disc space
+     *
+     * @return report about the used disc space
+     */
+
+    public SpaceReport getSpaceReport() {
+        final long[] sizes = new long[2];
+        this.metadataTable.forEach(new MetadataVisitor() {
+            @Override
+            public void visitEntry(MetadataEntry entry) {
+                sizes[0] += entry.originalSize;
+                sizes[1] += entry.size;
+            }
+        });
+        return new SpaceReport(this.metadataTable.size(), this.blobStore == null ? 0 : this.blobStore.getNumberOfBlobs(),
+                sizes[0], sizes[1], this.getTotalSizeOfFiles());
     }
 
-    public synchronized long removeExpirationTime(String path) {
-        final String expirationTimeString = this.expirationFiles.remove(path).toString();
-        this.storeProperties();
-        return Long.parseLong(expirationTimeString);
+    int getNumberOfShards() {
+        return this.metadataTable.getNumberOfShards();
     }
 
-    public synchronized Set<String> expirationTimeKeySet() {
-        return expirationFiles.stringPropertyNames();
+    int shardOf(long hash) {
+        return this.metadataTable.shardOf(hash);
     }
 
-    public synchronized boolean isExpirationFile(String path) {
-        return expirationFiles.containsKey(path);
+    MetadataTable.ShardScanner scanner(int shardNumber) {
+        this.refresh();
+        return this.metadataTable.scanner(shardNumber);
     }
 
-    private void storeProperties() {
-        final File file = new File(propertiesPath);
+    /**
+     * Reads journal records of the next chunk of the shard. Files with unknown keys are skipped
+     *
+     * @param scanner     scanner of the shard
+     * @param prefix      prefix of the keys, {@code null} for all keys
+     * @param currentTime files expired at this time are skipped, {@code 0} to read the expired files too
+     * @param records     list, which will be filled by the records of the chunk in the order of hashes
+     * @return {@code false} if there are no more entries in the shard
+     */
+
+    boolean readKeys(MetadataTable.ShardScanner scanner, String prefix, long currentTime, List<JournalRecord> records) {
+        records.clear();
+        // Offsets of the chunk must stay valid until the records are read, so compaction is blocked
+        this.journalLock.readLock().lock();
         try {
-            if (!file.exists())
-                if (!file.createNewFile())
-                    LOGGER.warn("Can't create properties file");
-            expirationFiles.store(new FileWriter(file), "Path to expiration file and it expiration time");
+            if (!scanner.next())
+                return false;
+            final MetadataEntry[] entries = scanner.entries();
+            for (int i = 0; i < scanner.count(); i++) {
+                if (entries[i].hasFlag(MetadataTable.FLAG_UNKNOWN_KEY)
+                        || currentTime != 0 && ExpirationFilesDeleter.isExpired(entries[i], currentTime))
+                    continue;
+                final JournalRecord record = this.metadataJournal.read(entries[i].journalOffset);
+                if (prefix == null || record.key.startsWith(prefix))
+                    records.add(record);
+            }
+            return true;
+        } finally {
+            this.journalLock.readLock().unlock();
+        }
+    }
+
+    boolean isSharedRoot() {
+        return this.sharedRoot != null;
+    }
+
+    long getModifications(int shardNumber) {
+        return this.metadataTable.getModifications(shardNumber);
+    }
+
+    /**
+     * Checks registered files of the shard against the user data directory and their expiration metadata.
+     * Each file is checked under its lock, so the storage can be used during the check
+     *
+     * @param shardNumber       number of the shard
+     * @param currentTime       start time of the check
+     * @param repair            {@code true} if the found problems should be repaired
+     * @param writeBehindBuffer buffer of the files, which aren't written to the disc yet, {@code null} if it isn't used
+     * @param report            receiver of the found problems
+     */
+
+    void checkShard(int shardNumber, long currentTime, boolean repair, WriteBehindBuffer writeBehindBuffer, ConsistencyReport report) {
+        final MetadataTable.ShardScanner scanner = this.scanner(shardNumber);
+        final MetadataEntry entry = new MetadataEntry();
+        while (scanner.next()) {
+            final MetadataEntry[] entries = scanner.entries();
+            for (int i = 0; i < scanner.count(); i++) {
+                final ReentrantLock lock = this.fileLocks[(int) (entries[i].hash & (FILE_LOCK_STRIPES - 1))];
+                lock.lock();
+                try {
+                    this.refresh();
+                    // Entry may be changed by the storage after it was read by the scanning
+                    if (this.metadataTable.get(entries[i].hash, entries[i].tag, entry))
+                        this.checkFile(entry, currentTime, repair, writeBehindBuffer, report);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private void checkFile(MetadataEntry entry, long currentTime, boolean repair, WriteBehindBuffer writeBehindBuffer, ConsistencyReport report) {
+        report.fileChecked();
+        final JournalRecord record = this.readJournalRecord(entry);
+        final String filePath = this.userDataPath + record.relativePath;
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(Paths.get(filePath), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            if (writeBehindBuffer != null && writeBehindBuffer.isStaged(filePath))
+                return;
+            report.add(ConsistencyReport.Problem.LOST_FILE, filePath);
+            if (repair)
+                this.removeFile(filePath);
+            return;
         } catch (IOException e) {
-            LOGGER.error("Can't create properties file", e);
+            report.add(ConsistencyReport.Problem.UNREADABLE_FILE, filePath + ": " + e);
+            return;
+        }
+
+        if (attributes.size() != entry.size) {
+            report.add(ConsistencyReport.Problem.SIZE_MISMATCH, filePath + ": registered " + entry.size
+                    + " bites, stored " + attributes.size() + " bites");
+            if (repair) {
+                this.registerChangedSize(record.relativePath, attributes, entry);
+                this.metadataTable.update(entry);
+            }
+        }
+        final boolean expirationFile = entry.hasFlag(MetadataTable.FLAG_EXPIRATION);
+        if (expirationFile != entry.expirationTime > 0) {
+            report.add(ConsistencyReport.Problem.EXPIRATION_MISMATCH, filePath + ": expiration time " + entry.expirationTime);
+            if (repair)
+                this.changeExpirationTime(filePath, 0, 0, 0);
+        } else if (expirationFile && entry.expirationTime < this.earliestExpirationTime.get()
+                && entry.expirationTime < currentTime - ConsistencyChecker.RECENT_CHANGE_TIME) {
+            // Expired files are deleted by the scanning, which starts only after the earliest noted expiration time
+            report.add(ConsistencyReport.Problem.EXPIRED_FILE, filePath + ": expired at " + entry.expirationTime);
+            if (repair)
+                this.noteExpirationTime(entry.expirationTime);
+        }
+    }
+
+    /**
+     * Checks, that the file, which is found in the user data directory, is registered
+     *
+     * @param filePath   path of the file
+     * @param attributes attributes of the file
+     * @param repair     {@code true} if not registered file should be registered with unknown key
+     * @return {@code false} if file isn't registered
+     */
+
+    boolean checkStoredFile(String filePath, BasicFileAttributes attributes, boolean repair) {
+        final String relativePath = this.relativePath(filePath);
+        final long hash = KeyHashing.hash64(relativePath);
+        final int tag = KeyHashing.hash32(relativePath);
+        final ReentrantLock lock = this.fileLocks[(int) (hash & (FILE_LOCK_STRIPES - 1))];
+        lock.lock();
+        try {
+            this.refresh();
+            // File may be deleted by the storage after it was found
+            if (this.metadataTable.get(hash, tag, null) || !new File(filePath).exists())
+                return true;
+            if (repair)
+                this.registerUnknownFile(filePath, relativePath, hash, tag, attributes, new MetadataEntry(), 0);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sums sizes of the files of the shard
+     *
+     * @param shardNumber number of the shard
+     * @return size of the files, which aren't deduplicated, and sizes of the files of each namespace by its id
+     */
+
+    long[] getSizeOfShard(int shardNumber) {
+        final long[] sizes = new long[this.namespaces.size() + 1];
+        this.metadataTable.forEach(shardNumber, new MetadataVisitor() {
+            @Override
+            public void visitEntry(MetadataEntry entry) {
+                if (!entry.hasFlag(MetadataTable.FLAG_DEDUPLICATED))
+                    sizes[0] += entry.size;
+                if (entry.namespace != 0)
+                    sizes[entry.namespace] += entry.size;
+            }
+        });
+        return sizes;
+    }
+
+    long getSizeOfBlobs() {
+        return this.blobStore == null ? 0 : this.blobStore.getSizeOfBlobs();
+    }
+
+    /**
+     * Checks, that the properties file of the previous versions was moved to the metadata journal
+     *
+     * @param repair {@code true} if the properties file should be moved now
+     * @return {@code false} if the properties file exists
+     */
+
+    boolean checkProperties(boolean repair) {
+        if (!new File(this.propertiesPath).exists())
+            return true;
+        if (repair)
+            this.loadProperties();
+        return false;
+    }
+
+    public void putExpirationTime(String path, long expirationTime) {
+        this.changeExpirationTime(path, expirationTime, -1, 0);
+        this.noteExpirationTime(expirationTime);
+    }
+
+    /**
+     * Sets new life time of the file, which is counted from the current time. Doesn't change expired file
+     *
+     * @param path        path of the file
+     * @param currentTime current time
+     * @param lifeTime    new life time of the file in milliseconds, 0 if file shouldn't expire
+     * @return {@code false} if file isn't registered or it's already expired
+     */
+
+    public boolean touchFile(String path, long currentTime, long lifeTime) {
+        final long expirationTime = lifeTime > 0 ? currentTime + lifeTime : 0;
+        if (this.changeExpirationTime(path, expirationTime, lifeTime, currentTime) < 0)
+            return false;
+        if (expirationTime > 0)
+            this.noteExpirationTime(expirationTime);
+        return true;
+    }
+
+    public long getExpirationTime(String path) {
+        final MetadataEntry entry = new MetadataEntry();
+        if (!this.getMetadata(path, entry) || !entry.hasFlag(MetadataTable.FLAG_EXPIRATION))
+            return 0;
+        return entry.expirationTime;
+    }
+
+    public long removeExpirationTime(String path) {
+        return Math.max(0, this.changeExpirationTime(path, 0, 0, 0));
+    }
+
+    public boolean isExpirationFile(String path) {
+        final MetadataEntry entry = new MetadataEntry();
+        return this.getMetadata(path, entry) && entry.hasFlag(MetadataTable.FLAG_EXPIRATION);
+    }
+
+    /**
+     * Finds files, which are expired. Scans the metadata only if some file can be expired at this time
+     *
+     * @param currentTime current time
+     * @return paths of the expired files
+     */
+
+    public List<String> findExpiredFiles(final long currentTime) {
+        this.refresh();
+        if (currentTime < this.earliestExpirationTime.get())
+            return Collections.emptyList();
+
+        this.earliestExpirationTime.set(Long.MAX_VALUE);
+        final List<String> expiredFiles = new ArrayList<String>();
+        this.journalLock.readLock().lock();
+        try {
+            this.metadataTable.forEach(new MetadataVisitor() {
+                @Override
+                public void visitEntry(MetadataEntry entry) {
+                    if (!entry.hasFlag(MetadataTable.FLAG_EXPIRATION))
+                        return;
+                    noteExpirationTime(entry.expirationTime);
+                    if (entry.expirationTime <= currentTime && expiredFiles.size() < MAX_EXPIRED_FILES_PER_SCAN)
+                        expiredFiles.add(userDataPath + metadataJournal.read(entry.journalOffset).relativePath);
+                }
+            });
+        } finally {
+            this.journalLock.readLock().unlock();
+        }
+        return expiredFiles;
+    }
+
+    /**
+     * Finds the oldest files, which total size is not less than discSpace (or all files)
+     *
+     * @param discSpace disc space in bites, which should be liberated
+     * @return paths of the files, the oldest first
+     */
+
+    public List<String> findOldestFiles(final long discSpace) {
+        final PriorityQueue<MetadataEntry> newestFirst = new PriorityQueue<MetadataEntry>(16, new Comparator<MetadataEntry>() {
+            @Override
+            public int compare(MetadataEntry first, MetadataEntry second) {
+                return Long.compare(second.creationTime, first.creationTime);
+            }
+        });
+        final long[] sizeOfFiles = new long[1];
+
+        this.refresh();
+        this.journalLock.readLock().lock();
+        try {
+            this.metadataTable.forEach(new MetadataVisitor() {
+                @Override
+                public void visitEntry(MetadataEntry entry) {
+                    final MetadataEntry candidate = new MetadataEntry();
+                    candidate.copyFrom(entry);
+                    newestFirst.add(candidate);
+                    sizeOfFiles[0] += candidate.size;
+                    while (sizeOfFiles[0] - newestFirst.peek().size >= discSpace)
+                        sizeOfFiles[0] -= newestFirst.poll().size;
+                }
+            });
+
+            final String[] oldestFiles = new String[newestFirst.size()];
+            for (int i = oldestFiles.length - 1; i >= 0; i--)
+                oldestFiles[i] = this.userDataPath + this.metadataJournal.read(newestFirst.poll().journalOffset).relativePath;
+            return Arrays.asList(oldestFiles);
+        } finally {
+            this.journalLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the oldest files of the namespace. Only the files of this namespace are visited
+     *
+     * @param namespace namespace of the files
+     * @param discSpace total stored size of the found files
+     * @return paths of the oldest files, from the oldest one
+     */
+
+    public List<String> findOldestFiles(Namespace namespace, long discSpace) {
+        final List<String> oldestFiles = new ArrayList<String>();
+        final MetadataEntry entry = new MetadataEntry();
+        long sizeOfFiles = 0;
+
+        this.refresh();
+        this.journalLock.readLock().lock();
+        try {
+            final Iterator<Namespace.FileReference> files = namespace.oldestFiles();
+            while (sizeOfFiles < discSpace && files.hasNext()) {
+                final Namespace.FileReference file = files.next();
+                if (!this.metadataTable.get(file.hash, file.tag, entry))
+                    continue;
+                oldestFiles.add(this.userDataPath + this.metadataJournal.read(entry.journalOffset).relativePath);
+                sizeOfFiles += entry.size;
+            }
+            return oldestFiles;
+        } finally {
+            this.journalLock.readLock().unlock();
+        }
+    }
+
+    public Namespaces getNamespaces() {
+        return this.namespaces;
+    }
+
+    /**
+     * Rewrites the metadata journal without outdated records, if there are too many of them
+     */
+
+    public void compactJournalIfNeeded() {
+        // Warm-up distinguishes the files, which were registered after the replay, by their journal offsets
+        if (!this.isWarmedUp() || this.sharedRoot != null)
+            return;
+        final long garbage = this.garbageRecords.get();
+        if (garbage >= MIN_GARBAGE_RECORDS_TO_COMPACT && garbage > this.metadataTable.size())
+            this.compactJournal();
+    }
+
+    /**
+     * Rewrites the metadata journal without outdated records
+     */
+
+    public void compactJournal() {
+        if (this.sharedRoot != null) {
+            LOGGER.warn("Metadata journal of the shared storage root isn't compacted");
+            return;
+        }
+        this.awaitWarmUp();
+        final Object event = FlightRecorderEvents.beginBackgroundTask();
+        Throwable failure = null;
+        this.journalLock.writeLock().lock();
+        try {
+            final MetadataJournal compactedJournal = new MetadataJournal(this.metadataJournal.getJournalPath() + ".compacting");
+            compactedJournal.clear();
+            try {
+                this.metadataTable.forEach(new MetadataVisitor() {
+                    @Override
+                    public void visitEntry(MetadataEntry entry) {
+                        final JournalRecord record = metadataJournal.read(entry.journalOffset);
+                        compactedJournal.appendPut(entry, record.relativePath, record.key, record.digest);
+                    }
+                });
+            } catch (RuntimeException e) {
+                compactedJournal.close();
+                throw e;
+            }
+            this.metadataJournal.replaceWith(compactedJournal);
+
+            final MetadataEntry entry = new MetadataEntry();
+            this.metadataJournal.replay(new JournalVisitor() {
+                @Override
+                public void visitRecord(JournalRecord record) {
+                    if (metadataTable.get(record.hash, record.tag, entry)) {
+                        entry.journalOffset = record.offset;
+                        metadataTable.update(entry);
+                    }
+                }
+            });
+            this.garbageRecords.set(0);
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            this.journalLock.writeLock().unlock();
+            FlightRecorderEvents.finishBackgroundTask(event, "compactJournal", this.metadataTable.size(), 0, failure);
+        }
+    }
+
+    /**
+     * Changes expiration time of the file
+     *
+     * @param lifeTime    new life time, -1 if it's counted from the creation of the file
+     * @param currentTime current time, if the file is already expired at this time, it isn't changed. 0 if it isn't checked
+     * @return previous expiration time, 0 if file didn't expire, -1 if file isn't registered or it's expired
+     */
+
+    private long changeExpirationTime(String path, long expirationTime, long lifeTime, long currentTime) {
+        final MetadataEntry entry = new MetadataEntry();
+        final ReentrantLock warmUpLock = this.lockAgainstWarmUp(KeyHashing.hash64(this.relativePath(path)));
+        this.journalLock.readLock().lock();
+        try {
+            if (!this.getMetadata(path, entry))
+                return -1;
+            final long previousExpirationTime = entry.hasFlag(MetadataTable.FLAG_EXPIRATION) ? entry.expirationTime : 0;
+            if (currentTime > 0 && previousExpirationTime > 0 && previousExpirationTime <= currentTime)
+                return -1;
+            entry.expirationTime = expirationTime;
+            entry.lifeTime = lifeTime >= 0 ? lifeTime : lifeTimeOf(entry);
+            if (expirationTime > 0)
+                entry.flags |= MetadataTable.FLAG_EXPIRATION;
+            else
+                entry.flags &= ~MetadataTable.FLAG_EXPIRATION;
+            this.metadataJournal.appendExpiration(entry.hash, entry.tag, entry.expirationTime, entry.flags, entry.lifeTime);
+            this.metadataTable.update(entry);
+            this.garbageRecords.incrementAndGet();
+            return previousExpirationTime;
+        } finally {
+            this.journalLock.readLock().unlock();
+            unlock(warmUpLock);
+        }
+    }
+
+    private static long lifeTimeOf(MetadataEntry entry) {
+        return entry.expirationTime > 0 ? Math.max(0, entry.expirationTime - entry.creationTime) : 0;
+    }
+
+    private void noteExpirationTime(long expirationTime) {
+        long earliest = this.earliestExpirationTime.get();
+        while (expirationTime < earliest && !this.earliestExpirationTime.compareAndSet(earliest, expirationTime))
+            earliest = this.earliestExpirationTime.get();
+    }
+
+    private String relativePath(String path) {
+        return path.startsWith(this.userDataPath) ? path.substring(this.userDataPath.length()) : path;
+    }
+
+    /**
+     * Scans the user data directory: registers files, which were copied to the storage directly, removes files,
+     * which were lost, restores reference counts of the blobs and builds the key index. After the warm-up used disc space is exact.
+     * Storage can be used while it runs: each changed file is locked against its concurrent verification
+     */
+
+    public void warmUp() {
+        final Object event = FlightRecorderEvents.beginBackgroundTask();
+        this.warmUpStartTime = new Date().getTime();
+        try {
+            final OperationService operationService = new OperationServiceImpl();
+            operationService.getTotalSizeOfFiles(this.userDataPath, new StoredFileHandler() {
+                private final MetadataEntry entry = new MetadataEntry();
+
+                @Override
+                public void handleFile(String filePath, BasicFileAttributes attributes) {
+                    verifyFile(filePath, attributes, this.entry);
+                    scannedFiles.incrementAndGet();
+                }
+            });
+
+            // Expiration times of the previous versions are loaded once, by the first process of the shared root
+            if (this.soleProcessAtStart)
+                this.loadProperties();
+            this.warmUpPhase = WarmUpProgress.Phase.RECONCILING;
+            this.reconcile();
+            this.warmUpPhase = WarmUpProgress.Phase.READY;
+        } catch (RuntimeException e) {
+            this.readiness.completeExceptionally(e);
+            FlightRecorderEvents.finishBackgroundTask(event, "warmUp", this.scannedFiles.get(), 0, e);
+            throw e;
+        }
+        this.readiness.complete(null);
+        FlightRecorderEvents.finishBackgroundTask(event, "warmUp", this.scannedFiles.get(), 0, null);
+        this.compactJournalIfNeeded();
+    }
+
+    public boolean isWarmedUp() {
+        return this.warmUpPhase == WarmUpProgress.Phase.READY;
+    }
+
+    /**
+     * Waits until the warm-up is finished
+     *
+     * @throws ReadWriteFileStorageException if the warm-up failed or the thread was interrupted while waiting
+     */
+
+    public void awaitWarmUp() {
+        if (this.isWarmedUp())
+            return;
+        try {
+            this.readiness.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReadWriteFileStorageException("Interrupted while waiting for the warm-up", this.userDataPath, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new ReadWriteFileStorageException("Warm-up failed", this.userDataPath, e.getCause());
+        }
+    }
+
+    /**
+     * Returns future, which is completed when the warm-up is finished
+     *
+     * @return future of the warm-up, which is completed exceptionally if the warm-up failed
+     */
+
+    public CompletableFuture<Void> getReadiness() {
+        // Caller gets the dependent future, so it can't complete the readiness of the storage
+        return this.readiness.thenApply(new Function<Void, Void>() {
+            @Override
+            public Void apply(Void result) {
+                return result;
+            }
+        });
+    }
+
+    public WarmUpProgress getWarmUpProgress() {
+        return new WarmUpProgress(this.warmUpPhase, this.scannedFiles.get(), this.registeredFilesAfterReplay);
+    }
+
+    /**
+     * Locks the file against its concurrent verification by the warm-up
+     *
+     * @return locked lock, {@code null} if the warm-up is finished
+     */
+
+    private ReentrantLock lockAgainstWarmUp(long hash) {
+        if (this.isWarmedUp())
+            return null;
+        final ReentrantLock lock = this.fileLocks[(int) (hash & (FILE_LOCK_STRIPES - 1))];
+        lock.lock();
+        this.refresh();
+        return lock;
+    }
+
+    private static void unlock(ReentrantLock lock) {
+        if (lock != null)
+            lock.unlock();
+    }
+
+    /**
+     * File, which is saved during the warm-up, may be found by the scanning before it's registered.
+     * Such file is registered by the scanning with unknown key, so its counted size is released before the registration
+     */
+
+    private void releaseScannedFile(long hash, int tag) {
+        final MetadataEntry scannedEntry = new MetadataEntry();
+        if (this.metadataTable.get(hash, tag, scannedEntry) && scannedEntry.hasFlag(MetadataTable.FLAG_UNKNOWN_KEY))
+            this.decreaseTotalSizeOfFiles(scannedEntry.size);
+    }
+
+    /**
+     * Registers replayed files in the filter and estimates used disc space by their sizes
+     */
+
+    private void registerReplayedFiles() {
+        this.journalSizeAfterReplay = this.metadataJournal.size();
+        final long[] sizeOfFiles = new long[1];
+        this.metadataTable.forEach(new MetadataVisitor() {
+            @Override
+            public void visitEntry(MetadataEntry entry) {
+                storedFilesFilter.add(entry.hash);
+                // Space of the blob is counted once, when its reference count is restored
+                if (!entry.hasFlag(MetadataTable.FLAG_DEDUPLICATED))
+                    sizeOfFiles[0] += entry.size;
+                if (entry.hasFlag(MetadataTable.FLAG_EXPIRATION))
+                    noteExpirationTime(entry.expirationTime);
+                addToNamespace(entry);
+            }
+        });
+        this.totalSizeOfFiles.set(sizeOfFiles[0]);
+        this.registeredFilesAfterReplay = this.metadataTable.size();
+    }
+
+    private void reconcile() {
+        final MetadataEntry currentEntry = new MetadataEntry();
+        final long[] lostFiles = new long[1];
+        this.metadataTable.forEach(new MetadataVisitor() {
+            @Override
+            public void visitEntry(MetadataEntry entry) {
+                final ReentrantLock lock = fileLocks[(int) (entry.hash & (FILE_LOCK_STRIPES - 1))];
+                lock.lock();
+                try {
+                    refresh();
+                    // Entry may be changed by the storage after it was read by the scanning
+                    if (!metadataTable.get(entry.hash, entry.tag, currentEntry))
+                        return;
+                    if (!currentEntry.hasFlag(MetadataTable.FLAG_VERIFIED)) {
+                        // Files, which were registered after the replay, may be not scanned yet
+                        if (currentEntry.journalOffset < journalSizeAfterReplay) {
+                            removeLostFile(currentEntry);
+                            lostFiles[0]++;
+                        }
+                        return;
+                    }
+                    currentEntry.flags &= ~MetadataTable.FLAG_VERIFIED;
+                    metadataTable.update(currentEntry);
+                    final boolean indexed = keyIndex != null && !currentEntry.hasFlag(MetadataTable.FLAG_UNKNOWN_KEY);
+                    final boolean deduplicated = blobStore != null && currentEntry.hasFlag(MetadataTable.FLAG_DEDUPLICATED);
+                    if (indexed || deduplicated) {
+                        final JournalRecord record = readJournalRecord(currentEntry);
+                        if (indexed)
+                            keyIndex.add(record.key);
+                        if (deduplicated && blobStore.restore(record.digest, currentEntry.size))
+                            increaseTotalSizeOfFiles(currentEntry.size);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+        if (lostFiles[0] > 0)
+            LOGGER.info(lostFiles[0] + " registered files weren't found in the storage");
+        if (this.blobStore != null)
+            this.blobStore.deleteUnreferencedBlobs();
+    }
+
+    private void removeLostFile(MetadataEntry entry) {
+        this.journalLock.readLock().lock();
+        try {
+            this.metadataTable.remove(entry.hash, entry.tag, null);
+            this.metadataJournal.appendRemove(entry.hash, entry.tag);
+        } finally {
+            this.journalLock.readLock().unlock();
         }
+        this.garbageRecords.addAndGet(2);
+        this.storedFilesFilter.remove(entry.hash);
+        if (!entry.hasFlag(MetadataTable.FLAG_DEDUPLICATED))
+            this.decreaseTotalSizeOfFiles(entry.size);
+        this.removeFromNamespace(entry);
+    }
+
+    private void addToNamespace(MetadataEntry entry) {
+        final Namespace namespace = this.namespaces.get(entry.namespace);
+        if (namespace != null)
+            namespace.addFile(entry);
+    }
+
+    private void removeFromNamespace(MetadataEntry entry) {
+        final Namespace namespace = this.namespaces.get(entry.namespace);
+        if (namespace != null)
+            namespace.removeFile(entry);
+    }
+
+    /**
+     * Replays the journal of the shared root under its lock, so the replay doesn't see the record,
+     * which is being appended by another process
+     */
+
+    private void attachToSharedRoot() {
+        final FileRegionLocks.Region journalRegion = this.sharedRoot.lockJournal();
+        try {
+            this.soleProcessAtStart = this.sharedRoot.attach();
+            if (!this.soleProcessAtStart)
+                this.metadataJournal.limit(this.sharedRoot.getJournalEnd());
+            this.replayJournal();
+            this.registerReplayedFiles();
+            if (this.soleProcessAtStart)
+                this.sharedRoot.reset(this.metadataJournal.size(), this.totalSizeOfFiles.get());
+            this.metadataJournal.share(this.sharedRoot, new JournalVisitor() {
+                private final MetadataEntry entry = new MetadataEntry();
+                private final MetadataEntry previousEntry = new MetadataEntry();
 
+                @Override
+                public void visitRecord(JournalRecord record) {
+                    applyForeignRecord(record, this.entry, this.previousEntry);
+                }
+            });
+        } finally {
+            journalRegion.close();
+        }
+    }
+
+    /**
+     * Applies the record of another process to the metadata. Used disc space of the shared root is already counted
+     * by that process, so only the own view of this process is changed
+     */
+
+    private void applyForeignRecord(JournalRecord record, MetadataEntry entry, MetadataEntry previousEntry) {
+        final boolean registered = this.metadataTable.get(record.hash, record.tag, previousEntry);
+        switch (record.type) {
+            case JournalRecord.PUT:
+                if (registered)
+                    this.forgetForeignFile(previousEntry);
+                entry.hash = record.hash;
+                entry.tag = record.tag;
+                entry.size = record.size;
+                entry.originalSize = record.originalSize;
+                entry.creationTime = record.creationTime;
+                entry.expirationTime = record.expirationTime;
+                entry.checksum = record.checksum;
+                entry.flags = record.flags;
+                entry.journalOffset = record.offset;
+                entry.version = record.version;
+                entry.lifeTime = record.lifeTime;
+                entry.namespace = (record.flags & MetadataTable.FLAG_UNKNOWN_KEY) != 0 ? 0 : this.namespaces.idOf(record.key);
+                this.metadataTable.put(entry);
+                if (!registered)
+                    this.storedFilesFilter.add(entry.hash);
+                if (this.keyIndex != null && !entry.hasFlag(MetadataTable.FLAG_UNKNOWN_KEY))
+                    this.keyIndex.add(record.key);
+                this.addToNamespace(entry);
+                if (!entry.hasFlag(MetadataTable.FLAG_DEDUPLICATED))
+                    this.totalSizeOfFiles.addAndGet(entry.size);
+                if (entry.hasFlag(MetadataTable.FLAG_EXPIRATION))
+                    this.noteExpirationTime(entry.expirationTime);
+                break;
+            case JournalRecord.REMOVE:
+                if (registered && this.metadataTable.remove(record.hash, record.tag, null)) {
+                    this.storedFilesFilter.remove(record.hash);
+                    this.forgetForeignFile(previousEntry);
+                }
+                break;
+            case JournalRecord.EXPIRATION:
+                if (registered) {
+                    previousEntry.expirationTime = record.expirationTime;
+                    previousEntry.flags = record.flags;
+                    previousEntry.lifeTime = record.lifeTime;
+                    this.metadataTable.update(previousEntry);
+                    if (previousEntry.hasFlag(MetadataTable.FLAG_EXPIRATION))
+                        this.noteExpirationTime(previousEntry.expirationTime);
+                }
+                break;
+            default:
+                LOGGER.warn("Unknown type of the metadata journal record: " + record.type);
+        }
+    }
+
+    private void forgetForeignFile(MetadataEntry entry) {
+        if (this.keyIndex != null && !entry.hasFlag(MetadataTable.FLAG_UNKNOWN_KEY))
+            this.keyIndex.remove(this.metadataJournal.read(entry.journalOffset).key);
+        this.removeFromNamespace(entry);
+        if (!entry.hasFlag(MetadataTable.FLAG_DEDUPLICATED))
+            this.totalSizeOfFiles.addAndGet(-entry.size);
+    }
+
+    private void replayJournal() {
+        final MetadataEntry entry = new MetadataEntry();
+        this.metadataJournal.replay(new JournalVisitor() {
+            @Override
+            public void visitRecord(JournalRecord record) {
+                switch (record.type) {
+                    case JournalRecord.PUT:
+                        entry.hash = record.hash;
+                        entry.tag = record.tag;
+                        entry.size = record.size;
+                        entry.originalSize = record.originalSize;
+                        entry.creationTime = record.creationTime;
+                        entry.expirationTime = record.expirationTime;
+                        entry.checksum = record.checksum;
+                        entry.flags = record.flags;
+                        entry.journalOffset = record.offset;
+                        entry.version = record.version;
+                        entry.lifeTime = record.lifeTime;
+                        entry.namespace = (record.flags & MetadataTable.FLAG_UNKNOWN_KEY) != 0 ? 0 : namespaces.idOf(record.key);
+                        if (metadataTable.put(entry))
+                            garbageRecords.incrementAndGet();
+                        break;
+                    case JournalRecord.REMOVE:
+                        if (metadataTable.remove(record.hash, record.tag, null))
+                            garbageRecords.addAndGet(2);
+                        break;
+                    case JournalRecord.EXPIRATION:
+                        if (metadataTable.get(record.hash, record.tag, entry)) {
+                            entry.expirationTime = record.expirationTime;
+                            entry.flags = record.flags;
+                            entry.lifeTime = record.lifeTime;
+                            metadataTable.update(entry);
+                        }
+                        garbageRecords.incrementAndGet();
+                        break;
+                    default:
+                        LOGGER.warn("Unknown type of the metadata journal record: " + record.type);
+                }
+            }
+        });
+    }
+
+    private void verifyFile(String filePath, BasicFileAttributes attributes, MetadataEntry entry) {
+        final String relativePath = this.relativePath(filePath);
+        final long hash = KeyHashing.hash64(relativePath);
+        final int tag = KeyHashing.hash32(relativePath);
+        final ReentrantLock lock = this.fileLocks[(int) (hash & (FILE_LOCK_STRIPES - 1))];
+        lock.lock();
+        try {
+            this.refresh();
+            this.verifyFile(filePath, relativePath, hash, tag, attributes, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void verifyFile(String filePath, String relativePath, long hash, int tag, BasicFileAttributes attributes, MetadataEntry entry) {
+        if (this.metadataTable.get(hash, tag, entry)) {
+            if (entry.size != attributes.size())
+                this.registerChangedSize(relativePath, attributes, entry);
+            entry.flags |= MetadataTable.FLAG_VERIFIED;
+            this.metadataTable.update(entry);
+            return;
+        }
+
+        // File, which is written or deleted by the storage during the background warm-up or by another process,
+        // is registered by the storage itself
+        if ((this.backgroundWarmUp || this.sharedRoot != null) && (attributes.lastModifiedTime().toMillis() >= this.warmUpStartTime || !new File(filePath).exists()))
+            return;
+
+        this.registerUnknownFile(filePath, relativePath, hash, tag, attributes, entry, MetadataTable.FLAG_VERIFIED);
+    }
+
+    /**
+     * Registers new size of the file, which was changed outside of the storage. Entry isn't updated in the table
+     */
+
+    private void registerChangedSize(String relativePath, BasicFileAttributes attributes, MetadataEntry entry) {
+        if (!entry.hasFlag(MetadataTable.FLAG_DEDUPLICATED))
+            this.increaseTotalSizeOfFiles(attributes.size() - entry.size);
+        if (this.namespaces.get(entry.namespace) != null)
+            this.namespaces.get(entry.namespace).resizeFile(attributes.size() - entry.size);
+        // File was changed outside of the storage, so its content is stored as is
+        entry.size = attributes.size();
+        entry.originalSize = attributes.size();
+        entry.flags &= ~(MetadataTable.FLAG_CHECKSUM | MetadataTable.FLAG_COMPRESSED);
+        final JournalRecord record = this.readJournalRecord(entry);
+        this.journalLock.readLock().lock();
+        try {
+            entry.journalOffset = this.metadataJournal.appendPut(entry, relativePath, record.key, record.digest);
+        } finally {
+            this.journalLock.readLock().unlock();
+        }
+        this.garbageRecords.incrementAndGet();
+    }
+
+    /**
+     * Registers the file, which was found on the disc, with unknown key
+     *
+     * @param flags additional flags of the registered entry
+     */
+
+    private void registerUnknownFile(String filePath, String relativePath, long hash, int tag, BasicFileAttributes attributes,
+                                     MetadataEntry entry, int flags) {
+        // File was saved by previous versions or was copied to the storage directly: it key is unknown
+        entry.hash = hash;
+        entry.tag = tag;
+        entry.size = attributes.size();
+        entry.originalSize = attributes.size();
+        entry.creationTime = attributes.lastModifiedTime().toMillis();
+        entry.expirationTime = 0;
+        entry.checksum = 0;
+        entry.flags = MetadataTable.FLAG_UNKNOWN_KEY;
+        entry.version = 1;
+        entry.lifeTime = 0;
+        entry.namespace = 0;
+        this.journalLock.readLock().lock();
+        try {
+            entry.journalOffset = this.metadataJournal.appendPut(entry, relativePath, Paths.get(filePath).getFileName().toString());
+        } finally {
+            this.journalLock.readLock().unlock();
+        }
+        entry.flags |= flags;
+        this.metadataTable.put(entry);
+        this.storedFilesFilter.add(hash);
+        this.increaseTotalSizeOfFiles(entry.size);
     }
 
     private void loadProperties() {
         final File propertiesFile = new File(this.propertiesPath);
-        if (propertiesFile.exists()) try {
-            expirationFiles.load(new FileReader(propertiesFile));
+        if (!propertiesFile.exists())
+            return;
+
+        final Object event = FlightRecorderEvents.beginBackgroundTask();
+        final long propertiesSize = propertiesFile.length();
+        final Properties expirationFiles = new Properties();
+        try (FileReader reader = new FileReader(propertiesFile)) {
+            expirationFiles.load(reader);
         } catch (IOException e) {
             LOGGER.warn("Can't get access to properties file: " + propertiesFile.getAbsolutePath(), e);
+            FlightRecorderEvents.finishBackgroundTask(event, "loadProperties", 0, 0, e);
+            return;
+        }
+
+        final MetadataEntry entry = new MetadataEntry();
+        for (String path : expirationFiles.stringPropertyNames()) {
+            final String relativePath = this.relativePath(Paths.get(path).toString());
+            final long hash = KeyHashing.hash64(relativePath);
+            final ReentrantLock lock = this.fileLocks[(int) (hash & (FILE_LOCK_STRIPES - 1))];
+            lock.lock();
+            try {
+                if (this.metadataTable.get(hash, KeyHashing.hash32(relativePath), entry)) {
+                    entry.expirationTime = Long.parseLong(expirationFiles.getProperty(path));
+                    entry.flags |= MetadataTable.FLAG_EXPIRATION;
+                    entry.lifeTime = lifeTimeOf(entry);
+                    this.metadataJournal.appendExpiration(entry.hash, entry.tag, entry.expirationTime, entry.flags, entry.lifeTime);
+                    this.metadataTable.update(entry);
+                    this.garbageRecords.incrementAndGet();
+                    this.noteExpirationTime(entry.expirationTime);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Expiration times are moved to the metadata journal
+        try {
+            Files.delete(propertiesFile.toPath());
+        } catch (IOException e) {
+            LOGGER.warn("Can't delete properties file: " + propertiesFile.getAbsolutePath(), e);
         }
+        FlightRecorderEvents.finishBackgroundTask(event, "loadProperties", expirationFiles.size(), propertiesSize, null);
     }
 }
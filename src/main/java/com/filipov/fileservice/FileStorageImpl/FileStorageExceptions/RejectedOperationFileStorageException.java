@@ -0,0 +1,20 @@
+package com.filipov.fileservice.FileStorageImpl.FileStorageExceptions;
+
+/**
+ * Operation wasn't admitted by the admission control of the storage: the queue of the waiting operations is full
+ * or the operation waited longer than its deadline. Operation can be retried later
+ */
+
+public class RejectedOperationFileStorageException extends RuntimeException {
+
+    private final String fileKey;
+
+    public RejectedOperationFileStorageException(String message, String fileKey) {
+        super(message);
+        this.fileKey = fileKey;
+    }
+
+    public String getFileKey() {
+        return fileKey;
+    }
+}
@@ -0,0 +1,22 @@
+package com.filipov.fileservice.FileStorageImpl.FileStorageExceptions;
+
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+
+/**
+ * Conditional replacing of the file failed: version or checksum of the current content doesn't match the expected one,
+ * or the file is being saved concurrently
+ */
+
+public class VersionMismatchFileStorageException extends FileStorageException {
+
+    private String incorrectArgument;
+
+    public VersionMismatchFileStorageException(String message, String incorrectArgument) {
+        super(message);
+        this.incorrectArgument = incorrectArgument;
+    }
+
+    public String getIncorrectArgument() {
+        return incorrectArgument;
+    }
+}
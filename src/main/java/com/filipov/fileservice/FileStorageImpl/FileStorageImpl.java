@@ -6,26 +6,76 @@ package com.filipov.fileservice.FileStorageImpl;
  * @author Yevhen Filipov
  */
 
+import com.filipov.fileservice.FileStat;
 import com.filipov.fileservice.FileStorage;
+import com.filipov.fileservice.KeyIterator;
 import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
 import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyAlreadyExistFileStorageException;
 import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
 import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.NoFreeSpaceFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.RejectedOperationFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.VersionMismatchFileStorageException;
 import com.filipov.fileservice.FileStorageImpl.FileStorageOperationServiceImpl.OperationServiceImpl;
 import com.filipov.fileservice.FileStorageImpl.FileStoragePathServiceImpl.PathServiceImpl;
 import org.apache.log4j.Logger;
 
-import java.io.InputStream;
-import java.util.Date;
-import java.util.Timer;
+import java.io.*;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CheckedInputStream;
 
-public class FileStorageImpl implements FileStorage {
+public class FileStorageImpl implements FileStorage, Closeable {
 
     private final static Logger LOGGER = Logger.getLogger(FileStorageImpl.class);
+    private final static int WARM_UP_FREE_SPACE_MARGIN_PERCENTS = 10;
+    private final static long ANY_VERSION = -1;
+    private final static long ANY_CHECKSUM = -1;
+    private final static long KEEP_LIFE_TIME = -1;
+    private final static int SLIDING_EXPIRATION_STEP_DIVISOR = 8;
+    private final static int MAX_BUFFERED_IMPORT_FILE_SIZE = 1 << 20;
+    private final static int PENDING_IMPORT_FILES_PER_THREAD = 4;
 
     private final long maxDiscSpace;
     private final String userDataPath;
     private final FileStorageData fileStorageData;
+    private final IOBudget ioBudget;
+    private final AdmissionController admissionController;
+    private final ExecutorService maintenanceExecutor;
+    private final Timer maintenanceTimer;
+    private final WriteBehindBuffer writeBehindBuffer;
+    private final ReadAheadBuffer readAheadBuffer;
+    private final AccessPredictor accessPredictor;
+    private final FileCompression fileCompression;
+    private final BlobStore blobStore;
+    private final MultipartUploads multipartUploads;
+    private final long uploadExpirationTime;
+    private final ChangeFeed changeFeed;
+    private final String replacingPath;
+    private final ExpirationFilesDeleter expirationFilesDeleter;
+    private final boolean slidingExpiration;
+    private final Namespaces namespaces;
+    private final SharedRoot sharedRoot;
+    private final Snapshots snapshots;
+    private final ConsistencyChecker consistencyChecker;
+    private final int archiveParallelism;
+    private volatile boolean closed;
 
     /**
      * Constructor creates new instance of class,
@@ -40,11 +90,90 @@ public class FileStorageImpl implements FileStorage {
      */
 
     public FileStorageImpl(String rootPath, long maxDiscSpace) {
+        this(rootPath, maxDiscSpace, IOBudget.unlimited());
+    }
+
+    /**
+     * Constructor creates new instance of class, which background maintenance (purge, deleting of expiration files)
+     * is limited by the specific IOBudget
+     *
+     * @param rootPath     path, where storage will be located.
+     *                     Directory, which associated with this rootPath must be empty before the first class initialisation
+     * @param maxDiscSpace max disc space in bites, which storage can be use. Value of maxDiscSpace must be  > 0
+     * @param ioBudget     budget of background operations
+     * @throws ReadWriteFileStorageException if root path inaccessible.
+     */
+
+    public FileStorageImpl(String rootPath, long maxDiscSpace, IOBudget ioBudget) {
+        this(rootPath, maxDiscSpace, ioBudget, false);
+    }
+
+    /**
+     * Constructor creates new instance of class, which optionally keeps sorted index of the keys in memory.
+     * The index makes listing of the keys with specific prefix proportional to the number of these keys,
+     * without the index all the metadata is scanned
+     *
+     * @param rootPath     path, where storage will be located.
+     *                     Directory, which associated with this rootPath must be empty before the first class initialisation
+     * @param maxDiscSpace max disc space in bites, which storage can be use. Value of maxDiscSpace must be  > 0
+     * @param ioBudget     budget of background operations
+     * @param keyIndex     {@code true} if sorted index of the keys should be kept
+     * @throws ReadWriteFileStorageException if root path inaccessible.
+     */
+
+    public FileStorageImpl(String rootPath, long maxDiscSpace, IOBudget ioBudget, boolean keyIndex) {
+        this(rootPath, maxDiscSpace, new FileStorageOptions().setIOBudget(ioBudget).setKeyIndex(keyIndex));
+    }
+
+    /**
+     * Constructor creates new instance of class with specific options.
+     * Files, which were staged by write-behind buffer, but weren't written to the disc before the crash, are recovered.
+     * Deduplicated files stay readable and are released correctly, even if deduplication is disabled by these options.
+     * With background warm-up the constructor returns after the replay of the metadata journal,
+     * the user data directory is scanned in the background (see {@link #getReadiness()}).
+     * Each process, which shares the storage root, keeps its uploads, spilled change events and content of the replacing
+     * in its own directories
+     *
+     * @param rootPath     path, where storage will be located.
+     *                     Directory, which associated with this rootPath must be empty before the first class initialisation
+     * @param maxDiscSpace max disc space in bites, which storage can be use. Value of maxDiscSpace must be  > 0
+     * @param options      options of the storage
+     * @throws ReadWriteFileStorageException if root path inaccessible.
+     */
+
+    public FileStorageImpl(String rootPath, long maxDiscSpace, FileStorageOptions options) {
+
+        if (options.isSharedRoot() && (options.isWriteBehind() || options.isDeduplication()))
+            throw new IncorrectArgumentFileStorageException("Write-behind buffer and deduplication can't be enabled for the shared storage root");
+        if (options.getReadAheadDepth() > 0 && !options.isReadAhead())
+            throw new IncorrectArgumentFileStorageException("Adaptive read-ahead can't be enabled without read-ahead buffer");
 
         final OperationService operationService = new OperationServiceImpl();
         String propertiesFilePath = rootPath + "/FileStorage.prop";
-        userDataPath = rootPath + "/userData";
-        fileStorageData = new FileStorageData(userDataPath, propertiesFilePath);
+        String journalFilePath = rootPath + "/FileStorage.journal";
+        String stagingJournalFilePath = rootPath + "/FileStorage.staging";
+        // Normalized path gives the same file paths as the scanning of the directory tree
+        userDataPath = Paths.get(rootPath, "userData").toString();
+        final BlobStore existingBlobStore = new BlobStore(rootPath + "/blobs");
+        namespaces = options.getNamespaces();
+        sharedRoot = options.isSharedRoot() ? new SharedRoot(rootPath) : null;
+        fileStorageData = new FileStorageData(userDataPath, propertiesFilePath, journalFilePath, options.isKeyIndex(), existingBlobStore,
+                options.isBackgroundWarmUp(), namespaces, sharedRoot);
+        final String processSuffix = sharedRoot != null ? "-" + sharedRoot.getProcessSlot() : "";
+        blobStore = options.isDeduplication() ? existingBlobStore : null;
+        fileCompression = new FileCompression(options.getCompressionCodec());
+        final StagingJournal stagingJournal = new StagingJournal(stagingJournalFilePath);
+        WriteBehindBuffer.recover(fileStorageData, stagingJournal);
+        if (options.isWriteBehind()) {
+            writeBehindBuffer = new WriteBehindBuffer(fileStorageData, stagingJournal,
+                    options.getWriteBehindBufferSize(), options.getWriteBehindMaxFileSize());
+        } else {
+            writeBehindBuffer = null;
+            stagingJournal.close();
+        }
+        readAheadBuffer = options.isReadAhead()
+                ? new ReadAheadBuffer(fileStorageData, options.getReadAheadBufferSize(), options.getReadAheadMaxFileSize()) : null;
+        accessPredictor = options.getReadAheadDepth() > 0 ? new AccessPredictor(options.getReadAheadDepth()) : null;
 
         operationService.createFolder(rootPath);
 
@@ -58,10 +187,70 @@ public class FileStorageImpl implements FileStorage {
                     " bites on disc, but only " + rootPathFreeSpace + " bites are available!");
 
         this.maxDiscSpace = maxDiscSpace;
+        this.ioBudget = options.getIOBudget();
+        this.admissionController = options.getAdmissionController();
+        this.multipartUploads = new MultipartUploads(rootPath + "/uploads" + processSuffix, userDataPath, fileStorageData, maxDiscSpace);
+        this.uploadExpirationTime = options.getUploadExpirationTime();
+        this.changeFeed = new ChangeFeed(rootPath + "/changes" + processSuffix, options.getChangeBufferSize());
+        this.replacingPath = rootPath + "/replacing" + processSuffix;
+        this.archiveParallelism = options.getArchiveParallelism();
+        this.snapshots = new Snapshots(rootPath + "/snapshots", userDataPath, fileStorageData, this.archiveParallelism);
+        this.consistencyChecker = new ConsistencyChecker(fileStorageData, userDataPath, this.replacingPath, this.multipartUploads,
+                writeBehindBuffer, options.getCheckParallelism());
+        // Content of the saving or replacing, which wasn't finished before the restart, is lost
+        final File[] replacingFiles = new File(this.replacingPath).listFiles();
+        if (replacingFiles != null) {
+            for (File replacingFile : replacingFiles) {
+                if (!replacingFile.delete())
+                    LOGGER.warn("Can't delete content of the unfinished replacing: " + replacingFile);
+            }
+        }
+        this.maintenanceExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "FileStorage maintenance");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // Purge tasks are started after the warm-up by the same thread
+        if (options.isBackgroundWarmUp()) {
+            this.maintenanceExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        fileStorageData.warmUp();
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Warm-up of the storage failed", e);
+                    }
+                }
+            });
+        }
 
-        Timer expirationFilesDeleterTimer = new Timer(true);
-        final ExpirationFilesDeleter expirationFilesDeleter = new ExpirationFilesDeleter(this.fileStorageData);
-        expirationFilesDeleterTimer.schedule(expirationFilesDeleter, new Date(), 1 * 1000l);
+        this.maintenanceTimer = new Timer("FileStorage maintenance timer", true);
+        this.expirationFilesDeleter = new ExpirationFilesDeleter(this.fileStorageData, this.ioBudget, this.changeFeed);
+        this.slidingExpiration = options.isSlidingExpiration();
+        this.runsMaintenance();
+        this.maintenanceTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                if (closed)
+                    return;
+                // Expiration times of the files, which are saved by other processes, are noted, while the lease is waited for
+                fileStorageData.refresh();
+                if (runsMaintenance())
+                    expirationFilesDeleter.run();
+            }
+        }, new Date(), 1 * 1000l);
+        this.maintenanceTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                if (closed || !runsMaintenance())
+                    return;
+                fileStorageData.compactJournalIfNeeded();
+                deleteAbandonedUploads();
+            }
+        }, 60 * 1000l, 60 * 1000l);
 
     }
 
@@ -73,22 +262,12 @@ public class FileStorageImpl implements FileStorage {
      * @throws NoFreeSpaceFileStorageException                                       if there no free space in the storage
      * @throws KeyAlreadyExistFileStorageException                                   if file, associated with this key already exist
      * @throws com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException if IOException occurs
+     * @throws com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.RejectedOperationFileStorageException if the operation isn't admitted by the admission control
      */
 
     @Override
     public void saveFile(String key, InputStream inputStream) throws NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
-
-        final PathService pathService = new PathServiceImpl();
-        final OperationService operationService = new OperationServiceImpl();
-
-        final String filePath = this.userDataPath + pathService.generateFilePathPresentation(key);
-
-        try {
-            final long fileSize = operationService.saveFile(filePath, inputStream, this.freeSpaceInBytes());
-            fileStorageData.increaseTotalSizeOfFiles(fileSize);
-        } catch (KeyAlreadyExistFileStorageException e) {
-            throw new KeyAlreadyExistFileStorageException("This key already exist", key);
-        }
+        this.saveFileWithLifeTime(key, inputStream, 0);
     }
 
     /**
@@ -100,6 +279,7 @@ public class FileStorageImpl implements FileStorage {
      * @throws NoFreeSpaceFileStorageException                                       if there no free space in the storage
      * @throws KeyAlreadyExistFileStorageException                                   if file, associated with this key already exist
      * @throws com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException if IOException occurs
+     * @throws com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.RejectedOperationFileStorageException if the operation isn't admitted by the admission control
      */
 
     @Override
@@ -107,13 +287,228 @@ public class FileStorageImpl implements FileStorage {
 
         if (fileLifeTime <= 0)
             throw new IncorrectArgumentFileStorageException("Value of fileLifeTime <= 0");
-        this.saveFile(key, inputStream);
+        this.saveFileWithLifeTime(key, inputStream, fileLifeTime);
+    }
+
+    private void saveFileWithLifeTime(String key, InputStream inputStream, long fileLifeTime) throws NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
+        final Object event = FlightRecorderEvents.beginOperation();
+        Throwable failure = null;
+        try {
+            this.saveOrStageFile(key, inputStream, fileLifeTime);
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            this.finishOperation(event, "saveFile", key, -1, failure);
+        }
+    }
+
+    private void saveOrStageFile(String key, InputStream inputStream, long fileLifeTime) throws NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
+
         final PathService pathService = new PathServiceImpl();
-        final Date currentTime = new Date();
-        final long expirationTime = currentTime.getTime() + fileLifeTime;
+
         final String filePath = this.userDataPath + pathService.generateFilePathPresentation(key);
 
-        this.fileStorageData.putExpirationTime(filePath, expirationTime);
+        // Expired file is missing for the user, even if the deleter hasn't deleted it yet
+        this.deleteIfExpired(filePath);
+
+        // Used disc space is estimated until the warm-up is finished, reference counts of the blobs aren't restored
+        if (!this.fileStorageData.isWarmedUp() && (this.blobStore != null
+                || this.freeSpaceInBytes() < this.maxDiscSpace / 100 * WARM_UP_FREE_SPACE_MARGIN_PERCENTS))
+            this.fileStorageData.awaitWarmUp();
+
+        // Counter is kept apart from the input stream, which is replaced if the file is too big for the write-behind buffer
+        final CountingInputStream countedInput = this.admissionController != null ? new CountingInputStream(inputStream) : null;
+        if (countedInput != null)
+            inputStream = countedInput;
+        final long admissionTime = this.admissionController != null ? this.admissionController.beginWrite(key) : 0;
+        this.ioBudget.beginForegroundOperation();
+        try {
+            if (this.writeBehindBuffer != null) {
+                final byte[] content = this.readSmallFile(inputStream, this.writeBehindBuffer.getMaxFileSize());
+                final int fileSize = content.length > this.writeBehindBuffer.getMaxFileSize() ? -1 : content.length;
+                if (fileSize >= 0 && this.stageFile(filePath, key, content, fileSize, fileLifeTime)) {
+                    this.changeFeed.publish(ChangeEvent.Type.SAVED, key);
+                    return;
+                }
+                // File is too big for the write-behind buffer, read part is written before the rest of the stream
+                inputStream = new SequenceInputStream(new ByteArrayInputStream(content), inputStream);
+            }
+            this.writeFile(filePath, key, inputStream, fileLifeTime);
+            this.changeFeed.publish(ChangeEvent.Type.SAVED, key);
+        } catch (KeyAlreadyExistFileStorageException e) {
+            throw new KeyAlreadyExistFileStorageException("This key already exist", key);
+        } finally {
+            this.ioBudget.endForegroundOperation();
+            if (this.admissionController != null)
+                this.admissionController.endWrite(admissionTime, countedInput.getCount());
+        }
+    }
+
+    private void writeFile(String filePath, String key, InputStream inputStream, long fileLifeTime) throws NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
+
+        final OperationService operationService = new OperationServiceImpl();
+        final CheckedInputStream checkedInputStream = new CheckedInputStream(inputStream, new CRC32());
+        final CountingInputStream originalContent = new CountingInputStream(checkedInputStream);
+        final StoredContent storedContent = this.storedContent(originalContent);
+
+        if (this.blobStore != null) {
+            this.writeDeduplicatedFile(filePath, key, storedContent.stream, originalContent, checkedInputStream, fileLifeTime, storedContent.flags);
+            return;
+        }
+
+        if (new File(filePath).exists())
+            throw new KeyAlreadyExistFileStorageException("This key already exist", filePath);
+
+        // Content is written aside and is published under the lock of the file, so the file isn't deleted while it's registered
+        final String temporaryFile = this.replacingPath + "/" + UUID.randomUUID();
+        try {
+            final long fileSize;
+            try {
+                fileSize = operationService.saveFile(temporaryFile, storedContent.stream, this.freeSpaceFor(key, null));
+            } catch (KeyAlreadyExistFileStorageException e) {
+                throw new ReadWriteFileStorageException("Can't create temporary file", temporaryFile, e);
+            }
+
+            final ReentrantLock fileLock = this.fileStorageData.lockFile(filePath);
+            try {
+                if (this.fileStorageData.mightBeStored(filePath))
+                    throw new KeyAlreadyExistFileStorageException("This key already exist", filePath);
+                if (fileSize > this.freeSpaceFor(key, null))
+                    throw new NoFreeSpaceFileStorageException("No such free disc space to save current file", filePath);
+                Files.createDirectories(Paths.get(filePath).getParent());
+                Files.move(Paths.get(temporaryFile), Paths.get(filePath));
+                final long creationTime = new Date().getTime();
+                final long expirationTime = fileLifeTime > 0 ? creationTime + fileLifeTime : 0;
+                fileStorageData.addFile(filePath, key, fileSize, originalContent.getCount(), creationTime, expirationTime,
+                        (int) checkedInputStream.getChecksum().getValue(), storedContent.flags);
+            } catch (FileAlreadyExistsException e) {
+                throw new KeyAlreadyExistFileStorageException("This key already exist", filePath);
+            } catch (IOException e) {
+                throw new ReadWriteFileStorageException("Can't save the file", filePath, e);
+            } finally {
+                fileLock.unlock();
+            }
+        } finally {
+            new File(temporaryFile).delete();
+        }
+    }
+
+    /**
+     * Compresses the content, if its sample is compressible
+     */
+
+    private StoredContent storedContent(CountingInputStream originalContent) {
+        if (!this.fileCompression.isEnabled())
+            return new StoredContent(originalContent, 0);
+        final byte[] sample = this.readSmallFile(originalContent, FileCompression.SAMPLE_SIZE - 1);
+        final InputStream content = new SequenceInputStream(new ByteArrayInputStream(sample), originalContent);
+        if (this.fileCompression.isCompressible(sample, sample.length))
+            return new StoredContent(this.fileCompression.compress(content), MetadataTable.FLAG_COMPRESSED);
+        return new StoredContent(content, 0);
+    }
+
+    /**
+     * Saves the stored content to the temporary file, while the digest of this content is calculated,
+     * and links the file to the blob with this digest. Content of the existing blob isn't stored again
+     */
+
+    private void writeDeduplicatedFile(String filePath, String key, InputStream storedContent, CountingInputStream originalContent,
+                                       CheckedInputStream checkedInputStream, long fileLifeTime, int flags) throws NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
+
+        if (this.fileStorageData.mightBeStored(filePath))
+            throw new KeyAlreadyExistFileStorageException("This key already exist", filePath);
+
+        final OperationService operationService = new OperationServiceImpl();
+        final MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new ReadWriteFileStorageException("Can't calculate digest of the file", filePath, e);
+        }
+
+        final String temporaryFile = this.blobStore.createTemporaryPath();
+        final long fileSize;
+        try {
+            fileSize = operationService.saveFile(temporaryFile, new DigestInputStream(storedContent, messageDigest), this.freeSpaceFor(key, null));
+        } catch (NoFreeSpaceFileStorageException | KeyAlreadyExistFileStorageException | ReadWriteFileStorageException e) {
+            new File(temporaryFile).delete();
+            throw e;
+        }
+
+        final StringBuilder digest = new StringBuilder();
+        for (byte digestByte : messageDigest.digest())
+            digest.append(Character.forDigit((digestByte >> 4) & 0xf, 16)).append(Character.forDigit(digestByte & 0xf, 16));
+
+        if (this.blobStore.acquire(digest.toString(), fileSize, temporaryFile))
+            this.fileStorageData.increaseTotalSizeOfFiles(fileSize);
+        final ReentrantLock fileLock = this.fileStorageData.lockFile(filePath);
+        try {
+            try {
+                if (this.fileStorageData.mightBeStored(filePath))
+                    throw new KeyAlreadyExistFileStorageException("This key already exist", filePath);
+                this.blobStore.link(digest.toString(), filePath);
+            } catch (KeyAlreadyExistFileStorageException | ReadWriteFileStorageException e) {
+                this.fileStorageData.decreaseTotalSizeOfFiles(this.blobStore.release(digest.toString()));
+                throw e;
+            }
+
+            final long creationTime = new Date().getTime();
+            final long expirationTime = fileLifeTime > 0 ? creationTime + fileLifeTime : 0;
+            fileStorageData.addFile(filePath, key, fileSize, originalContent.getCount(), creationTime, expirationTime,
+                    (int) checkedInputStream.getChecksum().getValue(), flags, digest.toString());
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    private boolean stageFile(String filePath, String key, byte[] content, int fileSize, long fileLifeTime) throws NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
+
+        final CRC32 checksum = new CRC32();
+        checksum.update(content, 0, fileSize);
+        final byte[] compressedContent = this.fileCompression.compress(content, fileSize);
+        final byte[] storedContent = compressedContent != null ? compressedContent : content;
+        final int storedSize = compressedContent != null ? compressedContent.length : fileSize;
+
+        final ReentrantLock fileLock = this.fileStorageData.lockFile(filePath);
+        try {
+            // File, which was copied to the storage directly, may be not registered until the warm-up is finished
+            if (this.fileStorageData.mightBeStored(filePath) || (!this.fileStorageData.isWarmedUp() && new File(filePath).exists()))
+                throw new KeyAlreadyExistFileStorageException("This key already exist", filePath);
+            if (storedSize > this.freeSpaceFor(key, null))
+                throw new NoFreeSpaceFileStorageException("No such free disc space to save current file", filePath);
+
+            final long creationTime = new Date().getTime();
+            final long expirationTime = fileLifeTime > 0 ? creationTime + fileLifeTime : 0;
+            return this.writeBehindBuffer.stage(filePath, key, storedContent, storedSize, fileSize, creationTime, expirationTime,
+                    (int) checksum.getValue(), compressedContent != null ? MetadataTable.FLAG_COMPRESSED : 0);
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the stream while it is not longer than maxFileSize
+     *
+     * @return read part of the stream, it is longer than maxFileSize if the stream isn't finished
+     */
+
+    private byte[] readSmallFile(InputStream inputStream, int maxFileSize) {
+        byte[] content = new byte[Math.min(maxFileSize + 1, 8 * 1024)];
+        int size = 0;
+        try {
+            while (size <= maxFileSize) {
+                if (size == content.length)
+                    content = Arrays.copyOf(content, Math.min(maxFileSize + 1, content.length * 2));
+                final int read = inputStream.read(content, size, content.length - size);
+                if (read < 0)
+                    break;
+                size += read;
+            }
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't read stream", null, e);
+        }
+        return size == content.length ? content : Arrays.copyOf(content, size);
     }
 
     /**
@@ -123,24 +518,132 @@ public class FileStorageImpl implements FileStorage {
      * @return Input Stream of this file
      * @throws KeyNotExistFileStorageException                                       if the file, associated with this key doesn't exist
      * @throws com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException if IOException occurs
+     * @throws com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.RejectedOperationFileStorageException if the operation isn't admitted by the admission control
      */
 
     @Override
     public InputStream readFile(String key) throws KeyNotExistFileStorageException {
+        final Object event = FlightRecorderEvents.beginOperation();
+        Throwable failure = null;
+        try {
+            return this.openFile(key);
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            this.finishOperation(event, "readFile", key, -1, failure);
+        }
+    }
+
+    private InputStream openFile(String key) throws KeyNotExistFileStorageException {
 
         final PathService pathService = new PathServiceImpl();
         final OperationService operationService = new OperationServiceImpl();
 
         final String filePath = this.userDataPath + pathService.generateFilePathPresentation(key);
 
-        final InputStream inputStream;
-        try {
-            inputStream = operationService.readFile(filePath);
-        } catch (KeyNotExistFileStorageException e) {
+        if (!this.isStored(filePath))
             throw new KeyNotExistFileStorageException("This key doesn't exist: " + key, key);
+
+        final MetadataEntry entry = new MetadataEntry();
+        while (true) {
+            // Content may be replaced while the file is opened, so the read is retried, if the metadata may describe other content
+            final long stamp = this.fileStorageData.beginContentRead(filePath);
+            final long currentTime = System.currentTimeMillis();
+            final boolean registered = this.fileStorageData.getMetadata(filePath, entry);
+            if (registered && ExpirationFilesDeleter.isExpired(entry, currentTime))
+                throw new KeyNotExistFileStorageException("This key doesn't exist: " + key, key);
+            final boolean compressed = registered && entry.hasFlag(MetadataTable.FLAG_COMPRESSED);
+
+            InputStream inputStream = this.writeBehindBuffer != null ? this.writeBehindBuffer.read(filePath) : null;
+            if (inputStream == null && registered && this.readAheadBuffer != null)
+                inputStream = this.readAheadBuffer.read(filePath, entry);
+            if (inputStream == null) {
+                final long admissionTime = this.admissionController != null ? this.admissionController.beginRead(key) : 0;
+                this.ioBudget.beginForegroundOperation();
+                try {
+                    inputStream = operationService.readFile(filePath);
+                } catch (KeyNotExistFileStorageException e) {
+                    throw new KeyNotExistFileStorageException("This key doesn't exist: " + key, key);
+                } finally {
+                    this.ioBudget.endForegroundOperation();
+                    if (this.admissionController != null)
+                        this.admissionController.endRead(admissionTime, 0);
+                }
+            }
+
+            if (this.fileStorageData.validateContentRead(filePath, stamp)) {
+                if (registered && this.slidingExpiration)
+                    this.slideExpiration(filePath, entry, currentTime);
+                if (this.accessPredictor != null)
+                    this.prefetch(this.accessPredictor.recordAccess(key));
+                return compressed ? this.fileCompression.decompress(inputStream, filePath) : inputStream;
+            }
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                LOGGER.warn("Can't close replaced file: " + filePath, e);
+            }
+        }
+    }
+
+    /**
+     * Reads the files in the background to the read-ahead buffer, so their reading finds the content in memory.
+     * Files are read in the order of the keys, while the buffer has free space. Missing keys, files bigger than
+     * max prefetched file size and files, which are already in memory, are skipped
+     *
+     * @param keys keys of the files, which are going to be read
+     * @return number of the files, which are queued for the prefetch, 0 if read-ahead buffer isn't enabled
+     */
+
+    public int prefetch(Collection<String> keys) {
+        if (keys == null)
+            throw new IncorrectArgumentFileStorageException("Value of keys is null");
+        if (this.readAheadBuffer == null)
+            return 0;
+
+        final PathService pathService = new PathServiceImpl();
+        int queuedFiles = 0;
+        for (String key : keys) {
+            if (key == null)
+                continue;
+            final String filePath = this.userDataPath + pathService.generateFilePathPresentation(key);
+            if (!this.fileStorageData.mightBeStored(filePath) || this.writeBehindBuffer != null && this.writeBehindBuffer.isStaged(filePath))
+                continue;
+            if (this.readAheadBuffer.prefetch(filePath))
+                queuedFiles++;
         }
+        return queuedFiles;
+    }
+
+    /**
+     * Returns number of the readings, which found the content prefetched by the read-ahead buffer
+     *
+     * @return number of the hits, 0 if read-ahead buffer isn't enabled
+     */
+
+    public long getReadAheadHits() {
+        return this.readAheadBuffer != null ? this.readAheadBuffer.getHits() : 0;
+    }
+
+    /**
+     * Returns number of the readings, which didn't find the prefetched content
+     *
+     * @return number of the misses, 0 if read-ahead buffer isn't enabled
+     */
 
-        return inputStream;
+    public long getReadAheadMisses() {
+        return this.readAheadBuffer != null ? this.readAheadBuffer.getMisses() : 0;
+    }
+
+    /**
+     * Returns number of the files, which are prefetched and aren't read yet
+     *
+     * @return number of the prefetched files, 0 if read-ahead buffer isn't enabled
+     */
+
+    public int getPrefetchedFiles() {
+        return this.readAheadBuffer != null ? this.readAheadBuffer.getPrefetchedFiles() : 0;
     }
 
     /**
@@ -149,79 +652,1196 @@ public class FileStorageImpl implements FileStorage {
      * @param key specific file key
      * @throws KeyNotExistFileStorageException                                       if the file, associated with this key doesn't exist
      * @throws com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException if IOException occurs
+     * @throws com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.RejectedOperationFileStorageException if the operation isn't admitted by the admission control
      */
 
     @Override
     public void deleteFile(String key) throws KeyNotExistFileStorageException {
+        final Object event = FlightRecorderEvents.beginOperation();
+        Throwable failure = null;
+        try {
+            this.deleteStoredFile(key);
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            this.finishOperation(event, "deleteFile", key, 0, failure);
+        }
+    }
+
+    private void deleteStoredFile(String key) throws KeyNotExistFileStorageException {
 
         final PathServiceImpl fileStoragePathService = new PathServiceImpl();
         final OperationService operationService = new OperationServiceImpl();
 
         final String filePath = this.userDataPath + fileStoragePathService.generateFilePathPresentation(key);
-        final long fileSize = operationService.deleteFile(filePath);
-        fileStorageData.decreaseTotalSizeOfFiles(fileSize);
 
-        if (this.fileStorageData.isExpirationFile(filePath))
-            this.fileStorageData.removeExpirationTime(filePath);
+        if (!this.isStored(filePath))
+            throw new KeyNotExistFileStorageException("This key doesn't exist: " + key, key);
+
+        if (this.deleteIfExpired(filePath))
+            throw new KeyNotExistFileStorageException("This key doesn't exist: " + key, key);
+
+        final ReentrantLock fileLock = this.fileStorageData.lockFile(filePath);
+        try {
+            if (this.writeBehindBuffer != null && this.writeBehindBuffer.delete(filePath)) {
+                fileStorageData.removeFile(filePath);
+                this.changeFeed.publish(ChangeEvent.Type.DELETED, key);
+                return;
+            }
+
+            final long admissionTime = this.admissionController != null ? this.admissionController.beginWrite(key) : 0;
+            this.ioBudget.beginForegroundOperation();
+            try {
+                operationService.deleteFile(filePath);
+                fileStorageData.removeFile(filePath);
+                this.changeFeed.publish(ChangeEvent.Type.DELETED, key);
+            } finally {
+                this.ioBudget.endForegroundOperation();
+                if (this.admissionController != null)
+                    this.admissionController.endWrite(admissionTime, 0);
+            }
+        } finally {
+            fileLock.unlock();
+        }
     }
 
     /**
-     * Returns free space of storage in bites
+     * Saves the file with specific key or replaces the content of the existing file. Content is written aside
+     * and is published atomically: readers, which opened the previous content, keep reading it.
+     * The file doesn't expire, even if the previous content was the expiration file
      *
-     * @return free space of storage in bites
+     * @param key         key of file.
+     * @param inputStream input stream for this file
+     * @return version of the saved content, 1 if file didn't exist
+     * @throws NoFreeSpaceFileStorageException     if there no free space in the storage
+     * @throws VersionMismatchFileStorageException if the file with this key is being saved concurrently
+     * @throws com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException if IOException occurs
+     * @throws com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.RejectedOperationFileStorageException if the operation isn't admitted by the admission control
      */
 
-    @Override
-    public long freeSpaceInBytes() {
-        return this.maxDiscSpace - fileStorageData.getTotalSizeOfFiles();
+    public long putFile(String key, InputStream inputStream) throws NoFreeSpaceFileStorageException, VersionMismatchFileStorageException {
+        return this.putFile(key, inputStream, 0);
     }
 
     /**
-     * Returns free space of storage in percents
+     * Saves the expiration file with specific key or replaces the content of the existing file.
+     * Content is published atomically, life time of the file is counted from the replacing
      *
-     * @return free space of storage in percents (0..100%)
+     * @param key          key of file.
+     * @param inputStream  input stream for this file
+     * @param fileLifeTime life time of the new content in milliseconds, 0 if file doesn't expire
+     * @return version of the saved content, 1 if file didn't exist
+     * @throws NoFreeSpaceFileStorageException     if there no free space in the storage
+     * @throws VersionMismatchFileStorageException if the file with this key is being saved concurrently
+     * @throws com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException if IOException occurs
      */
 
-    @Override
-    public int freeSpaceInPercents() {
-        return (int) (this.freeSpaceInBytes() / this.maxDiscSpace * 100);
+    public long putFile(String key, InputStream inputStream, long fileLifeTime) throws NoFreeSpaceFileStorageException, VersionMismatchFileStorageException {
+        if (fileLifeTime < 0)
+            throw new IncorrectArgumentFileStorageException("Value of fileLifeTime < 0");
+        try {
+            return this.putFileIfMatches(key, inputStream, fileLifeTime, ANY_VERSION, ANY_CHECKSUM);
+        } catch (KeyNotExistFileStorageException e) {
+            // Unconditional put doesn't require the existing file
+            throw new AssertionError(e);
+        }
     }
 
     /**
-     * Liberates free space in the storage to the target value in bites (or more)
+     * Replaces the content of the file, if its current version is the expected one (compare-and-swap).
+     * Expiration time of the file isn't changed
      *
-     * @param discSpaceInBytes target value of the free space
+     * @param key             key of file.
+     * @param inputStream     input stream for the new content
+     * @param expectedVersion version of the content, which is replaced (see {@link FileStat#getVersion()})
+     * @return version of the new content
+     * @throws KeyNotExistFileStorageException     if the file, associated with this key doesn't exist
+     * @throws VersionMismatchFileStorageException if the current version of the file isn't the expected one
+     * @throws NoFreeSpaceFileStorageException     if there no free space in the storage
+     * @throws com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException if IOException occurs
      */
 
-    @Override
-    public void purge(long discSpaceInBytes) {
+    public long replaceFile(String key, InputStream inputStream, long expectedVersion) throws KeyNotExistFileStorageException,
+            VersionMismatchFileStorageException, NoFreeSpaceFileStorageException {
+        if (expectedVersion <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of expectedVersion <= 0");
+        return this.putFileIfMatches(key, inputStream, KEEP_LIFE_TIME, expectedVersion, ANY_CHECKSUM);
+    }
 
-        if (discSpaceInBytes <= 0)
-            throw new IncorrectArgumentFileStorageException("Value of discSpaceInBytes <= 0");
-        if (discSpaceInBytes > this.maxDiscSpace)
-            discSpaceInBytes = this.maxDiscSpace;
+    /**
+     * Replaces the content of the file, if CRC32 of its current content is the expected one.
+     * Expiration time of the file isn't changed
+     *
+     * @param key              key of file.
+     * @param inputStream      input stream for the new content
+     * @param expectedChecksum CRC32 of the content, which is replaced (see {@link FileStat#getChecksum()})
+     * @return version of the new content
+     * @throws KeyNotExistFileStorageException     if the file, associated with this key doesn't exist
+     * @throws VersionMismatchFileStorageException if the checksum of the file isn't the expected one or it's unknown
+     * @throws NoFreeSpaceFileStorageException     if there no free space in the storage
+     * @throws com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException if IOException occurs
+     */
+
+    public long replaceFileIfChecksum(String key, InputStream inputStream, long expectedChecksum) throws KeyNotExistFileStorageException,
+            VersionMismatchFileStorageException, NoFreeSpaceFileStorageException {
+        if (expectedChecksum < 0 || expectedChecksum > 0xffffffffL)
+            throw new IncorrectArgumentFileStorageException("Value of expectedChecksum isn't CRC32");
+        return this.putFileIfMatches(key, inputStream, KEEP_LIFE_TIME, ANY_VERSION, expectedChecksum);
+    }
+
+    private long putFileIfMatches(String key, InputStream inputStream, long fileLifeTime, long expectedVersion, long expectedChecksum)
+            throws KeyNotExistFileStorageException, VersionMismatchFileStorageException, NoFreeSpaceFileStorageException {
+        final Object event = FlightRecorderEvents.beginOperation();
+        Throwable failure = null;
+        try {
+            return this.replaceContentIfMatches(key, inputStream, fileLifeTime, expectedVersion, expectedChecksum);
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            this.finishOperation(event, expectedVersion == ANY_VERSION && expectedChecksum == ANY_CHECKSUM ? "putFile" : "replaceFile", key, -1, failure);
+        }
+    }
+
+    private long replaceContentIfMatches(String key, InputStream inputStream, long fileLifeTime, long expectedVersion, long expectedChecksum)
+            throws KeyNotExistFileStorageException, VersionMismatchFileStorageException, NoFreeSpaceFileStorageException {
 
+        final PathService pathService = new PathServiceImpl();
         final OperationService operationService = new OperationServiceImpl();
 
-        final long sizeOfFiles = operationService.purge(this.userDataPath, discSpaceInBytes - this.freeSpaceInBytes());
-        fileStorageData.decreaseTotalSizeOfFiles(sizeOfFiles);
+        final String filePath = this.userDataPath + pathService.generateFilePathPresentation(key);
+        final boolean conditional = expectedVersion != ANY_VERSION || expectedChecksum != ANY_CHECKSUM;
+
+        if (conditional && !this.isStored(filePath))
+            throw new KeyNotExistFileStorageException("This key doesn't exist: " + key, key);
+        // Replaced file must be registered with its size, so the previous content is released correctly
+        this.fileStorageData.awaitWarmUp();
+
+        final MetadataEntry entry = new MetadataEntry();
+        final CountingInputStream countingInputStream = new CountingInputStream(inputStream);
+        final CheckedInputStream checkedInputStream = new CheckedInputStream(countingInputStream, new CRC32());
+        final CountingInputStream originalContent = new CountingInputStream(checkedInputStream);
+        final String temporaryFile = this.replacingPath + "/" + UUID.randomUUID();
+        final long admissionTime = this.admissionController != null ? this.admissionController.beginWrite(key) : 0;
+        this.ioBudget.beginForegroundOperation();
+        try {
+            // Space of the replaced content is released by the replacing, so it can be used by the new content
+            final long freeSpace = this.freeSpaceFor(key, this.fileStorageData.getMetadata(filePath, entry) ? entry : null);
+            final StoredContent storedContent = this.storedContent(originalContent);
+            final long fileSize;
+            try {
+                fileSize = operationService.saveFile(temporaryFile, storedContent.stream, freeSpace);
+            } catch (KeyAlreadyExistFileStorageException e) {
+                throw new ReadWriteFileStorageException("Can't create temporary file", temporaryFile, e);
+            } catch (NoFreeSpaceFileStorageException e) {
+                throw new NoFreeSpaceFileStorageException("No such free disc space to save current file", key);
+            }
+
+            final long version;
+            final ReentrantLock fileLock = this.fileStorageData.lockFile(filePath);
+            try {
+                final boolean registered = this.fileStorageData.getMetadata(filePath, entry);
+                if (conditional && (!registered || ExpirationFilesDeleter.isExpired(entry, System.currentTimeMillis())))
+                    throw new KeyNotExistFileStorageException("This key doesn't exist: " + key, key);
+                if (expectedVersion != ANY_VERSION && entry.getVersion() != expectedVersion)
+                    throw new VersionMismatchFileStorageException("Version of the file is " + entry.getVersion()
+                            + ", expected " + expectedVersion, key);
+                if (expectedChecksum != ANY_CHECKSUM && (!entry.hasFlag(MetadataTable.FLAG_CHECKSUM)
+                        || (entry.getChecksum() & 0xffffffffL) != expectedChecksum))
+                    throw new VersionMismatchFileStorageException("Checksum of the file doesn't match the expected one", key);
+                if (fileSize > this.freeSpaceFor(key, registered ? entry : null))
+                    throw new NoFreeSpaceFileStorageException("No such free disc space to save current file", key);
+                // Staged content would be written over the replacing content
+                if (registered && this.writeBehindBuffer != null)
+                    this.writeBehindBuffer.flush(filePath);
+
+                final long creationTime = new Date().getTime();
+                final long expirationTime = fileLifeTime == KEEP_LIFE_TIME
+                        ? (entry.hasFlag(MetadataTable.FLAG_EXPIRATION) ? entry.getExpirationTime() : 0)
+                        : (fileLifeTime > 0 ? creationTime + fileLifeTime : 0);
+                version = this.fileStorageData.replaceFile(filePath, key, Paths.get(temporaryFile), fileSize, originalContent.getCount(),
+                        creationTime, expirationTime, (int) checkedInputStream.getChecksum().getValue(), storedContent.flags);
+            } catch (FileAlreadyExistsException e) {
+                throw new VersionMismatchFileStorageException("File with this key is being saved concurrently", key);
+            } catch (IOException e) {
+                throw new ReadWriteFileStorageException("Can't replace the file", filePath, e);
+            } finally {
+                fileLock.unlock();
+            }
+            this.changeFeed.publish(ChangeEvent.Type.SAVED, key);
+            return version;
+        } finally {
+            new File(temporaryFile).delete();
+            this.ioBudget.endForegroundOperation();
+            if (this.admissionController != null)
+                this.admissionController.endWrite(admissionTime, countingInputStream.getCount());
+        }
     }
 
     /**
-     * Liberates free space in the storage to the target value in percents (or more)
+     * Starts multipart upload of the new file with specific key. Parts of the upload can be written in parallel
+     * and the upload can be resumed after the restart of the storage
      *
-     * @param discSpaceInPercents target value of the free space (0..100%)
-     * @throws ReadWriteFileStorageException if no access to some stored files
+     * @param key unique key of file.
+     * @return identifier of the upload
+     * @throws KeyAlreadyExistFileStorageException if file, associated with this key already exist
      */
 
-    @Override
-    public void purge(int discSpaceInPercents) {
+    public String initiateUpload(String key) throws KeyAlreadyExistFileStorageException {
+        return this.multipartUploads.initiate(key, 0);
+    }
 
-        if (discSpaceInPercents <= 0 || discSpaceInPercents > 100)
-            throw new IncorrectArgumentFileStorageException("Value of discSpaceInPercents <= 0 or > 100");
+    /**
+     * Starts multipart upload of the new expiration file with specific key. Life time of the file starts after completion of the upload
+     *
+     * @param key          unique key of file.
+     * @param fileLifeTime expiration time of the file. After this time it'll be deletes automatically
+     * @return identifier of the upload
+     * @throws KeyAlreadyExistFileStorageException if file, associated with this key already exist
+     */
 
-        long targetDiscSpace = discSpaceInPercents * this.maxDiscSpace / 100;
-        this.purge(targetDiscSpace);
+    public String initiateUpload(String key, long fileLifeTime) throws KeyAlreadyExistFileStorageException {
+        if (fileLifeTime <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of fileLifeTime <= 0");
+        return this.multipartUploads.initiate(key, fileLifeTime);
+    }
+
+    /**
+     * Writes part of the upload to the specific offset of the file
+     *
+     * @param uploadId    identifier of the upload
+     * @param offset      offset of the part in the file
+     * @param inputStream input stream for this part
+     * @return size of the written part in bites
+     * @throws KeyNotExistFileStorageException                                       if the upload doesn't exist
+     * @throws NoFreeSpaceFileStorageException                                       if there no free space in the storage
+     * @throws com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException if IOException occurs
+     * @throws com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.RejectedOperationFileStorageException if the operation isn't admitted by the admission control
+     */
+
+    public long uploadPart(String uploadId, long offset, InputStream inputStream) throws KeyNotExistFileStorageException, NoFreeSpaceFileStorageException {
+        final Object event = FlightRecorderEvents.beginOperation();
+        Throwable failure = null;
+        long partSize = 0;
+        final CountingInputStream countedInput = this.admissionController != null ? new CountingInputStream(inputStream) : null;
+        if (countedInput != null)
+            inputStream = countedInput;
+        final long admissionTime = this.admissionController != null ? this.admissionController.beginWrite(uploadId) : 0;
+        this.ioBudget.beginForegroundOperation();
+        try {
+            partSize = this.multipartUploads.uploadPart(uploadId, offset, inputStream);
+            return partSize;
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            this.ioBudget.endForegroundOperation();
+            if (this.admissionController != null)
+                this.admissionController.endWrite(admissionTime, countedInput.getCount());
+            // Key of the upload is known by its completion
+            this.finishOperation(event, "uploadPart", null, partSize, failure);
+        }
+    }
+
+    /**
+     * Returns written parts of the upload, so the client can resume the upload by the missing parts
+     *
+     * @param uploadId identifier of the upload
+     * @return written parts of the upload, which are sorted by offset
+     * @throws KeyNotExistFileStorageException if the upload doesn't exist
+     */
+
+    public List<UploadPart> getUploadedParts(String uploadId) throws KeyNotExistFileStorageException {
+        return this.multipartUploads.getParts(uploadId);
+    }
+
+    /**
+     * Completes the upload, written parts become the stored file. Completed file is stored as is,
+     * without compression and deduplication
+     *
+     * @param uploadId identifier of the upload
+     * @throws KeyNotExistFileStorageException       if the upload doesn't exist
+     * @throws KeyAlreadyExistFileStorageException   if file, associated with the key of the upload already exist
+     * @throws IncorrectArgumentFileStorageException if some parts of the file are missing
+     */
+
+    public void completeUpload(String uploadId) throws KeyNotExistFileStorageException, KeyAlreadyExistFileStorageException {
+        // Completed file is moved to the user data directory, so it can't be registered while the directory is scanned
+        this.fileStorageData.awaitWarmUp();
+        final Object event = FlightRecorderEvents.beginOperation();
+        Throwable failure = null;
+        String key = null;
+        this.ioBudget.beginForegroundOperation();
+        try {
+            key = this.multipartUploads.complete(uploadId);
+            this.changeFeed.publish(ChangeEvent.Type.SAVED, key);
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            this.ioBudget.endForegroundOperation();
+            this.finishOperation(event, "completeUpload", key, -1, failure);
+        }
     }
 
+    /**
+     * Aborts the upload and liberates disc space of its written parts
+     *
+     * @param uploadId identifier of the upload
+     * @throws KeyNotExistFileStorageException if the upload doesn't exist
+     */
+
+    public void abortUpload(String uploadId) throws KeyNotExistFileStorageException {
+        this.multipartUploads.abort(uploadId);
+    }
+
+    /**
+     * Deletes uploads without activity during the upload expiration time of this storage.
+     * It's called by the storage every minute
+     *
+     * @return number of the deleted uploads
+     */
+
+    public int deleteAbandonedUploads() {
+        final Object event = FlightRecorderEvents.beginBackgroundTask();
+        Throwable failure = null;
+        int deletedUploads = 0;
+        try {
+            deletedUploads = this.multipartUploads.deleteAbandonedUploads(this.uploadExpirationTime);
+            return deletedUploads;
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            FlightRecorderEvents.finishBackgroundTask(event, "deleteAbandonedUploads", deletedUploads, 0, failure);
+        }
+    }
+
+    /**
+     * Subscribes the listener to the changes of the storage: saving, deleting, purge and deleting of the expiration files.
+     * Events are delivered in batches by the own thread of the subscription, until the subscription is closed
+     *
+     * @param listener       receiver of the changes
+     * @param overflowPolicy behaviour, when the listener doesn't keep up with the changes
+     * @return subscription, which should be closed to stop the delivery
+     */
+
+    public ChangeSubscription subscribe(ChangeListener listener, OverflowPolicy overflowPolicy) {
+        return this.changeFeed.subscribe(listener, overflowPolicy);
+    }
+
+    /**
+     * Waits until all files of the write-behind buffer are written to the disc. Does nothing without write-behind buffer
+     *
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+
+    public void flush() throws InterruptedException {
+        if (this.writeBehindBuffer != null)
+            this.writeBehindBuffer.flush();
+    }
+
+    /**
+     * Creates point-in-time snapshot of the stored files by hard links, without copying of their content, see {@link Snapshots}.
+     * Files of the write-behind buffer are written to the disc before
+     *
+     * @return created snapshot
+     * @throws com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException if the snapshot can't be created
+     */
+
+    public Snapshot snapshot() {
+        try {
+            this.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReadWriteFileStorageException("Snapshot was interrupted", this.userDataPath, e);
+        }
+        // Files, which aren't registered yet, would be missed
+        this.fileStorageData.awaitWarmUp();
+        return this.snapshots.create();
+    }
+
+    /**
+     * Checks consistency of the stored files, their metadata and the used disc space, see {@link ConsistencyChecker}.
+     * Storage can be used during the check
+     *
+     * @param repair {@code true} if the found problems should be repaired
+     * @return report of the check
+     * @throws com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException if the check failed
+     */
+
+    public ConsistencyReport checkConsistency(boolean repair) {
+        return this.consistencyChecker.check(repair);
+    }
+
+    /**
+     * Checks consistency of the files, which were changed since the previous check. Without the previous check
+     * all files are checked
+     *
+     * @param repair {@code true} if the found problems should be repaired
+     * @return report of the check
+     * @throws com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException if the check failed
+     */
+
+    public ConsistencyReport checkRecentChanges(boolean repair) {
+        return this.consistencyChecker.checkRecentChanges(repair);
+    }
+
+    public List<Snapshot> getSnapshots() {
+        return this.snapshots.list();
+    }
+
+    /**
+     * Deletes the snapshot and releases content of the files, which are deleted from the storage
+     *
+     * @param id identifier of the snapshot
+     * @throws KeyNotExistFileStorageException if the snapshot doesn't exist
+     */
+
+    public void deleteSnapshot(String id) throws KeyNotExistFileStorageException {
+        this.snapshots.delete(id);
+    }
+
+    /**
+     * Writes all files of the snapshot to the archive, which can be imported by {@link #importArchive(InputStream)}
+     *
+     * @param id           identifier of the snapshot
+     * @param outputStream stream of the archive, it isn't closed
+     * @return number of the exported files
+     * @throws KeyNotExistFileStorageException if the snapshot doesn't exist
+     * @throws com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException if IOException occurs
+     */
+
+    public long exportSnapshot(String id, OutputStream outputStream) throws KeyNotExistFileStorageException {
+        return this.snapshots.export(id, null, outputStream);
+    }
+
+    /**
+     * Writes changes of the snapshot since the previous snapshot to the archive: new and replaced files,
+     * changed expiration times and deleted keys. Import of the archive brings the storage, restored from the previous
+     * snapshot, to the state of this snapshot
+     *
+     * @param id           identifier of the snapshot
+     * @param baseId       identifier of the previous snapshot
+     * @param outputStream stream of the archive, it isn't closed
+     * @return number of the exported changes
+     * @throws KeyNotExistFileStorageException if the snapshot or the previous snapshot doesn't exist
+     * @throws com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException if IOException occurs
+     */
+
+    public long exportSnapshot(String id, String baseId, OutputStream outputStream) throws KeyNotExistFileStorageException {
+        if (baseId == null)
+            throw new IncorrectArgumentFileStorageException("Value of baseId is null");
+        return this.snapshots.export(id, baseId, outputStream);
+    }
+
+    /**
+     * Imports files of the archive, which was written by {@link #exportSnapshot(String, OutputStream)}. The archive is read
+     * by the calling thread, files are written and registered by several threads with their stored content, creation
+     * and expiration times, so the used disc space and the expiration are right after this single pass.
+     * Existing files with the same keys are replaced, expired files aren't imported
+     *
+     * @param inputStream stream of the archive, it isn't closed
+     * @return number of the applied entries of the archive
+     * @throws NoFreeSpaceFileStorageException       if there no free space for the imported file. Files, which are imported before, stay in the storage
+     * @throws IncorrectArgumentFileStorageException if the stream isn't an archive of the storage
+     * @throws com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException if the archive is damaged or IOException occurs
+     */
+
+    public long importArchive(InputStream inputStream) throws NoFreeSpaceFileStorageException {
+        final Object event = FlightRecorderEvents.beginBackgroundTask();
+        Throwable failure = null;
+        long appliedEntries = 0;
+        try {
+            appliedEntries = this.importArchiveEntries(inputStream);
+            return appliedEntries;
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            FlightRecorderEvents.finishBackgroundTask(event, "import", appliedEntries, 0, failure);
+        }
+    }
+
+    private long importArchiveEntries(InputStream inputStream) throws NoFreeSpaceFileStorageException {
+        this.fileStorageData.awaitWarmUp();
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream, 64 * 1024));
+        final ExecutorService writers = Executors.newFixedThreadPool(this.archiveParallelism, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "FileStorage import");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // Content of the small files is buffered until they are written, so the number of the pending files is limited
+        final Semaphore pendingEntries = new Semaphore(this.archiveParallelism * PENDING_IMPORT_FILES_PER_THREAD);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        long appliedEntries = 0;
+        try {
+            new File(this.replacingPath).mkdirs();
+            Snapshots.readArchiveHeader(input);
+            final long currentTime = System.currentTimeMillis();
+            Snapshots.ArchiveEntry entry;
+            while ((entry = Snapshots.readArchiveEntry(input)) != null && failure.get() == null) {
+                final Snapshots.ArchiveEntry archiveEntry = entry;
+                byte[] content = null;
+                String temporaryFile = null;
+                int checksum = 0;
+                if (entry.type == Snapshots.FILE_ENTRY) {
+                    if (entry.expirationTime > 0 && entry.expirationTime <= currentTime) {
+                        skipContent(input, entry.size);
+                        continue;
+                    }
+                    temporaryFile = this.replacingPath + "/" + UUID.randomUUID();
+                    if (entry.size <= MAX_BUFFERED_IMPORT_FILE_SIZE) {
+                        content = new byte[(int) entry.size];
+                        input.readFully(content);
+                    } else {
+                        try {
+                            checksum = writeImportedContent(input, entry.size, temporaryFile);
+                        } catch (IOException e) {
+                            new File(temporaryFile).delete();
+                            throw e;
+                        }
+                    }
+                }
+                final byte[] bufferedContent = content;
+                final String importedFile = temporaryFile;
+                final int importedChecksum = checksum;
+                pendingEntries.acquire();
+                writers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (failure.get() == null)
+                                applyArchiveEntry(archiveEntry, bufferedContent, importedFile, importedChecksum);
+                        } catch (Exception e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            if (importedFile != null)
+                                new File(importedFile).delete();
+                            pendingEntries.release();
+                        }
+                    }
+                });
+                appliedEntries++;
+            }
+            writers.shutdown();
+            writers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't read archive", this.replacingPath, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReadWriteFileStorageException("Import was interrupted", this.replacingPath, e);
+        } finally {
+            writers.shutdownNow();
+        }
+
+        final Exception importFailure = failure.get();
+        if (importFailure instanceof NoFreeSpaceFileStorageException)
+            throw (NoFreeSpaceFileStorageException) importFailure;
+        if (importFailure != null)
+            throw (RuntimeException) importFailure;
+        return appliedEntries;
+    }
+
+    /**
+     * Applies one entry of the archive by the import thread
+     *
+     * @param content       buffered content of the small file, {@code null} if it's written to the temporary file already
+     * @param temporaryFile temporary file with the content of the file entry
+     * @param checksum      CRC32 of the content in the temporary file
+     */
+
+    private void applyArchiveEntry(Snapshots.ArchiveEntry entry, byte[] content, String temporaryFile, int checksum)
+            throws NoFreeSpaceFileStorageException {
+        final String filePath = this.userDataPath + new PathServiceImpl().generateFilePathPresentation(entry.key);
+        if (entry.type == Snapshots.DELETE_ENTRY) {
+            try {
+                this.deleteFile(entry.key);
+            } catch (KeyNotExistFileStorageException e) {
+                // File is already deleted
+            }
+            return;
+        }
+
+        final MetadataEntry metadata = new MetadataEntry();
+        try {
+            final int contentChecksum = content != null
+                    ? writeImportedContent(new ByteArrayInputStream(content), entry.size, temporaryFile) : checksum;
+            final boolean compressed = (entry.flags & MetadataTable.FLAG_COMPRESSED) != 0;
+            if (entry.type == Snapshots.FILE_ENTRY && !compressed && (entry.flags & MetadataTable.FLAG_CHECKSUM) != 0
+                    && contentChecksum != entry.checksum)
+                throw new IOException("Checksum of the imported content doesn't match");
+
+            final ReentrantLock fileLock = this.fileStorageData.lockFile(filePath);
+            try {
+                final boolean registered = this.fileStorageData.getMetadata(filePath, metadata);
+                if (entry.type == Snapshots.EXPIRATION_ENTRY) {
+                    if (registered && entry.expirationTime > 0)
+                        this.fileStorageData.putExpirationTime(filePath, entry.expirationTime);
+                    else if (registered)
+                        this.fileStorageData.removeExpirationTime(filePath);
+                    return;
+                }
+                if (entry.size > this.freeSpaceFor(entry.key, registered ? metadata : null))
+                    throw new NoFreeSpaceFileStorageException("No such free disc space to import current file", entry.key);
+                // Staged content would be written over the imported content
+                if (registered && this.writeBehindBuffer != null)
+                    this.writeBehindBuffer.flush(filePath);
+                this.fileStorageData.replaceFile(filePath, entry.key, Paths.get(temporaryFile), entry.size, entry.originalSize,
+                        entry.creationTime, entry.expirationTime, compressed ? entry.checksum : contentChecksum,
+                        entry.flags & MetadataTable.FLAG_COMPRESSED);
+            } finally {
+                fileLock.unlock();
+            }
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't import the file", entry.key, e);
+        }
+        this.changeFeed.publish(ChangeEvent.Type.SAVED, entry.key);
+    }
+
+    private static int writeImportedContent(InputStream content, long size, String temporaryFile) throws IOException {
+        final CRC32 checksum = new CRC32();
+        try (OutputStream output = new FileOutputStream(temporaryFile)) {
+            final byte[] buffer = new byte[64 * 1024];
+            long remaining = size;
+            while (remaining > 0) {
+                final int read = content.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0)
+                    throw new EOFException("Archive is ended inside the file");
+                output.write(buffer, 0, read);
+                checksum.update(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+        return (int) checksum.getValue();
+    }
+
+    private static void skipContent(InputStream content, long size) throws IOException {
+        long remaining = size;
+        while (remaining > 0) {
+            final long skipped = content.skip(remaining);
+            if (skipped > 0)
+                remaining -= skipped;
+            else if (content.read() < 0)
+                throw new EOFException("Archive is ended inside the file");
+            else
+                remaining--;
+        }
+    }
+
+    /**
+     * Returns metadata of the file with specific key. Doesn't open the file
+     *
+     * @param key specific file key
+     * @return metadata of this file
+     * @throws KeyNotExistFileStorageException if the file, associated with this key doesn't exist
+     */
+
+    @Override
+    public FileStat stat(String key) throws KeyNotExistFileStorageException {
+
+        final PathService pathService = new PathServiceImpl();
+        final String filePath = this.userDataPath + pathService.generateFilePathPresentation(key);
+
+        final MetadataEntry entry = new MetadataEntry();
+        if (!this.fileStorageData.getMetadata(filePath, entry) && !(this.isStored(filePath) && this.fileStorageData.getMetadata(filePath, entry))
+                || ExpirationFilesDeleter.isExpired(entry, System.currentTimeMillis()))
+            throw new KeyNotExistFileStorageException("This key doesn't exist: " + key, key);
+
+        return new FileStat(key, entry.getOriginalSize(), entry.getSize(), entry.getCreationTime(),
+                entry.hasFlag(MetadataTable.FLAG_EXPIRATION) ? entry.getExpirationTime() : 0,
+                entry.hasFlag(MetadataTable.FLAG_CHECKSUM), entry.getChecksum() & 0xffffffffL, entry.getVersion());
+    }
+
+    /**
+     * Checks existence of the file with specific key. Doesn't open the file
+     *
+     * @param key specific file key
+     * @return {@code true} if the file, associated with this key exists
+     */
+
+    @Override
+    public boolean exists(String key) {
+
+        final PathService pathService = new PathServiceImpl();
+        final String filePath = this.userDataPath + pathService.generateFilePathPresentation(key);
+
+        final MetadataEntry entry = new MetadataEntry();
+        return this.isStored(filePath) && !(this.fileStorageData.getMetadata(filePath, entry)
+                && ExpirationFilesDeleter.isExpired(entry, System.currentTimeMillis()));
+    }
+
+    /**
+     * Sets new life time of the file, which is counted from now. Doesn't re-upload the file
+     *
+     * @param key          specific file key
+     * @param fileLifeTime new life time of the file in milliseconds, 0 if the file shouldn't expire
+     * @throws KeyNotExistFileStorageException if the file, associated with this key doesn't exist or it's expired
+     */
+
+    public void touch(String key, long fileLifeTime) throws KeyNotExistFileStorageException {
+        if (fileLifeTime < 0)
+            throw new IncorrectArgumentFileStorageException("Value of fileLifeTime < 0");
+        if (!this.touchFile(key, fileLifeTime, System.currentTimeMillis()))
+            throw new KeyNotExistFileStorageException("This key doesn't exist: " + key, key);
+    }
+
+    /**
+     * Sets new life time of the files with specific keys. Life time of all files is counted from the same time.
+     * Missing and expired keys are skipped
+     *
+     * @param keys         keys of the files
+     * @param fileLifeTime new life time of the files in milliseconds, 0 if the files shouldn't expire
+     * @return number of the touched files
+     */
+
+    public int touch(Collection<String> keys, long fileLifeTime) {
+        if (keys == null)
+            throw new IncorrectArgumentFileStorageException("Value of keys is null");
+        if (fileLifeTime < 0)
+            throw new IncorrectArgumentFileStorageException("Value of fileLifeTime < 0");
+        final long currentTime = System.currentTimeMillis();
+        int touchedFiles = 0;
+        for (String key : keys) {
+            if (this.touchFile(key, fileLifeTime, currentTime))
+                touchedFiles++;
+        }
+        return touchedFiles;
+    }
+
+    private boolean touchFile(String key, long fileLifeTime, long currentTime) {
+        final Object event = FlightRecorderEvents.beginOperation();
+        Throwable failure = null;
+        try {
+            return this.touchStoredFile(key, fileLifeTime, currentTime);
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            this.finishOperation(event, "touch", key, 0, failure);
+        }
+    }
+
+    private boolean touchStoredFile(String key, long fileLifeTime, long currentTime) {
+        final PathService pathService = new PathServiceImpl();
+        final String filePath = this.userDataPath + pathService.generateFilePathPresentation(key);
+
+        if (!this.isStored(filePath))
+            return false;
+        // Expiration deleter checks the expiration time under the same lock
+        final ReentrantLock fileLock = this.fileStorageData.lockFile(filePath);
+        try {
+            return this.fileStorageData.touchFile(filePath, currentTime, fileLifeTime);
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    /**
+     * Extends expiration time of the read file by its life time, if it moves by the step at least
+     */
+
+    private void slideExpiration(String filePath, MetadataEntry entry, long currentTime) {
+        if (!entry.hasFlag(MetadataTable.FLAG_EXPIRATION) || entry.getLifeTime() <= 0
+                || currentTime + entry.getLifeTime() - entry.getExpirationTime() < entry.getLifeTime() / SLIDING_EXPIRATION_STEP_DIVISOR)
+            return;
+        final ReentrantLock fileLock = this.fileStorageData.lockFile(filePath);
+        try {
+            this.fileStorageData.touchFile(filePath, currentTime, entry.getLifeTime());
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    /**
+     * Ends the operation and commits its Flight Recorder event, if it's enabled and its duration exceeds the threshold.
+     * Hash, shard and size of the file are found only for the committed event
+     *
+     * @param key   key of the file, {@code null} if it's unknown
+     * @param bytes size of the content, -1 if it's the size of the stored file
+     */
+
+    private void finishOperation(Object event, String operation, String key, long bytes, Throwable failure) {
+        if (!FlightRecorderEvents.endOperation(event))
+            return;
+        long keyHash = 0;
+        int shard = -1;
+        long eventBytes = Math.max(bytes, 0);
+        if (key != null) {
+            final String relativePath = new PathServiceImpl().generateFilePathPresentation(key);
+            final MetadataEntry entry = new MetadataEntry();
+            keyHash = KeyHashing.hash64(relativePath);
+            shard = this.fileStorageData.shardOf(keyHash);
+            if (bytes < 0 && failure == null && this.fileStorageData.getMetadata(this.userDataPath + relativePath, entry))
+                eventBytes = entry.getOriginalSize();
+        }
+        FlightRecorderEvents.commitOperation(event, operation, keyHash, shard, eventBytes, failure);
+    }
+
+    /**
+     * Deletes the file, if it's expired, but isn't deleted by the background deleter yet
+     *
+     * @return {@code true} if the file was expired
+     */
+
+    private boolean deleteIfExpired(String filePath) {
+        final MetadataEntry entry = new MetadataEntry();
+        if (!this.fileStorageData.getMetadata(filePath, entry) || !ExpirationFilesDeleter.isExpired(entry, System.currentTimeMillis()))
+            return false;
+        this.expirationFilesDeleter.deleteExpiredFile(filePath, System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Checks, if this file may be stored. If the file isn't registered during the warm-up,
+     * it waits until the warm-up is finished, because the file may be copied to the storage directly
+     */
+
+    private boolean isStored(String filePath) {
+        if (this.fileStorageData.mightBeStored(filePath))
+            return true;
+        if (this.fileStorageData.isWarmedUp())
+            return false;
+        this.fileStorageData.awaitWarmUp();
+        return this.fileStorageData.mightBeStored(filePath);
+    }
+
+    /**
+     * Returns stream of all stored keys. Keys are read lazily by small portions,
+     * parallel stream reads different shards of the metadata in parallel
+     *
+     * @return stream of the stored keys
+     */
+
+    @Override
+    public Stream<String> keys() {
+        return StreamSupport.stream(new StoredKeysSpliterator(this.fileStorageData, null, null), false);
+    }
+
+    /**
+     * Returns stream of the stored keys, which start with the prefix.
+     * Keys are taken from the key index if it's kept, otherwise all the metadata is scanned
+     *
+     * @param prefix prefix of the keys
+     * @return stream of the stored keys with this prefix
+     */
+
+    @Override
+    public Stream<String> keys(String prefix) {
+        if (prefix == null)
+            throw new IncorrectArgumentFileStorageException("Value of prefix is null");
+
+        final NavigableSet<String> keyIndex = this.fileStorageData.getKeyIndex();
+        if (keyIndex == null || prefix.isEmpty())
+            return StreamSupport.stream(new StoredKeysSpliterator(this.fileStorageData, prefix, null), false);
+        final IndexedKeysIterator iterator = new IndexedKeysIterator(this.fileStorageData, this.userDataPath, keyIndex, prefix, null);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.ORDERED | Spliterator.SORTED), false);
+    }
+
+    /**
+     * Returns iterator of the stored keys, which can be resumed by the cursor of the previous iteration.
+     * Iteration is resumed in the order, which gave the cursor: the index of the keys is built by the warm-up,
+     * so the scan started before the index is continued by the scan, and the cursor of the index waits for the warm-up
+     *
+     * @param prefix prefix of the keys, {@code null} for all keys
+     * @param cursor cursor of the previous iteration ({@link KeyIterator#getCursor()}), {@code null} to start from the beginning
+     * @return iterator of the stored keys
+     * @throws IncorrectArgumentFileStorageException if the cursor is incorrect
+     */
+
+    @Override
+    public KeyIterator keyIterator(String prefix, String cursor) {
+        final char cursorType = cursor != null && !cursor.isEmpty() ? cursor.charAt(0) : 0;
+        if (cursorType == IndexedKeysIterator.CURSOR_TYPE)
+            this.fileStorageData.awaitWarmUp();
+        final NavigableSet<String> keyIndex = this.fileStorageData.getKeyIndex();
+        if (keyIndex == null || prefix == null || prefix.isEmpty() || cursorType == StoredKeysSpliterator.CURSOR_TYPE)
+            return new StoredKeysSpliterator(this.fileStorageData, prefix, cursor);
+        return new IndexedKeysIterator(this.fileStorageData, this.userDataPath, keyIndex, prefix, cursor);
+    }
+
+    /**
+     * Compares size of the stored content with the really used disc space.
+     * Ratio of the report shows, how much disc space is saved by compression and deduplication
+     *
+     * @return report about the used disc space
+     */
+
+    public SpaceReport getSpaceReport() {
+        return this.fileStorageData.getSpaceReport();
+    }
+
+    /**
+     * Returns future, which is completed when the warm-up of the storage is finished.
+     * Without background warm-up the returned future is already completed
+     *
+     * @return future of the warm-up, which is completed exceptionally if the warm-up failed
+     */
+
+    public CompletableFuture<Void> getReadiness() {
+        return this.fileStorageData.getReadiness();
+    }
+
+    public WarmUpProgress getWarmUpProgress() {
+        return this.fileStorageData.getWarmUpProgress();
+    }
+
+    /**
+     * Returns free space of storage in bites. Until the warm-up is finished, it's estimated by the registered files
+     *
+     * @return free space of storage in bites
+     */
+
+    @Override
+    public long freeSpaceInBytes() {
+        return this.maxDiscSpace - fileStorageData.getTotalSizeOfFiles();
+    }
+
+    /**
+     * Returns free space of the namespace: the rest of its quota, but not more than free space of the storage
+     *
+     * @param namespace name of the namespace
+     * @return free space of the namespace in bites
+     * @throws IncorrectArgumentFileStorageException if the namespace isn't declared
+     */
+
+    public long freeSpaceInBytes(String namespace) {
+        return Math.min(this.freeSpaceInBytes(), this.getNamespace(namespace).getFreeSpace());
+    }
+
+    /**
+     * Returns namespace with its quota and used space
+     *
+     * @param namespace name of the namespace
+     * @return declared namespace
+     * @throws IncorrectArgumentFileStorageException if the namespace isn't declared
+     */
+
+    public Namespace getNamespace(String namespace) {
+        final Namespace declaredNamespace = this.namespaces.get(namespace);
+        if (declaredNamespace == null)
+            throw new IncorrectArgumentFileStorageException("Namespace isn't declared: " + namespace);
+        return declaredNamespace;
+    }
+
+    /**
+     * Changes quota of the namespace. Files over the decreased quota aren't deleted, saving to the namespace fails until
+     * they are purged
+     *
+     * @param namespace name of the namespace
+     * @param quota     max disc space in bites, which files of the namespace can use. Value must be > 0
+     * @throws IncorrectArgumentFileStorageException if the namespace isn't declared
+     */
+
+    public void setNamespaceQuota(String namespace, long quota) {
+        if (quota <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of quota <= 0");
+        this.getNamespace(namespace).setQuota(quota);
+    }
+
+    /**
+     * Returns free space for the file with specific key: free space of the storage, limited by the quota of its namespace
+     *
+     * @param replacedEntry metadata of the file, which is released by this saving, {@code null} if nothing is replaced
+     */
+
+    private long freeSpaceFor(String key, MetadataEntry replacedEntry) {
+        final Namespace namespace = this.namespaces.of(key);
+        long freeSpace = this.freeSpaceInBytes();
+        long namespaceFreeSpace = namespace == null ? Long.MAX_VALUE : namespace.getFreeSpace();
+        if (replacedEntry != null) {
+            // Blob of the deduplicated file may be shared, but namespace counts the file in full
+            if (!replacedEntry.hasFlag(MetadataTable.FLAG_DEDUPLICATED))
+                freeSpace += replacedEntry.getSize();
+            if (namespace != null)
+                namespaceFreeSpace += replacedEntry.getSize();
+        }
+        return Math.min(freeSpace, namespaceFreeSpace);
+    }
+
+    /**
+     * Returns free space of storage in percents
+     *
+     * @return free space of storage in percents (0..100%)
+     */
+
+    @Override
+    public int freeSpaceInPercents() {
+        return (int) (this.freeSpaceInBytes() / this.maxDiscSpace * 100);
+    }
+
+    /**
+     * Liberates free space in the storage to the target value in bites (or more)
+     *
+     * @param discSpaceInBytes target value of the free space
+     * @throws RejectedOperationFileStorageException if the storage root is shared and another process runs the maintenance
+     */
+
+    @Override
+    public void purge(long discSpaceInBytes) {
+        this.createPurgeTask(discSpaceInBytes).run();
+    }
+
+    /**
+     * Starts liberating of free space in the storage to the target value in bites (or more) in the background.
+     * Files are deleted by small steps in accordance with IOBudget of this storage.
+     *
+     * @param discSpaceInBytes target value of the free space
+     * @return task, which can be used to wait or to cancel this purge
+     * @throws RejectedOperationFileStorageException if the storage root is shared and another process runs the maintenance
+     */
+
+    public PurgeTask startPurge(long discSpaceInBytes) {
+        final PurgeTask purgeTask = this.createPurgeTask(discSpaceInBytes);
+        this.maintenanceExecutor.execute(purgeTask);
+        return purgeTask;
+    }
+
+    /**
+     * Liberates free space of the namespace to the target value in bites (or more).
+     * Only files of this namespace are visited and deleted
+     *
+     * @param namespace        name of the namespace
+     * @param discSpaceInBytes target value of the free space of the namespace
+     * @throws IncorrectArgumentFileStorageException if the namespace isn't declared
+     * @throws RejectedOperationFileStorageException if the storage root is shared and another process runs the maintenance
+     */
+
+    public void purge(String namespace, long discSpaceInBytes) {
+        this.createPurgeTask(namespace, discSpaceInBytes).run();
+    }
+
+    /**
+     * Starts liberating of free space of the namespace to the target value in bites (or more) in the background
+     *
+     * @param namespace        name of the namespace
+     * @param discSpaceInBytes target value of the free space of the namespace
+     * @return task, which can be used to wait or to cancel this purge
+     * @throws IncorrectArgumentFileStorageException if the namespace isn't declared
+     * @throws RejectedOperationFileStorageException if the storage root is shared and another process runs the maintenance
+     */
+
+    public PurgeTask startPurge(String namespace, long discSpaceInBytes) {
+        final PurgeTask purgeTask = this.createPurgeTask(namespace, discSpaceInBytes);
+        this.maintenanceExecutor.execute(purgeTask);
+        return purgeTask;
+    }
+
+    private PurgeTask createPurgeTask(String namespace, long discSpaceInBytes) {
+        final Namespace declaredNamespace = this.getNamespace(namespace);
+        this.checkMaintenance();
+        this.fileStorageData.awaitWarmUp();
+
+        if (discSpaceInBytes <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of discSpaceInBytes <= 0");
+        if (discSpaceInBytes > declaredNamespace.getQuota())
+            discSpaceInBytes = declaredNamespace.getQuota();
+
+        return new PurgeTask(this.fileStorageData, this.ioBudget, this.changeFeed, declaredNamespace,
+                discSpaceInBytes - declaredNamespace.getFreeSpace());
+    }
+
+    private PurgeTask createPurgeTask(long discSpaceInBytes) {
+
+        this.checkMaintenance();
+
+        // Size of the space to liberate needs exact used disc space
+        this.fileStorageData.awaitWarmUp();
+
+        if (discSpaceInBytes <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of discSpaceInBytes <= 0");
+        if (discSpaceInBytes > this.maxDiscSpace)
+            discSpaceInBytes = this.maxDiscSpace;
+
+        return new PurgeTask(this.fileStorageData, this.ioBudget, this.changeFeed, discSpaceInBytes - this.freeSpaceInBytes());
+    }
+
+    /**
+     * Checks, if this storage runs the maintenance: deletes expired files, purges the storage and deletes abandoned uploads.
+     * Of the processes, which share the storage root, it's the holder of the lease. The lease is taken over, when its holder exits
+     *
+     * @return {@code true} if the root isn't shared or this process holds the lease
+     */
+
+    public boolean runsMaintenance() {
+        return this.sharedRoot == null || this.sharedRoot.acquireLease();
+    }
+
+    /**
+     * Closes the storage: stops its maintenance, closes change subscriptions and uploads, writes files,
+     * which are staged by write-behind buffer, closes the journals and detaches from the shared storage root.
+     * Storage can't be used after that, the same root can be opened again by the new instance
+     */
+
+    @Override
+    public synchronized void close() {
+        if (this.closed)
+            return;
+        this.closed = true;
+        try {
+            // Timer runs its tasks one by one, so the running task is finished before this one
+            final CountDownLatch timerStopped = new CountDownLatch(1);
+            this.maintenanceTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    maintenanceTimer.cancel();
+                    timerStopped.countDown();
+                }
+            }, 0);
+            timerStopped.await();
+            this.maintenanceExecutor.shutdown();
+            this.maintenanceExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            this.changeFeed.close();
+            this.multipartUploads.close();
+            if (this.readAheadBuffer != null)
+                this.readAheadBuffer.close();
+            if (this.writeBehindBuffer != null)
+                this.writeBehindBuffer.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Closing of the storage was interrupted, staged files are recovered at the next start");
+        } finally {
+            this.fileStorageData.close();
+            if (this.sharedRoot != null)
+                this.sharedRoot.close();
+        }
+    }
+
+    private void checkMaintenance() {
+        if (!this.runsMaintenance())
+            throw new RejectedOperationFileStorageException("Storage is purged by another process, which shares the storage root", null);
+    }
+
+    /**
+     * Liberates free space in the storage to the target value in percents (or more)
+     *
+     * @param discSpaceInPercents target value of the free space (0..100%)
+     * @throws ReadWriteFileStorageException if no access to some stored files
+     */
+
+    @Override
+    public void purge(int discSpaceInPercents) {
+
+        if (discSpaceInPercents <= 0 || discSpaceInPercents > 100)
+            throw new IncorrectArgumentFileStorageException("Value of discSpaceInPercents <= 0 or > 100");
+
+        long targetDiscSpace = discSpaceInPercents * this.maxDiscSpace / 100;
+        this.purge(targetDiscSpace);
+    }
+
+    private final static class StoredContent {
+
+        private final InputStream stream;
+        private final int flags;
+
+        private StoredContent(InputStream stream, int flags) {
+            this.stream = stream;
+            this.flags = flags;
+        }
+    }
 }
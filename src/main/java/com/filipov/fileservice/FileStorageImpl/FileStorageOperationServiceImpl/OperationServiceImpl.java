@@ -5,6 +5,7 @@ import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExist
 import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.NoFreeSpaceFileStorageException;
 import com.filipov.fileservice.FileStorageImpl.OperationService;
 import com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.StoredFileHandler;
 
 import java.io.*;
 import java.nio.ByteBuffer;
@@ -14,7 +15,6 @@ import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.NavigableMap;
 
 public class OperationServiceImpl implements OperationService {
 
@@ -113,35 +113,15 @@ public class OperationServiceImpl implements OperationService {
         return inputStream;
     }
 
-    @Override
-    public long purge(String directoryPath, long purgeDiscSpaceInBytes) {
-        final Path path = Paths.get(directoryPath);
-        final OldestFilesFinderVisitor oldestFilesFinderVisitor = new OldestFilesFinderVisitor();
-        try {
-            Files.walkFileTree(path, oldestFilesFinderVisitor);
-        } catch (IOException e) {
-            throw new ReadWriteFileStorageException("Can't get access to some stored file", oldestFilesFinderVisitor.getLastAccessedFileKey(), e);
-        }
-
-        final NavigableMap<Long, String> sortedByModifyingTimeFiles = oldestFilesFinderVisitor.getOldestFiles();
-
-        long sizeOfDeletedFiles = 0;
-        while (sizeOfDeletedFiles < purgeDiscSpaceInBytes && !sortedByModifyingTimeFiles.isEmpty()) {
-            final String filePath = sortedByModifyingTimeFiles.remove(sortedByModifyingTimeFiles.firstKey());
-            try {
-                sizeOfDeletedFiles += this.deleteFile(filePath);
-            } catch (KeyNotExistFileStorageException e) {
-                throw new ReadWriteFileStorageException("Can't delete file", filePath, e);
-            }
-        }
-        return sizeOfDeletedFiles;
+    public long getTotalSizeOfFiles(String path) {
+        return this.getTotalSizeOfFiles(path, null);
     }
 
-    public long getTotalSizeOfFiles(String path) {
+    public long getTotalSizeOfFiles(String path, StoredFileHandler fileHandler) {
 
         final Path targetPath = Paths.get(path);
 
-        final TotalSizeOfFilesCalculatorVisitor totalSizeOfFilesCalculatorVisitor = new TotalSizeOfFilesCalculatorVisitor();
+        final TotalSizeOfFilesCalculatorVisitor totalSizeOfFilesCalculatorVisitor = new TotalSizeOfFilesCalculatorVisitor(fileHandler);
         try {
             Files.walkFileTree(targetPath, totalSizeOfFilesCalculatorVisitor);
         } catch (IOException e) {
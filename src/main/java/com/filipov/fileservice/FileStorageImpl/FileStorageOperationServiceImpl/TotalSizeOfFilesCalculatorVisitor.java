@@ -1,5 +1,7 @@
 package com.filipov.fileservice.FileStorageImpl.FileStorageOperationServiceImpl;
 
+import com.filipov.fileservice.FileStorageImpl.StoredFileHandler;
+
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -9,14 +11,25 @@ import java.nio.file.attribute.BasicFileAttributes;
 
 public class TotalSizeOfFilesCalculatorVisitor extends SimpleFileVisitor<Path> {
 
+    private final StoredFileHandler fileHandler;
     private long totalSizeOfFiles = 0;
     private String lastAccessedFileKey;
 
+    public TotalSizeOfFilesCalculatorVisitor() {
+        this(null);
+    }
+
+    public TotalSizeOfFilesCalculatorVisitor(StoredFileHandler fileHandler) {
+        this.fileHandler = fileHandler;
+    }
+
     @Override
     public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
         this.lastAccessedFileKey = path.getFileName().toString();
         final long fileSize = (Long) Files.getAttribute(path, "size");
         this.totalSizeOfFiles += fileSize;
+        if (this.fileHandler != null)
+            this.fileHandler.handleFile(path.toString(), attrs);
         return FileVisitResult.CONTINUE;
     }
 
@@ -0,0 +1,365 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Optional settings of {@link FileStorageImpl}. Default settings give the storage without background limits,
+ * without key index, without write-behind buffer, without read-ahead buffer, without compression and without deduplication
+ *
+ * @author Yevhen Filipov
+ */
+
+public class FileStorageOptions {
+
+    private IOBudget ioBudget = IOBudget.unlimited();
+    private boolean keyIndex;
+    private int writeBehindBufferSize;
+    private int writeBehindMaxFileSize;
+    private int readAheadBufferSize;
+    private int readAheadMaxFileSize;
+    private int readAheadDepth;
+    private CompressionCodec compressionCodec;
+    private boolean deduplication;
+    private long uploadExpirationTime = 24 * 60 * 60 * 1000l;
+    private AdmissionController admissionController;
+    private int changeBufferSize = 4096;
+    private boolean slidingExpiration;
+    private char namespaceSeparator = '/';
+    private final Map<String, Long> namespaceQuotas = new LinkedHashMap<String, Long>();
+    private boolean backgroundWarmUp;
+    private boolean sharedRoot;
+    private int archiveParallelism = 4;
+    private int checkParallelism = 4;
+
+    public IOBudget getIOBudget() {
+        return ioBudget;
+    }
+
+    /**
+     * Sets budget of background operations (purge, deleting of expiration files)
+     *
+     * @param ioBudget budget of background operations
+     * @return these options
+     */
+
+    public FileStorageOptions setIOBudget(IOBudget ioBudget) {
+        if (ioBudget == null)
+            throw new IncorrectArgumentFileStorageException("Value of ioBudget is null");
+        this.ioBudget = ioBudget;
+        return this;
+    }
+
+    public boolean isKeyIndex() {
+        return keyIndex;
+    }
+
+    /**
+     * Enables sorted index of the keys, which is kept in heap and is used to list keys with specific prefix
+     *
+     * @param keyIndex {@code true} if sorted index of the keys should be kept
+     * @return these options
+     */
+
+    public FileStorageOptions setKeyIndex(boolean keyIndex) {
+        this.keyIndex = keyIndex;
+        return this;
+    }
+
+    public boolean isWriteBehind() {
+        return writeBehindBufferSize > 0;
+    }
+
+    public int getWriteBehindBufferSize() {
+        return writeBehindBufferSize;
+    }
+
+    public int getWriteBehindMaxFileSize() {
+        return writeBehindMaxFileSize;
+    }
+
+    /**
+     * Enables write-behind mode: files, which are not bigger than maxFileSize, are kept in the out of heap buffer
+     * and are written to the disc in batches by the background thread
+     *
+     * @param bufferSize  size of the buffer in bites
+     * @param maxFileSize max size of the file in bites, which is kept in the buffer. Value must be <= bufferSize
+     * @return these options
+     */
+
+    public FileStorageOptions setWriteBehind(int bufferSize, int maxFileSize) {
+        if (bufferSize <= 0 || maxFileSize <= 0 || maxFileSize > bufferSize)
+            throw new IncorrectArgumentFileStorageException("Value of bufferSize or maxFileSize <= 0 or maxFileSize > bufferSize");
+        this.writeBehindBufferSize = bufferSize;
+        this.writeBehindMaxFileSize = maxFileSize;
+        return this;
+    }
+
+    public boolean isReadAhead() {
+        return readAheadBufferSize > 0;
+    }
+
+    public int getReadAheadBufferSize() {
+        return readAheadBufferSize;
+    }
+
+    public int getReadAheadMaxFileSize() {
+        return readAheadMaxFileSize;
+    }
+
+    /**
+     * Enables read-ahead buffer: files, which are not bigger than maxFileSize, can be prefetched to the out of heap buffer
+     * by {@link FileStorageImpl#prefetch(java.util.Collection)}, so their reading doesn't wait for the disc
+     *
+     * @param bufferSize  size of the buffer in bites
+     * @param maxFileSize max size of the file in bites, which can be prefetched. Value must be <= bufferSize
+     * @return these options
+     */
+
+    public FileStorageOptions setReadAhead(int bufferSize, int maxFileSize) {
+        if (bufferSize <= 0 || maxFileSize <= 0 || maxFileSize > bufferSize)
+            throw new IncorrectArgumentFileStorageException("Value of bufferSize or maxFileSize <= 0 or maxFileSize > bufferSize");
+        this.readAheadBufferSize = bufferSize;
+        this.readAheadMaxFileSize = maxFileSize;
+        return this;
+    }
+
+    public int getReadAheadDepth() {
+        return readAheadDepth;
+    }
+
+    /**
+     * Enables adaptive read-ahead: each reading predicts the next read keys by the recent reads (numbered keys,
+     * which are read with the constant step, and the repeated order of the keys) and prefetches them.
+     * Read-ahead buffer must be enabled by {@link #setReadAhead(int, int)}
+     *
+     * @param readAheadDepth max number of the keys, which are prefetched after each reading, 0 to disable. Value must be >= 0
+     * @return these options
+     */
+
+    public FileStorageOptions setAdaptiveReadAhead(int readAheadDepth) {
+        if (readAheadDepth < 0)
+            throw new IncorrectArgumentFileStorageException("Value of readAheadDepth < 0");
+        this.readAheadDepth = readAheadDepth;
+        return this;
+    }
+
+    public CompressionCodec getCompressionCodec() {
+        return compressionCodec;
+    }
+
+    /**
+     * Enables compression of the saved files. Incompressible files are stored as is
+     *
+     * @param compressionCodec codec, which compresses the files, {@code null} to store files as is
+     * @return these options
+     */
+
+    public FileStorageOptions setCompressionCodec(CompressionCodec compressionCodec) {
+        this.compressionCodec = compressionCodec;
+        return this;
+    }
+
+    public boolean isDeduplication() {
+        return deduplication;
+    }
+
+    /**
+     * Enables deduplication: content of the saved file is stored once, files with the same content are hard links
+     * to the same blob. File system must support hard links
+     *
+     * @param deduplication {@code true} if the same content should be stored once
+     * @return these options
+     */
+
+    public FileStorageOptions setDeduplication(boolean deduplication) {
+        this.deduplication = deduplication;
+        return this;
+    }
+
+    public long getUploadExpirationTime() {
+        return uploadExpirationTime;
+    }
+
+    /**
+     * Sets time, after which multipart upload without written parts is considered abandoned and is deleted
+     *
+     * @param uploadExpirationTime max time without activity in milliseconds. Value must be > 0
+     * @return these options
+     */
+
+    public FileStorageOptions setUploadExpirationTime(long uploadExpirationTime) {
+        if (uploadExpirationTime <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of uploadExpirationTime <= 0");
+        this.uploadExpirationTime = uploadExpirationTime;
+        return this;
+    }
+
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    /**
+     * Enables admission control of the foreground operations: number of the concurrent reads and writes is limited,
+     * operations over the limits wait in the queue or are rejected
+     *
+     * @param admissionController admission control, {@code null} to run all operations immediately
+     * @return these options
+     */
+
+    public FileStorageOptions setAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+        return this;
+    }
+
+    public int getChangeBufferSize() {
+        return changeBufferSize;
+    }
+
+    /**
+     * Sets capacity of the ring buffer of each change subscription. It's rounded up to the power of two
+     *
+     * @param changeBufferSize number of the events, which can wait for the delivery to the listener. Value must be > 1
+     * @return these options
+     */
+
+    public FileStorageOptions setChangeBufferSize(int changeBufferSize) {
+        if (changeBufferSize <= 1)
+            throw new IncorrectArgumentFileStorageException("Value of changeBufferSize <= 1");
+        this.changeBufferSize = changeBufferSize;
+        return this;
+    }
+
+    public boolean isSlidingExpiration() {
+        return slidingExpiration;
+    }
+
+    /**
+     * Enables sliding expiration: reading of the expiration file extends its expiration time by its life time.
+     * To limit writes of the metadata, expiration time is extended only when it moves by 1/8 of the life time,
+     * so the file lives at least 7/8 of its life time after the last reading
+     *
+     * @param slidingExpiration {@code true} if the reading should extend the life of the file
+     * @return these options
+     */
+
+    public FileStorageOptions setSlidingExpiration(boolean slidingExpiration) {
+        this.slidingExpiration = slidingExpiration;
+        return this;
+    }
+
+    public Namespaces getNamespaces() {
+        return new Namespaces(namespaceSeparator, namespaceQuotas);
+    }
+
+    /**
+     * Declares namespace of the keys with its own quota. Key belongs to the namespace, if it starts with the name
+     * of the namespace and the separator (for example "tenant/file"). Saving to the namespace fails, when its quota is used,
+     * even if the storage has free space, and purge of the namespace doesn't delete files of other namespaces
+     *
+     * @param name  name of the namespace, it must not contain the separator
+     * @param quota max disc space in bites, which files of the namespace can use. Value must be > 0
+     * @return these options
+     */
+
+    public FileStorageOptions addNamespace(String name, long quota) {
+        if (name == null || name.isEmpty() || name.indexOf(namespaceSeparator) >= 0)
+            throw new IncorrectArgumentFileStorageException("Value of name is empty or contains the separator");
+        if (quota <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of quota <= 0");
+        this.namespaceQuotas.put(name, quota);
+        return this;
+    }
+
+    /**
+     * Sets separator of the namespace in the keys, default is '/'
+     *
+     * @param namespaceSeparator separator of the namespace
+     * @return these options
+     */
+
+    public FileStorageOptions setNamespaceSeparator(char namespaceSeparator) {
+        for (String name : this.namespaceQuotas.keySet()) {
+            if (name.indexOf(namespaceSeparator) >= 0)
+                throw new IncorrectArgumentFileStorageException("Namespace " + name + " contains the separator");
+        }
+        this.namespaceSeparator = namespaceSeparator;
+        return this;
+    }
+
+    public boolean isBackgroundWarmUp() {
+        return backgroundWarmUp;
+    }
+
+    /**
+     * Enables background warm-up: the storage is opened after the replay of the metadata journal, and the user data
+     * directory is scanned in the background. Until the warm-up is finished, reads of the unregistered keys, purge,
+     * deduplicated saves and saves with less than 10% of free space wait for it
+     *
+     * @param backgroundWarmUp {@code true} if the storage should be opened without waiting for the scanning
+     * @return these options
+     */
+
+    public FileStorageOptions setBackgroundWarmUp(boolean backgroundWarmUp) {
+        this.backgroundWarmUp = backgroundWarmUp;
+        return this;
+    }
+
+    public boolean isSharedRoot() {
+        return sharedRoot;
+    }
+
+    /**
+     * Enables sharing of the storage root by several processes on one host, see {@link SharedRoot}.
+     * Each process sees the files of other processes, used disc space is counted for all of them, and only one process
+     * deletes expired files, purges the storage and deletes abandoned uploads. Multipart uploads are continued
+     * only by the process, which initiated them. Write-behind buffer and deduplication keep their state in the process,
+     * so they can't be enabled for the shared root
+     *
+     * @param sharedRoot {@code true} if the storage root is shared by several processes
+     * @return these options
+     */
+
+    public FileStorageOptions setSharedRoot(boolean sharedRoot) {
+        this.sharedRoot = sharedRoot;
+        return this;
+    }
+
+    public int getArchiveParallelism() {
+        return archiveParallelism;
+    }
+
+    /**
+     * Sets number of threads, which read the files of the exported snapshot and write the files of the imported archive
+     *
+     * @param archiveParallelism number of threads. Value must be > 0
+     * @return these options
+     */
+
+    public FileStorageOptions setArchiveParallelism(int archiveParallelism) {
+        if (archiveParallelism <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of archiveParallelism <= 0");
+        this.archiveParallelism = archiveParallelism;
+        return this;
+    }
+
+    public int getCheckParallelism() {
+        return checkParallelism;
+    }
+
+    /**
+     * Sets number of threads, which check consistency of the storage, see {@link ConsistencyChecker}
+     *
+     * @param checkParallelism number of threads. Value must be > 0
+     * @return these options
+     */
+
+    public FileStorageOptions setCheckParallelism(int checkParallelism) {
+        if (checkParallelism <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of checkParallelism <= 0");
+        this.checkParallelism = checkParallelism;
+        return this;
+    }
+}
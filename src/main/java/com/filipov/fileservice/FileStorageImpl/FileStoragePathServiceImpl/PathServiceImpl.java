@@ -4,13 +4,16 @@ import com.filipov.fileservice.FileStorageImpl.PathService;
 
 public class PathServiceImpl implements PathService {
 
+    // Characters, which can't be used in the file names
+    private final static String RESERVED_CHARACTERS = "/ ?|><*\\:\"";
+
     private String generateDirectoryPathPresentation(String key) {
         // Separates 2^30 (include positive and negative values) variants of hash code
-        int cutHash = key.hashCode() % (int) Math.pow(2, 28);
+        int cutHash = key.hashCode() % (1 << 28);
         // Separates 2^15 (include positive and negative values) variants of hash code for the folders names of the first nesting level
-        int fistPartHash = cutHash / (int) Math.pow(2, 14);
+        int fistPartHash = cutHash / (1 << 14);
         // Separates 2^15 (include positive and negative values) variants of hash code for the folders names of the second nesting level
-        int secondPartHash = cutHash % (int) Math.pow(2, 14);
+        int secondPartHash = cutHash % (1 << 14);
 
         // In this structure we can get not more than 2^15 files for each of two nesting level
         // The total number of files to store: 2^30
@@ -21,6 +24,12 @@ public class PathServiceImpl implements PathService {
     @Override
     public String generateFilePathPresentation(String key) {
 
-        return generateDirectoryPathPresentation(key) + "/" + key.replaceAll("[/ ? | > < * \\\\ : \" ]", "_");
+        final StringBuilder filePath = new StringBuilder(key.length() + 16);
+        filePath.append(generateDirectoryPathPresentation(key)).append('/');
+        for (int i = 0; i < key.length(); i++) {
+            final char character = key.charAt(i);
+            filePath.append(RESERVED_CHARACTERS.indexOf(character) >= 0 ? '_' : character);
+        }
+        return filePath.toString();
     }
 }
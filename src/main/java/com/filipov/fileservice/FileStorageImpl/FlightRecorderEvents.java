@@ -0,0 +1,107 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Records Flight Recorder events of the storage: {@link OperationEvent} and {@link BackgroundTaskEvent}.
+ * Flight Recorder is missing in JDK 8 before 8u262 and in the runtime images without module jdk.jfr,
+ * so it's checked once and the event classes are loaded only if it's available. Otherwise events aren't recorded.
+ * <p>
+ * Events are passed to the callers as {@link Object}, so the classes of the storage don't refer to the event classes.
+ *
+ * @author Yevhen Filipov
+ */
+
+final class FlightRecorderEvents {
+
+    private final static Logger LOGGER = Logger.getLogger(FlightRecorderEvents.class);
+    private final static boolean AVAILABLE = isAvailable();
+
+    private FlightRecorderEvents() {
+    }
+
+    /**
+     * Begins the event of the foreground operation
+     *
+     * @return event of the operation, {@code null} if Flight Recorder isn't available
+     */
+
+    static Object beginOperation() {
+        if (!AVAILABLE)
+            return null;
+        final OperationEvent event = new OperationEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the event of the foreground operation
+     *
+     * @param event event of the operation, may be {@code null}
+     * @return {@code true} if the event is enabled and its duration exceeds the threshold, so it should be committed
+     */
+
+    static boolean endOperation(Object event) {
+        if (event == null)
+            return false;
+        final OperationEvent operationEvent = (OperationEvent) event;
+        operationEvent.end();
+        return operationEvent.shouldCommit();
+    }
+
+    /**
+     * Commits the ended event of the foreground operation
+     *
+     * @param event     event of the operation, which should be committed
+     * @param operation name of the operation
+     * @param keyHash   64-bit hash of the file path
+     * @param shard     shard of the metadata table, -1 if the operation doesn't address the stored file
+     * @param bytes     size of the saved or the read content, 0 if it's unknown
+     * @param failure   thrown exception, {@code null} if the operation succeeded
+     */
+
+    static void commitOperation(Object event, String operation, long keyHash, int shard, long bytes, Throwable failure) {
+        final OperationEvent operationEvent = (OperationEvent) event;
+        operationEvent.operation = operation;
+        operationEvent.keyHash = keyHash;
+        operationEvent.shard = shard;
+        operationEvent.bytes = bytes;
+        operationEvent.outcome = OperationEvent.outcomeOf(failure);
+        operationEvent.commit();
+    }
+
+    /**
+     * Begins the event of the background task
+     *
+     * @return event of the task, {@code null} if Flight Recorder isn't available
+     */
+
+    static Object beginBackgroundTask() {
+        if (!AVAILABLE)
+            return null;
+        final BackgroundTaskEvent event = new BackgroundTaskEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the background task and commits its event, if it's enabled and its duration exceeds the threshold
+     *
+     * @param event event of the task, may be {@code null}
+     */
+
+    static void finishBackgroundTask(Object event, String task, long files, long bytes, Throwable failure) {
+        if (event != null)
+            ((BackgroundTaskEvent) event).finish(task, files, bytes, failure);
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, FlightRecorderEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            LOGGER.info("Flight Recorder isn't supported, events of the storage aren't recorded");
+            return false;
+        }
+    }
+}
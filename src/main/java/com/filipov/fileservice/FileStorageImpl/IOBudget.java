@@ -0,0 +1,151 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Token bucket, which limits background maintenance (purge, deleting of expiration files)
+ * by operations per second and by bytes per second.
+ * Foreground operations (save, read, delete) are never throttled, but background work
+ * waits while some foreground operation is in progress (not longer than maxBackgroundDelay).
+ *
+ * @author Yevhen Filipov
+ */
+
+public class IOBudget {
+
+    private final static long NANOS_IN_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final long operationsPerSecond;
+    private final long bytesPerSecond;
+    private final long maxBackgroundDelayInNanos;
+    private final AtomicInteger foregroundOperations = new AtomicInteger();
+
+    private double operationTokens;
+    private double byteTokens;
+    private long lastRefillTime;
+    private volatile int backgroundWaiters;
+
+    /**
+     * Creates budget for background operations
+     *
+     * @param operationsPerSecond max number of background operations per second. Value must be > 0
+     * @param bytesPerSecond      max number of bytes per second, which background operations can release. Value must be > 0
+     * @param maxBackgroundDelay  max time in milliseconds, which background operation gives way to the foreground operations
+     */
+
+    public IOBudget(long operationsPerSecond, long bytesPerSecond, long maxBackgroundDelay) {
+        if (operationsPerSecond <= 0 || bytesPerSecond <= 0)
+            throw new IncorrectArgumentFileStorageException("Values of operationsPerSecond and bytesPerSecond must be > 0");
+        if (maxBackgroundDelay < 0)
+            throw new IncorrectArgumentFileStorageException("Value of maxBackgroundDelay < 0");
+
+        this.operationsPerSecond = operationsPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        this.maxBackgroundDelayInNanos = TimeUnit.MILLISECONDS.toNanos(maxBackgroundDelay);
+        this.operationTokens = operationsPerSecond;
+        this.byteTokens = bytesPerSecond;
+        this.lastRefillTime = System.nanoTime();
+    }
+
+    public IOBudget(long operationsPerSecond, long bytesPerSecond) {
+        this(operationsPerSecond, bytesPerSecond, 100l);
+    }
+
+    /**
+     * Returns budget without any limits
+     *
+     * @return budget without any limits
+     */
+
+    public static IOBudget unlimited() {
+        return new IOBudget(Long.MAX_VALUE, Long.MAX_VALUE, 0l);
+    }
+
+    public boolean isUnlimited() {
+        return this.operationsPerSecond == Long.MAX_VALUE && this.bytesPerSecond == Long.MAX_VALUE
+                && this.maxBackgroundDelayInNanos == 0;
+    }
+
+    public void beginForegroundOperation() {
+        this.foregroundOperations.incrementAndGet();
+    }
+
+    public void endForegroundOperation() {
+        if (this.foregroundOperations.decrementAndGet() == 0 && this.backgroundWaiters > 0)
+            synchronized (this) {
+                this.notifyAll();
+            }
+    }
+
+    /**
+     * Blocks until the next background operation is allowed
+     *
+     * @throws InterruptedException if current thread was interrupted while waiting
+     */
+
+    public void acquireOperation() throws InterruptedException {
+        if (this.isUnlimited())
+            return;
+
+        synchronized (this) {
+            this.giveWayToForeground();
+
+            while (true) {
+                this.refill();
+                if (this.operationTokens >= 1 && this.byteTokens >= 0) {
+                    this.operationTokens -= 1;
+                    return;
+                }
+                final double operationsDeficit = Math.max(0, 1 - this.operationTokens);
+                final double bytesDeficit = Math.max(0, -this.byteTokens);
+                final double waitTimeInSeconds = Math.max(operationsDeficit / this.operationsPerSecond,
+                        bytesDeficit / this.bytesPerSecond);
+                final long waitTimeInMillis = Math.max(1l, (long) Math.ceil(waitTimeInSeconds * 1000));
+                this.wait(waitTimeInMillis);
+            }
+        }
+    }
+
+    /**
+     * Charges bytes, which were processed by the background operation. Budget can go to debt,
+     * in this case next background operations wait until debt will be repaid.
+     *
+     * @param bytes number of processed bytes
+     */
+
+    public void chargeBytes(long bytes) {
+        if (this.isUnlimited())
+            return;
+
+        synchronized (this) {
+            this.refill();
+            this.byteTokens -= bytes;
+        }
+    }
+
+    private void giveWayToForeground() throws InterruptedException {
+        final long deadline = System.nanoTime() + this.maxBackgroundDelayInNanos;
+        this.backgroundWaiters++;
+        try {
+            while (this.foregroundOperations.get() > 0) {
+                final long remainingTime = deadline - System.nanoTime();
+                if (remainingTime <= 0)
+                    return;
+                TimeUnit.NANOSECONDS.timedWait(this, remainingTime);
+            }
+        } finally {
+            this.backgroundWaiters--;
+        }
+    }
+
+    private void refill() {
+        final long currentTime = System.nanoTime();
+        final double elapsedSeconds = (double) (currentTime - this.lastRefillTime) / NANOS_IN_SECOND;
+        this.lastRefillTime = currentTime;
+        this.operationTokens = Math.min(this.operationsPerSecond, this.operationTokens + elapsedSeconds * this.operationsPerSecond);
+        this.byteTokens = Math.min(this.bytesPerSecond, this.byteTokens + elapsedSeconds * this.bytesPerSecond);
+    }
+}
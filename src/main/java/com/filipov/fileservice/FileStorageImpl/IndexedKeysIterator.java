@@ -0,0 +1,111 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStoragePathServiceImpl.PathServiceImpl;
+import com.filipov.fileservice.KeyIterator;
+
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads stored keys with specific prefix from the sorted index of the keys, in the order of the keys.
+ * Only the keys with this prefix are visited. Cursor is the last returned key.
+ * Expired files, which aren't deleted yet, are skipped like by the reading of the files.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class IndexedKeysIterator implements KeyIterator {
+
+    final static char CURSOR_TYPE = 'k';
+
+    private final FileStorageData fileStorageData;
+    private final String userDataPath;
+    private final String prefix;
+    private final MetadataEntry entry = new MetadataEntry();
+    private final Iterator<String> keys;
+    private String nextKey;
+    private String lastKey;
+    private boolean finished;
+
+    /**
+     * Creates iterator of the keys with specific prefix, expiration of the keys isn't checked
+     *
+     * @param keyIndex sorted index of the keys
+     * @param prefix   prefix of the keys
+     * @param cursor   cursor of the previous iteration, {@code null} to start from the beginning
+     * @throws IncorrectArgumentFileStorageException if the cursor is incorrect
+     */
+
+    public IndexedKeysIterator(NavigableSet<String> keyIndex, String prefix, String cursor) {
+        this(null, null, keyIndex, prefix, cursor);
+    }
+
+    /**
+     * Creates iterator of the keys with specific prefix, which skips the expired files
+     *
+     * @param fileStorageData metadata of the storage
+     * @param userDataPath    path of the user data directory
+     * @param keyIndex        sorted index of the keys
+     * @param prefix          prefix of the keys
+     * @param cursor          cursor of the previous iteration, {@code null} to start from the beginning
+     * @throws IncorrectArgumentFileStorageException if the cursor is incorrect
+     */
+
+    public IndexedKeysIterator(FileStorageData fileStorageData, String userDataPath, NavigableSet<String> keyIndex,
+                               String prefix, String cursor) {
+        this.fileStorageData = fileStorageData;
+        this.userDataPath = userDataPath;
+        this.prefix = prefix;
+        if (cursor == null) {
+            this.keys = keyIndex.tailSet(prefix, true).iterator();
+            return;
+        }
+        if (cursor.isEmpty() || cursor.charAt(0) != CURSOR_TYPE)
+            throw new IncorrectArgumentFileStorageException("Incorrect cursor: " + cursor);
+        this.lastKey = cursor.substring(1);
+        this.keys = this.lastKey.compareTo(prefix) < 0 ? keyIndex.tailSet(prefix, true).iterator()
+                : keyIndex.tailSet(this.lastKey, false).iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+        // Keys with the same prefix are neighbours in the index, so the first other key finishes the iteration
+        while (this.nextKey == null && !this.finished && this.keys.hasNext()) {
+            final String key = this.keys.next();
+            if (!key.startsWith(this.prefix))
+                this.finished = true;
+            else if (!this.isExpired(key))
+                this.nextKey = key;
+        }
+        return this.nextKey != null;
+    }
+
+    private boolean isExpired(String key) {
+        if (this.fileStorageData == null)
+            return false;
+        final String filePath = this.userDataPath + new PathServiceImpl().generateFilePathPresentation(key);
+        return this.fileStorageData.getMetadata(filePath, this.entry)
+                && ExpirationFilesDeleter.isExpired(this.entry, System.currentTimeMillis());
+    }
+
+    @Override
+    public String next() {
+        if (!this.hasNext())
+            throw new NoSuchElementException();
+        this.lastKey = this.nextKey;
+        this.nextKey = null;
+        return this.lastKey;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Use FileStorage.deleteFile to delete the files");
+    }
+
+    @Override
+    public String getCursor() {
+        return this.lastKey == null ? null : CURSOR_TYPE + this.lastKey;
+    }
+}
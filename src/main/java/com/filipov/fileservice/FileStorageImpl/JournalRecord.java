@@ -0,0 +1,114 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+/**
+ * One record of the metadata journal
+ *
+ * @author Yevhen Filipov
+ */
+
+public class JournalRecord {
+
+    public final static byte PUT = 1;
+    public final static byte REMOVE = 2;
+    public final static byte EXPIRATION = 3;
+
+    byte type;
+    long offset;
+    long hash;
+    int tag;
+    long size;
+    long originalSize;
+    long creationTime;
+    long expirationTime;
+    int checksum;
+    int flags;
+    String relativePath;
+    String key;
+    String digest;
+    long version;
+    long lifeTime;
+
+    public byte getType() {
+        return type;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    public int getTag() {
+        return tag;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getOriginalSize() {
+        return originalSize;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public long getExpirationTime() {
+        return expirationTime;
+    }
+
+    public int getChecksum() {
+        return checksum;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Returns path of the file, relative to the user data directory
+     *
+     * @return relative path of the file
+     */
+
+    public String getRelativePath() {
+        return relativePath;
+    }
+
+    /**
+     * Returns the key, which was used to save the file
+     *
+     * @return the key of the file
+     */
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns digest of the shared blob, which keeps content of the deduplicated file
+     *
+     * @return digest of the blob, {@code null} if the file isn't deduplicated
+     */
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns life time of the file
+     *
+     * @return life time in milliseconds, -1 if the expiration record doesn't keep it
+     */
+
+    public long getLifeTime() {
+        return lifeTime;
+    }
+}
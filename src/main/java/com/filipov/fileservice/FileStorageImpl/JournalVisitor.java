@@ -0,0 +1,18 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+/**
+ * Receives records of the metadata journal while replaying
+ *
+ * @author Yevhen Filipov
+ */
+
+public interface JournalVisitor {
+
+    /**
+     * Handles one record of the journal
+     *
+     * @param record record of the journal
+     */
+
+    void visitRecord(JournalRecord record);
+}
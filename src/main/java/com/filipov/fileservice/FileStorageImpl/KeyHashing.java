@@ -0,0 +1,69 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+/**
+ * Hash functions for in-memory indexes of the storage.
+ * Unlike {@link String#hashCode()}, 64-bit hash gives practically no collisions on billions of keys.
+ *
+ * @author Yevhen Filipov
+ */
+
+public final class KeyHashing {
+
+    private final static long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private final static long FNV_PRIME = 0x100000001b3L;
+
+    private KeyHashing() {
+    }
+
+    /**
+     * Returns 64-bit hash of the value (FNV-1a, finalized by MurmurHash3 mixer)
+     *
+     * @param value any value, except {@code null}
+     * @return 64-bit hash
+     */
+
+    public static long hash64(CharSequence value) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < value.length(); i++) {
+            final char character = value.charAt(i);
+            hash ^= character & 0xff;
+            hash *= FNV_PRIME;
+            hash ^= character >>> 8;
+            hash *= FNV_PRIME;
+        }
+        return mix64(hash);
+    }
+
+    /**
+     * Returns 32-bit hash of the value, independent from {@link #hash64(CharSequence)}
+     *
+     * @param value any value, except {@code null}
+     * @return 32-bit hash
+     */
+
+    public static int hash32(CharSequence value) {
+        int hash = 0x9747b28c;
+        for (int i = 0; i < value.length(); i++) {
+            int block = value.charAt(i) * 0xcc9e2d51;
+            block = Integer.rotateLeft(block, 15) * 0x1b873593;
+            hash ^= block;
+            hash = Integer.rotateLeft(hash, 13) * 5 + 0xe6546b64;
+        }
+        hash ^= value.length();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    static long mix64(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
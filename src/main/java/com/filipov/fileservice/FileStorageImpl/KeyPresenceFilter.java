@@ -0,0 +1,119 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counting Bloom filter of stored files. Answers "definitely not stored" without any access to the disc.
+ * Each position is a 4-bit counter, so files can be removed from the filter.
+ * Saturated counters are never decremented, it can cause false positives, but never false negatives.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class KeyPresenceFilter {
+
+    private final static int COUNTERS_PER_ENTRY = 8;
+    private final static int NUMBER_OF_HASHES = 5;
+    private final static int COUNTERS_PER_WORD = 16;
+    private final static long COUNTER_MASK = 0xfL;
+
+    private final AtomicLongArray counters;
+    private final long counterIndexMask;
+
+    /**
+     * Creates empty filter
+     *
+     * @param expectedNumberOfFiles number of files, for which false positive probability stays about 2%. Value must be > 0
+     */
+
+    public KeyPresenceFilter(long expectedNumberOfFiles) {
+        if (expectedNumberOfFiles <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of expectedNumberOfFiles <= 0");
+
+        final long numberOfCounters = Math.max(COUNTERS_PER_WORD,
+                Long.highestOneBit(expectedNumberOfFiles * COUNTERS_PER_ENTRY - 1) << 1);
+        if (numberOfCounters / COUNTERS_PER_WORD > Integer.MAX_VALUE)
+            throw new IncorrectArgumentFileStorageException("Value of expectedNumberOfFiles is too big");
+
+        this.counters = new AtomicLongArray((int) (numberOfCounters / COUNTERS_PER_WORD));
+        this.counterIndexMask = numberOfCounters - 1;
+    }
+
+    public void add(String filePath) {
+        this.add(KeyHashing.hash64(filePath));
+    }
+
+    public void remove(String filePath) {
+        this.remove(KeyHashing.hash64(filePath));
+    }
+
+    /**
+     * Checks presence of the file in the filter
+     *
+     * @param filePath path of the file
+     * @return {@code false} if file is definitely not stored, {@code true} if it may be stored
+     */
+
+    public boolean mightContain(String filePath) {
+        return this.mightContain(KeyHashing.hash64(filePath));
+    }
+
+    public void add(long hash) {
+        for (int i = 0; i < NUMBER_OF_HASHES; i++)
+            this.changeCounter(this.counterIndex(hash, i), 1);
+    }
+
+    public void remove(long hash) {
+        for (int i = 0; i < NUMBER_OF_HASHES; i++)
+            this.changeCounter(this.counterIndex(hash, i), -1);
+    }
+
+    public boolean mightContain(long hash) {
+        for (int i = 0; i < NUMBER_OF_HASHES; i++)
+            if (this.getCounter(this.counterIndex(hash, i)) == 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Removes all files from the filter
+     */
+
+    public void clear() {
+        for (int i = 0; i < this.counters.length(); i++)
+            this.counters.set(i, 0);
+    }
+
+    private long counterIndex(long hash, int hashNumber) {
+        // Double hashing: i-th hash is h1 + i * h2
+        final long firstHash = hash;
+        final long secondHash = (hash >>> 32) | (hash << 32) | 1;
+        return (firstHash + hashNumber * secondHash) & this.counterIndexMask;
+    }
+
+    private long getCounter(long counterIndex) {
+        final long word = this.counters.get((int) (counterIndex / COUNTERS_PER_WORD));
+        return (word >>> this.counterShift(counterIndex)) & COUNTER_MASK;
+    }
+
+    private void changeCounter(long counterIndex, int delta) {
+        final int wordIndex = (int) (counterIndex / COUNTERS_PER_WORD);
+        final int shift = this.counterShift(counterIndex);
+        while (true) {
+            final long word = this.counters.get(wordIndex);
+            final long counter = (word >>> shift) & COUNTER_MASK;
+            // Saturated counter lost exact value, it can't be decremented any more
+            if (counter == COUNTER_MASK || (counter == 0 && delta < 0))
+                return;
+            final long newWord = (word & ~(COUNTER_MASK << shift)) | ((counter + delta) << shift);
+            if (this.counters.compareAndSet(wordIndex, word, newWord))
+                return;
+        }
+    }
+
+    private int counterShift(long counterIndex) {
+        return (int) (counterIndex % COUNTERS_PER_WORD) * 4;
+    }
+}
@@ -0,0 +1,164 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+/**
+ * Metadata of one stored file. Instances are mutable and reusable, so reading of the metadata table
+ * doesn't create garbage.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class MetadataEntry {
+
+    long hash;
+    int tag;
+    int flags;
+    long size;
+    long originalSize;
+    long creationTime;
+    long expirationTime;
+    int checksum;
+    long journalOffset;
+    long version;
+    long lifeTime;
+    int namespace;
+
+    public long getHash() {
+        return hash;
+    }
+
+    public void setHash(long hash) {
+        this.hash = hash;
+    }
+
+    public int getTag() {
+        return tag;
+    }
+
+    public void setTag(int tag) {
+        this.tag = tag;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public void setFlags(int flags) {
+        this.flags = flags;
+    }
+
+    public boolean hasFlag(int flag) {
+        return (this.flags & flag) != 0;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    /**
+     * Returns size of the file content before compression
+     *
+     * @return size of the content in bites, it's equal to the stored size if file isn't compressed
+     */
+
+    public long getOriginalSize() {
+        return originalSize;
+    }
+
+    public void setOriginalSize(long originalSize) {
+        this.originalSize = originalSize;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public void setCreationTime(long creationTime) {
+        this.creationTime = creationTime;
+    }
+
+    public long getExpirationTime() {
+        return expirationTime;
+    }
+
+    public void setExpirationTime(long expirationTime) {
+        this.expirationTime = expirationTime;
+    }
+
+    public int getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(int checksum) {
+        this.checksum = checksum;
+    }
+
+    public long getJournalOffset() {
+        return journalOffset;
+    }
+
+    public void setJournalOffset(long journalOffset) {
+        this.journalOffset = journalOffset;
+    }
+
+    /**
+     * Returns version of the file content. The first saved content has version 1, each replacing increments it
+     *
+     * @return version of the content
+     */
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Returns life time of the expiration file, which was set by the saving or by the last touching.
+     * Sliding expiration counts it from the last reading
+     *
+     * @return life time in milliseconds, 0 if file doesn't expire
+     */
+
+    public long getLifeTime() {
+        return lifeTime;
+    }
+
+    public void setLifeTime(long lifeTime) {
+        this.lifeTime = lifeTime;
+    }
+
+    /**
+     * Returns id of the namespace of the file. It isn't persisted, it's found by the key of the file at the start
+     *
+     * @return id of the namespace, 0 if the file doesn't belong to any namespace
+     */
+
+    public int getNamespace() {
+        return namespace;
+    }
+
+    public void setNamespace(int namespace) {
+        this.namespace = namespace;
+    }
+
+    void copyFrom(MetadataEntry entry) {
+        this.hash = entry.hash;
+        this.tag = entry.tag;
+        this.flags = entry.flags;
+        this.size = entry.size;
+        this.originalSize = entry.originalSize;
+        this.creationTime = entry.creationTime;
+        this.expirationTime = entry.expirationTime;
+        this.checksum = entry.checksum;
+        this.journalOffset = entry.journalOffset;
+        this.version = entry.version;
+        this.lifeTime = entry.lifeTime;
+        this.namespace = entry.namespace;
+    }
+}
@@ -0,0 +1,404 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the file metadata. Keeps keys and paths of the stored files out of the heap,
+ * metadata table refers to the journal records by their offsets. Damaged tail of the journal is truncated while replaying.
+ * <p>
+ * Record: length of the body (4), CRC32 of the body (4), body: type (1), hash (8), tag (4) and the data of the type:
+ * <ul>
+ * <li>put: size (8), original size (8), creation time (8), expiration time (8), life time (8), version (8), checksum (4),
+ * flags (4), path, key and digest of the shared blob (length (4) and UTF-8 bytes, empty digest if the file isn't deduplicated)</li>
+ * <li>expiration: expiration time (8), life time (8), flags (4)</li>
+ * <li>remove: no data</li>
+ * </ul>
+ * Journal of the shared storage root is appended by several processes under the lock of the journal, see {@link SharedRoot}.
+ * Records of other processes are applied before appending and by {@link #applyForeignRecords()}.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class MetadataJournal implements Closeable {
+
+    private final static Logger LOGGER = Logger.getLogger(MetadataJournal.class);
+    private final static int HEADER_SIZE = 8;
+    private final static int MAX_RECORD_SIZE = 1 << 20;
+    private final static int PUT_DATA_SIZE = 6 * 8 + 2 * 4 + 3 * 4;
+    private final static int EXPIRATION_DATA_SIZE = 2 * 8 + 4;
+
+    private final String journalPath;
+    private FileChannel channel;
+    private volatile long position;
+    private SharedRoot sharedRoot;
+    private JournalVisitor foreignRecordsVisitor;
+
+    public MetadataJournal(String journalPath) {
+        this.journalPath = journalPath;
+        this.open();
+    }
+
+    public String getJournalPath() {
+        return journalPath;
+    }
+
+    public synchronized long size() {
+        return this.position;
+    }
+
+    /**
+     * Appends metadata of the saved file
+     *
+     * @param entry        metadata of the file
+     * @param relativePath path of the file, relative to the user data directory
+     * @param key          the key of the file
+     * @return offset of the new record
+     */
+
+    public long appendPut(MetadataEntry entry, String relativePath, String key) {
+        return this.appendPut(entry, relativePath, key, null);
+    }
+
+    /**
+     * Appends metadata of the saved file, which content is kept in the shared blob
+     *
+     * @param entry        metadata of the file
+     * @param relativePath path of the file, relative to the user data directory
+     * @param key          the key of the file
+     * @param digest       digest of the blob, {@code null} if the file isn't deduplicated
+     * @return offset of the new record
+     */
+
+    public long appendPut(MetadataEntry entry, String relativePath, String key, String digest) {
+        final byte[] pathBytes = relativePath.getBytes(StandardCharsets.UTF_8);
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final byte[] digestBytes = digest == null ? new byte[0] : digest.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer body = this.body(JournalRecord.PUT, entry.hash, entry.tag,
+                PUT_DATA_SIZE + pathBytes.length + keyBytes.length + digestBytes.length);
+        body.putLong(entry.size);
+        body.putLong(entry.originalSize);
+        body.putLong(entry.creationTime);
+        body.putLong(entry.expirationTime);
+        body.putLong(entry.lifeTime);
+        body.putLong(entry.version);
+        body.putInt(entry.checksum);
+        body.putInt(entry.flags & ~MetadataTable.FLAG_VERIFIED);
+        body.putInt(pathBytes.length);
+        body.put(pathBytes);
+        body.putInt(keyBytes.length);
+        body.put(keyBytes);
+        body.putInt(digestBytes.length);
+        body.put(digestBytes);
+        return this.append(body);
+    }
+
+    /**
+     * Appends new expiration time of the file
+     *
+     * @param hash           64-bit hash of the file path
+     * @param tag            32-bit tag of the file path
+     * @param expirationTime new expiration time, 0 if file doesn't expire
+     * @param flags          new flags of the file
+     * @param lifeTime       life time of the file, which is counted by sliding expiration, 0 if file doesn't expire
+     * @return offset of the new record
+     */
+
+    public long appendExpiration(long hash, int tag, long expirationTime, int flags, long lifeTime) {
+        final ByteBuffer body = this.body(JournalRecord.EXPIRATION, hash, tag, EXPIRATION_DATA_SIZE);
+        body.putLong(expirationTime);
+        body.putLong(lifeTime);
+        body.putInt(flags & ~MetadataTable.FLAG_VERIFIED);
+        return this.append(body);
+    }
+
+    /**
+     * Appends removing of the file
+     *
+     * @param hash 64-bit hash of the file path
+     * @param tag  32-bit tag of the file path
+     * @return offset of the new record
+     */
+
+    public long appendRemove(long hash, int tag) {
+        return this.append(this.body(JournalRecord.REMOVE, hash, tag, 0));
+    }
+
+    /**
+     * Starts sharing of this journal with other processes. Records up to the current end of the journal must be
+     * replayed already
+     *
+     * @param sharedRoot            shared state of the storage root
+     * @param foreignRecordsVisitor visitor of the records, which are appended by other processes
+     */
+
+    synchronized void share(SharedRoot sharedRoot, JournalVisitor foreignRecordsVisitor) {
+        this.sharedRoot = sharedRoot;
+        this.foreignRecordsVisitor = foreignRecordsVisitor;
+        sharedRoot.setJournalEnd(this.position);
+    }
+
+    /**
+     * Limits the journal by the end, which is published by other processes: tail after it may be written
+     * by the process, which exited while appending
+     *
+     * @param end end of the journal
+     */
+
+    synchronized void limit(long end) {
+        this.position = Math.min(this.position, end);
+    }
+
+    /**
+     * Passes the records, which were appended by other processes, to the visitor of the foreign records.
+     * Does nothing, if the journal isn't shared
+     *
+     * @throws ReadWriteFileStorageException if journal can't be read
+     */
+
+    void applyForeignRecords() {
+        if (this.sharedRoot == null || this.sharedRoot.getJournalEnd() <= this.position)
+            return;
+        synchronized (this) {
+            final long end = this.sharedRoot.getJournalEnd();
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (this.position < end) {
+                try {
+                    header.clear();
+                    readFully(this.channel, header, this.position);
+                } catch (IOException e) {
+                    throw new ReadWriteFileStorageException("Can't read metadata journal", this.journalPath, e);
+                }
+                final JournalRecord record = this.read(this.position);
+                this.position += HEADER_SIZE + header.getInt(0);
+                this.foreignRecordsVisitor.visitRecord(record);
+            }
+        }
+    }
+
+    /**
+     * Reads one record
+     *
+     * @param offset offset of the record
+     * @return record of the journal
+     * @throws ReadWriteFileStorageException if record can't be read
+     */
+
+    public JournalRecord read(long offset) {
+        try {
+            final FileChannel currentChannel = this.currentChannel();
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(currentChannel, header, offset);
+            header.flip();
+            final int length = header.getInt();
+            final int checksum = header.getInt();
+            if (length <= 0 || length > MAX_RECORD_SIZE)
+                throw new IOException("Damaged journal record at " + offset);
+            final ByteBuffer body = ByteBuffer.allocate(length);
+            readFully(currentChannel, body, offset + HEADER_SIZE);
+            if (checksum != checksumOf(body.array(), length))
+                throw new IOException("Damaged journal record at " + offset);
+            body.flip();
+            return parse(body, offset);
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't read metadata journal", this.journalPath, e);
+        }
+    }
+
+    /**
+     * Passes all records to the visitor in the order of appending. Damaged tail of the journal is truncated.
+     *
+     * @param visitor visitor of the records
+     * @throws ReadWriteFileStorageException if journal can't be read
+     */
+
+    public synchronized void replay(JournalVisitor visitor) {
+        long offset = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(this.journalPath), 64 * 1024))) {
+            while (offset + HEADER_SIZE <= this.position) {
+                final int length = input.readInt();
+                final int checksum = input.readInt();
+                if (length <= 0 || length > MAX_RECORD_SIZE || offset + HEADER_SIZE + length > this.position)
+                    break;
+                final byte[] body = new byte[length];
+                input.readFully(body);
+                if (checksum != checksumOf(body, length))
+                    break;
+                visitor.visitRecord(parse(ByteBuffer.wrap(body), offset));
+                offset += HEADER_SIZE + length;
+            }
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't read metadata journal", this.journalPath, e);
+        }
+
+        if (offset < this.position) {
+            LOGGER.warn("Metadata journal is damaged after " + offset + " bytes, damaged tail is truncated: " + this.journalPath);
+            try {
+                this.channel.truncate(offset);
+                this.position = offset;
+            } catch (IOException e) {
+                throw new ReadWriteFileStorageException("Can't truncate metadata journal", this.journalPath, e);
+            }
+        }
+    }
+
+    /**
+     * Replaces this journal by another one (for example by compacted copy of this journal)
+     *
+     * @param journal new journal, it will be closed
+     * @throws ReadWriteFileStorageException if journal can't be replaced
+     */
+
+    public synchronized void replaceWith(MetadataJournal journal) {
+        try {
+            journal.close();
+            this.channel.close();
+            Files.move(Paths.get(journal.journalPath), Paths.get(this.journalPath),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't replace metadata journal", this.journalPath, e);
+        } finally {
+            this.open();
+        }
+    }
+
+    /**
+     * Removes all records
+     */
+
+    public synchronized void clear() {
+        try {
+            this.channel.truncate(0);
+            this.position = 0;
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't clear metadata journal", this.journalPath, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            LOGGER.warn("Can't close metadata journal: " + this.journalPath, e);
+        }
+    }
+
+    private void open() {
+        try {
+            final Path path = Paths.get(this.journalPath);
+            if (path.getParent() != null)
+                Files.createDirectories(path.getParent());
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.position = this.channel.size();
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't open metadata journal", this.journalPath, e);
+        }
+    }
+
+    private synchronized FileChannel currentChannel() {
+        return this.channel;
+    }
+
+    private ByteBuffer body(byte type, long hash, int tag, int dataLength) {
+        final ByteBuffer body = ByteBuffer.allocate(HEADER_SIZE + 13 + dataLength);
+        body.position(HEADER_SIZE);
+        body.put(type);
+        body.putLong(hash);
+        body.putInt(tag);
+        return body;
+    }
+
+    private synchronized long append(ByteBuffer record) {
+        final int length = record.position() - HEADER_SIZE;
+        record.putInt(0, length);
+        record.putInt(4, checksumOf(record.array(), HEADER_SIZE, length));
+        record.flip();
+
+        if (this.sharedRoot == null)
+            return this.write(record);
+        final FileRegionLocks.Region journalRegion = this.sharedRoot.lockJournal();
+        try {
+            this.applyForeignRecords();
+            final long offset = this.write(record);
+            this.sharedRoot.setJournalEnd(this.position);
+            return offset;
+        } finally {
+            journalRegion.close();
+        }
+    }
+
+    private long write(ByteBuffer record) {
+        final long offset = this.position;
+        try {
+            long writePosition = offset;
+            while (record.hasRemaining())
+                writePosition += this.channel.write(record, writePosition);
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't write metadata journal", this.journalPath, e);
+        }
+        this.position += record.limit();
+        return offset;
+    }
+
+    private static JournalRecord parse(ByteBuffer body, long offset) {
+        final JournalRecord record = new JournalRecord();
+        record.offset = offset;
+        record.type = body.get();
+        record.hash = body.getLong();
+        record.tag = body.getInt();
+        if (record.type == JournalRecord.PUT) {
+            record.size = body.getLong();
+            record.originalSize = body.getLong();
+            record.creationTime = body.getLong();
+            record.expirationTime = body.getLong();
+            record.lifeTime = body.getLong();
+            record.version = body.getLong();
+            record.checksum = body.getInt();
+            record.flags = body.getInt();
+            record.relativePath = readString(body);
+            record.key = readString(body);
+            final String digest = readString(body);
+            record.digest = digest.isEmpty() ? null : digest;
+        } else if (record.type == JournalRecord.EXPIRATION) {
+            record.expirationTime = body.getLong();
+            record.lifeTime = body.getLong();
+            record.flags = body.getInt();
+        }
+        return record;
+    }
+
+    private static String readString(ByteBuffer body) {
+        final byte[] bytes = new byte[body.getInt()];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+                throw new EOFException("Unexpected end of metadata journal");
+        }
+    }
+
+    private static int checksumOf(byte[] bytes, int length) {
+        return checksumOf(bytes, 0, length);
+    }
+
+    private static int checksumOf(byte[] bytes, int offset, int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,588 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Off-heap open addressing hash table of the file metadata.
+ * Entries are identified by 64-bit hash and 32-bit independent tag of the file path,
+ * so two paths with the same 64-bit hash are stored separately. File path itself isn't kept in the table
+ * and isn't compared: two paths are confused only if both 96 bits match, the probability of any such collision
+ * among n files is about n^2 / 2^97 (less than 10^-11 for 10^9 files).
+ * <p>
+ * Table is split to shards by the highest bits of hash. Each shard is linear probing table without wrapping
+ * (the last slots are overflow area), so entries of the shard are placed in the order of their hashes
+ * (up to the order inside one cluster). It allows to scan table in the hash order with resumable cursor.
+ * <p>
+ * Slot layout (64 bytes, one cache line): hash (8), tag (4), checksum (4),
+ * flags (high 16 bits) and offset of the journal record (low 48 bits) (8), namespace (high 16 bits) and version (low 48 bits) (8),
+ * stored size (6), size before compression (6), creation time (6), expiration time (6), life time (6), padding (2).
+ * Sizes and times are unsigned 48-bit values: sizes up to 256 TB, times in milliseconds up to the year 10889.
+ * Bigger values are saturated, so the file with very long life time just never expires.
+ * With the max load factor 0.75 and doubling of the full shard the table takes 85..170 bytes per entry.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class MetadataTable {
+
+    public final static int FLAG_EXPIRATION = 1;
+    public final static int FLAG_CHECKSUM = 1 << 1;
+    public final static int FLAG_UNKNOWN_KEY = 1 << 2;
+    public final static int FLAG_COMPRESSED = 1 << 3;
+    public final static int FLAG_DEDUPLICATED = 1 << 4;
+    final static int FLAG_VERIFIED = 1 << 14;
+    private final static int FLAG_OCCUPIED = 1 << 15;
+
+    private final static int SLOT_SIZE = 64;
+    private final static int HASH_OFFSET = 0;
+    private final static int TAG_OFFSET = 8;
+    private final static int CHECKSUM_OFFSET = 12;
+    private final static int FLAGS_AND_JOURNAL_OFFSET = 16;
+    private final static int VERSION_OFFSET = 24;
+    private final static int SIZE_OFFSET = 32;
+    private final static int ORIGINAL_SIZE_OFFSET = 38;
+    private final static int CREATION_TIME_OFFSET = 44;
+    private final static int EXPIRATION_TIME_OFFSET = 50;
+    private final static int LIFE_TIME_OFFSET = 56;
+    private final static long JOURNAL_OFFSET_MASK = (1L << 48) - 1;
+    private final static long VERSION_MASK = (1L << 48) - 1;
+    private final static long MAX_48_BIT_VALUE = (1L << 48) - 1;
+
+    private final static int OVERFLOW_SLOTS = 64;
+    private final static int MIN_CAPACITY_BITS = 4;
+    // Slots of the biggest shard take less than 2 GB, the limit of one buffer
+    private final static int MAX_CAPACITY_BITS = 24;
+    private final static double MAX_LOAD_FACTOR = 0.75;
+    private final static int SCAN_CHUNK_SIZE = 256;
+
+    private final Shard[] shards;
+    private final int shardBits;
+
+    /**
+     * Creates empty table
+     *
+     * @param shardBits               table will be split to 2^shardBits shards (0..10)
+     * @param expectedNumberOfEntries expected number of entries, table grows automatically if it needs
+     */
+
+    public MetadataTable(int shardBits, long expectedNumberOfEntries) {
+        if (shardBits < 0 || shardBits > 10)
+            throw new IncorrectArgumentFileStorageException("Value of shardBits must be 0..10");
+
+        this.shardBits = shardBits;
+        this.shards = new Shard[1 << shardBits];
+        final long entriesPerShard = Math.max(1, (long) (expectedNumberOfEntries / MAX_LOAD_FACTOR) >> shardBits);
+        final int capacityBits = Math.min(MAX_CAPACITY_BITS,
+                Math.max(MIN_CAPACITY_BITS, 64 - Long.numberOfLeadingZeros(entriesPerShard - 1)));
+        for (int i = 0; i < this.shards.length; i++)
+            this.shards[i] = new Shard(capacityBits);
+    }
+
+    public int getNumberOfShards() {
+        return this.shards.length;
+    }
+
+    /**
+     * Returns number of the changes of the shard. Unchanged number means, that entries of the shard weren't changed
+     *
+     * @param shardNumber number of the shard
+     * @return number of the changes since the creation of the table
+     */
+
+    public long getModifications(int shardNumber) {
+        return this.shards[shardNumber].modifications;
+    }
+
+    /**
+     * Returns number of the shard, where entry with this hash is placed
+     *
+     * @param hash 64-bit hash of the file path
+     * @return number of the shard
+     */
+
+    public int shardOf(long hash) {
+        return this.shardBits == 0 ? 0 : (int) (hash >>> (64 - this.shardBits));
+    }
+
+    public long size() {
+        long size = 0;
+        for (Shard shard : this.shards) {
+            final long stamp = shard.lock.readLock();
+            try {
+                size += shard.size;
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns number of bytes, which are allocated out of heap by this table
+     *
+     * @return allocated memory in bytes
+     */
+
+    public long allocatedMemory() {
+        long allocatedMemory = 0;
+        for (Shard shard : this.shards) {
+            final long stamp = shard.lock.readLock();
+            try {
+                allocatedMemory += shard.slots.capacity();
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+        }
+        return allocatedMemory;
+    }
+
+    /**
+     * Reads entry from the table
+     *
+     * @param hash   64-bit hash of the file path
+     * @param tag    32-bit tag of the file path
+     * @param target entry, which will be filled by the found metadata. May be {@code null}
+     * @return {@code true} if entry is found
+     */
+
+    public boolean get(long hash, int tag, MetadataEntry target) {
+        final Shard shard = this.shards[this.shardOf(hash)];
+
+        long stamp = shard.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            final boolean found = this.read(shard.slots, hash, tag, target);
+            if (shard.lock.validate(stamp))
+                return found;
+        }
+        stamp = shard.lock.readLock();
+        try {
+            return this.read(shard.slots, hash, tag, target);
+        } finally {
+            shard.lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean contains(long hash, int tag) {
+        return this.get(hash, tag, null);
+    }
+
+    /**
+     * Puts entry to the table. Existing entry with the same hash and tag will be replaced
+     *
+     * @param entry metadata of the file
+     * @return {@code true} if entry replaced existing one
+     */
+
+    public boolean put(MetadataEntry entry) {
+        final Shard shard = this.shards[this.shardOf(entry.hash)];
+        final long stamp = shard.lock.writeLock();
+        try {
+            if (shard.size + 1 > MAX_LOAD_FACTOR * capacityOf(shard.slots))
+                this.grow(shard);
+            while (true) {
+                final int slot = this.findSlotToWrite(shard.slots, entry.hash, entry.tag);
+                if (slot < 0) {
+                    this.grow(shard);
+                    continue;
+                }
+                final boolean replaced = isOccupied(shard.slots, slot);
+                writeSlot(shard.slots, slot, entry);
+                if (!replaced)
+                    shard.size++;
+                shard.modifications++;
+                return replaced;
+            }
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Updates existing entry. Does nothing if there is no entry with the same hash and tag
+     *
+     * @param entry new metadata of the file
+     * @return {@code true} if entry was updated
+     */
+
+    public boolean update(MetadataEntry entry) {
+        final Shard shard = this.shards[this.shardOf(entry.hash)];
+        final long stamp = shard.lock.writeLock();
+        try {
+            final int slot = this.findSlot(shard.slots, entry.hash, entry.tag);
+            if (slot < 0)
+                return false;
+            writeSlot(shard.slots, slot, entry);
+            shard.modifications++;
+            return true;
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes entry from the table
+     *
+     * @param hash    64-bit hash of the file path
+     * @param tag     32-bit tag of the file path
+     * @param removed entry, which will be filled by the removed metadata. May be {@code null}
+     * @return {@code true} if entry was removed
+     */
+
+    public boolean remove(long hash, int tag, MetadataEntry removed) {
+        final Shard shard = this.shards[this.shardOf(hash)];
+        final long stamp = shard.lock.writeLock();
+        try {
+            final ByteBuffer slots = shard.slots;
+            int hole = this.findSlot(slots, hash, tag);
+            if (hole < 0)
+                return false;
+            if (removed != null)
+                readSlot(slots, hole, removed);
+
+            // Backward shift deletion: moves following entries of the cluster closer to their home slots
+            final int capacityBits = capacityBitsOf(slots);
+            final int totalSlots = totalSlotsOf(slots);
+            for (int slot = hole + 1; slot < totalSlots && isOccupied(slots, slot); slot++) {
+                if (this.homeSlot(slots.getLong(offset(slot) + HASH_OFFSET), capacityBits) <= hole) {
+                    copySlot(slots, slot, hole);
+                    hole = slot;
+                }
+            }
+            clearSlot(slots, hole);
+            shard.size--;
+            shard.modifications++;
+            return true;
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes all entries
+     */
+
+    public void clear() {
+        for (Shard shard : this.shards) {
+            final long stamp = shard.lock.writeLock();
+            try {
+                shard.slots = allocateSlots(MIN_CAPACITY_BITS);
+                shard.size = 0;
+                shard.modifications++;
+            } finally {
+                shard.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Passes all entries of the table to the visitor in the order of their hashes.
+     * Visitor can modify the table, entries, which are added or removed while scanning, may be skipped.
+     *
+     * @param visitor visitor of the entries
+     */
+
+    public void forEach(MetadataVisitor visitor) {
+        for (int shard = 0; shard < this.shards.length; shard++)
+            this.forEach(shard, visitor);
+    }
+
+    /**
+     * Passes all entries of one shard to the visitor in the order of their hashes
+     *
+     * @param shardNumber number of the shard
+     * @param visitor     visitor of the entries
+     */
+
+    public void forEach(int shardNumber, MetadataVisitor visitor) {
+        final ShardScanner scanner = new ShardScanner(shardNumber);
+        while (scanner.next())
+            for (int i = 0; i < scanner.count; i++)
+                visitor.visitEntry(scanner.entries[i]);
+    }
+
+    ShardScanner scanner(int shardNumber) {
+        return new ShardScanner(shardNumber);
+    }
+
+    private boolean read(ByteBuffer slots, long hash, int tag, MetadataEntry target) {
+        final int slot = this.findSlot(slots, hash, tag);
+        if (slot < 0)
+            return false;
+        if (target != null)
+            readSlot(slots, slot, target);
+        return true;
+    }
+
+    private int findSlot(ByteBuffer slots, long hash, int tag) {
+        final int totalSlots = totalSlotsOf(slots);
+        for (int slot = this.homeSlot(hash, capacityBitsOf(slots)); slot < totalSlots; slot++) {
+            if (!isOccupied(slots, slot))
+                return -1;
+            if (slots.getLong(offset(slot) + HASH_OFFSET) == hash && slots.getInt(offset(slot) + TAG_OFFSET) == tag)
+                return slot;
+        }
+        return -1;
+    }
+
+    private int findSlotToWrite(ByteBuffer slots, long hash, int tag) {
+        final int totalSlots = totalSlotsOf(slots);
+        for (int slot = this.homeSlot(hash, capacityBitsOf(slots)); slot < totalSlots; slot++) {
+            if (!isOccupied(slots, slot))
+                return slot;
+            if (slots.getLong(offset(slot) + HASH_OFFSET) == hash && slots.getInt(offset(slot) + TAG_OFFSET) == tag)
+                return slot;
+        }
+        return -1;
+    }
+
+    private void grow(Shard shard) {
+        final ByteBuffer oldSlots = shard.slots;
+        int capacityBits = capacityBitsOf(oldSlots);
+        final MetadataEntry entry = new MetadataEntry();
+
+        while (true) {
+            if (capacityBits >= MAX_CAPACITY_BITS)
+                throw new IllegalStateException("Metadata table shard is full, increase number of shards");
+            capacityBits++;
+            final ByteBuffer newSlots = allocateSlots(capacityBits);
+            boolean moved = true;
+            for (int slot = 0; slot < totalSlotsOf(oldSlots) && moved; slot++) {
+                if (!isOccupied(oldSlots, slot))
+                    continue;
+                readSlot(oldSlots, slot, entry);
+                final int newSlot = this.findSlotToWrite(newSlots, entry.hash, entry.tag);
+                if (newSlot < 0)
+                    moved = false;
+                else
+                    writeSlot(newSlots, newSlot, entry);
+            }
+            if (moved) {
+                shard.slots = newSlots;
+                return;
+            }
+        }
+    }
+
+    private int homeSlot(long hash, int capacityBits) {
+        return (int) ((hash << this.shardBits) >>> (64 - capacityBits));
+    }
+
+    private static ByteBuffer allocateSlots(int capacityBits) {
+        return ByteBuffer.allocateDirect(((1 << capacityBits) + OVERFLOW_SLOTS) * SLOT_SIZE).order(ByteOrder.nativeOrder());
+    }
+
+    private static int totalSlotsOf(ByteBuffer slots) {
+        return slots.capacity() / SLOT_SIZE;
+    }
+
+    private static int capacityOf(ByteBuffer slots) {
+        return totalSlotsOf(slots) - OVERFLOW_SLOTS;
+    }
+
+    private static int capacityBitsOf(ByteBuffer slots) {
+        return Integer.numberOfTrailingZeros(capacityOf(slots));
+    }
+
+    private static int offset(int slot) {
+        return slot * SLOT_SIZE;
+    }
+
+    private static boolean isOccupied(ByteBuffer slots, int slot) {
+        return ((slots.getLong(offset(slot) + FLAGS_AND_JOURNAL_OFFSET) >>> 48) & FLAG_OCCUPIED) != 0;
+    }
+
+    private static void readSlot(ByteBuffer slots, int slot, MetadataEntry target) {
+        final int offset = offset(slot);
+        final long flagsAndJournalOffset = slots.getLong(offset + FLAGS_AND_JOURNAL_OFFSET);
+        target.hash = slots.getLong(offset + HASH_OFFSET);
+        target.tag = slots.getInt(offset + TAG_OFFSET);
+        target.checksum = slots.getInt(offset + CHECKSUM_OFFSET);
+        target.size = get48(slots, offset + SIZE_OFFSET);
+        target.creationTime = get48(slots, offset + CREATION_TIME_OFFSET);
+        target.expirationTime = get48(slots, offset + EXPIRATION_TIME_OFFSET);
+        target.flags = (int) (flagsAndJournalOffset >>> 48) & ~FLAG_OCCUPIED;
+        target.journalOffset = flagsAndJournalOffset & JOURNAL_OFFSET_MASK;
+        target.originalSize = get48(slots, offset + ORIGINAL_SIZE_OFFSET);
+        final long namespaceAndVersion = slots.getLong(offset + VERSION_OFFSET);
+        target.namespace = (int) (namespaceAndVersion >>> 48);
+        target.version = namespaceAndVersion & VERSION_MASK;
+        target.lifeTime = get48(slots, offset + LIFE_TIME_OFFSET);
+    }
+
+    private static void writeSlot(ByteBuffer slots, int slot, MetadataEntry entry) {
+        final int offset = offset(slot);
+        final long flags = (entry.flags | FLAG_OCCUPIED) & 0xffffL;
+        slots.putLong(offset + HASH_OFFSET, entry.hash);
+        slots.putInt(offset + TAG_OFFSET, entry.tag);
+        slots.putInt(offset + CHECKSUM_OFFSET, entry.checksum);
+        slots.putLong(offset + FLAGS_AND_JOURNAL_OFFSET, (flags << 48) | (entry.journalOffset & JOURNAL_OFFSET_MASK));
+        slots.putLong(offset + VERSION_OFFSET, ((long) entry.namespace << 48) | (entry.version & VERSION_MASK));
+        put48(slots, offset + SIZE_OFFSET, entry.size);
+        put48(slots, offset + ORIGINAL_SIZE_OFFSET, entry.originalSize);
+        put48(slots, offset + CREATION_TIME_OFFSET, entry.creationTime);
+        put48(slots, offset + EXPIRATION_TIME_OFFSET, entry.expirationTime);
+        put48(slots, offset + LIFE_TIME_OFFSET, entry.lifeTime);
+    }
+
+    private static long get48(ByteBuffer slots, int offset) {
+        return (slots.getInt(offset) & 0xffffffffL) | (slots.getShort(offset + 4) & 0xffffL) << 32;
+    }
+
+    private static void put48(ByteBuffer slots, int offset, long value) {
+        final long saturatedValue = value < 0 ? 0 : Math.min(value, MAX_48_BIT_VALUE);
+        slots.putInt(offset, (int) saturatedValue);
+        slots.putShort(offset + 4, (short) (saturatedValue >>> 32));
+    }
+
+    private static void copySlot(ByteBuffer slots, int fromSlot, int toSlot) {
+        for (int i = 0; i < SLOT_SIZE; i += 8)
+            slots.putLong(offset(toSlot) + i, slots.getLong(offset(fromSlot) + i));
+    }
+
+    private static void clearSlot(ByteBuffer slots, int slot) {
+        for (int i = 0; i < SLOT_SIZE; i += 8)
+            slots.putLong(offset(slot) + i, 0);
+    }
+
+    private final static class Shard {
+
+        private final StampedLock lock = new StampedLock();
+        private ByteBuffer slots;
+        private int size;
+        // Changed under the write lock
+        private volatile long modifications;
+
+        private Shard(int capacityBits) {
+            this.slots = allocateSlots(capacityBits);
+        }
+    }
+
+    /**
+     * Reads one shard by chunks in the order of hashes. Each chunk consists of whole clusters,
+     * so entries of the chunk can be sorted without looking to the other chunks.
+     */
+
+    final class ShardScanner {
+
+        private final Shard shard;
+        private MetadataEntry[] entries = new MetadataEntry[SCAN_CHUNK_SIZE];
+        private int count;
+        private boolean started;
+        private long cursorHash;
+        private int cursorTag;
+        private ByteBuffer resumeSlots;
+        private int resumeSlot;
+        private boolean finished;
+
+        private ShardScanner(int shardNumber) {
+            this.shard = shards[shardNumber];
+        }
+
+        /**
+         * Continues scanning after the entry with this hash and tag
+         */
+
+        void seek(long hash, int tag) {
+            this.started = true;
+            this.cursorHash = hash;
+            this.cursorTag = tag;
+            this.resumeSlots = null;
+        }
+
+        MetadataEntry[] entries() {
+            return this.entries;
+        }
+
+        int count() {
+            return this.count;
+        }
+
+        /**
+         * Reads next chunk of entries
+         *
+         * @return {@code false} if there are no more entries
+         */
+
+        boolean next() {
+            this.count = 0;
+            while (!this.finished && this.count == 0) {
+                final long stamp = this.shard.lock.readLock();
+                try {
+                    this.readChunk();
+                } finally {
+                    this.shard.lock.unlockRead(stamp);
+                }
+                Arrays.sort(this.entries, 0, this.count, HASH_ORDER);
+                this.skipVisitedEntries();
+            }
+            if (this.count > 0) {
+                this.started = true;
+                this.cursorHash = this.entries[this.count - 1].hash;
+                this.cursorTag = this.entries[this.count - 1].tag;
+            }
+            return this.count > 0;
+        }
+
+        private void readChunk() {
+            final ByteBuffer slots = this.shard.slots;
+            final int totalSlots = totalSlotsOf(slots);
+            int slot;
+            if (slots == this.resumeSlots) {
+                slot = this.resumeSlot;
+            } else if (this.started) {
+                slot = homeSlot(this.cursorHash, capacityBitsOf(slots));
+                while (slot > 0 && isOccupied(slots, slot - 1))
+                    slot--;
+            } else {
+                slot = 0;
+            }
+
+            for (; slot < totalSlots; slot++) {
+                if (isOccupied(slots, slot)) {
+                    if (this.count == this.entries.length)
+                        this.entries = Arrays.copyOf(this.entries, this.entries.length * 2);
+                    if (this.entries[this.count] == null)
+                        this.entries[this.count] = new MetadataEntry();
+                    readSlot(slots, slot, this.entries[this.count++]);
+                } else if (this.count >= SCAN_CHUNK_SIZE) {
+                    break;
+                }
+            }
+            this.resumeSlots = slots;
+            this.resumeSlot = slot;
+            this.finished = slot >= totalSlots;
+        }
+
+        private void skipVisitedEntries() {
+            if (!this.started)
+                return;
+            int firstNotVisited = 0;
+            while (firstNotVisited < this.count && compare(this.entries[firstNotVisited], this.cursorHash, this.cursorTag) <= 0)
+                firstNotVisited++;
+            if (firstNotVisited == 0)
+                return;
+            final MetadataEntry[] visited = Arrays.copyOfRange(this.entries, 0, firstNotVisited);
+            System.arraycopy(this.entries, firstNotVisited, this.entries, 0, this.count - firstNotVisited);
+            System.arraycopy(visited, 0, this.entries, this.count - firstNotVisited, firstNotVisited);
+            this.count -= firstNotVisited;
+        }
+    }
+
+    private final static Comparator<MetadataEntry> HASH_ORDER = new Comparator<MetadataEntry>() {
+        @Override
+        public int compare(MetadataEntry first, MetadataEntry second) {
+            return MetadataTable.compare(first, second.hash, second.tag);
+        }
+    };
+
+    private static int compare(MetadataEntry entry, long hash, int tag) {
+        final int hashComparison = Long.compareUnsigned(entry.hash, hash);
+        return hashComparison != 0 ? hashComparison : Integer.compare(entry.tag, tag);
+    }
+}
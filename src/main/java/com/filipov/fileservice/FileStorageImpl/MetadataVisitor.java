@@ -0,0 +1,18 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+/**
+ * Receives entries of the metadata table while scanning
+ *
+ * @author Yevhen Filipov
+ */
+
+public interface MetadataVisitor {
+
+    /**
+     * Handles one entry of the metadata table. Entry is reused after this call, don't keep it
+     *
+     * @param entry metadata of the stored file
+     */
+
+    void visitEntry(MetadataEntry entry);
+}
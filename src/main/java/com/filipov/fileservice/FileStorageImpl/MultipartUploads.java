@@ -0,0 +1,525 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyAlreadyExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.NoFreeSpaceFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStoragePathServiceImpl.PathServiceImpl;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Multipart uploads of the big files. Parts of the upload are written in parallel to their offsets of the data file
+ * by positional writes, and the completed upload becomes the stored file without copying.
+ * <p>
+ * Each upload is kept in the uploads directory: data file "id.data" and state file "id.upload". State file contains
+ * the header: magic (4), key, life time of the file (8), initiation time (8), and the records of the written parts:
+ * offset (8), size (8), CRC32 of the record (4). Part is recorded after its data is forced to the disc,
+ * so uploads survive restarts, and the client resumes the upload by the missing parts.
+ * <p>
+ * Data files of the uploads are counted as used disc space. Uploads without activity are deleted
+ * by {@link #deleteAbandonedUploads(long)}.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class MultipartUploads {
+
+    private final static Logger LOGGER = Logger.getLogger(MultipartUploads.class);
+    private final static int MAGIC = 0x46535550;
+    private final static int PART_RECORD_SIZE = 20;
+    private final static String DATA_SUFFIX = ".data";
+    private final static String STATE_SUFFIX = ".upload";
+
+    private final Path uploadsPath;
+    private final String userDataPath;
+    private final FileStorageData fileStorageData;
+    private final long maxDiscSpace;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<String, Upload>();
+
+    /**
+     * Creates multipart uploads of the storage and restores uploads, which weren't completed before the restart
+     *
+     * @param uploadsPath     path of the uploads directory
+     * @param userDataPath    path of the user data directory
+     * @param fileStorageData metadata of the storage
+     * @param maxDiscSpace    max disc space of the storage in bites
+     * @throws ReadWriteFileStorageException if uploads directory inaccessible
+     */
+
+    public MultipartUploads(String uploadsPath, String userDataPath, FileStorageData fileStorageData, long maxDiscSpace) {
+        this.uploadsPath = Paths.get(uploadsPath);
+        this.userDataPath = userDataPath;
+        this.fileStorageData = fileStorageData;
+        this.maxDiscSpace = maxDiscSpace;
+        try {
+            Files.createDirectories(this.uploadsPath);
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't create uploads directory", uploadsPath, e);
+        }
+        this.recover();
+    }
+
+    /**
+     * Starts new upload of the file
+     *
+     * @param key          unique key of the file
+     * @param fileLifeTime life time of the file after completion of the upload, 0 if file doesn't expire
+     * @return identifier of the upload
+     * @throws KeyAlreadyExistFileStorageException if file with this key already exists
+     */
+
+    public String initiate(String key, long fileLifeTime) throws KeyAlreadyExistFileStorageException {
+        final String filePath = this.filePath(key);
+        if (this.fileStorageData.mightBeStored(filePath))
+            throw new KeyAlreadyExistFileStorageException("This key already exist", key);
+
+        final String uploadId = UUID.randomUUID().toString();
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer header = ByteBuffer.allocate(24 + keyBytes.length);
+        header.putInt(MAGIC);
+        header.putInt(keyBytes.length);
+        header.put(keyBytes);
+        header.putLong(fileLifeTime);
+        header.putLong(new Date().getTime());
+        header.flip();
+
+        final Upload upload = new Upload(uploadId, key, filePath, fileLifeTime);
+        try {
+            upload.open(this.dataPath(uploadId), this.statePath(uploadId));
+            while (header.hasRemaining())
+                upload.state.write(header);
+            upload.state.force(false);
+        } catch (IOException e) {
+            this.deleteFiles(upload);
+            throw new ReadWriteFileStorageException("Can't create upload", key, e);
+        }
+        this.uploads.put(uploadId, upload);
+        return uploadId;
+    }
+
+    /**
+     * Writes part of the upload to the specific offset. Parts of the same upload may be written in parallel,
+     * part may be written again after the failure
+     *
+     * @param uploadId    identifier of the upload
+     * @param offset      offset of the part in the file
+     * @param inputStream content of the part
+     * @return size of the written part in bites
+     * @throws KeyNotExistFileStorageException if the upload doesn't exist
+     * @throws NoFreeSpaceFileStorageException if there no free space in the storage
+     */
+
+    public long uploadPart(String uploadId, long offset, InputStream inputStream) throws KeyNotExistFileStorageException, NoFreeSpaceFileStorageException {
+        if (offset < 0)
+            throw new IncorrectArgumentFileStorageException("Value of offset < 0");
+
+        final Upload upload = this.getUpload(uploadId);
+        upload.lock.readLock().lock();
+        try {
+            if (upload.closed)
+                throw new KeyNotExistFileStorageException("This upload doesn't exist: " + uploadId, uploadId);
+
+            final ReadableByteChannel input = Channels.newChannel(inputStream);
+            final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long position = offset;
+            while (input.read(buffer) != -1) {
+                buffer.flip();
+                this.reserveSpace(upload, position + buffer.remaining());
+                while (buffer.hasRemaining())
+                    position += upload.data.write(buffer, position);
+                buffer.clear();
+            }
+            upload.data.force(false);
+
+            final UploadPart part = new UploadPart(offset, position - offset);
+            this.appendPart(upload, part);
+            upload.lastActivity = System.currentTimeMillis();
+            return part.getSize();
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't write part of the upload", uploadId, e);
+        } finally {
+            upload.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns durably written parts of the upload, which are sorted by offset
+     *
+     * @param uploadId identifier of the upload
+     * @return written parts of the upload
+     * @throws KeyNotExistFileStorageException if the upload doesn't exist
+     */
+
+    public List<UploadPart> getParts(String uploadId) throws KeyNotExistFileStorageException {
+        final Upload upload = this.getUpload(uploadId);
+        synchronized (upload) {
+            return sortedParts(upload);
+        }
+    }
+
+    /**
+     * Completes the upload: data file becomes the stored file. Parts must cover the file from the beginning without gaps
+     *
+     * @param uploadId identifier of the upload
+     * @return key of the completed file
+     * @throws KeyNotExistFileStorageException       if the upload doesn't exist
+     * @throws KeyAlreadyExistFileStorageException   if file with the key of the upload already exists
+     * @throws IncorrectArgumentFileStorageException if some parts are missing
+     */
+
+    public String complete(String uploadId) throws KeyNotExistFileStorageException, KeyAlreadyExistFileStorageException {
+        final Upload upload = this.getUpload(uploadId);
+        upload.lock.writeLock().lock();
+        try {
+            if (upload.closed)
+                throw new KeyNotExistFileStorageException("This upload doesn't exist: " + uploadId, uploadId);
+
+            long fileSize = 0;
+            for (UploadPart part : sortedParts(upload)) {
+                if (part.getOffset() > fileSize)
+                    throw new IncorrectArgumentFileStorageException("Part of the upload at offset " + fileSize + " is missing");
+                fileSize = Math.max(fileSize, part.getEnd());
+            }
+            if (this.fileStorageData.mightBeStored(upload.filePath))
+                throw new KeyAlreadyExistFileStorageException("This key already exist", upload.key);
+
+            // Bytes of the failed parts may be written after the end of the file
+            if (upload.data.size() > fileSize)
+                upload.data.truncate(fileSize);
+            final CRC32 checksum = new CRC32();
+            final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            for (long position = 0; position < fileSize; ) {
+                final int read = upload.data.read(buffer, position);
+                if (read < 0)
+                    break;
+                checksum.update(buffer.array(), 0, read);
+                position += read;
+                buffer.clear();
+            }
+            upload.data.force(false);
+            upload.data.close();
+            upload.state.close();
+
+            final Path file = Paths.get(upload.filePath);
+            Files.createDirectories(file.getParent());
+            try {
+                Files.move(this.dataPath(uploadId), file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                upload.open(this.dataPath(uploadId), this.statePath(uploadId));
+                throw new KeyAlreadyExistFileStorageException("This key already exist", upload.key);
+            }
+            Files.deleteIfExists(this.statePath(uploadId));
+            upload.closed = true;
+            this.uploads.remove(uploadId);
+
+            this.fileStorageData.increaseSizeOfUploads(-upload.size);
+            final long creationTime = new Date().getTime();
+            final long expirationTime = upload.fileLifeTime > 0 ? creationTime + upload.fileLifeTime : 0;
+            this.fileStorageData.addFile(upload.filePath, upload.key, fileSize, creationTime, expirationTime, (int) checksum.getValue());
+            return upload.key;
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't complete the upload", uploadId, e);
+        } finally {
+            upload.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Aborts the upload and deletes its written parts
+     *
+     * @param uploadId identifier of the upload
+     * @throws KeyNotExistFileStorageException if the upload doesn't exist
+     */
+
+    public void abort(String uploadId) throws KeyNotExistFileStorageException {
+        final Upload upload = this.getUpload(uploadId);
+        upload.lock.writeLock().lock();
+        try {
+            if (upload.closed)
+                throw new KeyNotExistFileStorageException("This upload doesn't exist: " + uploadId, uploadId);
+            this.delete(upload);
+        } finally {
+            upload.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes uploads, which parts weren't written during the expiration time. Uploads with parts in progress aren't deleted
+     *
+     * @param expirationTime max time without activity in milliseconds
+     * @return number of the deleted uploads
+     */
+
+    public int deleteAbandonedUploads(long expirationTime) {
+        final long now = System.currentTimeMillis();
+        int deletedUploads = 0;
+        for (Upload upload : this.uploads.values()) {
+            if (now - upload.lastActivity <= expirationTime || !upload.lock.writeLock().tryLock())
+                continue;
+            try {
+                if (!upload.closed && now - upload.lastActivity > expirationTime) {
+                    this.delete(upload);
+                    deletedUploads++;
+                }
+            } finally {
+                upload.lock.writeLock().unlock();
+            }
+        }
+        if (deletedUploads > 0)
+            LOGGER.info(deletedUploads + " abandoned uploads were deleted");
+        return deletedUploads;
+    }
+
+    /**
+     * Closes files of the uploads, waits for the parts in progress. Uploads stay on the disc and are restored after the restart
+     */
+
+    public void close() {
+        for (Upload upload : this.uploads.values()) {
+            upload.lock.writeLock().lock();
+            try {
+                upload.closed = true;
+                upload.close();
+            } catch (IOException e) {
+                LOGGER.warn("Can't close upload: " + upload.id, e);
+            } finally {
+                upload.lock.writeLock().unlock();
+            }
+        }
+        this.uploads.clear();
+    }
+
+    public int getNumberOfUploads() {
+        return this.uploads.size();
+    }
+
+    /**
+     * Returns disc space, which is counted for the data files of the uploads
+     *
+     * @return size of the uploads in bites
+     */
+
+    public long getSizeOfUploads() {
+        long sizeOfUploads = 0;
+        for (Upload upload : this.uploads.values())
+            sizeOfUploads += upload.size;
+        return sizeOfUploads;
+    }
+
+    private Upload getUpload(String uploadId) throws KeyNotExistFileStorageException {
+        final Upload upload = uploadId != null ? this.uploads.get(uploadId) : null;
+        if (upload == null)
+            throw new KeyNotExistFileStorageException("This upload doesn't exist: " + uploadId, uploadId);
+        return upload;
+    }
+
+    /**
+     * Counts growth of the data file as the used disc space
+     */
+
+    private void reserveSpace(Upload upload, long end) throws NoFreeSpaceFileStorageException {
+        synchronized (upload) {
+            if (end <= upload.size)
+                return;
+            final long growth = end - upload.size;
+            if (growth > this.maxDiscSpace - this.fileStorageData.getTotalSizeOfFiles())
+                throw new NoFreeSpaceFileStorageException("No such free disc space to save current file", upload.key);
+            this.fileStorageData.increaseSizeOfUploads(growth);
+            upload.size = end;
+        }
+    }
+
+    private void appendPart(Upload upload, UploadPart part) throws IOException {
+        final ByteBuffer record = ByteBuffer.allocate(PART_RECORD_SIZE);
+        record.putLong(part.getOffset());
+        record.putLong(part.getSize());
+        final CRC32 recordChecksum = new CRC32();
+        recordChecksum.update(record.array(), 0, 16);
+        record.putInt((int) recordChecksum.getValue());
+        record.flip();
+        synchronized (upload) {
+            while (record.hasRemaining())
+                upload.state.write(record);
+            upload.state.force(false);
+            upload.parts.add(part);
+        }
+    }
+
+    private void delete(Upload upload) {
+        upload.closed = true;
+        this.uploads.remove(upload.id);
+        this.deleteFiles(upload);
+        this.fileStorageData.increaseSizeOfUploads(-upload.size);
+    }
+
+    private void deleteFiles(Upload upload) {
+        try {
+            upload.close();
+            Files.deleteIfExists(this.dataPath(upload.id));
+            Files.deleteIfExists(this.statePath(upload.id));
+        } catch (IOException e) {
+            LOGGER.warn("Can't delete upload: " + upload.id, e);
+        }
+    }
+
+    /**
+     * Restores uploads from their state files. Damaged tail of the state file is truncated,
+     * data files without state files are deleted
+     */
+
+    private void recover() {
+        final Set<String> dataFiles = new HashSet<String>();
+        final List<Path> stateFiles = new ArrayList<Path>();
+        try (DirectoryStream<Path> directory = Files.newDirectoryStream(this.uploadsPath)) {
+            for (Path file : directory) {
+                final String fileName = file.getFileName().toString();
+                if (fileName.endsWith(STATE_SUFFIX))
+                    stateFiles.add(file);
+                else if (fileName.endsWith(DATA_SUFFIX))
+                    dataFiles.add(fileName.substring(0, fileName.length() - DATA_SUFFIX.length()));
+            }
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't read uploads directory", this.uploadsPath.toString(), e);
+        }
+
+        for (Path stateFile : stateFiles) {
+            final String fileName = stateFile.getFileName().toString();
+            final String uploadId = fileName.substring(0, fileName.length() - STATE_SUFFIX.length());
+            final Upload upload = dataFiles.remove(uploadId) ? this.readState(uploadId, stateFile) : null;
+            if (upload == null) {
+                LOGGER.warn("Damaged upload is deleted: " + uploadId);
+                try {
+                    Files.deleteIfExists(stateFile);
+                    Files.deleteIfExists(this.dataPath(uploadId));
+                } catch (IOException e) {
+                    LOGGER.warn("Can't delete upload: " + uploadId, e);
+                }
+                continue;
+            }
+            this.uploads.put(uploadId, upload);
+            this.fileStorageData.increaseSizeOfUploads(upload.size);
+        }
+        for (String uploadId : dataFiles) {
+            try {
+                Files.deleteIfExists(this.dataPath(uploadId));
+            } catch (IOException e) {
+                LOGGER.warn("Can't delete upload: " + uploadId, e);
+            }
+        }
+        if (!this.uploads.isEmpty())
+            LOGGER.info(this.uploads.size() + " uploads were restored");
+    }
+
+    private Upload readState(String uploadId, Path stateFile) {
+        try {
+            final ByteBuffer state = ByteBuffer.wrap(Files.readAllBytes(stateFile));
+            if (state.remaining() < 8 || state.getInt() != MAGIC)
+                return null;
+            final int keyLength = state.getInt();
+            if (keyLength < 0 || state.remaining() < keyLength + 16)
+                return null;
+            final byte[] keyBytes = new byte[keyLength];
+            state.get(keyBytes);
+            final long fileLifeTime = state.getLong();
+            state.getLong();
+
+            final List<UploadPart> parts = new ArrayList<UploadPart>();
+            while (state.remaining() >= PART_RECORD_SIZE) {
+                final CRC32 recordChecksum = new CRC32();
+                recordChecksum.update(state.array(), state.position(), 16);
+                final long offset = state.getLong();
+                final long size = state.getLong();
+                if (state.getInt() != (int) recordChecksum.getValue()) {
+                    state.position(state.position() - PART_RECORD_SIZE);
+                    break;
+                }
+                parts.add(new UploadPart(offset, size));
+            }
+
+            final String key = new String(keyBytes, StandardCharsets.UTF_8);
+            final Upload upload = new Upload(uploadId, key, this.filePath(key), fileLifeTime);
+            upload.open(this.dataPath(uploadId), stateFile);
+            upload.state.truncate(state.position());
+            upload.state.position(state.position());
+            upload.parts.addAll(parts);
+            upload.size = upload.data.size();
+            upload.lastActivity = Math.max(Files.getLastModifiedTime(stateFile).toMillis(),
+                    Files.getLastModifiedTime(this.dataPath(uploadId)).toMillis());
+            return upload;
+        } catch (IOException e) {
+            LOGGER.warn("Can't read state of the upload: " + uploadId, e);
+            return null;
+        }
+    }
+
+    private static List<UploadPart> sortedParts(Upload upload) {
+        final List<UploadPart> parts = new ArrayList<UploadPart>(upload.parts);
+        Collections.sort(parts, new Comparator<UploadPart>() {
+            @Override
+            public int compare(UploadPart first, UploadPart second) {
+                return Long.compare(first.getOffset(), second.getOffset());
+            }
+        });
+        return parts;
+    }
+
+    private Path dataPath(String uploadId) {
+        return this.uploadsPath.resolve(uploadId + DATA_SUFFIX);
+    }
+
+    private Path statePath(String uploadId) {
+        return this.uploadsPath.resolve(uploadId + STATE_SUFFIX);
+    }
+
+    private String filePath(String key) {
+        return this.userDataPath + new PathServiceImpl().generateFilePathPresentation(key);
+    }
+
+    private static class Upload {
+        private final String id;
+        private final String key;
+        private final long fileLifeTime;
+        private final List<UploadPart> parts = new ArrayList<UploadPart>();
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final String filePath;
+        private FileChannel data;
+        private FileChannel state;
+        // Length of the data file, which is counted as used disc space
+        private long size;
+        private volatile long lastActivity = System.currentTimeMillis();
+        private volatile boolean closed;
+
+        private Upload(String id, String key, String filePath, long fileLifeTime) {
+            this.id = id;
+            this.key = key;
+            this.filePath = filePath;
+            this.fileLifeTime = fileLifeTime;
+        }
+
+        private void open(Path dataPath, Path statePath) throws IOException {
+            this.data = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.state = FileChannel.open(statePath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.state.position(this.state.size());
+        }
+
+        private void close() throws IOException {
+            if (this.data != null)
+                this.data.close();
+            if (this.state != null)
+                this.state.close();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Namespace of the keys with its own quota of the disc space. Used space is counted by the striped counters,
+ * so the concurrent saves don't contend. Files of the namespace are indexed by their creation time,
+ * so the oldest files of the namespace are found without scanning other files.
+ * <p>
+ * Used space is the stored size of the files, deduplicated file is counted in full by each namespace, which refers to it.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class Namespace {
+
+    private final String name;
+    private final int id;
+    private final LongAdder usedSpace = new LongAdder();
+    private final LongAdder numberOfFiles = new LongAdder();
+    private final ConcurrentSkipListSet<FileReference> files = new ConcurrentSkipListSet<FileReference>();
+    private volatile long quota;
+
+    Namespace(String name, int id, long quota) {
+        this.name = name;
+        this.id = id;
+        this.quota = quota;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    public long getQuota() {
+        return quota;
+    }
+
+    void setQuota(long quota) {
+        this.quota = quota;
+    }
+
+    public long getUsedSpace() {
+        return this.usedSpace.sum();
+    }
+
+    /**
+     * Returns free space of the namespace. It may be more than free space of the storage
+     *
+     * @return free space of the namespace in bites, negative if the quota was decreased below the used space
+     */
+
+    public long getFreeSpace() {
+        return this.quota - this.usedSpace.sum();
+    }
+
+    public long getNumberOfFiles() {
+        return this.numberOfFiles.sum();
+    }
+
+    void addFile(MetadataEntry entry) {
+        this.usedSpace.add(entry.size);
+        this.numberOfFiles.increment();
+        this.files.add(new FileReference(entry.creationTime, entry.hash, entry.tag));
+    }
+
+    void removeFile(MetadataEntry entry) {
+        this.usedSpace.add(-entry.size);
+        this.numberOfFiles.decrement();
+        this.files.remove(new FileReference(entry.creationTime, entry.hash, entry.tag));
+    }
+
+    void resizeFile(long sizeDelta) {
+        this.usedSpace.add(sizeDelta);
+    }
+
+    /**
+     * Returns files of the namespace from the oldest one
+     *
+     * @return iterator of the weakly consistent view of the files
+     */
+
+    Iterator<FileReference> oldestFiles() {
+        return this.files.iterator();
+    }
+
+    static final class FileReference implements Comparable<FileReference> {
+
+        final long creationTime;
+        final long hash;
+        final int tag;
+
+        private FileReference(long creationTime, long hash, int tag) {
+            this.creationTime = creationTime;
+            this.hash = hash;
+            this.tag = tag;
+        }
+
+        @Override
+        public int compareTo(FileReference reference) {
+            if (this.creationTime != reference.creationTime)
+                return Long.compare(this.creationTime, reference.creationTime);
+            if (this.hash != reference.hash)
+                return Long.compare(this.hash, reference.hash);
+            return Integer.compare(this.tag, reference.tag);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            return object instanceof FileReference && this.compareTo((FileReference) object) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (this.hash ^ (this.hash >>> 32)) ^ this.tag;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Namespaces of the storage. Namespace of the key is its part before the first separator,
+ * keys without separator or with not declared namespace don't belong to any namespace
+ *
+ * @author Yevhen Filipov
+ */
+
+public class Namespaces {
+
+    private final static int MAX_NUMBER_OF_NAMESPACES = (1 << 16) - 1;
+
+    private final char separator;
+    private final Map<String, Namespace> namespacesByName = new HashMap<String, Namespace>();
+    private final Namespace[] namespacesById;
+
+    /**
+     * Declares namespaces
+     *
+     * @param separator separator of the namespace in the key
+     * @param quotas    quotas of the namespaces in bites by their names
+     */
+
+    public Namespaces(char separator, Map<String, Long> quotas) {
+        if (quotas.size() > MAX_NUMBER_OF_NAMESPACES)
+            throw new IncorrectArgumentFileStorageException("Too many namespaces: " + quotas.size());
+        this.separator = separator;
+        // Id 0 is kept for the keys out of the namespaces
+        this.namespacesById = new Namespace[quotas.size() + 1];
+        for (Map.Entry<String, Long> quota : quotas.entrySet()) {
+            final Namespace namespace = new Namespace(quota.getKey(), this.namespacesByName.size() + 1, quota.getValue());
+            this.namespacesByName.put(namespace.getName(), namespace);
+            this.namespacesById[namespace.getId()] = namespace;
+        }
+    }
+
+    public boolean isEmpty() {
+        return this.namespacesByName.isEmpty();
+    }
+
+    /**
+     * Returns namespace by its name
+     *
+     * @param name name of the namespace
+     * @return namespace, {@code null} if it isn't declared
+     */
+
+    public Namespace get(String name) {
+        return this.namespacesByName.get(name);
+    }
+
+    /**
+     * Returns namespace of the key
+     *
+     * @param key the key of the file
+     * @return namespace, {@code null} if the key doesn't belong to any namespace
+     */
+
+    public Namespace of(String key) {
+        if (this.namespacesByName.isEmpty())
+            return null;
+        final int separatorIndex = key.indexOf(this.separator);
+        return separatorIndex <= 0 ? null : this.namespacesByName.get(key.substring(0, separatorIndex));
+    }
+
+    int idOf(String key) {
+        final Namespace namespace = this.of(key);
+        return namespace == null ? 0 : namespace.getId();
+    }
+
+    int size() {
+        return this.namespacesByName.size();
+    }
+
+    Namespace get(int id) {
+        return id == 0 ? null : this.namespacesById[id];
+    }
+}
@@ -0,0 +1,49 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event of the foreground operation of the storage: saving, reading, deleting, replacing, touching
+ * and multipart upload. Event is disabled by default, so the operation only checks a flag. It's recorded together
+ * with GC and I/O events of the JVM, when it's enabled in the recording settings, for example
+ * {@code -XX:StartFlightRecording:settings=profile,+com.filipov.fileservice.Operation#enabled=true}
+ * or {@code Recording.enable("com.filipov.fileservice.Operation")}.
+ * Events are created only by {@link FlightRecorderEvents}, which checks that the JVM has Flight Recorder
+ *
+ * @author Yevhen Filipov
+ */
+
+@Name("com.filipov.fileservice.Operation")
+@Label("File Storage Operation")
+@Category("File Storage")
+@Description("Foreground operation of the file storage")
+@Enabled(false)
+@StackTrace(false)
+class OperationEvent extends Event {
+
+    final static String OUTCOME_OK = "OK";
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Key Hash")
+    @Description("64-bit hash of the file path, which is used by the metadata table")
+    long keyHash;
+
+    @Label("Shard")
+    @Description("Shard of the metadata table, -1 if the operation doesn't address the stored file")
+    int shard;
+
+    @Label("Bytes")
+    @Description("Size of the saved or the read content, 0 if it's unknown")
+    @DataAmount
+    long bytes;
+
+    @Label("Outcome")
+    @Description("OK or simple name of the thrown exception")
+    String outcome;
+
+    static String outcomeOf(Throwable failure) {
+        return failure == null ? OUTCOME_OK : failure.getClass().getSimpleName();
+    }
+}
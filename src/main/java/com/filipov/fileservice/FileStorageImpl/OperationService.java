@@ -56,23 +56,23 @@ public interface OperationService {
     InputStream readFile(String filePath) throws KeyNotExistFileStorageException;
 
     /**
-     * Liberates free space in the storage to the target value in bites (or more)
+     * Returns total size of all files in this directory, includes subdirectories
      *
-     * @param directoryPath          target directory path
-     * @param targetDiscSpaceInBytes target free space of this directory in bites
-     * @return
+     * @param path path of target directory
+     * @return total size of all files in this directory, includes subdirectories
      */
 
-    long purge(String directoryPath, long targetDiscSpaceInBytes);
+    long getTotalSizeOfFiles(String path);
 
     /**
-     * Returns total size of all files in this directory, includes subdirectories
+     * Returns total size of all files in this directory, includes subdirectories. Passes each found file to the handler
      *
-     * @param path path of target directory
+     * @param path        path of target directory
+     * @param fileHandler handler of the found files
      * @return total size of all files in this directory, includes subdirectories
      */
 
-    long getTotalSizeOfFiles(String path);
+    long getTotalSizeOfFiles(String path, StoredFileHandler fileHandler);
 
     /**
      * Returns free space of the partition, where this path located
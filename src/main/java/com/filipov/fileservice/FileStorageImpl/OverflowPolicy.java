@@ -0,0 +1,25 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+/**
+ * Behaviour of the change subscription, when its listener doesn't keep up with the changes and its ring buffer is full
+ *
+ * @author Yevhen Filipov
+ */
+
+public enum OverflowPolicy {
+
+    /**
+     * New events are dropped and counted, operations of the storage aren't slowed down
+     */
+    DROP,
+
+    /**
+     * Operation, which publishes the event, waits for the free space in the buffer
+     */
+    BLOCK,
+
+    /**
+     * New events are appended to the local log on the disc and are delivered after the buffered events
+     */
+    SPILL
+}
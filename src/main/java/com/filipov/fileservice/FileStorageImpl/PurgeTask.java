@@ -0,0 +1,179 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageOperationServiceImpl.OperationServiceImpl;
+import org.apache.log4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Incremental purge of the storage. Deletes the oldest files by small steps, each deleting goes through IOBudget.
+ * Task can be cancelled between any two deletions, already liberated space stays liberated.
+ * Purge of the namespace deletes only the files of this namespace and counts their stored size as liberated.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class PurgeTask implements Runnable {
+
+    private final static Logger LOGGER = Logger.getLogger(PurgeTask.class);
+    private final static int DEFAULT_STEP_SIZE = 64;
+
+    private final FileStorageData fileStorageData;
+    private final IOBudget ioBudget;
+    private final ChangeFeed changeFeed;
+    private final Namespace namespace;
+    private final long discSpaceToLiberate;
+    private final int stepSize;
+    private final CountDownLatch completion = new CountDownLatch(1);
+
+    private volatile boolean cancelled;
+    private volatile long liberatedDiscSpace;
+    private volatile long purgedFiles;
+    private volatile RuntimeException failure;
+
+    PurgeTask(FileStorageData fileStorageData, IOBudget ioBudget, ChangeFeed changeFeed, long discSpaceToLiberate) {
+        this(fileStorageData, ioBudget, changeFeed, discSpaceToLiberate, DEFAULT_STEP_SIZE);
+    }
+
+    PurgeTask(FileStorageData fileStorageData, IOBudget ioBudget, ChangeFeed changeFeed, long discSpaceToLiberate, int stepSize) {
+        this(fileStorageData, ioBudget, changeFeed, null, discSpaceToLiberate, stepSize);
+    }
+
+    PurgeTask(FileStorageData fileStorageData, IOBudget ioBudget, ChangeFeed changeFeed, Namespace namespace, long discSpaceToLiberate) {
+        this(fileStorageData, ioBudget, changeFeed, namespace, discSpaceToLiberate, DEFAULT_STEP_SIZE);
+    }
+
+    private PurgeTask(FileStorageData fileStorageData, IOBudget ioBudget, ChangeFeed changeFeed, Namespace namespace,
+                      long discSpaceToLiberate, int stepSize) {
+        this.fileStorageData = fileStorageData;
+        this.ioBudget = ioBudget;
+        this.changeFeed = changeFeed;
+        this.namespace = namespace;
+        this.discSpaceToLiberate = discSpaceToLiberate;
+        this.stepSize = stepSize;
+    }
+
+    @Override
+    public void run() {
+        final Object event = FlightRecorderEvents.beginBackgroundTask();
+        try {
+            if (this.discSpaceToLiberate > 0)
+                this.purge();
+        } catch (RuntimeException e) {
+            this.failure = e;
+            throw e;
+        } finally {
+            FlightRecorderEvents.finishBackgroundTask(event, this.namespace == null ? "purge" : "namespacePurge", this.purgedFiles, this.liberatedDiscSpace, this.failure);
+            this.completion.countDown();
+        }
+    }
+
+    private void purge() {
+        final OperationService operationService = new OperationServiceImpl();
+
+        // Deleting of the deduplicated file may release less space than its size, so the next files are found again
+        while (!this.isFinished()) {
+            final long remainingDiscSpace = this.discSpaceToLiberate - this.liberatedDiscSpace;
+            final List<String> oldestFiles = this.namespace == null ? this.fileStorageData.findOldestFiles(remainingDiscSpace)
+                    : this.fileStorageData.findOldestFiles(this.namespace, remainingDiscSpace);
+            int deletedFiles = 0;
+
+            int fileIndex = 0;
+            while (!this.isFinished() && fileIndex < oldestFiles.size()) {
+                final int stepEnd = Math.min(fileIndex + this.stepSize, oldestFiles.size());
+                for (; fileIndex < stepEnd && !this.isFinished(); fileIndex++) {
+                    final String filePath = oldestFiles.get(fileIndex);
+                    try {
+                        this.ioBudget.acquireOperation();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        this.cancel();
+                        break;
+                    }
+                    if (this.deleteFile(operationService, filePath))
+                        deletedFiles++;
+                }
+                Thread.yield();
+            }
+            if (deletedFiles == 0)
+                break;
+        }
+    }
+
+    private boolean deleteFile(OperationService operationService, String filePath) {
+        final MetadataEntry entry = new MetadataEntry();
+        final String key;
+        final long releasedDiscSpace;
+        // File can't be replaced between deleting on the disc and unregistering
+        final ReentrantLock fileLock = this.fileStorageData.lockFile(filePath);
+        try {
+            if (!this.fileStorageData.getMetadata(filePath, entry))
+                return false;
+            key = this.changeFeed.hasSubscriptions() ? this.fileStorageData.readKey(entry) : null;
+            try {
+                this.ioBudget.chargeBytes(operationService.deleteFile(filePath));
+            } catch (KeyNotExistFileStorageException e) {
+                LOGGER.info("This file was already deleted: " + filePath, e);
+            }
+            releasedDiscSpace = this.fileStorageData.removeFileAndReleaseSpace(filePath);
+        } finally {
+            fileLock.unlock();
+        }
+        if (releasedDiscSpace < 0)
+            return false;
+        this.liberatedDiscSpace += this.namespace == null ? releasedDiscSpace : entry.getSize();
+        this.purgedFiles++;
+        this.changeFeed.publish(ChangeEvent.Type.PURGED, key);
+        return true;
+    }
+
+    private boolean isFinished() {
+        return this.cancelled || this.liberatedDiscSpace >= this.discSpaceToLiberate;
+    }
+
+    /**
+     * Stops this task after the current file deleting
+     */
+
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    public boolean isDone() {
+        return this.completion.getCount() == 0;
+    }
+
+    /**
+     * Waits until this task will be finished or cancelled
+     *
+     * @param timeout max time to wait in milliseconds
+     * @return {@code true} if task is finished
+     * @throws InterruptedException if current thread was interrupted while waiting
+     * @throws ReadWriteFileStorageException if no access to some stored files
+     */
+
+    public boolean await(long timeout) throws InterruptedException {
+        final boolean finished = this.completion.await(timeout, TimeUnit.MILLISECONDS);
+        if (finished && this.failure != null)
+            throw this.failure;
+        return finished;
+    }
+
+    /**
+     * Returns disc space in bites, which already liberated by this task
+     *
+     * @return liberated disc space in bites
+     */
+
+    public long getLiberatedDiscSpace() {
+        return this.liberatedDiscSpace;
+    }
+}
@@ -0,0 +1,434 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reads the files, which are expected to be read soon, to the bounded out of heap pool of blocks, so the reading of the file
+ * finds its content in memory. Blocks of the file are read by asynchronous positional reads in parallel.
+ * Files wait in the queue, while the pool has no free blocks. Reading of the file, which is being prefetched,
+ * waits for the prefetch instead of the second reading of the disc. Prefetched content is released, when it's read,
+ * or when it isn't read during 30 seconds.
+ * <p>
+ * Prefetched content is returned only if the metadata of the file didn't change since the prefetch,
+ * so the replaced or deleted files are read from the disc.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class ReadAheadBuffer {
+
+    private final static Logger LOGGER = Logger.getLogger(ReadAheadBuffer.class);
+    private final static int BLOCK_SIZE = 64 * 1024;
+    private final static int MAX_QUEUED_FILES = 1024;
+    private final static int MAX_LOADING_FILES = 16;
+    private final static int READ_THREADS = 4;
+    private final static long PREFETCHED_FILE_LIFE_TIME = 30 * 1000l;
+
+    private final FileStorageData fileStorageData;
+    private final int blockSize;
+    private final int maxFileSize;
+    private final ExecutorService executor;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition loadFinished = this.lock.newCondition();
+    private final ArrayDeque<ByteBuffer> freeBlocks = new ArrayDeque<ByteBuffer>();
+    private final ArrayDeque<String> queuedFiles = new ArrayDeque<String>();
+    // Queued and loading files
+    private final Set<String> requestedFiles = new HashSet<String>();
+    private final Set<String> loadingFiles = new HashSet<String>();
+    // Prefetched files in the order of loading, so the expired files are at the head
+    private final LinkedHashMap<String, PrefetchedFile> prefetchedFiles = new LinkedHashMap<String, PrefetchedFile>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private boolean closed;
+
+    /**
+     * Creates read-ahead buffer and its reading threads
+     *
+     * @param fileStorageData metadata of the storage
+     * @param bufferSize      size of the buffer in bites
+     * @param maxFileSize     max size of the file in bites, which can be prefetched. Bigger files are read from the disc only
+     */
+
+    public ReadAheadBuffer(FileStorageData fileStorageData, int bufferSize, int maxFileSize) {
+        if (bufferSize <= 0 || maxFileSize <= 0 || maxFileSize > bufferSize)
+            throw new IncorrectArgumentFileStorageException("Value of bufferSize or maxFileSize <= 0 or maxFileSize > bufferSize");
+
+        this.fileStorageData = fileStorageData;
+        this.blockSize = Math.min(BLOCK_SIZE, bufferSize);
+        this.maxFileSize = maxFileSize;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+        for (int position = 0; position + this.blockSize <= bufferSize; position += this.blockSize) {
+            buffer.limit(position + this.blockSize).position(position);
+            this.freeBlocks.add(buffer.slice());
+        }
+        this.executor = Executors.newFixedThreadPool(READ_THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "FileStorage read-ahead");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues the file for the prefetch. When the queue is full, the oldest queued file is forgotten
+     *
+     * @param filePath path of the file
+     * @return {@code false} if this file is already queued, loading or prefetched, isn't registered or is too big
+     */
+
+    public boolean prefetch(String filePath) {
+        final MetadataEntry entry = new MetadataEntry();
+        if (!this.fileStorageData.getMetadata(filePath, entry) || entry.getSize() > this.maxFileSize)
+            return false;
+        final List<Load> loads;
+        this.lock.lock();
+        try {
+            if (this.requestedFiles.contains(filePath) || this.prefetchedFiles.containsKey(filePath))
+                return false;
+            if (this.queuedFiles.size() >= MAX_QUEUED_FILES)
+                this.requestedFiles.remove(this.queuedFiles.pollFirst());
+            this.queuedFiles.addLast(filePath);
+            this.requestedFiles.add(filePath);
+            loads = this.startLoads();
+        } finally {
+            this.lock.unlock();
+        }
+        this.execute(loads);
+        return true;
+    }
+
+    /**
+     * Takes prefetched stored content of the file, its blocks are released. If the file is being prefetched,
+     * waits until its prefetch is finished. Queued prefetch of the file is cancelled
+     *
+     * @param filePath path of the file
+     * @param entry    current metadata of the file
+     * @return input stream of the stored content, {@code null} if this file isn't prefetched or its content was replaced
+     */
+
+    public InputStream read(String filePath, MetadataEntry entry) {
+        byte[] content = null;
+        final List<Load> loads;
+        this.lock.lock();
+        try {
+            PrefetchedFile prefetchedFile = this.prefetchedFiles.remove(filePath);
+            while (prefetchedFile == null && this.loadingFiles.contains(filePath)) {
+                try {
+                    this.loadFinished.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                prefetchedFile = this.prefetchedFiles.remove(filePath);
+            }
+            if (prefetchedFile == null) {
+                if (!this.loadingFiles.contains(filePath) && this.requestedFiles.remove(filePath))
+                    this.queuedFiles.remove(filePath);
+                this.misses.incrementAndGet();
+                return null;
+            }
+            if (prefetchedFile.describes(entry))
+                content = prefetchedFile.copyContent();
+            this.release(prefetchedFile.blocks);
+            loads = this.startLoads();
+        } finally {
+            this.lock.unlock();
+        }
+        this.execute(loads);
+        (content != null ? this.hits : this.misses).incrementAndGet();
+        return content != null ? new ByteArrayInputStream(content) : null;
+    }
+
+    /**
+     * Returns number of the readings, which found the prefetched content
+     *
+     * @return number of the hits
+     */
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Returns number of the readings, which didn't find the prefetched content
+     *
+     * @return number of the misses
+     */
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Returns number of the files, which are prefetched and aren't read yet
+     *
+     * @return number of the prefetched files
+     */
+
+    public int getPrefetchedFiles() {
+        this.lock.lock();
+        try {
+            return this.prefetchedFiles.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the prefetch: queued files are forgotten, loads in progress are waited for, then reading threads are stopped
+     *
+     * @throws InterruptedException if the current thread is interrupted while it waits for the loads
+     */
+
+    public void close() throws InterruptedException {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.requestedFiles.removeAll(this.queuedFiles);
+            this.queuedFiles.clear();
+            while (!this.loadingFiles.isEmpty())
+                this.loadFinished.await();
+        } finally {
+            this.lock.unlock();
+        }
+        this.executor.shutdown();
+        this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reserves blocks for the queued files, while there are free blocks. Must be called under the lock
+     *
+     * @return loads, which should be started after the lock is released
+     */
+
+    private List<Load> startLoads() {
+        final List<Load> loads = new ArrayList<Load>();
+        final MetadataEntry entry = new MetadataEntry();
+        while (!this.closed && !this.queuedFiles.isEmpty() && this.loadingFiles.size() < MAX_LOADING_FILES) {
+            final String filePath = this.queuedFiles.peekFirst();
+            if (!this.fileStorageData.getMetadata(filePath, entry) || entry.getSize() > this.maxFileSize) {
+                this.requestedFiles.remove(this.queuedFiles.pollFirst());
+                continue;
+            }
+            final int blocks = (int) ((entry.getSize() + this.blockSize - 1) / this.blockSize);
+            if (blocks > this.freeBlocks.size())
+                this.releaseExpiredFiles(System.currentTimeMillis());
+            if (blocks > this.freeBlocks.size())
+                break;
+            this.queuedFiles.pollFirst();
+            final ByteBuffer[] fileBlocks = new ByteBuffer[blocks];
+            for (int i = 0; i < blocks; i++)
+                fileBlocks[i] = this.freeBlocks.pollFirst();
+            this.loadingFiles.add(filePath);
+            loads.add(new Load(filePath, fileBlocks));
+        }
+        return loads;
+    }
+
+    private void releaseExpiredFiles(long currentTime) {
+        final Iterator<PrefetchedFile> iterator = this.prefetchedFiles.values().iterator();
+        while (iterator.hasNext()) {
+            final PrefetchedFile prefetchedFile = iterator.next();
+            if (prefetchedFile.loadingTime + PREFETCHED_FILE_LIFE_TIME > currentTime)
+                break;
+            iterator.remove();
+            this.release(prefetchedFile.blocks);
+        }
+    }
+
+    private void release(ByteBuffer[] blocks) {
+        for (ByteBuffer block : blocks)
+            this.freeBlocks.addLast(block);
+    }
+
+    private void execute(List<Load> loads) {
+        for (Load load : loads)
+            this.executor.execute(load);
+    }
+
+    private void finishLoad(Load load, boolean loaded) {
+        final List<Load> loads;
+        this.lock.lock();
+        try {
+            this.loadingFiles.remove(load.filePath);
+            this.requestedFiles.remove(load.filePath);
+            if (loaded)
+                this.prefetchedFiles.put(load.filePath, new PrefetchedFile(load.entry, load.blocks, System.currentTimeMillis()));
+            else
+                this.release(load.blocks);
+            this.loadFinished.signalAll();
+            loads = this.startLoads();
+        } finally {
+            this.lock.unlock();
+        }
+        this.execute(loads);
+    }
+
+    /**
+     * Reading of one file. Its blocks are read in parallel, content is accepted, if the file wasn't replaced
+     * while it was read
+     */
+
+    private class Load implements Runnable, CompletionHandler<Integer, Load.BlockRead> {
+
+        private final String filePath;
+        private final ByteBuffer[] blocks;
+        private final MetadataEntry entry = new MetadataEntry();
+        private final AtomicInteger pendingBlocks = new AtomicInteger();
+        private volatile boolean failed;
+        private long stamp;
+        private AsynchronousFileChannel channel;
+
+        private Load(String filePath, ByteBuffer[] blocks) {
+            this.filePath = filePath;
+            this.blocks = blocks;
+        }
+
+        @Override
+        public void run() {
+            this.stamp = fileStorageData.beginContentRead(this.filePath);
+            final long size = fileStorageData.getMetadata(this.filePath, this.entry) ? this.entry.getSize() : -1;
+            if (size < 0 || size > (long) this.blocks.length * blockSize) {
+                finishLoad(this, false);
+                return;
+            }
+            if (size == 0) {
+                finishLoad(this, fileStorageData.validateContentRead(this.filePath, this.stamp));
+                return;
+            }
+            try {
+                this.channel = AsynchronousFileChannel.open(Paths.get(this.filePath), EnumSet.of(StandardOpenOption.READ), executor);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.debug("Can't prefetch the file: " + this.filePath, e);
+                finishLoad(this, false);
+                return;
+            }
+            final int usedBlocks = (int) ((size + blockSize - 1) / blockSize);
+            this.pendingBlocks.set(usedBlocks);
+            for (int i = 0; i < usedBlocks; i++) {
+                final ByteBuffer block = this.blocks[i].duplicate();
+                block.clear();
+                block.limit((int) Math.min(blockSize, size - (long) i * blockSize));
+                this.readBlock(new BlockRead(block, (long) i * blockSize));
+            }
+        }
+
+        private void readBlock(BlockRead blockRead) {
+            try {
+                this.channel.read(blockRead.block, blockRead.filePosition + blockRead.block.position(), blockRead, this);
+            } catch (RuntimeException e) {
+                this.failed(e, blockRead);
+            }
+        }
+
+        @Override
+        public void completed(Integer read, BlockRead blockRead) {
+            if (read < 0)
+                this.failed(new EOFException("File is shorter than its metadata"), blockRead);
+            else if (blockRead.block.hasRemaining())
+                this.readBlock(blockRead);
+            else
+                this.blockFinished();
+        }
+
+        @Override
+        public void failed(Throwable failure, BlockRead blockRead) {
+            LOGGER.debug("Can't prefetch the file: " + this.filePath, failure);
+            this.failed = true;
+            this.blockFinished();
+        }
+
+        /**
+         * Blocks are released, when all their reads are finished, so no read writes to the block of another file
+         */
+
+        private void blockFinished() {
+            if (this.pendingBlocks.decrementAndGet() > 0)
+                return;
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                LOGGER.warn("Can't close prefetched file: " + this.filePath, e);
+            }
+            finishLoad(this, !this.failed && fileStorageData.validateContentRead(this.filePath, this.stamp));
+        }
+
+        /**
+         * Block with its position in the file, the read is repeated until the block is full
+         */
+
+        private class BlockRead {
+
+            private final ByteBuffer block;
+            private final long filePosition;
+
+            private BlockRead(ByteBuffer block, long filePosition) {
+                this.block = block;
+                this.filePosition = filePosition;
+            }
+        }
+    }
+
+    /**
+     * Stored content of the file with the metadata, which described it
+     */
+
+    private static class PrefetchedFile {
+
+        private final long version;
+        private final long creationTime;
+        private final long size;
+        private final int checksum;
+        private final ByteBuffer[] blocks;
+        private final long loadingTime;
+
+        private PrefetchedFile(MetadataEntry entry, ByteBuffer[] blocks, long loadingTime) {
+            this.version = entry.getVersion();
+            this.creationTime = entry.getCreationTime();
+            this.size = entry.getSize();
+            this.checksum = entry.getChecksum();
+            this.blocks = blocks;
+            this.loadingTime = loadingTime;
+        }
+
+        private boolean describes(MetadataEntry entry) {
+            return entry.getVersion() == this.version && entry.getCreationTime() == this.creationTime
+                    && entry.getSize() == this.size && entry.getChecksum() == this.checksum;
+        }
+
+        private byte[] copyContent() {
+            final byte[] content = new byte[(int) this.size];
+            int position = 0;
+            for (ByteBuffer block : this.blocks) {
+                final ByteBuffer source = block.duplicate();
+                source.clear();
+                final int length = Math.min(source.capacity(), content.length - position);
+                source.get(content, position, length);
+                position += length;
+            }
+            return content;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * State of the storage root, which is shared by several processes on one host.
+ * <p>
+ * Counters are kept in the memory-mapped file "FileStorage.shared": end of the metadata journal, used disc space and
+ * sequences of the file changes. Each process takes own slot of the used disc space and it's the only writer of the slot,
+ * so the used space is changed without locks and is read as the sum of the slots. Slot of the exited process is taken
+ * by the next process with its value: files, which were saved by the exited process, stay in the storage.
+ * <p>
+ * Exclusive locks of the regions of "FileStorage.lock" serialize appending to the metadata journal and the changes
+ * of the files, and one of them is the lease of the leader, which runs the maintenance of the storage. Locks of the process
+ * are released by the operating system, when the process exits, so the lease is taken over by another process.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class SharedRoot {
+
+    final static int MAX_PROCESSES = 64;
+
+    private final static long JOURNAL_REGION = 0;
+    private final static long LEASE_REGION = 1;
+    private final static long PROCESS_REGIONS = 2;
+    private final static long FILE_REGIONS = PROCESS_REGIONS + MAX_PROCESSES;
+
+    private final static int JOURNAL_END_OFFSET = 0;
+    private final static int BASE_USED_SPACE_OFFSET = 8;
+    private final static int SLOTS_OFFSET = 64;
+    private final static int SLOT_SIZE = 16;
+    private final static int FILES_SPACE_OFFSET = 0;
+    private final static int UPLOADS_SPACE_OFFSET = 8;
+    private final static int CONTENT_SEQUENCES_OFFSET = SLOTS_OFFSET + SLOT_SIZE * MAX_PROCESSES;
+    private final static int STATE_SIZE = CONTENT_SEQUENCES_OFFSET + 8 * FileStorageData.FILE_LOCK_STRIPES;
+
+    private final String rootPath;
+    private final FileRegionLocks regionLocks;
+    private final MappedByteBuffer state;
+    private final AtomicLong filesSpace = new AtomicLong();
+    private final AtomicLong uploadsSpace = new AtomicLong();
+    private FileRegionLocks.Region processRegion;
+    private int processSlot = -1;
+    private volatile FileRegionLocks.Region lease;
+
+    /**
+     * Opens shared state of the storage root
+     *
+     * @param rootPath path of the storage root
+     * @throws ReadWriteFileStorageException if the shared state can't be opened
+     */
+
+    public SharedRoot(String rootPath) {
+        this.rootPath = rootPath;
+        this.regionLocks = FileRegionLocks.of(rootPath + "/FileStorage.lock");
+        final Path statePath = Paths.get(rootPath, "FileStorage.shared");
+        try {
+            Files.createDirectories(statePath.getParent());
+            // Mapping stays valid after the channel is closed
+            try (FileChannel channel = FileChannel.open(statePath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                this.state = channel.map(FileChannel.MapMode.READ_WRITE, 0, STATE_SIZE);
+            }
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't open shared state of the storage root", statePath.toString(), e);
+        }
+    }
+
+    /**
+     * Attaches this process to the storage root: takes the free slot of the used disc space.
+     * It's called under the lock of the journal, see {@link #lockJournal()}
+     *
+     * @return {@code true} if no other process is attached, so the shared state is left by the exited processes
+     * and it should be reset by {@link #reset(long, long)}
+     * @throws ReadWriteFileStorageException if all slots are taken
+     */
+
+    synchronized boolean attach() {
+        for (int slot = 0; slot < MAX_PROCESSES && this.processRegion == null; slot++) {
+            this.processRegion = this.regionLocks.tryLock(PROCESS_REGIONS + slot);
+            if (this.processRegion != null)
+                this.processSlot = slot;
+        }
+        if (this.processRegion == null)
+            throw new ReadWriteFileStorageException("More than " + MAX_PROCESSES + " processes share the storage root", this.rootPath, null);
+        this.filesSpace.set(this.state.getLong(this.slotOffset(this.processSlot) + FILES_SPACE_OFFSET));
+        // Uploads of the exited process are restored and counted again by this process
+        this.publish(this.uploadsSpace, this.slotOffset(this.processSlot) + UPLOADS_SPACE_OFFSET);
+
+        for (int slot = 0; slot < MAX_PROCESSES; slot++) {
+            if (slot == this.processSlot)
+                continue;
+            final FileRegionLocks.Region otherProcess = this.regionLocks.tryLock(PROCESS_REGIONS + slot);
+            if (otherProcess == null)
+                return false;
+            otherProcess.close();
+        }
+        return true;
+    }
+
+    /**
+     * Resets shared state by the state of this process, when no other process is attached
+     *
+     * @param journalEnd end of the metadata journal
+     * @param usedSpace  used disc space
+     */
+
+    synchronized void reset(long journalEnd, long usedSpace) {
+        this.state.putLong(JOURNAL_END_OFFSET, journalEnd);
+        this.state.putLong(BASE_USED_SPACE_OFFSET, usedSpace);
+        for (int slot = 0; slot < MAX_PROCESSES; slot++) {
+            this.state.putLong(this.slotOffset(slot) + FILES_SPACE_OFFSET, 0);
+            this.state.putLong(this.slotOffset(slot) + UPLOADS_SPACE_OFFSET, 0);
+        }
+        this.filesSpace.set(0);
+        this.uploadsSpace.set(0);
+        for (int stripe = 0; stripe < FileStorageData.FILE_LOCK_STRIPES; stripe++)
+            this.repairContentSequence(stripe);
+    }
+
+    public int getProcessSlot() {
+        return this.processSlot;
+    }
+
+    /**
+     * Locks appending to the metadata journal
+     *
+     * @return locked region, which must be closed by the caller
+     */
+
+    FileRegionLocks.Region lockJournal() {
+        return this.regionLocks.lock(JOURNAL_REGION);
+    }
+
+    long getJournalEnd() {
+        return this.state.getLong(JOURNAL_END_OFFSET);
+    }
+
+    /**
+     * Publishes new end of the metadata journal. It's called under the lock of the journal
+     *
+     * @param journalEnd end of the metadata journal
+     */
+
+    void setJournalEnd(long journalEnd) {
+        this.state.putLong(JOURNAL_END_OFFSET, journalEnd);
+    }
+
+    /**
+     * Returns disc space, which is used by all processes
+     *
+     * @return used disc space in bites
+     */
+
+    public long getUsedSpace() {
+        long usedSpace = this.state.getLong(BASE_USED_SPACE_OFFSET);
+        for (int slot = 0; slot < MAX_PROCESSES; slot++) {
+            usedSpace += this.state.getLong(this.slotOffset(slot) + FILES_SPACE_OFFSET);
+            usedSpace += this.state.getLong(this.slotOffset(slot) + UPLOADS_SPACE_OFFSET);
+        }
+        return usedSpace;
+    }
+
+    void addFilesSpace(long delta) {
+        this.filesSpace.addAndGet(delta);
+        this.publish(this.filesSpace, this.slotOffset(this.processSlot) + FILES_SPACE_OFFSET);
+    }
+
+    void addUploadsSpace(long delta) {
+        this.uploadsSpace.addAndGet(delta);
+        this.publish(this.uploadsSpace, this.slotOffset(this.processSlot) + UPLOADS_SPACE_OFFSET);
+    }
+
+    /**
+     * Writes the counter of this process to its slot. Threads may write their values in any order,
+     * but each of them rewrites the slot until it sees the unchanged counter, so the last write is the actual value
+     */
+
+    private void publish(AtomicLong counter, int offset) {
+        long value;
+        do {
+            value = counter.get();
+            this.state.putLong(offset, value);
+        } while (counter.get() != value);
+    }
+
+    private int slotOffset(int slot) {
+        return SLOTS_OFFSET + slot * SLOT_SIZE;
+    }
+
+    long getContentSequence(int stripe) {
+        return this.state.getLong(CONTENT_SEQUENCES_OFFSET + stripe * 8);
+    }
+
+    /**
+     * Increments sequence of the file changes. It's called under the lock of the stripe, see {@link #fileLock(int)}
+     *
+     * @param stripe stripe of the file
+     */
+
+    void advanceContentSequence(int stripe) {
+        this.state.putLong(CONTENT_SEQUENCES_OFFSET + stripe * 8, this.getContentSequence(stripe) + 1);
+    }
+
+    /**
+     * Odd sequence is left by the process, which exited while it was changing the file
+     */
+
+    private void repairContentSequence(int stripe) {
+        if ((this.getContentSequence(stripe) & 1) != 0)
+            this.advanceContentSequence(stripe);
+    }
+
+    /**
+     * Creates lock of the stripe of files, which locks the same stripe in other processes too
+     *
+     * @param stripe stripe of the files
+     * @return new lock of the stripe
+     */
+
+    ReentrantLock fileLock(int stripe) {
+        return new StripeLock(stripe);
+    }
+
+    /**
+     * Takes the lease of the leader, if it isn't taken by another process
+     *
+     * @return {@code true} if this process holds the lease
+     */
+
+    public synchronized boolean acquireLease() {
+        if (this.lease == null)
+            this.lease = this.regionLocks.tryLock(LEASE_REGION);
+        return this.lease != null;
+    }
+
+    public boolean holdsLease() {
+        return this.lease != null;
+    }
+
+    /**
+     * Detaches this process from the storage root: releases the lease and the slot of the used disc space.
+     * Value of the slot stays in the shared state, so it's taken by the next process with the slot
+     */
+
+    synchronized void close() {
+        if (this.lease != null) {
+            this.lease.close();
+            this.lease = null;
+        }
+        if (this.processRegion != null) {
+            this.processRegion.close();
+            this.processRegion = null;
+        }
+        FileRegionLocks.release(this.regionLocks);
+    }
+
+    /**
+     * Lock of the stripe, which takes the region of the lock file, when it's locked by the first time
+     * by the current thread, and releases the region, when it's unlocked by the last time.
+     * Only {@link #lock()} and {@link #unlock()} are used by the storage
+     */
+
+    private final class StripeLock extends ReentrantLock {
+
+        private final int stripe;
+        private FileRegionLocks.Region region;
+
+        private StripeLock(int stripe) {
+            this.stripe = stripe;
+        }
+
+        @Override
+        public void lock() {
+            super.lock();
+            if (this.getHoldCount() > 1)
+                return;
+            try {
+                this.region = regionLocks.lock(FILE_REGIONS + this.stripe);
+            } catch (RuntimeException e) {
+                super.unlock();
+                throw e;
+            }
+            repairContentSequence(this.stripe);
+        }
+
+        @Override
+        public void unlock() {
+            if (this.isHeldByCurrentThread() && this.getHoldCount() == 1 && this.region != null) {
+                this.region.close();
+                this.region = null;
+            }
+            super.unlock();
+        }
+    }
+}
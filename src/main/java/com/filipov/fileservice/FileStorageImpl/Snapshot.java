@@ -0,0 +1,48 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+/**
+ * Point-in-time view of the stored files, see {@link Snapshots}
+ *
+ * @author Yevhen Filipov
+ */
+
+public class Snapshot {
+
+    private final String id;
+    private final long creationTime;
+    private final long numberOfFiles;
+    private final long storedSize;
+
+    public Snapshot(String id, long creationTime, long numberOfFiles, long storedSize) {
+        this.id = id;
+        this.creationTime = creationTime;
+        this.numberOfFiles = numberOfFiles;
+        this.storedSize = storedSize;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public long getNumberOfFiles() {
+        return numberOfFiles;
+    }
+
+    public long getStoredSize() {
+        return storedSize;
+    }
+
+    @Override
+    public String toString() {
+        return "Snapshot{" +
+                "id='" + id + '\'' +
+                ", creationTime=" + creationTime +
+                ", numberOfFiles=" + numberOfFiles +
+                ", storedSize=" + storedSize +
+                '}';
+    }
+}
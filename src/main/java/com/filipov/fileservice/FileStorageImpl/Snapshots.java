@@ -0,0 +1,508 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Snapshots of the stored files. Snapshot is the directory "snapshots/id" with hard links of the stored files
+ * and the manifest: metadata journal with one put record per file. Snapshot is created by the metadata work only,
+ * content of the files isn't copied, and it stays unchanged, because saving and replacing of the files move
+ * new content in place of the links instead of writing through them. Each file is linked under its lock, so the snapshot
+ * has the consistent content and metadata of each file; files, which are saved during the snapshot, may be missed.
+ * Info file is written the last, snapshots without it weren't finished and are deleted on start.
+ * <p>
+ * Content of the deleted files is kept by the snapshots, it isn't counted as used disc space of the storage.
+ * Files with unknown keys (copied to the user data directory directly) aren't included to the snapshots.
+ * <p>
+ * Archive is the stream: magic (4), version (4), incremental flag (1) and entries: type (1), key and type specific
+ * data. File entry contains the metadata and the stored content, so compressed files are exported as they are stored,
+ * expiration entry contains the new expiration time and delete entry contains the key only.
+ * Archive is ended by the end entry.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class Snapshots {
+
+    private final static Logger LOGGER = Logger.getLogger(Snapshots.class);
+    private final static int INFO_MAGIC = 0x46535350;
+    private final static int ARCHIVE_MAGIC = 0x46534152;
+    private final static int ARCHIVE_VERSION = 1;
+    private final static String INFO_FILE = "snapshot.info";
+    private final static String MANIFEST_FILE = "manifest.journal";
+    private final static String USER_DATA_DIRECTORY = "userData";
+    private final static int MAX_PREFETCHED_FILE_SIZE = 1 << 20;
+    private final static int PREFETCHED_FILES_PER_THREAD = 4;
+
+    final static byte END_ENTRY = 0;
+    final static byte FILE_ENTRY = 1;
+    final static byte EXPIRATION_ENTRY = 2;
+    final static byte DELETE_ENTRY = 3;
+
+    private final Path snapshotsPath;
+    private final String userDataPath;
+    private final FileStorageData fileStorageData;
+    private final int parallelism;
+
+    /**
+     * Creates snapshots of the storage and deletes snapshots, which weren't finished before the restart
+     *
+     * @param snapshotsPath   path of the snapshots directory
+     * @param userDataPath    path of the user data directory
+     * @param fileStorageData metadata of the storage
+     * @param parallelism     number of threads, which read the files of the exported snapshot
+     * @throws ReadWriteFileStorageException if snapshots directory inaccessible
+     */
+
+    public Snapshots(String snapshotsPath, String userDataPath, FileStorageData fileStorageData, int parallelism) {
+        this.snapshotsPath = Paths.get(snapshotsPath);
+        this.userDataPath = userDataPath;
+        this.fileStorageData = fileStorageData;
+        this.parallelism = parallelism;
+        try {
+            Files.createDirectories(this.snapshotsPath);
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't create snapshots directory", snapshotsPath, e);
+        }
+        final File[] snapshotDirectories = this.snapshotsPath.toFile().listFiles();
+        if (snapshotDirectories != null) {
+            for (File snapshotDirectory : snapshotDirectories) {
+                if (!new File(snapshotDirectory, INFO_FILE).exists()) {
+                    LOGGER.warn("Snapshot wasn't finished and it's deleted: " + snapshotDirectory);
+                    deleteDirectory(snapshotDirectory.toPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates snapshot of the stored files
+     *
+     * @return created snapshot
+     * @throws ReadWriteFileStorageException if snapshot can't be created
+     */
+
+    public Snapshot create() {
+        final Object event = FlightRecorderEvents.beginBackgroundTask();
+        final long creationTime = new Date().getTime();
+        final Path snapshotPath = this.createSnapshotDirectory(creationTime);
+        final String id = snapshotPath.getFileName().toString();
+        final MetadataJournal manifest = new MetadataJournal(snapshotPath.resolve(MANIFEST_FILE).toString());
+        final long[] totals = new long[2];
+        try {
+            final List<JournalRecord> records = new ArrayList<JournalRecord>();
+            final MetadataEntry entry = new MetadataEntry();
+            for (int shard = 0; shard < this.fileStorageData.getNumberOfShards(); shard++) {
+                final MetadataTable.ShardScanner scanner = this.fileStorageData.scanner(shard);
+                while (this.fileStorageData.readKeys(scanner, null, 0, records)) {
+                    for (JournalRecord record : records) {
+                        if (this.linkFile(snapshotPath, manifest, record, entry)) {
+                            totals[0]++;
+                            totals[1] += entry.size;
+                        }
+                    }
+                }
+            }
+            manifest.close();
+            this.writeInfo(snapshotPath, new Snapshot(id, creationTime, totals[0], totals[1]));
+        } catch (IOException | RuntimeException e) {
+            manifest.close();
+            deleteDirectory(snapshotPath);
+            FlightRecorderEvents.finishBackgroundTask(event, "snapshot", totals[0], totals[1], e);
+            throw new ReadWriteFileStorageException("Can't create snapshot", snapshotPath.toString(), e);
+        }
+        FlightRecorderEvents.finishBackgroundTask(event, "snapshot", totals[0], totals[1], null);
+        LOGGER.info("Snapshot " + id + " of " + totals[0] + " files is created");
+        return new Snapshot(id, creationTime, totals[0], totals[1]);
+    }
+
+    /**
+     * Links the file to the snapshot under its lock, so the content and the metadata of the link are consistent
+     *
+     * @return {@code false} if the file was deleted or replaced by the file with unknown key
+     */
+
+    private boolean linkFile(Path snapshotPath, MetadataJournal manifest, JournalRecord record, MetadataEntry entry) throws IOException {
+        final String filePath = this.userDataPath + record.relativePath;
+        final ReentrantLock fileLock = this.fileStorageData.lockFile(filePath);
+        try {
+            if (!this.fileStorageData.getMetadata(filePath, entry) || entry.hasFlag(MetadataTable.FLAG_UNKNOWN_KEY))
+                return false;
+            final Path link = Paths.get(snapshotPath.toString(), USER_DATA_DIRECTORY, record.relativePath);
+            Files.createDirectories(link.getParent());
+            try {
+                Files.createLink(link, Paths.get(filePath));
+            } catch (NoSuchFileException e) {
+                LOGGER.warn("Registered file doesn't exist and it isn't included to the snapshot: " + filePath);
+                return false;
+            } catch (UnsupportedOperationException e) {
+                Files.copy(Paths.get(filePath), link);
+            }
+            // Content of the link is the file itself, even if it was deduplicated
+            entry.flags &= ~MetadataTable.FLAG_DEDUPLICATED;
+            manifest.appendPut(entry, record.relativePath, record.key);
+            return true;
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    private synchronized Path createSnapshotDirectory(long creationTime) {
+        for (long id = creationTime; ; id++) {
+            final Path snapshotPath = this.snapshotsPath.resolve(Long.toString(id));
+            try {
+                return Files.createDirectory(snapshotPath);
+            } catch (FileAlreadyExistsException e) {
+                // Snapshot with this id exists, the next id is tried
+            } catch (IOException e) {
+                throw new ReadWriteFileStorageException("Can't create snapshot directory", snapshotPath.toString(), e);
+            }
+        }
+    }
+
+    private void writeInfo(Path snapshotPath, Snapshot snapshot) throws IOException {
+        final Path temporaryInfo = snapshotPath.resolve(INFO_FILE + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(temporaryInfo.toFile()))) {
+            output.writeInt(INFO_MAGIC);
+            output.writeLong(snapshot.getCreationTime());
+            output.writeLong(snapshot.getNumberOfFiles());
+            output.writeLong(snapshot.getStoredSize());
+        }
+        Files.move(temporaryInfo, snapshotPath.resolve(INFO_FILE), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns finished snapshots in the order of their creation
+     *
+     * @return list of the snapshots
+     */
+
+    public List<Snapshot> list() {
+        final List<Snapshot> snapshots = new ArrayList<Snapshot>();
+        final File[] snapshotDirectories = this.snapshotsPath.toFile().listFiles();
+        if (snapshotDirectories == null)
+            return snapshots;
+        for (File snapshotDirectory : snapshotDirectories) {
+            final Snapshot snapshot = this.readInfo(snapshotDirectory.toPath());
+            if (snapshot != null)
+                snapshots.add(snapshot);
+        }
+        Collections.sort(snapshots, new Comparator<Snapshot>() {
+            @Override
+            public int compare(Snapshot first, Snapshot second) {
+                return Long.compare(Long.parseLong(first.getId()), Long.parseLong(second.getId()));
+            }
+        });
+        return snapshots;
+    }
+
+    /**
+     * Returns the snapshot
+     *
+     * @param id identifier of the snapshot
+     * @return the snapshot
+     * @throws KeyNotExistFileStorageException if the snapshot doesn't exist
+     */
+
+    public Snapshot get(String id) throws KeyNotExistFileStorageException {
+        final Snapshot snapshot = this.readInfo(this.snapshotPath(id));
+        if (snapshot == null)
+            throw new KeyNotExistFileStorageException("This snapshot doesn't exist: " + id, id);
+        return snapshot;
+    }
+
+    /**
+     * Deletes the snapshot. Content of the files, which are deleted from the storage, is released
+     *
+     * @param id identifier of the snapshot
+     * @throws KeyNotExistFileStorageException if the snapshot doesn't exist
+     */
+
+    public void delete(String id) throws KeyNotExistFileStorageException {
+        final Path snapshotPath = this.snapshotPath(id);
+        try {
+            // Snapshot without info file isn't listed anymore, even if it's deleted partly
+            Files.delete(snapshotPath.resolve(INFO_FILE));
+        } catch (NoSuchFileException e) {
+            throw new KeyNotExistFileStorageException("This snapshot doesn't exist: " + id, id);
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't delete snapshot", snapshotPath.toString(), e);
+        }
+        deleteDirectory(snapshotPath);
+    }
+
+    private Path snapshotPath(String id) throws KeyNotExistFileStorageException {
+        // Identifier is the name of the directory, so other names don't leave the snapshots directory
+        if (id == null || !id.matches("[0-9]+"))
+            throw new KeyNotExistFileStorageException("This snapshot doesn't exist: " + id, id);
+        return this.snapshotsPath.resolve(id);
+    }
+
+    private Snapshot readInfo(Path snapshotPath) {
+        try (DataInputStream input = new DataInputStream(new FileInputStream(snapshotPath.resolve(INFO_FILE).toFile()))) {
+            if (input.readInt() != INFO_MAGIC)
+                return null;
+            return new Snapshot(snapshotPath.getFileName().toString(), input.readLong(), input.readLong(), input.readLong());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the snapshot to the archive. Files are read from the disc in parallel ahead of the writing,
+     * big files are streamed by the writing thread
+     *
+     * @param id           identifier of the snapshot
+     * @param baseId       identifier of the previous snapshot, {@code null} to export all files. Otherwise only files,
+     *                     which are new or changed since the previous snapshot, are exported, with the new expiration times
+     *                     and the deleted keys
+     * @param outputStream stream of the archive, it isn't closed
+     * @return number of the exported entries
+     * @throws KeyNotExistFileStorageException if the snapshot or the previous snapshot doesn't exist
+     * @throws ReadWriteFileStorageException   if the snapshot can't be read or the archive can't be written
+     */
+
+    public long export(String id, String baseId, OutputStream outputStream) throws KeyNotExistFileStorageException {
+        final Path snapshotPath = this.snapshotPath(this.get(id).getId());
+        final Map<String, JournalRecord> baseRecords = new HashMap<String, JournalRecord>();
+        if (baseId != null) {
+            for (JournalRecord record : readManifest(this.snapshotPath(this.get(baseId).getId())))
+                baseRecords.put(record.key, record);
+        }
+
+        final Object event = FlightRecorderEvents.beginBackgroundTask();
+        final ExecutorService readers = Executors.newFixedThreadPool(this.parallelism, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "FileStorage export");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long exportedEntries = 0;
+        try {
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream, 64 * 1024));
+            output.writeInt(ARCHIVE_MAGIC);
+            output.writeInt(ARCHIVE_VERSION);
+            output.writeBoolean(baseId != null);
+
+            final Deque<ExportedEntry> exportedFiles = new ArrayDeque<ExportedEntry>();
+            for (final JournalRecord record : readManifest(snapshotPath)) {
+                final JournalRecord baseRecord = baseRecords.remove(record.key);
+                if (baseRecord != null && baseRecord.version == record.version && baseRecord.creationTime == record.creationTime
+                        && baseRecord.size == record.size && baseRecord.checksum == record.checksum) {
+                    if (baseRecord.expirationTime != record.expirationTime) {
+                        exportedFiles.add(new ExportedEntry(EXPIRATION_ENTRY, record, null));
+                        exportedEntries++;
+                    }
+                    continue;
+                }
+
+                final Path file = Paths.get(snapshotPath.toString(), USER_DATA_DIRECTORY, record.relativePath);
+                final Future<byte[]> content = record.size > MAX_PREFETCHED_FILE_SIZE ? null : readers.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        return Files.readAllBytes(file);
+                    }
+                });
+                exportedFiles.add(new ExportedEntry(FILE_ENTRY, record, content));
+                while (exportedFiles.size() > this.parallelism * PREFETCHED_FILES_PER_THREAD)
+                    this.writeEntry(output, snapshotPath, exportedFiles.poll());
+                exportedEntries++;
+            }
+            while (!exportedFiles.isEmpty())
+                this.writeEntry(output, snapshotPath, exportedFiles.poll());
+            for (String deletedKey : baseRecords.keySet()) {
+                output.writeByte(DELETE_ENTRY);
+                writeString(output, deletedKey);
+                exportedEntries++;
+            }
+            output.writeByte(END_ENTRY);
+            output.flush();
+        } catch (IOException e) {
+            FlightRecorderEvents.finishBackgroundTask(event, baseId == null ? "export" : "incrementalExport", exportedEntries, 0, e);
+            throw new ReadWriteFileStorageException("Can't export snapshot", snapshotPath.toString(), e);
+        } finally {
+            readers.shutdownNow();
+        }
+        FlightRecorderEvents.finishBackgroundTask(event, baseId == null ? "export" : "incrementalExport", exportedEntries, 0, null);
+        return exportedEntries;
+    }
+
+    private void writeEntry(DataOutputStream output, Path snapshotPath, ExportedEntry exportedEntry) throws IOException {
+        final JournalRecord record = exportedEntry.record;
+        output.writeByte(exportedEntry.type);
+        writeString(output, record.key);
+        output.writeLong(record.expirationTime);
+        if (exportedEntry.type != FILE_ENTRY)
+            return;
+        output.writeLong(record.size);
+        output.writeLong(record.originalSize);
+        output.writeLong(record.creationTime);
+        output.writeInt(record.checksum);
+        output.writeInt(record.flags & (MetadataTable.FLAG_CHECKSUM | MetadataTable.FLAG_COMPRESSED));
+
+        if (exportedEntry.content != null) {
+            final byte[] content;
+            try {
+                content = exportedEntry.content.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Export was interrupted");
+            }
+            if (content.length != record.size)
+                throw new IOException("Size of the file doesn't match its metadata: " + record.relativePath);
+            output.write(content);
+            return;
+        }
+        final Path file = Paths.get(snapshotPath.toString(), USER_DATA_DIRECTORY, record.relativePath);
+        if (Files.copy(file, output) != record.size)
+            throw new IOException("Size of the file doesn't match its metadata: " + record.relativePath);
+    }
+
+    private static List<JournalRecord> readManifest(Path snapshotPath) {
+        final List<JournalRecord> records = new ArrayList<JournalRecord>();
+        final MetadataJournal manifest = new MetadataJournal(snapshotPath.resolve(MANIFEST_FILE).toString());
+        try {
+            manifest.replay(new JournalVisitor() {
+                @Override
+                public void visitRecord(JournalRecord record) {
+                    records.add(record);
+                }
+            });
+        } finally {
+            manifest.close();
+        }
+        return records;
+    }
+
+    /**
+     * Reads the header of the archive
+     *
+     * @param input stream of the archive
+     * @return {@code true} if the archive contains only changes since the previous snapshot
+     * @throws IncorrectArgumentFileStorageException if the stream isn't an archive of the storage
+     * @throws IOException                           if the archive can't be read
+     */
+
+    static boolean readArchiveHeader(DataInputStream input) throws IOException {
+        if (input.readInt() != ARCHIVE_MAGIC)
+            throw new IncorrectArgumentFileStorageException("Input stream isn't an archive of the storage");
+        final int version = input.readInt();
+        if (version != ARCHIVE_VERSION)
+            throw new IncorrectArgumentFileStorageException("Version " + version + " of the archive isn't supported");
+        return input.readBoolean();
+    }
+
+    /**
+     * Reads the next entry of the archive. Content of the file entry follows it in the stream
+     *
+     * @param input stream of the archive
+     * @return entry of the archive, {@code null} after the end entry
+     * @throws IOException if the archive can't be read or it's damaged
+     */
+
+    static ArchiveEntry readArchiveEntry(DataInputStream input) throws IOException {
+        final byte type = input.readByte();
+        if (type == END_ENTRY)
+            return null;
+        if (type != FILE_ENTRY && type != EXPIRATION_ENTRY && type != DELETE_ENTRY)
+            throw new IOException("Damaged archive entry of type " + type);
+        final ArchiveEntry entry = new ArchiveEntry();
+        entry.type = type;
+        entry.key = readString(input);
+        if (type == DELETE_ENTRY)
+            return entry;
+        entry.expirationTime = input.readLong();
+        if (type == EXPIRATION_ENTRY)
+            return entry;
+        entry.size = input.readLong();
+        entry.originalSize = input.readLong();
+        entry.creationTime = input.readLong();
+        entry.checksum = input.readInt();
+        entry.flags = input.readInt();
+        if (entry.size < 0 || entry.originalSize < 0)
+            throw new IOException("Damaged archive entry of the file " + entry.key);
+        return entry;
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        final int length = input.readInt();
+        if (length < 0 || length > 1 << 20)
+            throw new IOException("Damaged archive entry");
+        final byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void deleteDirectory(Path directory) {
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.warn("Can't delete snapshot: " + directory, e);
+        }
+    }
+
+    /**
+     * Entry of the archive, which is read by the import
+     */
+
+    final static class ArchiveEntry {
+
+        byte type;
+        String key;
+        long size;
+        long originalSize;
+        long creationTime;
+        long expirationTime;
+        int checksum;
+        int flags;
+    }
+
+    private final static class ExportedEntry {
+
+        private final byte type;
+        private final JournalRecord record;
+        private final Future<byte[]> content;
+
+        private ExportedEntry(byte type, JournalRecord record, Future<byte[]> content) {
+            this.type = type;
+            this.record = record;
+            this.content = content;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+/**
+ * Report about the disc space, which is used by the storage. Logical size is the size of the files content,
+ * stored size is the sum of the stored files sizes (after compression) and physical size is the really used disc space,
+ * where the content of the deduplicated files is counted once
+ *
+ * @author Yevhen Filipov
+ */
+
+public class SpaceReport {
+
+    private final long numberOfFiles;
+    private final long numberOfBlobs;
+    private final long logicalSize;
+    private final long storedSize;
+    private final long physicalSize;
+
+    public SpaceReport(long numberOfFiles, long numberOfBlobs, long logicalSize, long storedSize, long physicalSize) {
+        this.numberOfFiles = numberOfFiles;
+        this.numberOfBlobs = numberOfBlobs;
+        this.logicalSize = logicalSize;
+        this.storedSize = storedSize;
+        this.physicalSize = physicalSize;
+    }
+
+    public long getNumberOfFiles() {
+        return numberOfFiles;
+    }
+
+    public long getNumberOfBlobs() {
+        return numberOfBlobs;
+    }
+
+    public long getLogicalSize() {
+        return logicalSize;
+    }
+
+    public long getStoredSize() {
+        return storedSize;
+    }
+
+    public long getPhysicalSize() {
+        return physicalSize;
+    }
+
+    /**
+     * Returns ratio of the logical size to the physical size
+     *
+     * @return logical-to-physical ratio, 1 if the storage is empty
+     */
+
+    public double getRatio() {
+        return this.physicalSize > 0 ? (double) this.logicalSize / this.physicalSize : 1;
+    }
+
+    @Override
+    public String toString() {
+        return "SpaceReport{" +
+                "numberOfFiles=" + numberOfFiles +
+                ", numberOfBlobs=" + numberOfBlobs +
+                ", logicalSize=" + logicalSize +
+                ", storedSize=" + storedSize +
+                ", physicalSize=" + physicalSize +
+                ", ratio=" + getRatio() +
+                '}';
+    }
+}
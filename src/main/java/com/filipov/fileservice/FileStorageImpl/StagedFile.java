@@ -0,0 +1,41 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+/**
+ * Small file, which is kept in the write-behind buffer until it is written to the disc
+ *
+ * @author Yevhen Filipov
+ */
+
+class StagedFile {
+
+    final String filePath;
+    final String key;
+    final int size;
+    final long originalSize;
+    final long creationTime;
+    final long expirationTime;
+    final int checksum;
+    final int flags;
+
+    // Place of the content in the write-behind buffer, reserved space includes unused end of the buffer before wrapping
+    int bufferPosition;
+    int reservedSpace;
+    // Content of the file, which was read from the staging journal while recovering
+    byte[] content;
+    // File is registered in the metadata and can be written to the disc
+    boolean ready;
+    volatile boolean deleted;
+    // Content was written to the disc by the background writer
+    volatile boolean written;
+
+    StagedFile(String filePath, String key, int size, long originalSize, long creationTime, long expirationTime, int checksum, int flags) {
+        this.filePath = filePath;
+        this.key = key;
+        this.size = size;
+        this.originalSize = originalSize;
+        this.creationTime = creationTime;
+        this.expirationTime = expirationTime;
+        this.checksum = checksum;
+        this.flags = flags;
+    }
+}
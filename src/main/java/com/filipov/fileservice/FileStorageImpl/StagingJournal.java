@@ -0,0 +1,233 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the files, which are kept in the write-behind buffer.
+ * Content of the staged file is durable when {@link #sync(long)} returns, so the file survives the crash
+ * before it is written to the disc. Concurrent writers share one {@code force} of the channel (group commit).
+ * Journal is truncated when all staged files are written to the disc.
+ * <p>
+ * Record layout: length of the body (4), CRC32 of the body (4), body: type (1), path, and for staged files
+ * size before compression (8), creation time (8), expiration time (8), checksum (4), flags (4), key and stored content. Strings and content are prefixed by length (4).
+ *
+ * @author Yevhen Filipov
+ */
+
+public class StagingJournal implements Closeable {
+
+    private final static Logger LOGGER = Logger.getLogger(StagingJournal.class);
+    private final static byte STAGE = 1;
+    private final static byte CANCEL = 2;
+    private final static int HEADER_SIZE = 8;
+
+    private final String journalPath;
+    private final Object syncLock = new Object();
+    private final FileChannel channel;
+    private long position;
+    private volatile long syncedPosition;
+
+    public StagingJournal(String journalPath) {
+        this.journalPath = journalPath;
+        try {
+            final Path path = Paths.get(journalPath);
+            if (path.getParent() != null)
+                Files.createDirectories(path.getParent());
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.position = this.channel.size();
+            this.syncedPosition = this.position;
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't open staging journal", journalPath, e);
+        }
+    }
+
+    public String getJournalPath() {
+        return journalPath;
+    }
+
+    public synchronized long size() {
+        return this.position;
+    }
+
+    /**
+     * Appends staged file
+     *
+     * @param stagedFile metadata of the staged file
+     * @param content    array with the content of the file
+     * @return position after the new record
+     */
+
+    long appendStage(StagedFile stagedFile, byte[] content) {
+        final byte[] pathBytes = stagedFile.filePath.getBytes(StandardCharsets.UTF_8);
+        final byte[] keyBytes = stagedFile.key.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + 45 + pathBytes.length + keyBytes.length + stagedFile.size);
+        record.position(HEADER_SIZE);
+        record.put(STAGE);
+        record.putInt(pathBytes.length);
+        record.put(pathBytes);
+        record.putLong(stagedFile.originalSize);
+        record.putLong(stagedFile.creationTime);
+        record.putLong(stagedFile.expirationTime);
+        record.putInt(stagedFile.checksum);
+        record.putInt(stagedFile.flags);
+        record.putInt(keyBytes.length);
+        record.put(keyBytes);
+        record.putInt(stagedFile.size);
+        record.put(content, 0, stagedFile.size);
+        return this.append(record);
+    }
+
+    /**
+     * Appends deleting of the staged file
+     *
+     * @param filePath path of the file
+     * @return position after the new record
+     */
+
+    long appendCancel(String filePath) {
+        final byte[] pathBytes = filePath.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + 5 + pathBytes.length);
+        record.position(HEADER_SIZE);
+        record.put(CANCEL);
+        record.putInt(pathBytes.length);
+        record.put(pathBytes);
+        return this.append(record);
+    }
+
+    /**
+     * Makes the journal durable up to the position. Does nothing if it's already durable
+     *
+     * @param position position after the record
+     * @throws ReadWriteFileStorageException if journal can't be forced to the disc
+     */
+
+    void sync(long position) {
+        if (position <= this.syncedPosition)
+            return;
+        synchronized (this.syncLock) {
+            if (position <= this.syncedPosition)
+                return;
+            final long appendedPosition = this.size();
+            try {
+                this.channel.force(false);
+            } catch (IOException e) {
+                throw new ReadWriteFileStorageException("Can't write staging journal", this.journalPath, e);
+            }
+            this.syncedPosition = appendedPosition;
+        }
+    }
+
+    /**
+     * Reads staged files, which weren't deleted. Damaged tail of the journal is ignored
+     *
+     * @return staged files with their content, in the order of staging
+     */
+
+    synchronized List<StagedFile> replay() {
+        final Map<String, StagedFile> stagedFiles = new LinkedHashMap<String, StagedFile>();
+        long offset = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(this.journalPath), 64 * 1024))) {
+            while (offset + HEADER_SIZE <= this.position) {
+                final int length = input.readInt();
+                final int checksum = input.readInt();
+                if (length <= 0 || offset + HEADER_SIZE + length > this.position)
+                    break;
+                final byte[] body = new byte[length];
+                input.readFully(body);
+                final CRC32 crc = new CRC32();
+                crc.update(body, 0, length);
+                if (checksum != (int) crc.getValue())
+                    break;
+
+                final ByteBuffer buffer = ByteBuffer.wrap(body);
+                final byte type = buffer.get();
+                final String filePath = readString(buffer);
+                if (type == STAGE) {
+                    final long originalSize = buffer.getLong();
+                    final long creationTime = buffer.getLong();
+                    final long expirationTime = buffer.getLong();
+                    final int fileChecksum = buffer.getInt();
+                    final int flags = buffer.getInt();
+                    final String key = readString(buffer);
+                    final StagedFile stagedFile = new StagedFile(filePath, key, buffer.getInt(), originalSize,
+                            creationTime, expirationTime, fileChecksum, flags);
+                    stagedFile.content = new byte[stagedFile.size];
+                    buffer.get(stagedFile.content);
+                    stagedFiles.put(filePath, stagedFile);
+                } else if (type == CANCEL) {
+                    stagedFiles.remove(filePath);
+                }
+                offset += HEADER_SIZE + length;
+            }
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't read staging journal", this.journalPath, e);
+        }
+        if (offset < this.position)
+            LOGGER.warn("Staging journal is damaged after " + offset + " bytes, damaged tail is ignored: " + this.journalPath);
+        return new ArrayList<StagedFile>(stagedFiles.values());
+    }
+
+    /**
+     * Removes all records
+     */
+
+    void truncate() {
+        // Running sync mustn't mark the new records as durable by the position of the removed ones
+        synchronized (this.syncLock) {
+            synchronized (this) {
+                try {
+                    this.channel.truncate(0);
+                    this.position = 0;
+                } catch (IOException e) {
+                    throw new ReadWriteFileStorageException("Can't truncate staging journal", this.journalPath, e);
+                }
+                this.syncedPosition = 0;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            LOGGER.warn("Can't close staging journal: " + this.journalPath, e);
+        }
+    }
+
+    private synchronized long append(ByteBuffer record) {
+        final int length = record.position() - HEADER_SIZE;
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, length);
+        record.putInt(0, length);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        try {
+            while (record.hasRemaining())
+                this.position += this.channel.write(record, this.position);
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't write staging journal", this.journalPath, e);
+        }
+        return this.position;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
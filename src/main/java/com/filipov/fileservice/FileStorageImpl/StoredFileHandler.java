@@ -0,0 +1,21 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Receives each stored file, found while scanning of the storage directory
+ *
+ * @author Yevhen Filipov
+ */
+
+public interface StoredFileHandler {
+
+    /**
+     * Handles stored file
+     *
+     * @param filePath   path of the file
+     * @param attributes attributes of the file
+     */
+
+    void handleFile(String filePath, BasicFileAttributes attributes);
+}
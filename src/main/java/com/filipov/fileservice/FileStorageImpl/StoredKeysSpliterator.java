@@ -0,0 +1,158 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+import com.filipov.fileservice.KeyIterator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Reads stored keys from the metadata table in the order of hashes of the file paths.
+ * Keys are read by chunks of one shard, so memory usage doesn't depend on the number of stored files.
+ * Expired files, which aren't deleted yet, are skipped like by the reading of the files.
+ * Splitting gives the not started shards to the new spliterator, so parallel stream scans different shards in parallel.
+ * <p>
+ * Cursor consists of the hash and the tag of the last returned entry: it stays valid when files are saved or deleted
+ * and when the table grows.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class StoredKeysSpliterator implements Spliterator<String>, KeyIterator {
+
+    final static char CURSOR_TYPE = 'h';
+
+    private final FileStorageData fileStorageData;
+    private final String prefix;
+    private int lastShard;
+    private final List<JournalRecord> chunk = new ArrayList<JournalRecord>();
+    private int shard;
+    private MetadataTable.ShardScanner scanner;
+    private int position;
+    private boolean hasCursor;
+    private long cursorHash;
+    private int cursorTag;
+
+    /**
+     * Creates spliterator of all keys of the storage
+     *
+     * @param fileStorageData metadata of the storage
+     * @param prefix          prefix of the keys, {@code null} for all keys
+     * @param cursor          cursor of the previous iteration, {@code null} to start from the beginning
+     * @throws IncorrectArgumentFileStorageException if the cursor is incorrect
+     */
+
+    public StoredKeysSpliterator(FileStorageData fileStorageData, String prefix, String cursor) {
+        this(fileStorageData, prefix, 0, fileStorageData.getNumberOfShards());
+        if (cursor == null)
+            return;
+        if (cursor.length() != 25 || cursor.charAt(0) != CURSOR_TYPE)
+            throw new IncorrectArgumentFileStorageException("Incorrect cursor: " + cursor);
+        try {
+            this.cursorHash = Long.parseUnsignedLong(cursor.substring(1, 17), 16);
+            this.cursorTag = Integer.parseUnsignedInt(cursor.substring(17), 16);
+        } catch (NumberFormatException e) {
+            throw new IncorrectArgumentFileStorageException("Incorrect cursor: " + cursor);
+        }
+        this.hasCursor = true;
+        this.shard = fileStorageData.shardOf(this.cursorHash);
+        this.scanner = fileStorageData.scanner(this.shard);
+        this.scanner.seek(this.cursorHash, this.cursorTag);
+    }
+
+    private StoredKeysSpliterator(FileStorageData fileStorageData, String prefix, int firstShard, int lastShard) {
+        this.fileStorageData = fileStorageData;
+        this.prefix = prefix;
+        this.shard = firstShard;
+        this.lastShard = lastShard;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (this.position == this.chunk.size()) {
+            this.position = 0;
+            if (this.shard >= this.lastShard) {
+                this.chunk.clear();
+                return false;
+            }
+            if (this.scanner == null)
+                this.scanner = this.fileStorageData.scanner(this.shard);
+            if (!this.fileStorageData.readKeys(this.scanner, this.prefix, System.currentTimeMillis(), this.chunk)) {
+                this.scanner = null;
+                this.shard++;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String next() {
+        if (!this.hasNext())
+            throw new NoSuchElementException();
+        final JournalRecord record = this.chunk.get(this.position++);
+        this.hasCursor = true;
+        this.cursorHash = record.hash;
+        this.cursorTag = record.tag;
+        return record.key;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Use FileStorage.deleteFile to delete the files");
+    }
+
+    @Override
+    public String getCursor() {
+        if (!this.hasCursor)
+            return null;
+        final String hash = Long.toHexString(this.cursorHash);
+        final String tag = Integer.toHexString(this.cursorTag);
+        final StringBuilder cursor = new StringBuilder(25).append(CURSOR_TYPE);
+        for (int i = hash.length(); i < 16; i++)
+            cursor.append('0');
+        cursor.append(hash);
+        for (int i = tag.length(); i < 8; i++)
+            cursor.append('0');
+        return cursor.append(tag).toString();
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super String> action) {
+        if (!this.hasNext())
+            return false;
+        action.accept(this.next());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super String> action) {
+        while (this.hasNext())
+            action.accept(this.next());
+    }
+
+    @Override
+    public Spliterator<String> trySplit() {
+        final boolean started = this.scanner != null || this.position < this.chunk.size();
+        final int firstNotStartedShard = started ? this.shard + 1 : this.shard;
+        final int middleShard = firstNotStartedShard + (this.lastShard - firstNotStartedShard) / 2;
+        if (middleShard <= this.shard || middleShard >= this.lastShard)
+            return null;
+        final StoredKeysSpliterator split = new StoredKeysSpliterator(this.fileStorageData, this.prefix, middleShard, this.lastShard);
+        this.lastShard = middleShard;
+        return split;
+    }
+
+    @Override
+    public long estimateSize() {
+        final long numberOfShards = this.fileStorageData.getNumberOfShards();
+        return this.fileStorageData.getNumberOfFiles() * (this.lastShard - this.shard) / numberOfShards;
+    }
+
+    @Override
+    public int characteristics() {
+        return DISTINCT | NONNULL | CONCURRENT;
+    }
+}
@@ -0,0 +1,38 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+/**
+ * Part of the multipart upload, which is durably written to the disc
+ *
+ * @author Yevhen Filipov
+ */
+
+public class UploadPart {
+
+    private final long offset;
+    private final long size;
+
+    public UploadPart(long offset, long size) {
+        this.offset = offset;
+        this.size = size;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getEnd() {
+        return offset + size;
+    }
+
+    @Override
+    public String toString() {
+        return "UploadPart{" +
+                "offset=" + offset +
+                ", size=" + size +
+                '}';
+    }
+}
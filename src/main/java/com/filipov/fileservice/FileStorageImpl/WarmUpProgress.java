@@ -0,0 +1,73 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+/**
+ * Progress of the warm-up of the storage, which was opened without waiting for the scanning of the user data directory
+ *
+ * @author Yevhen Filipov
+ */
+
+public class WarmUpProgress {
+
+    public enum Phase {
+        /**
+         * Files of the user data directory are verified with the metadata
+         */
+        SCANNING,
+        /**
+         * Lost files are removed, reference counts of the blobs and the key index are restored
+         */
+        RECONCILING,
+        /**
+         * Used disc space is exact, all files are registered
+         */
+        READY
+    }
+
+    private final Phase phase;
+    private final long scannedFiles;
+    private final long expectedFiles;
+
+    public WarmUpProgress(Phase phase, long scannedFiles, long expectedFiles) {
+        this.phase = phase;
+        this.scannedFiles = scannedFiles;
+        this.expectedFiles = expectedFiles;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public long getScannedFiles() {
+        return scannedFiles;
+    }
+
+    /**
+     * Returns number of the files, which were registered in the metadata journal at the start.
+     * It's an estimation of the number of the files to scan
+     *
+     * @return number of the registered files
+     */
+
+    public long getExpectedFiles() {
+        return expectedFiles;
+    }
+
+    /**
+     * Returns estimated part of the done work
+     *
+     * @return part of the done work (0..1)
+     */
+
+    public double getRatio() {
+        if (this.phase == Phase.READY)
+            return 1;
+        if (this.expectedFiles == 0)
+            return 0;
+        return Math.min(0.99, (double) this.scannedFiles / this.expectedFiles);
+    }
+
+    @Override
+    public String toString() {
+        return "WarmUpProgress{" + phase + ", " + scannedFiles + " of " + expectedFiles + " files}";
+    }
+}
@@ -0,0 +1,459 @@
+package com.filipov.fileservice.FileStorageImpl;
+
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyAlreadyExistFileStorageException;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps small files in the bounded out of heap ring buffer and writes them to the disc in batches by the background thread.
+ * Saving of the small file is finished, when it is copied to the buffer and appended to {@link StagingJournal},
+ * so the file can be read at once and survives the crash. Saving waits for the free space, when the buffer is full.
+ * <p>
+ * Files are written to the disc in the order of staging, so the space of the buffer is released in the same order.
+ * File, which can't be written, stays staged and readable, its writing is retried after a delay.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class WriteBehindBuffer {
+
+    private final static Logger LOGGER = Logger.getLogger(WriteBehindBuffer.class);
+    private final static int MAX_FILES_PER_BATCH = 256;
+    private final static long RETRY_DELAY = 1000l;
+
+    private final FileStorageData fileStorageData;
+    private final StagingJournal stagingJournal;
+    private final ByteBuffer buffer;
+    private final int maxFileSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition spaceReleased = this.lock.newCondition();
+    private final Condition filesStaged = this.lock.newCondition();
+    private final Map<String, StagedFile> stagedFiles = new HashMap<String, StagedFile>();
+    private final ArrayDeque<StagedFile> flushQueue = new ArrayDeque<StagedFile>();
+    private final Thread flusher;
+    // Positions of the ring buffer grow monotonically, place in the buffer is position % capacity
+    private long head;
+    private long tail;
+    private volatile boolean closed;
+
+    /**
+     * Creates write-behind buffer and starts the background writer
+     *
+     * @param fileStorageData metadata of the storage
+     * @param stagingJournal  journal of the staged files
+     * @param bufferSize      size of the buffer in bites
+     * @param maxFileSize     max size of the file in bites, which can be staged. Bigger files are written directly
+     */
+
+    public WriteBehindBuffer(FileStorageData fileStorageData, StagingJournal stagingJournal, int bufferSize, int maxFileSize) {
+        if (bufferSize <= 0 || maxFileSize <= 0 || maxFileSize > bufferSize)
+            throw new IncorrectArgumentFileStorageException("Value of bufferSize or maxFileSize <= 0 or maxFileSize > bufferSize");
+
+        this.fileStorageData = fileStorageData;
+        this.stagingJournal = stagingJournal;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.maxFileSize = maxFileSize;
+        this.flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushInBackground();
+            }
+        }, "FileStorage write-behind");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public int getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    /**
+     * Writes to the disc files, which were staged, but weren't written before the crash, and registers them if they aren't registered.
+     * Truncates the journal after that
+     *
+     * @param fileStorageData metadata of the storage
+     * @param stagingJournal  journal of the staged files
+     * @return number of the recovered files
+     */
+
+    public static int recover(FileStorageData fileStorageData, StagingJournal stagingJournal) {
+        if (stagingJournal.size() == 0)
+            return 0;
+
+        int recoveredFiles = 0;
+        final MetadataEntry entry = new MetadataEntry();
+        for (StagedFile stagedFile : stagingJournal.replay()) {
+            final boolean registered = fileStorageData.getMetadata(stagedFile.filePath, entry);
+            // Registered file is either the newer file with the same path or the staged file, which was written
+            if (registered && (!isSameFile(entry, stagedFile) || Files.exists(Paths.get(stagedFile.filePath))))
+                continue;
+            try {
+                writeFile(stagedFile.filePath, ByteBuffer.wrap(stagedFile.content));
+            } catch (IOException e) {
+                throw new ReadWriteFileStorageException("Can't write staged file", stagedFile.filePath, e);
+            }
+            if (!registered)
+                fileStorageData.addFile(stagedFile.filePath, stagedFile.key, stagedFile.size, stagedFile.originalSize,
+                        stagedFile.creationTime, stagedFile.expirationTime, stagedFile.checksum, stagedFile.flags);
+            recoveredFiles++;
+        }
+        stagingJournal.truncate();
+        if (recoveredFiles > 0)
+            LOGGER.info(recoveredFiles + " staged files were recovered from the staging journal");
+        return recoveredFiles;
+    }
+
+    /**
+     * Stages the file. File is registered in the metadata, but it is written to the disc later
+     *
+     * @param filePath       path of the file
+     * @param key            the key of the file
+     * @param content        array with the stored content of the file
+     * @param size           stored size of the file (not more than max file size)
+     * @param originalSize   size of the file content before compression
+     * @param creationTime   creation time of the file
+     * @param expirationTime expiration time of the file, 0 if file doesn't expire
+     * @param checksum       CRC32 of the file content before compression
+     * @param flags          additional flags of the file
+     * @return {@code false} if the file wasn't staged because the buffer is closed or the thread was interrupted
+     * while waiting for the free space. Such file should be written directly
+     * @throws KeyAlreadyExistFileStorageException if file with this path is already staged
+     */
+
+    public boolean stage(String filePath, String key, byte[] content, int size, long originalSize, long creationTime,
+                         long expirationTime, int checksum, int flags) throws KeyAlreadyExistFileStorageException {
+        final StagedFile stagedFile = new StagedFile(filePath, key, size, originalSize, creationTime, expirationTime, checksum, flags);
+        final long journalPosition;
+
+        this.lock.lock();
+        try {
+            if (this.stagedFiles.containsKey(filePath))
+                throw new KeyAlreadyExistFileStorageException("This key already exist", filePath);
+            if (!this.reserve(stagedFile))
+                return false;
+            final ByteBuffer target = this.buffer.duplicate();
+            target.position(stagedFile.bufferPosition);
+            target.put(content, 0, size);
+            journalPosition = this.stagingJournal.appendStage(stagedFile, content);
+            this.stagedFiles.put(filePath, stagedFile);
+            // Space of the buffer is released in the order of the queue, so the file is queued at once
+            this.flushQueue.add(stagedFile);
+        } finally {
+            this.lock.unlock();
+        }
+
+        boolean registered = false;
+        try {
+            this.stagingJournal.sync(journalPosition);
+            this.fileStorageData.addFile(filePath, key, size, originalSize, creationTime, expirationTime, checksum, flags);
+            registered = true;
+        } finally {
+            this.lock.lock();
+            try {
+                if (!registered && this.stagedFiles.get(filePath) == stagedFile) {
+                    this.stagedFiles.remove(filePath);
+                    stagedFile.deleted = true;
+                }
+                stagedFile.ready = true;
+                this.filesStaged.signal();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads stored content of the staged file
+     *
+     * @param filePath path of the file
+     * @return input stream of the stored content, {@code null} if this file isn't staged (it's written to the disc or doesn't exist)
+     */
+
+    public InputStream read(String filePath) {
+        final byte[] content;
+        this.lock.lock();
+        try {
+            final StagedFile stagedFile = this.stagedFiles.get(filePath);
+            if (stagedFile == null)
+                return null;
+            content = new byte[stagedFile.size];
+            final ByteBuffer source = this.buffer.duplicate();
+            source.position(stagedFile.bufferPosition);
+            source.get(content);
+        } finally {
+            this.lock.unlock();
+        }
+        return new ByteArrayInputStream(content);
+    }
+
+    /**
+     * Checks, if the file isn't written to the disc yet
+     *
+     * @param filePath path of the file
+     * @return {@code true} if this file is staged
+     */
+
+    public boolean isStaged(String filePath) {
+        this.lock.lock();
+        try {
+            return this.stagedFiles.containsKey(filePath);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the staged file. Doesn't change the metadata
+     *
+     * @param filePath path of the file
+     * @return {@code false} if this file isn't staged
+     */
+
+    public boolean delete(String filePath) {
+        final long journalPosition;
+        this.lock.lock();
+        try {
+            final StagedFile stagedFile = this.stagedFiles.remove(filePath);
+            if (stagedFile == null)
+                return false;
+            stagedFile.deleted = true;
+            journalPosition = this.stagingJournal.appendCancel(filePath);
+        } finally {
+            this.lock.unlock();
+        }
+        this.stagingJournal.sync(journalPosition);
+        return true;
+    }
+
+    /**
+     * Waits until all staged files are written to the disc
+     *
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+
+    public void flush() throws InterruptedException {
+        this.lock.lock();
+        try {
+            while (!this.stagedFiles.isEmpty() && this.flusher.isAlive())
+                this.spaceReleased.await(100, TimeUnit.MILLISECONDS);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the staged file to the disc at once, if it isn't written yet, so the file can be replaced on the disc.
+     * Doesn't wait for the other staged files
+     *
+     * @param filePath path of the file
+     * @throws ReadWriteFileStorageException if the file can't be written. File stays staged
+     */
+
+    public void flush(String filePath) {
+        final StagedFile stagedFile;
+        this.lock.lock();
+        try {
+            stagedFile = this.stagedFiles.get(filePath);
+        } finally {
+            this.lock.unlock();
+        }
+        if (stagedFile == null)
+            return;
+        try {
+            this.flushFile(stagedFile);
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't write staged file", filePath, e);
+        }
+    }
+
+    /**
+     * Writes all staged files to the disc and stops the background writer
+     *
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+
+    public void close() throws InterruptedException {
+        this.closed = true;
+        this.lock.lock();
+        try {
+            this.filesStaged.signalAll();
+            this.spaceReleased.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+        this.flusher.join();
+        this.stagingJournal.close();
+    }
+
+    private boolean reserve(StagedFile stagedFile) {
+        final int capacity = this.buffer.capacity();
+        while (!this.closed) {
+            final int tailPosition = (int) (this.tail % capacity);
+            // File is placed continuously, so the end of the buffer is skipped, if the file doesn't fit in it
+            final int skippedSpace = tailPosition + stagedFile.size > capacity ? capacity - tailPosition : 0;
+            if (capacity - (this.tail - this.head) >= skippedSpace + stagedFile.size) {
+                stagedFile.bufferPosition = skippedSpace > 0 ? 0 : tailPosition;
+                stagedFile.reservedSpace = skippedSpace + stagedFile.size;
+                this.tail += stagedFile.reservedSpace;
+                return true;
+            }
+            try {
+                this.spaceReleased.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private void flushInBackground() {
+        final List<StagedFile> batch = new ArrayList<StagedFile>();
+        boolean writeFailed = false;
+        while (true) {
+            this.lock.lock();
+            try {
+                if (writeFailed && this.closed) {
+                    LOGGER.error(this.stagedFiles.size() + " staged files weren't written, they'll be recovered from the staging journal at the next start");
+                    return;
+                }
+                if (writeFailed)
+                    this.awaitRetry();
+                while (this.flushQueue.isEmpty() ? !this.closed : !this.flushQueue.peek().ready)
+                    this.filesStaged.awaitUninterruptibly();
+                if (this.flushQueue.isEmpty())
+                    return;
+                while (!this.flushQueue.isEmpty() && this.flushQueue.peek().ready && batch.size() < MAX_FILES_PER_BATCH)
+                    batch.add(this.flushQueue.poll());
+            } finally {
+                this.lock.unlock();
+            }
+
+            final Object event = FlightRecorderEvents.beginBackgroundTask();
+            long flushedBytes = 0;
+            IOException failure = null;
+            int flushedFiles = 0;
+            for (; flushedFiles < batch.size(); flushedFiles++) {
+                final StagedFile stagedFile = batch.get(flushedFiles);
+                try {
+                    this.flushFile(stagedFile);
+                } catch (IOException e) {
+                    LOGGER.error("Can't write staged file, writing will be retried: " + stagedFile.filePath, e);
+                    failure = e;
+                    break;
+                }
+                flushedBytes += stagedFile.size;
+            }
+            FlightRecorderEvents.finishBackgroundTask(event, "flushWriteBehindBuffer", flushedFiles, flushedBytes, failure);
+            writeFailed = failure != null;
+
+            this.lock.lock();
+            try {
+                for (int i = 0; i < flushedFiles; i++) {
+                    final StagedFile stagedFile = batch.get(i);
+                    if (this.stagedFiles.get(stagedFile.filePath) == stagedFile)
+                        this.stagedFiles.remove(stagedFile.filePath);
+                    if (stagedFile.deleted && stagedFile.written && this.isLatestVersion(stagedFile))
+                        this.deleteFlushedFile(stagedFile);
+                    this.head += stagedFile.reservedSpace;
+                }
+                // Space of the buffer is released in the order of the queue, so the files after the failed one wait for it
+                for (int i = batch.size() - 1; i >= flushedFiles; i--)
+                    this.flushQueue.addFirst(batch.get(i));
+                // Staging journal keeps the files until they are written
+                if (this.stagedFiles.isEmpty())
+                    this.stagingJournal.truncate();
+                this.spaceReleased.signalAll();
+            } catch (RuntimeException e) {
+                LOGGER.error("Can't truncate staging journal", e);
+            } finally {
+                this.lock.unlock();
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Waits for the delay before the retry of the failed writing. Must be called under the lock
+     */
+
+    private void awaitRetry() {
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(RETRY_DELAY);
+        try {
+            while (!this.closed && remainingNanos > 0)
+                remainingNanos = this.filesStaged.awaitNanos(remainingNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushFile(StagedFile stagedFile) throws IOException {
+        // File may be flushed by the background writer and by the replacing of the same file concurrently
+        synchronized (stagedFile) {
+            if (stagedFile.deleted || stagedFile.written)
+                return;
+            final ByteBuffer content = this.buffer.duplicate();
+            content.limit(stagedFile.bufferPosition + stagedFile.size);
+            content.position(stagedFile.bufferPosition);
+            // File, which isn't written, stays staged and registered
+            writeFile(stagedFile.filePath, content);
+            stagedFile.written = true;
+            // File can be deleted by the purge or as expired, while it is staged
+            if (!this.fileStorageData.mightBeStored(stagedFile.filePath))
+                stagedFile.deleted = true;
+        }
+    }
+
+    /**
+     * Checks, that the file on the disc wasn't replaced by the newer file with the same path, which was saved after the deleting.
+     * Must be called under the lock, before the newer staged files of the batch are removed from the staged files
+     */
+
+    private boolean isLatestVersion(StagedFile stagedFile) {
+        if (this.stagedFiles.containsKey(stagedFile.filePath))
+            return false;
+        final MetadataEntry entry = new MetadataEntry();
+        // Deleted file may be still registered, until its deleting is finished
+        return !this.fileStorageData.getMetadata(stagedFile.filePath, entry) || isSameFile(entry, stagedFile);
+    }
+
+    private static boolean isSameFile(MetadataEntry entry, StagedFile stagedFile) {
+        return entry.getCreationTime() == stagedFile.creationTime && entry.getSize() == stagedFile.size
+                && entry.getChecksum() == stagedFile.checksum;
+    }
+
+    private void deleteFlushedFile(StagedFile stagedFile) {
+        try {
+            Files.deleteIfExists(Paths.get(stagedFile.filePath));
+        } catch (IOException e) {
+            LOGGER.warn("Can't delete staged file: " + stagedFile.filePath, e);
+        }
+    }
+
+    private static void writeFile(String filePath, ByteBuffer content) throws IOException {
+        final Path path = Paths.get(filePath);
+        Files.createDirectories(path.getParent());
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (content.hasRemaining())
+                channel.write(content);
+            // File must be durable before the staging journal is truncated
+            channel.force(false);
+        }
+    }
+}
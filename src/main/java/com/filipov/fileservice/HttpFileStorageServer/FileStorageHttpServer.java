@@ -0,0 +1,349 @@
+package com.filipov.fileservice.HttpFileStorageServer;
+
+import com.filipov.fileservice.FileStat;
+import com.filipov.fileservice.FileStorage;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyAlreadyExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.NoFreeSpaceFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.RejectedOperationFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * HTTP front end of the {@link FileStorage}, which uses the HTTP server of the JDK:
+ * <ul>
+ * <li>GET /files/{key} reads the file, "Range: bytes=first-last" header reads the part of the file</li>
+ * <li>HEAD /files/{key} returns metadata of the file without opening it</li>
+ * <li>PUT /files/{key} saves the file, "X-File-Lifetime" header sets life time of the file in milliseconds</li>
+ * <li>DELETE /files/{key} deletes the file</li>
+ * <li>POST /admin/purge?bytes=N or ?percent=N liberates free space of the storage</li>
+ * </ul>
+ * Each request runs on the virtual thread, if the JVM supports them, otherwise on the pooled thread.
+ * Content of the file on the disc is sent by {@link FileChannel#transferTo}, without copying through the heap arrays.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class FileStorageHttpServer implements Closeable {
+
+    private final static Logger LOGGER = Logger.getLogger(FileStorageHttpServer.class);
+    public final static String FILES_PATH = "/files/";
+    public final static String PURGE_PATH = "/admin/purge";
+    public final static String LIFETIME_HEADER = "X-File-Lifetime";
+    private final static int BUFFER_SIZE = 64 * 1024;
+    private final static int MAX_READ_ATTEMPTS = 3;
+
+    private final FileStorage fileStorage;
+    private final HttpServer httpServer;
+    private final ExecutorService executor;
+
+    /**
+     * Creates server of the storage, which isn't started yet
+     *
+     * @param fileStorage storage, which files are served
+     * @param address     address of the server, port 0 selects free port
+     * @throws IOException if the address can't be bound
+     */
+
+    public FileStorageHttpServer(FileStorage fileStorage, InetSocketAddress address) throws IOException {
+        if (fileStorage == null)
+            throw new IncorrectArgumentFileStorageException("Value of fileStorage is null");
+        this.fileStorage = fileStorage;
+        this.executor = createExecutor();
+        this.httpServer = HttpServer.create(address, 0);
+        this.httpServer.setExecutor(this.executor);
+        this.httpServer.createContext(FILES_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleFile(exchange);
+            }
+        });
+        this.httpServer.createContext(PURGE_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handlePurge(exchange);
+            }
+        });
+    }
+
+    public void start() {
+        this.httpServer.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return this.httpServer.getAddress();
+    }
+
+    /**
+     * Stops the server, requests in progress are given one second to finish
+     */
+
+    @Override
+    public void close() {
+        this.httpServer.stop(1);
+        this.executor.shutdown();
+    }
+
+    /**
+     * Creates executor with the virtual thread per request. Virtual threads appeared in JDK 21,
+     * so they are found by reflection and the pool of daemon threads is used by older JVM
+     */
+
+    private static ExecutorService createExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.info("Virtual threads aren't supported, requests are handled by the pool of threads");
+        }
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "FileStorage HTTP");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private void handleFile(HttpExchange exchange) throws IOException {
+        try {
+            final String key = URLDecoder.decode(exchange.getRequestURI().getRawPath().substring(FILES_PATH.length()), "UTF-8");
+            if (key.isEmpty()) {
+                this.sendStatus(exchange, 400, "Key is empty");
+                return;
+            }
+            final String method = exchange.getRequestMethod();
+            if ("GET".equals(method))
+                this.getFile(exchange, key);
+            else if ("HEAD".equals(method))
+                this.headFile(exchange, key);
+            else if ("PUT".equals(method))
+                this.putFile(exchange, key);
+            else if ("DELETE".equals(method))
+                this.deleteFile(exchange, key);
+            else
+                this.sendStatus(exchange, 405, "Method isn't allowed: " + method);
+        } catch (KeyNotExistFileStorageException e) {
+            this.sendStatus(exchange, 404, e.getMessage());
+        } catch (KeyAlreadyExistFileStorageException e) {
+            this.sendStatus(exchange, 409, e.getMessage());
+        } catch (NoFreeSpaceFileStorageException e) {
+            this.sendStatus(exchange, 507, e.getMessage());
+        } catch (IncorrectArgumentFileStorageException | IllegalArgumentException e) {
+            this.sendStatus(exchange, 400, e.getMessage());
+        } catch (RejectedOperationFileStorageException e) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            this.sendStatus(exchange, 503, e.getMessage());
+        } catch (ReadWriteFileStorageException e) {
+            LOGGER.warn("Can't handle request: " + exchange.getRequestURI(), e);
+            this.sendStatus(exchange, 500, e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void getFile(HttpExchange exchange, String key) throws IOException, KeyNotExistFileStorageException {
+        // Metadata is read before and after the stream is opened, so the headers describe the sent content,
+        // while the file is replaced concurrently. File, which is deleted meanwhile, isn't found
+        for (int attempt = 1; ; attempt++) {
+            final FileStat fileStat = this.fileStorage.stat(key);
+            try (InputStream inputStream = this.fileStorage.readFile(key)) {
+                if (isSameContent(fileStat, this.fileStorage.stat(key))) {
+                    this.sendFile(exchange, inputStream, fileStat);
+                    return;
+                }
+            }
+            if (attempt == MAX_READ_ATTEMPTS)
+                throw new RejectedOperationFileStorageException("File is being replaced: " + key, key);
+        }
+    }
+
+    private void sendFile(HttpExchange exchange, InputStream inputStream, FileStat fileStat) throws IOException {
+        final long size = fileStat.getSize();
+        long first = 0;
+        long last = size - 1;
+
+        final String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null) {
+            final long[] bytes = parseRange(range, size);
+            if (bytes == null) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+                this.sendStatus(exchange, 416, "Range isn't satisfiable: " + range);
+                return;
+            }
+            first = bytes[0];
+            last = bytes[1];
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + first + "-" + last + "/" + size);
+        }
+
+        final long length = last - first + 1;
+        this.setMetadataHeaders(exchange.getResponseHeaders(), fileStat);
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        exchange.sendResponseHeaders(range != null ? 206 : 200, length > 0 ? length : -1);
+        if (length <= 0)
+            return;
+
+        final OutputStream responseBody = exchange.getResponseBody();
+        if (inputStream instanceof FileInputStream) {
+            final FileChannel fileChannel = ((FileInputStream) inputStream).getChannel();
+            final WritableByteChannel responseChannel = Channels.newChannel(responseBody);
+            for (long position = first; position <= last; ) {
+                final long transferred = fileChannel.transferTo(position, last - position + 1, responseChannel);
+                if (transferred <= 0)
+                    break;
+                position += transferred;
+            }
+        } else {
+            copy(inputStream, responseBody, first, length);
+        }
+        responseBody.close();
+    }
+
+    private static boolean isSameContent(FileStat fileStat, FileStat currentFileStat) {
+        return fileStat.getVersion() == currentFileStat.getVersion() && fileStat.getCreationTime() == currentFileStat.getCreationTime()
+                && fileStat.getSize() == currentFileStat.getSize();
+    }
+
+    private void headFile(HttpExchange exchange, String key) throws IOException, KeyNotExistFileStorageException {
+        final FileStat fileStat = this.fileStorage.stat(key);
+        this.setMetadataHeaders(exchange.getResponseHeaders(), fileStat);
+        exchange.getResponseHeaders().set("Content-Length", String.valueOf(fileStat.getSize()));
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+    private void putFile(HttpExchange exchange, String key) throws IOException, NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
+        final String lifeTime = exchange.getRequestHeaders().getFirst(LIFETIME_HEADER);
+        try (InputStream requestBody = exchange.getRequestBody()) {
+            if (lifeTime != null)
+                this.fileStorage.saveFile(key, requestBody, Long.parseLong(lifeTime.trim()));
+            else
+                this.fileStorage.saveFile(key, requestBody);
+        }
+        exchange.sendResponseHeaders(201, -1);
+    }
+
+    private void deleteFile(HttpExchange exchange, String key) throws IOException, KeyNotExistFileStorageException {
+        this.fileStorage.deleteFile(key);
+        exchange.sendResponseHeaders(204, -1);
+    }
+
+    private void handlePurge(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                this.sendStatus(exchange, 405, "Method isn't allowed: " + exchange.getRequestMethod());
+                return;
+            }
+            final String query = exchange.getRequestURI().getQuery();
+            final String[] parameter = query != null ? query.split("=", 2) : new String[0];
+            if (parameter.length != 2) {
+                this.sendStatus(exchange, 400, "Parameter bytes or percent is expected");
+                return;
+            }
+            if ("bytes".equals(parameter[0]))
+                this.fileStorage.purge(Long.parseLong(parameter[1]));
+            else if ("percent".equals(parameter[0]))
+                this.fileStorage.purge(Integer.parseInt(parameter[1]));
+            else {
+                this.sendStatus(exchange, 400, "Parameter bytes or percent is expected");
+                return;
+            }
+            this.sendStatus(exchange, 200, "freeSpaceInBytes=" + this.fileStorage.freeSpaceInBytes());
+        } catch (IncorrectArgumentFileStorageException | IllegalArgumentException e) {
+            this.sendStatus(exchange, 400, e.getMessage());
+        } catch (ReadWriteFileStorageException e) {
+            LOGGER.warn("Can't purge the storage", e);
+            this.sendStatus(exchange, 500, e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void setMetadataHeaders(Headers headers, FileStat fileStat) {
+        headers.set("Content-Type", "application/octet-stream");
+        headers.set("X-Creation-Time", String.valueOf(fileStat.getCreationTime()));
+        if (fileStat.getExpirationTime() > 0)
+            headers.set("X-Expiration-Time", String.valueOf(fileStat.getExpirationTime()));
+        if (fileStat.isChecksumKnown())
+            headers.set("ETag", "\"" + Long.toHexString(fileStat.getChecksum()) + "\"");
+    }
+
+    private void sendStatus(HttpExchange exchange, int status, String message) throws IOException {
+        final byte[] body = (message != null ? message : "").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length > 0 ? body.length : -1);
+        if (body.length > 0) {
+            final OutputStream responseBody = exchange.getResponseBody();
+            responseBody.write(body);
+            responseBody.close();
+        }
+    }
+
+    /**
+     * Parses single range of the bytes: "bytes=first-last", "bytes=first-" or "bytes=-suffixLength"
+     *
+     * @return first and last bytes of the range, {@code null} if the range isn't satisfiable
+     */
+
+    static long[] parseRange(String range, long size) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0)
+            throw new IncorrectArgumentFileStorageException("Unsupported range: " + range);
+        final String bytes = range.substring("bytes=".length()).trim();
+        final int dash = bytes.indexOf('-');
+        if (dash < 0)
+            throw new IncorrectArgumentFileStorageException("Incorrect range: " + range);
+        final String first = bytes.substring(0, dash).trim();
+        final String last = bytes.substring(dash + 1).trim();
+        if (first.isEmpty()) {
+            final long suffixLength = Long.parseLong(last);
+            if (suffixLength <= 0 || size == 0)
+                return null;
+            return new long[]{Math.max(0, size - suffixLength), size - 1};
+        }
+        final long firstByte = Long.parseLong(first);
+        final long lastByte = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+        if (firstByte >= size || lastByte < firstByte)
+            return null;
+        return new long[]{firstByte, lastByte};
+    }
+
+    private static void copy(InputStream inputStream, OutputStream outputStream, long offset, long length) throws IOException {
+        while (offset > 0) {
+            long skipped = inputStream.skip(offset);
+            if (skipped <= 0) {
+                if (inputStream.read() == -1)
+                    return;
+                skipped = 1;
+            }
+            offset -= skipped;
+        }
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        while (length > 0) {
+            final int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (read == -1)
+                break;
+            outputStream.write(buffer, 0, read);
+            length -= read;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.filipov.fileservice.InMemoryFileStorageImpl;
+
+import com.filipov.fileservice.FileStat;
+import com.filipov.fileservice.FileStorage;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyAlreadyExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.NoFreeSpaceFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.IndexedKeysIterator;
+import com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException;
+import com.filipov.fileservice.KeyIterator;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Storage, which keeps files in the out of heap memory with the same semantics as the disc storage:
+ * expiration files, purge of the oldest files and free space reporting. Content of the files is kept in the chunks
+ * of {@link SlabAllocator}, so the memory isn't fragmented by files of different sizes.
+ * <p>
+ * Files are kept in the sorted concurrent map, so the keys with specific prefix are listed without scanning of all keys.
+ * Expired files are invisible immediately and are deleted by the background timer.
+ * Stream of the read file must be closed, memory of the deleted file is freed after all its streams are closed.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class InMemoryFileStorageImpl implements FileStorage {
+
+    private final static Logger LOGGER = Logger.getLogger(InMemoryFileStorageImpl.class);
+    private final static int DEFAULT_PAGE_SIZE = 1024 * 1024;
+
+    private final SlabAllocator allocator;
+    private final ConcurrentSkipListMap<String, StoredObject> storedObjects = new ConcurrentSkipListMap<String, StoredObject>();
+
+    /**
+     * Creates new storage in memory
+     *
+     * @param maxMemory max memory in bites, which storage can be use. Value of maxMemory must be > 0
+     */
+
+    public InMemoryFileStorageImpl(long maxMemory) {
+        this(maxMemory, (int) Math.min(DEFAULT_PAGE_SIZE, maxMemory));
+    }
+
+    /**
+     * Creates new storage in memory with specific page size of the allocator
+     *
+     * @param maxMemory max memory in bites, which storage can be use. Value of maxMemory must be  >= pageSize
+     * @param pageSize  size of the allocator page in bites. Files are kept in the chunks, which aren't bigger than the page
+     */
+
+    public InMemoryFileStorageImpl(long maxMemory, int pageSize) {
+        if (maxMemory <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of maxMemory <= 0");
+        this.allocator = new SlabAllocator(maxMemory, pageSize);
+
+        final Timer expirationFilesDeleterTimer = new Timer("InMemoryFileStorage expiration", true);
+        expirationFilesDeleterTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                deleteExpiredFiles();
+            }
+        }, 1000l, 1000l);
+    }
+
+    /**
+     * Saves the new file with specific key to the storage
+     *
+     * @param key         unique key of file.
+     * @param inputStream input stream for this file
+     * @throws NoFreeSpaceFileStorageException     if there no free memory in the storage
+     * @throws KeyAlreadyExistFileStorageException if file, associated with this key already exist
+     * @throws ReadWriteFileStorageException       if IOException occurs
+     */
+
+    @Override
+    public void saveFile(String key, InputStream inputStream) throws NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
+        this.saveFileWithLifeTime(key, inputStream, 0);
+    }
+
+    /**
+     * Saves the new expiration file with specific key to the storage. This file will be deletes automatically after fileLifeTime.
+     *
+     * @param key          unique key of file.
+     * @param inputStream  input stream for this file
+     * @param fileLifeTime expiration time of the file. After this time it'll be deletes automatically
+     * @throws NoFreeSpaceFileStorageException     if there no free memory in the storage
+     * @throws KeyAlreadyExistFileStorageException if file, associated with this key already exist
+     * @throws ReadWriteFileStorageException       if IOException occurs
+     */
+
+    @Override
+    public void saveFile(String key, InputStream inputStream, long fileLifeTime) throws NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
+        if (fileLifeTime <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of fileLifeTime <= 0");
+        this.saveFileWithLifeTime(key, inputStream, fileLifeTime);
+    }
+
+    private void saveFileWithLifeTime(String key, InputStream inputStream, long fileLifeTime) throws NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
+        if (key == null)
+            throw new IncorrectArgumentFileStorageException("Value of key is null");
+        if (this.getStoredObject(key) != null)
+            throw new KeyAlreadyExistFileStorageException("This key already exist", key);
+
+        final List<Long> chunks = new ArrayList<Long>();
+        final CRC32 checksum = new CRC32();
+        final byte[] buffer = new byte[16 * 1024];
+        ByteBuffer chunk = null;
+        long size = 0;
+        try {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                checksum.update(buffer, 0, read);
+                size += read;
+                for (int offset = 0; offset < read; ) {
+                    // Size of the chunks grows with the size of the file, so the small file takes the small chunk
+                    if (chunk == null || !chunk.hasRemaining())
+                        chunk = this.allocateChunk(key, chunk == null ? Math.min(read, this.allocator.getMaxChunkSize())
+                                : (int) Math.min(2l * chunk.capacity(), this.allocator.getMaxChunkSize()), chunks);
+                    final int length = Math.min(read - offset, chunk.remaining());
+                    chunk.put(buffer, offset, length);
+                    offset += length;
+                }
+            }
+            // The last chunk is moved to the smallest fitting chunk, if there is free memory for it
+            if (chunk != null && this.allocator.chunkSizeOf(chunk.position()) < chunk.capacity()) {
+                final long smallChunk = this.allocator.allocate(chunk.position());
+                if (smallChunk >= 0) {
+                    chunk.flip();
+                    this.allocator.buffer(smallChunk).put(chunk);
+                    this.allocator.free(chunks.set(chunks.size() - 1, smallChunk));
+                }
+            }
+        } catch (IOException e) {
+            this.free(chunks);
+            throw new ReadWriteFileStorageException("Can't read stream", key, e);
+        } catch (NoFreeSpaceFileStorageException | RuntimeException e) {
+            this.free(chunks);
+            throw e;
+        }
+
+        final long[] handles = new long[chunks.size()];
+        for (int i = 0; i < handles.length; i++)
+            handles[i] = chunks.get(i);
+        final long creationTime = new Date().getTime();
+        final StoredObject storedObject = new StoredObject(key, size, creationTime,
+                fileLifeTime > 0 ? creationTime + fileLifeTime : 0, (int) checksum.getValue(), handles, this.allocator);
+        if (this.storedObjects.putIfAbsent(key, storedObject) != null) {
+            storedObject.release();
+            throw new KeyAlreadyExistFileStorageException("This key already exist", key);
+        }
+    }
+
+    private ByteBuffer allocateChunk(String key, int size, List<Long> chunks) throws NoFreeSpaceFileStorageException {
+        final long chunk = this.allocator.allocate(size);
+        if (chunk < 0)
+            throw new NoFreeSpaceFileStorageException("No such free memory to save current file", key);
+        chunks.add(chunk);
+        return this.allocator.buffer(chunk);
+    }
+
+    private void free(List<Long> chunks) {
+        for (long chunk : chunks)
+            this.allocator.free(chunk);
+    }
+
+    /**
+     * Reads file from the storage. Memory of the file is kept until the stream is closed
+     *
+     * @param key specific file key
+     * @return Input Stream of this file
+     * @throws KeyNotExistFileStorageException if the file, associated with this key doesn't exist
+     */
+
+    @Override
+    public InputStream readFile(String key) throws KeyNotExistFileStorageException {
+        final StoredObject storedObject = this.getStoredObject(key);
+        final InputStream inputStream = storedObject != null ? storedObject.open() : null;
+        if (inputStream == null)
+            throw new KeyNotExistFileStorageException("This key doesn't exist: " + key, key);
+        return inputStream;
+    }
+
+    /**
+     * Deletes file with specific key
+     *
+     * @param key specific file key
+     * @throws KeyNotExistFileStorageException if the file, associated with this key doesn't exist
+     */
+
+    @Override
+    public void deleteFile(String key) throws KeyNotExistFileStorageException {
+        final StoredObject storedObject = this.getStoredObject(key);
+        if (storedObject == null || !this.delete(storedObject))
+            throw new KeyNotExistFileStorageException("This key doesn't exist: " + key, key);
+    }
+
+    @Override
+    public FileStat stat(String key) throws KeyNotExistFileStorageException {
+        final StoredObject storedObject = this.getStoredObject(key);
+        if (storedObject == null)
+            throw new KeyNotExistFileStorageException("This key doesn't exist: " + key, key);
+        return new FileStat(key, storedObject.size, storedObject.getAllocatedSize(), storedObject.creationTime,
+                storedObject.expirationTime, true, storedObject.checksum & 0xffffffffL);
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return this.getStoredObject(key) != null;
+    }
+
+    /**
+     * Returns stream of all stored keys in the order of the keys
+     *
+     * @return stream of the stored keys
+     */
+
+    @Override
+    public Stream<String> keys() {
+        return StreamSupport.stream(this.storedObjects.keySet().spliterator(), false);
+    }
+
+    @Override
+    public Stream<String> keys(String prefix) {
+        if (prefix == null)
+            throw new IncorrectArgumentFileStorageException("Value of prefix is null");
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this.keyIterator(prefix, null),
+                Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.ORDERED | Spliterator.SORTED), false);
+    }
+
+    @Override
+    public KeyIterator keyIterator(String prefix, String cursor) {
+        return new IndexedKeysIterator(this.storedObjects.keySet(), prefix == null ? "" : prefix, cursor);
+    }
+
+    /**
+     * Returns free memory of storage in bites. Memory of the file is counted by the sizes of its chunks
+     *
+     * @return free memory of storage in bites
+     */
+
+    @Override
+    public long freeSpaceInBytes() {
+        return this.allocator.getCapacity() - this.allocator.getUsedBytes();
+    }
+
+    @Override
+    public int freeSpaceInPercents() {
+        return (int) (this.freeSpaceInBytes() * 100 / this.allocator.getCapacity());
+    }
+
+    /**
+     * Liberates free memory in the storage to the target value in bites (or more) by deleting of the oldest files
+     *
+     * @param discSpaceInBytes target value of the free memory
+     */
+
+    @Override
+    public void purge(long discSpaceInBytes) {
+        if (discSpaceInBytes <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of discSpaceInBytes <= 0");
+        if (this.freeSpaceInBytes() >= discSpaceInBytes)
+            return;
+
+        final List<StoredObject> oldestObjects = new ArrayList<StoredObject>(this.storedObjects.values());
+        Collections.sort(oldestObjects, new Comparator<StoredObject>() {
+            @Override
+            public int compare(StoredObject first, StoredObject second) {
+                return Long.compare(first.creationTime, second.creationTime);
+            }
+        });
+        for (StoredObject storedObject : oldestObjects) {
+            if (this.freeSpaceInBytes() >= discSpaceInBytes)
+                break;
+            this.delete(storedObject);
+        }
+    }
+
+    @Override
+    public void purge(int discSpaceInPercents) {
+        if (discSpaceInPercents <= 0 || discSpaceInPercents > 100)
+            throw new IncorrectArgumentFileStorageException("Value of discSpaceInPercents <= 0 or > 100");
+        this.purge(discSpaceInPercents * this.allocator.getCapacity() / 100);
+    }
+
+    /**
+     * Returns stored file, expired file is deleted
+     */
+
+    private StoredObject getStoredObject(String key) {
+        final StoredObject storedObject = key != null ? this.storedObjects.get(key) : null;
+        if (storedObject == null || !storedObject.isExpired(new Date().getTime()))
+            return storedObject;
+        this.delete(storedObject);
+        return null;
+    }
+
+    private boolean delete(StoredObject storedObject) {
+        if (!this.storedObjects.remove(storedObject.key, storedObject))
+            return false;
+        storedObject.release();
+        return true;
+    }
+
+    private void deleteExpiredFiles() {
+        final long currentTime = new Date().getTime();
+        int deletedFiles = 0;
+        for (StoredObject storedObject : this.storedObjects.values()) {
+            if (storedObject.isExpired(currentTime) && this.delete(storedObject))
+                deletedFiles++;
+        }
+        if (deletedFiles > 0 && LOGGER.isDebugEnabled())
+            LOGGER.debug(deletedFiles + " expired files were deleted");
+    }
+}
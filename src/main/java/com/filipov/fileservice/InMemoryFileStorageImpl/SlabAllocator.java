@@ -0,0 +1,207 @@
+package com.filipov.fileservice.InMemoryFileStorageImpl;
+
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocator of the out of heap memory. Memory is divided into pages of the same size, each page is divided into chunks
+ * of one size class. Size classes grow by 25%, so the chunk wastes less than a quarter of its size,
+ * and freed chunk is reused by the next chunk of the same class without fragmentation.
+ * Empty pages are returned to the common pool and can be reused by another size class.
+ * <p>
+ * Chunk is identified by the handle: index of the page (high 32 bits) and index of the chunk in the page.
+ * Each size class has its own lock.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class SlabAllocator {
+
+    private final static int MIN_CHUNK_SIZE = 64;
+    private final static double GROWTH_FACTOR = 1.25;
+
+    private final int pageSize;
+    private final Page[] pages;
+    private final SizeClass[] sizeClasses;
+    private final ArrayDeque<Page> freePages = new ArrayDeque<Page>();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private int numberOfPages;
+
+    /**
+     * Creates allocator. Memory of the pages is allocated when it's needed first time
+     *
+     * @param capacity max size of the memory in bites
+     * @param pageSize size of the page in bites, it's the max size of the chunk
+     */
+
+    public SlabAllocator(long capacity, int pageSize) {
+        if (pageSize <= 0 || capacity < pageSize)
+            throw new IncorrectArgumentFileStorageException("Value of pageSize <= 0 or capacity < pageSize");
+        if (capacity / pageSize > Integer.MAX_VALUE)
+            throw new IncorrectArgumentFileStorageException("Value of capacity is too big for this pageSize");
+        this.pageSize = pageSize;
+        this.pages = new Page[(int) (capacity / pageSize)];
+
+        final List<SizeClass> sizeClasses = new ArrayList<SizeClass>();
+        int chunkSize = Math.min(MIN_CHUNK_SIZE, pageSize);
+        while (chunkSize < pageSize) {
+            sizeClasses.add(new SizeClass(chunkSize));
+            chunkSize = Math.max(chunkSize + 1, (int) Math.ceil(chunkSize * GROWTH_FACTOR / 8) * 8);
+        }
+        sizeClasses.add(new SizeClass(pageSize));
+        this.sizeClasses = sizeClasses.toArray(new SizeClass[sizeClasses.size()]);
+    }
+
+    public int getMaxChunkSize() {
+        return this.pageSize;
+    }
+
+    public long getCapacity() {
+        return (long) this.pages.length * this.pageSize;
+    }
+
+    /**
+     * Returns size of the allocated chunks
+     *
+     * @return used memory in bites
+     */
+
+    public long getUsedBytes() {
+        return this.usedBytes.get();
+    }
+
+    /**
+     * Allocates the smallest chunk, which isn't smaller than the size
+     *
+     * @param size size of the content in bites, must be <= max chunk size
+     * @return handle of the chunk, -1 if there is no free memory
+     */
+
+    public long allocate(int size) {
+        final SizeClass sizeClass = this.sizeClassOf(size);
+        synchronized (sizeClass) {
+            Page page = sizeClass.partialPages.peekFirst();
+            if (page == null) {
+                page = this.takeFreePage();
+                if (page == null)
+                    return -1;
+                page.format(sizeClass);
+                sizeClass.partialPages.addFirst(page);
+            }
+            final int chunk = page.freeChunks[--page.freeCount];
+            if (page.freeCount == 0)
+                sizeClass.partialPages.pollFirst();
+            this.usedBytes.addAndGet(sizeClass.chunkSize);
+            return ((long) page.index << 32) | chunk;
+        }
+    }
+
+    /**
+     * Frees the chunk. Empty page is returned to the common pool, if its size class has another page with free chunks
+     *
+     * @param handle handle of the chunk
+     */
+
+    public void free(long handle) {
+        final Page page = this.pages[(int) (handle >>> 32)];
+        final SizeClass sizeClass = page.sizeClass;
+        synchronized (sizeClass) {
+            page.freeChunks[page.freeCount++] = (int) handle;
+            if (page.freeCount == 1)
+                sizeClass.partialPages.addLast(page);
+            this.usedBytes.addAndGet(-sizeClass.chunkSize);
+            if (page.freeCount == page.freeChunks.length && sizeClass.partialPages.size() > 1) {
+                sizeClass.partialPages.remove(page);
+                synchronized (this) {
+                    this.freePages.push(page);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns memory of the chunk. Position and limit of the returned buffer are independent of other buffers
+     *
+     * @param handle handle of the chunk
+     * @return buffer, which shares memory with the chunk
+     */
+
+    public ByteBuffer buffer(long handle) {
+        final Page page = this.pages[(int) (handle >>> 32)];
+        final ByteBuffer buffer = page.memory.duplicate();
+        final int offset = (int) handle * page.sizeClass.chunkSize;
+        buffer.limit(offset + page.sizeClass.chunkSize);
+        buffer.position(offset);
+        return buffer.slice();
+    }
+
+    public int chunkSize(long handle) {
+        return this.pages[(int) (handle >>> 32)].sizeClass.chunkSize;
+    }
+
+    public int chunkSizeOf(int size) {
+        return this.sizeClassOf(size).chunkSize;
+    }
+
+    private SizeClass sizeClassOf(int size) {
+        if (size <= 0 || size > this.pageSize)
+            throw new IncorrectArgumentFileStorageException("Value of size <= 0 or > max chunk size");
+        int low = 0;
+        int high = this.sizeClasses.length - 1;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (this.sizeClasses[middle].chunkSize < size)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return this.sizeClasses[low];
+    }
+
+    private synchronized Page takeFreePage() {
+        if (!this.freePages.isEmpty())
+            return this.freePages.pop();
+        if (this.numberOfPages == this.pages.length)
+            return null;
+        final Page page = new Page(this.numberOfPages, ByteBuffer.allocateDirect(this.pageSize));
+        this.pages[this.numberOfPages++] = page;
+        return page;
+    }
+
+    private static class SizeClass {
+        private final int chunkSize;
+        private final ArrayDeque<Page> partialPages = new ArrayDeque<Page>();
+
+        private SizeClass(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+    }
+
+    private static class Page {
+        private final int index;
+        private final ByteBuffer memory;
+        // Size class and free chunks are changed under the lock of the size class
+        private volatile SizeClass sizeClass;
+        private int[] freeChunks;
+        private int freeCount;
+
+        private Page(int index, ByteBuffer memory) {
+            this.index = index;
+            this.memory = memory;
+        }
+
+        private void format(SizeClass sizeClass) {
+            this.sizeClass = sizeClass;
+            this.freeChunks = new int[this.memory.capacity() / sizeClass.chunkSize];
+            this.freeCount = this.freeChunks.length;
+            // Chunks are allocated from the beginning of the page
+            for (int i = 0; i < this.freeCount; i++)
+                this.freeChunks[i] = this.freeCount - 1 - i;
+        }
+    }
+}
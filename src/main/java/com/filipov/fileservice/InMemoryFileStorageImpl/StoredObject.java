@@ -0,0 +1,133 @@
+package com.filipov.fileservice.InMemoryFileStorageImpl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Content and metadata of the file, which is kept in the chunks of {@link SlabAllocator}.
+ * Chunks are freed, when the file is deleted and all its streams are closed
+ *
+ * @author Yevhen Filipov
+ */
+
+class StoredObject {
+
+    final String key;
+    final long size;
+    final long creationTime;
+    final long expirationTime;
+    final int checksum;
+    private final long[] chunks;
+    private final SlabAllocator allocator;
+    // The storage holds one reference, each open stream holds one reference
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    StoredObject(String key, long size, long creationTime, long expirationTime, int checksum, long[] chunks, SlabAllocator allocator) {
+        this.key = key;
+        this.size = size;
+        this.creationTime = creationTime;
+        this.expirationTime = expirationTime;
+        this.checksum = checksum;
+        this.chunks = chunks;
+        this.allocator = allocator;
+    }
+
+    boolean isExpired(long currentTime) {
+        return this.expirationTime > 0 && this.expirationTime <= currentTime;
+    }
+
+    long getAllocatedSize() {
+        long allocatedSize = 0;
+        for (long chunk : this.chunks)
+            allocatedSize += this.allocator.chunkSize(chunk);
+        return allocatedSize;
+    }
+
+    /**
+     * Opens stream of the content
+     *
+     * @return stream of the content, {@code null} if chunks of the file are already freed
+     */
+
+    InputStream open() {
+        int current;
+        do {
+            current = this.references.get();
+            if (current == 0)
+                return null;
+        } while (!this.references.compareAndSet(current, current + 1));
+        return new ContentInputStream();
+    }
+
+    void release() {
+        if (this.references.decrementAndGet() == 0) {
+            for (long chunk : this.chunks)
+                this.allocator.free(chunk);
+        }
+    }
+
+    private class ContentInputStream extends InputStream {
+
+        private int chunkIndex;
+        private ByteBuffer chunk;
+        private long remaining = size;
+        private boolean closed;
+
+        @Override
+        public int read() throws IOException {
+            if (!this.nextChunk())
+                return -1;
+            this.remaining--;
+            return this.chunk.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0)
+                return 0;
+            if (!this.nextChunk())
+                return -1;
+            final int read = (int) Math.min(Math.min(length, this.chunk.remaining()), this.remaining);
+            this.chunk.get(buffer, offset, read);
+            this.remaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && this.nextChunk()) {
+                final int step = (int) Math.min(Math.min(n - skipped, this.chunk.remaining()), this.remaining);
+                this.chunk.position(this.chunk.position() + step);
+                this.remaining -= step;
+                skipped += step;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(this.remaining, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void close() {
+            if (this.closed)
+                return;
+            this.closed = true;
+            release();
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (this.closed)
+                throw new IOException("Stream is closed");
+            if (this.remaining == 0)
+                return false;
+            if (this.chunk == null || !this.chunk.hasRemaining())
+                this.chunk = allocator.buffer(chunks[this.chunkIndex++]);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.filipov.fileservice;
+
+import java.util.Iterator;
+
+/**
+ * Iterator of the stored keys, which can be resumed later by the cursor.
+ * Keys are read by small portions, so the iterator doesn't keep the full list of keys in memory.
+ * Files, which are saved or deleted while iterating, may be skipped or returned.
+ *
+ * @author Yevhen Filipov
+ */
+
+public interface KeyIterator extends Iterator<String> {
+
+    /**
+     * Returns opaque cursor, which points after the last returned key.
+     * Iteration can be continued from this cursor by {@link FileStorage#keyIterator(String, String)}
+     *
+     * @return cursor of the iteration, {@code null} if no keys were returned yet
+     */
+
+    String getCursor();
+
+}
@@ -0,0 +1,73 @@
+package com.filipov.fileservice.TracingFileStorageImpl;
+
+/**
+ * Histogram of the latencies with fixed memory: 16 linear buckets for each power of two, so the percentiles are
+ * accurate to 1/16 of their value. It isn't thread safe, histograms of the threads are merged
+ *
+ * @author Yevhen Filipov
+ */
+
+class LatencyHistogram {
+
+    private final static int SUB_BUCKETS = 16;
+    private final static int SUB_BUCKET_BITS = 4;
+
+    private final long[] counts = new long[SUB_BUCKETS * (64 - SUB_BUCKET_BITS)];
+    private long totalCount;
+    private long maxValue;
+
+    void record(long value) {
+        final long positiveValue = Math.max(value, 0);
+        this.counts[indexOf(positiveValue)]++;
+        this.totalCount++;
+        this.maxValue = Math.max(this.maxValue, positiveValue);
+    }
+
+    void merge(LatencyHistogram histogram) {
+        for (int i = 0; i < this.counts.length; i++)
+            this.counts[i] += histogram.counts[i];
+        this.totalCount += histogram.totalCount;
+        this.maxValue = Math.max(this.maxValue, histogram.maxValue);
+    }
+
+    long getTotalCount() {
+        return this.totalCount;
+    }
+
+    long getMaxValue() {
+        return this.maxValue;
+    }
+
+    /**
+     * @param percentile percentile from 0 to 1
+     * @return upper bound of the bucket, which contains the percentile, 0 if nothing was recorded
+     */
+
+    long getValueAtPercentile(double percentile) {
+        if (this.totalCount == 0)
+            return 0;
+        final long rank = Math.max(1, (long) Math.ceil(percentile * this.totalCount));
+        long count = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            count += this.counts[i];
+            if (count >= rank)
+                return Math.min(upperValueOf(i), this.maxValue);
+        }
+        return this.maxValue;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + (int) (value >>> (exponent - SUB_BUCKET_BITS));
+    }
+
+    private static long upperValueOf(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        final int shift = index / SUB_BUCKETS - 1;
+        final long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
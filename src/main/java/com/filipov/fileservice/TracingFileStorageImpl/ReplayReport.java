@@ -0,0 +1,247 @@
+package com.filipov.fileservice.TracingFileStorageImpl;
+
+import java.util.*;
+
+/**
+ * Report of the replay of the trace, see {@link TraceReplayer}: throughput, latency percentiles by operation,
+ * outcomes, hit rates of the reads and free space of the storage over time
+ *
+ * @author Yevhen Filipov
+ */
+
+public class ReplayReport {
+
+    private final static TraceRecord.Operation[] OPERATIONS = TraceRecord.Operation.values();
+    private final static TraceRecord.Status[] STATUSES = TraceRecord.Status.values();
+
+    /**
+     * Free space of the storage at the time of the replay
+     */
+
+    public static class SpaceSample {
+
+        private final long time;
+        private final long freeSpace;
+
+        SpaceSample(long time, long freeSpace) {
+            this.time = time;
+            this.freeSpace = freeSpace;
+        }
+
+        /**
+         * @return time since the start of the replay in milliseconds
+         */
+
+        public long getTime() {
+            return time;
+        }
+
+        public long getFreeSpace() {
+            return freeSpace;
+        }
+
+        @Override
+        public String toString() {
+            return time + " ms: " + freeSpace;
+        }
+    }
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+    private final long[][] statuses = new long[OPERATIONS.length][STATUSES.length];
+    private final long[][] originalStatuses = new long[OPERATIONS.length][STATUSES.length];
+    private final List<SpaceSample> spaceSamples = new ArrayList<SpaceSample>();
+    private long mismatchedOperations;
+    private long savedBytes;
+    private long readBytes;
+    private long maxLag;
+    private long duration;
+
+    ReplayReport() {
+        for (int i = 0; i < this.latencies.length; i++)
+            this.latencies[i] = new LatencyHistogram();
+    }
+
+    /**
+     * Adds the replayed operation
+     *
+     * @param record  operation of the trace
+     * @param status  outcome of the replayed operation
+     * @param latency latency of the operation in nanoseconds
+     * @param lag     delay of the start of the operation after its scheduled time in nanoseconds
+     * @param bytes   number of the saved or the read bytes
+     */
+
+    void add(TraceRecord record, TraceRecord.Status status, long latency, long lag, long bytes) {
+        final int operation = record.getOperation().ordinal();
+        this.latencies[operation].record(latency);
+        this.statuses[operation][status.ordinal()]++;
+        this.originalStatuses[operation][record.getStatus().ordinal()]++;
+        if (status != record.getStatus())
+            this.mismatchedOperations++;
+        if (record.getOperation() == TraceRecord.Operation.SAVE)
+            this.savedBytes += bytes;
+        else
+            this.readBytes += bytes;
+        this.maxLag = Math.max(this.maxLag, lag);
+    }
+
+    void merge(ReplayReport report) {
+        for (int operation = 0; operation < OPERATIONS.length; operation++) {
+            this.latencies[operation].merge(report.latencies[operation]);
+            for (int status = 0; status < STATUSES.length; status++) {
+                this.statuses[operation][status] += report.statuses[operation][status];
+                this.originalStatuses[operation][status] += report.originalStatuses[operation][status];
+            }
+        }
+        this.mismatchedOperations += report.mismatchedOperations;
+        this.savedBytes += report.savedBytes;
+        this.readBytes += report.readBytes;
+        this.maxLag = Math.max(this.maxLag, report.maxLag);
+    }
+
+    synchronized void addSpaceSample(long time, long freeSpace) {
+        this.spaceSamples.add(new SpaceSample(time, freeSpace));
+    }
+
+    void setDuration(long duration) {
+        this.duration = duration;
+    }
+
+    public long getReplayedOperations() {
+        long operations = 0;
+        for (LatencyHistogram histogram : this.latencies)
+            operations += histogram.getTotalCount();
+        return operations;
+    }
+
+    public long getOperations(TraceRecord.Operation operation) {
+        return this.latencies[operation.ordinal()].getTotalCount();
+    }
+
+    /**
+     * @return duration of the replay in milliseconds
+     */
+
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return replayed operations per second
+     */
+
+    public double getThroughput() {
+        return this.duration > 0 ? this.getReplayedOperations() * 1000.0 / this.duration : 0;
+    }
+
+    /**
+     * Returns latency of the operations at the percentile. Latency of the replay at the original or the scaled speed
+     * is counted from the scheduled time of the operation, so the queueing of the overloaded storage isn't hidden
+     *
+     * @param operation  type of the operations
+     * @param percentile percentile from 0 to 1
+     * @return latency in microseconds
+     */
+
+    public long getLatency(TraceRecord.Operation operation, double percentile) {
+        return this.latencies[operation.ordinal()].getValueAtPercentile(percentile) / 1000;
+    }
+
+    /**
+     * @return max latency of the operations in microseconds
+     */
+
+    public long getMaxLatency(TraceRecord.Operation operation) {
+        return this.latencies[operation.ordinal()].getMaxValue() / 1000;
+    }
+
+    /**
+     * @return number of the replayed operations with the outcome
+     */
+
+    public long getOperations(TraceRecord.Operation operation, TraceRecord.Status status) {
+        return this.statuses[operation.ordinal()][status.ordinal()];
+    }
+
+    /**
+     * @return share of the replayed reads, which found the file, 0 without reads
+     */
+
+    public double getHitRate() {
+        return hitRate(this.statuses);
+    }
+
+    /**
+     * @return share of the recorded reads, which found the file, 0 without reads
+     */
+
+    public double getOriginalHitRate() {
+        return hitRate(this.originalStatuses);
+    }
+
+    private static double hitRate(long[][] statuses) {
+        final long[] readStatuses = statuses[TraceRecord.Operation.READ.ordinal()];
+        long reads = 0;
+        for (long number : readStatuses)
+            reads += number;
+        return reads > 0 ? (double) readStatuses[TraceRecord.Status.OK.ordinal()] / reads : 0;
+    }
+
+    /**
+     * @return number of the operations, which had other outcome, than the recorded one
+     */
+
+    public long getMismatchedOperations() {
+        return mismatchedOperations;
+    }
+
+    public long getSavedBytes() {
+        return savedBytes;
+    }
+
+    public long getReadBytes() {
+        return readBytes;
+    }
+
+    /**
+     * @return max delay of the start of the operation after its scheduled time in microseconds,
+     * 0 for the replay at the max speed
+     */
+
+    public long getMaxLag() {
+        return maxLag / 1000;
+    }
+
+    public synchronized List<SpaceSample> getSpaceSamples() {
+        return Collections.unmodifiableList(new ArrayList<SpaceSample>(this.spaceSamples));
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder report = new StringBuilder();
+        report.append("Replayed operations: ").append(this.getReplayedOperations())
+                .append(", duration: ").append(this.duration).append(" ms")
+                .append(", throughput: ").append(String.format(Locale.ROOT, "%.1f", this.getThroughput())).append(" per second\n");
+        for (TraceRecord.Operation operation : OPERATIONS) {
+            if (this.getOperations(operation) == 0)
+                continue;
+            report.append(operation).append(": ").append(this.getOperations(operation))
+                    .append(", latency p50: ").append(this.getLatency(operation, 0.5))
+                    .append(" us, p99: ").append(this.getLatency(operation, 0.99))
+                    .append(" us, p99.9: ").append(this.getLatency(operation, 0.999))
+                    .append(" us, max: ").append(this.getMaxLatency(operation)).append(" us");
+            for (TraceRecord.Status status : STATUSES) {
+                if (status != TraceRecord.Status.OK && this.getOperations(operation, status) > 0)
+                    report.append(", ").append(status).append(": ").append(this.getOperations(operation, status));
+            }
+            report.append('\n');
+        }
+        report.append("Hit rate: ").append(String.format(Locale.ROOT, "%.3f", this.getHitRate()))
+                .append(", original: ").append(String.format(Locale.ROOT, "%.3f", this.getOriginalHitRate()))
+                .append(", mismatched operations: ").append(this.mismatchedOperations).append('\n');
+        report.append("Saved bytes: ").append(this.savedBytes).append(", read bytes: ").append(this.readBytes)
+                .append(", max lag: ").append(this.getMaxLag()).append(" us\n");
+        report.append("Free space: ").append(this.getSpaceSamples());
+        return report.toString();
+    }
+}
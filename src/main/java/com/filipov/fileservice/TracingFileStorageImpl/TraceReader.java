@@ -0,0 +1,59 @@
+package com.filipov.fileservice.TracingFileStorageImpl;
+
+import java.io.*;
+
+/**
+ * Reads the trace, which was written by {@link TracingFileStorageImpl}
+ *
+ * @author Yevhen Filipov
+ */
+
+public class TraceReader implements Closeable {
+
+    final static int TRACE_MAGIC = 0x46535452;
+    final static int TRACE_VERSION = 1;
+
+    private final DataInputStream input;
+    private final long startTime;
+
+    /**
+     * @param tracePath path of the trace file
+     * @throws IOException if the trace can't be read or it isn't a trace of the storage
+     */
+
+    public TraceReader(String tracePath) throws IOException {
+        this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(tracePath), 64 * 1024));
+        try {
+            if (this.input.readInt() != TRACE_MAGIC)
+                throw new IOException("File isn't a trace of the storage: " + tracePath);
+            final int version = this.input.readInt();
+            if (version != TRACE_VERSION)
+                throw new IOException("Unsupported version of the trace: " + version);
+            this.startTime = this.input.readLong();
+        } catch (IOException e) {
+            this.input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return time of the start of the trace in milliseconds since the epoch
+     */
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return next record of the trace, {@code null} at the end of the trace
+     */
+
+    public TraceRecord next() throws IOException {
+        return TraceRecord.read(this.input);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.input.close();
+    }
+}
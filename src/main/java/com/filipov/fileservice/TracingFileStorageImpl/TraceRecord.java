@@ -0,0 +1,145 @@
+package com.filipov.fileservice.TracingFileStorageImpl;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Operation of the storage, which is written to the trace by {@link TracingFileStorageImpl}.
+ * Key isn't written, the trace keeps its 64-bit hash only
+ *
+ * @author Yevhen Filipov
+ */
+
+public class TraceRecord {
+
+    /**
+     * Size of the record in the trace file
+     */
+
+    final static int SIZE = 2 + 8 + 8 + 8 + 8;
+
+    public enum Operation {
+        SAVE,
+        READ,
+        DELETE,
+        STAT,
+        EXISTS,
+        // Size of the record is the disc space to liberate
+        PURGE,
+        // Size of the record is the disc space to liberate in percents
+        PURGE_IN_PERCENTS
+    }
+
+    public enum Status {
+        OK,
+        KEY_NOT_EXIST,
+        KEY_ALREADY_EXIST,
+        NO_FREE_SPACE,
+        // Operation failed by other exception
+        FAILED
+    }
+
+    private final static Operation[] OPERATIONS = Operation.values();
+    private final static Status[] STATUSES = Status.values();
+
+    private final Operation operation;
+    private final Status status;
+    private final long keyHash;
+    private final long size;
+    private final long lifeTime;
+    private final long time;
+
+    public TraceRecord(Operation operation, Status status, long keyHash, long size, long lifeTime, long time) {
+        this.operation = operation;
+        this.status = status;
+        this.keyHash = keyHash;
+        this.size = size;
+        this.lifeTime = lifeTime;
+        this.time = time;
+    }
+
+    static void write(ByteBuffer buffer, Operation operation, Status status, long keyHash, long size, long lifeTime, long time) {
+        buffer.put((byte) operation.ordinal());
+        buffer.put((byte) status.ordinal());
+        buffer.putLong(keyHash);
+        buffer.putLong(size);
+        buffer.putLong(lifeTime);
+        buffer.putLong(time);
+    }
+
+    /**
+     * Reads the next record of the trace
+     *
+     * @return read record, {@code null} at the end of the trace. Record, which was written partially, ends the trace too
+     */
+
+    static TraceRecord read(DataInputStream input) throws IOException {
+        final int operation = input.read();
+        if (operation < 0)
+            return null;
+        try {
+            final int status = input.readUnsignedByte();
+            if (operation >= OPERATIONS.length || status >= STATUSES.length)
+                throw new IOException("Unknown operation of the trace: " + operation + ", status " + status);
+            return new TraceRecord(OPERATIONS[operation], STATUSES[status], input.readLong(), input.readLong(), input.readLong(),
+                    input.readLong());
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return 64-bit hash of the key, see {@link com.filipov.fileservice.FileStorageImpl.KeyHashing#hash64(CharSequence)}.
+     * 0 for the purge
+     */
+
+    public long getKeyHash() {
+        return keyHash;
+    }
+
+    /**
+     * @return size of the saved file in bites, the disc space to liberate for the purge, 0 for other operations
+     */
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return life time of the saved file in milliseconds, 0 if the file doesn't expire
+     */
+
+    public long getLifeTime() {
+        return lifeTime;
+    }
+
+    /**
+     * @return start time of the operation in microseconds since the start of the trace
+     */
+
+    public long getTime() {
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        return "TraceRecord{" +
+                "operation=" + operation +
+                ", status=" + status +
+                ", keyHash=" + keyHash +
+                ", size=" + size +
+                ", lifeTime=" + lifeTime +
+                ", time=" + time +
+                '}';
+    }
+}
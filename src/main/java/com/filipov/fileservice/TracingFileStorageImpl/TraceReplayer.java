@@ -0,0 +1,288 @@
+package com.filipov.fileservice.TracingFileStorageImpl;
+
+import com.filipov.fileservice.FileStorage;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyAlreadyExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.NoFreeSpaceFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays the trace, which was recorded by {@link TracingFileStorageImpl}, against any storage by several threads.
+ * Operations are started at their original times, scaled by the speed, or as fast as possible. Operations with the same key
+ * are replayed by the same thread in the order of the trace. Keys are made of the recorded hashes,
+ * content of the saved files is generated with the recorded sizes.
+ * <p>
+ * Storage should be empty before the replay, otherwise the outcomes of the operations differ from the recorded ones
+ *
+ * @author Yevhen Filipov
+ */
+
+public class TraceReplayer {
+
+    private final static Logger LOGGER = Logger.getLogger(TraceReplayer.class);
+    private final static long DEFAULT_SAMPLE_INTERVAL = 1000l;
+    private final static int QUEUED_OPERATIONS_PER_THREAD = 1024;
+    private final static ReplayedOperation END_OF_TRACE = new ReplayedOperation(null, 0);
+    private final static byte[] CONTENT = new byte[64 * 1024];
+
+    static {
+        new Random(1).nextBytes(CONTENT);
+    }
+
+    private final FileStorage storage;
+    private final int threads;
+    private final double speed;
+    private final long sampleInterval;
+
+    /**
+     * @param storage storage, which replays the trace
+     * @param threads number of the replaying threads
+     * @param speed   speed of the replay: 1 for the original speed, 2 for twice faster, 0 for the max speed
+     */
+
+    public TraceReplayer(FileStorage storage, int threads, double speed) {
+        this(storage, threads, speed, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * @param storage        storage, which replays the trace
+     * @param threads        number of the replaying threads
+     * @param speed          speed of the replay: 1 for the original speed, 2 for twice faster, 0 for the max speed
+     * @param sampleInterval interval of the sampling of the free space in milliseconds
+     */
+
+    public TraceReplayer(FileStorage storage, int threads, double speed, long sampleInterval) {
+        if (storage == null)
+            throw new IncorrectArgumentFileStorageException("Value of storage is null");
+        if (threads <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of threads <= 0");
+        if (speed < 0)
+            throw new IncorrectArgumentFileStorageException("Value of speed < 0");
+        if (sampleInterval <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of sampleInterval <= 0");
+        this.storage = storage;
+        this.threads = threads;
+        this.speed = speed;
+        this.sampleInterval = sampleInterval;
+    }
+
+    /**
+     * Replays the trace and waits for the end of all its operations
+     *
+     * @param tracePath path of the trace file
+     * @return report of the replay
+     * @throws IOException if the trace can't be read
+     */
+
+    public ReplayReport replay(String tracePath) throws IOException, InterruptedException {
+        final ReplayReport report = new ReplayReport();
+        final List<BlockingQueue<ReplayedOperation>> queues = new ArrayList<BlockingQueue<ReplayedOperation>>();
+        final List<Future<ReplayReport>> results = new ArrayList<Future<ReplayReport>>();
+        final ExecutorService replayers = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "FileStorage trace replay");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (int thread = 0; thread < this.threads; thread++) {
+            final BlockingQueue<ReplayedOperation> queue = new ArrayBlockingQueue<ReplayedOperation>(QUEUED_OPERATIONS_PER_THREAD);
+            queues.add(queue);
+            results.add(replayers.submit(new Callable<ReplayReport>() {
+                @Override
+                public ReplayReport call() throws InterruptedException {
+                    return replayQueue(queue);
+                }
+            }));
+        }
+
+        final long startTime = System.nanoTime();
+        final Timer sampler = new Timer("FileStorage trace replay sampler", true);
+        sampler.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                report.addSpaceSample((System.nanoTime() - startTime) / 1000000, storage.freeSpaceInBytes());
+            }
+        }, 0, this.sampleInterval);
+        try (TraceReader reader = new TraceReader(tracePath)) {
+            long firstTime = -1;
+            TraceRecord record;
+            while ((record = reader.next()) != null) {
+                if (firstTime < 0)
+                    firstTime = record.getTime();
+                final long scheduledTime = this.speed > 0 ? startTime + (long) ((record.getTime() - firstTime) * 1000 / this.speed) : 0;
+                long delay;
+                while ((delay = scheduledTime - System.nanoTime()) > 0)
+                    LockSupport.parkNanos(delay);
+                // Key hash is the same for the operations with the same key, so they are replayed in order
+                queues.get((int) ((record.getKeyHash() >>> 1) % this.threads)).put(new ReplayedOperation(record, scheduledTime));
+            }
+            for (BlockingQueue<ReplayedOperation> queue : queues)
+                queue.put(END_OF_TRACE);
+            for (Future<ReplayReport> result : results)
+                report.merge(result.get());
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Replay failed", e.getCause());
+        } finally {
+            replayers.shutdownNow();
+            sampler.cancel();
+        }
+        report.setDuration((System.nanoTime() - startTime) / 1000000);
+        report.addSpaceSample(report.getDuration(), this.storage.freeSpaceInBytes());
+        return report;
+    }
+
+    private ReplayReport replayQueue(BlockingQueue<ReplayedOperation> queue) throws InterruptedException {
+        final ReplayReport report = new ReplayReport();
+        final byte[] buffer = new byte[64 * 1024];
+        ReplayedOperation operation;
+        while ((operation = queue.take()) != END_OF_TRACE) {
+            final long startTime = System.nanoTime();
+            final long[] bytes = new long[1];
+            final TraceRecord.Status status = this.replayRecord(operation.record, buffer, bytes);
+            final long endTime = System.nanoTime();
+            final long beginning = operation.scheduledTime > 0 ? Math.min(operation.scheduledTime, startTime) : startTime;
+            report.add(operation.record, status, endTime - beginning, startTime - beginning, bytes[0]);
+        }
+        return report;
+    }
+
+    /**
+     * Replays one operation
+     *
+     * @param bytes receives the number of the saved or the read bytes
+     * @return outcome of the operation
+     */
+
+    private TraceRecord.Status replayRecord(TraceRecord record, byte[] buffer, long[] bytes) {
+        final String key = keyOf(record.getKeyHash());
+        try {
+            switch (record.getOperation()) {
+                case SAVE:
+                    if (record.getLifeTime() > 0)
+                        this.storage.saveFile(key, new GeneratedInputStream(record.getSize()), record.getLifeTime());
+                    else
+                        this.storage.saveFile(key, new GeneratedInputStream(record.getSize()));
+                    bytes[0] = record.getSize();
+                    break;
+                case READ:
+                    try (InputStream inputStream = this.storage.readFile(key)) {
+                        int read;
+                        while ((read = inputStream.read(buffer)) != -1)
+                            bytes[0] += read;
+                    }
+                    break;
+                case DELETE:
+                    this.storage.deleteFile(key);
+                    break;
+                case STAT:
+                    this.storage.stat(key);
+                    break;
+                case EXISTS:
+                    return this.storage.exists(key) ? TraceRecord.Status.OK : TraceRecord.Status.KEY_NOT_EXIST;
+                case PURGE:
+                    this.storage.purge(record.getSize());
+                    break;
+                case PURGE_IN_PERCENTS:
+                    this.storage.purge((int) record.getSize());
+                    break;
+            }
+            return TraceRecord.Status.OK;
+        } catch (KeyNotExistFileStorageException e) {
+            return TraceRecord.Status.KEY_NOT_EXIST;
+        } catch (KeyAlreadyExistFileStorageException e) {
+            return TraceRecord.Status.KEY_ALREADY_EXIST;
+        } catch (NoFreeSpaceFileStorageException e) {
+            return TraceRecord.Status.NO_FREE_SPACE;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Replayed operation failed: " + record, e);
+            return TraceRecord.Status.FAILED;
+        }
+    }
+
+    /**
+     * Returns the key of the replayed files with the recorded hash
+     */
+
+    static String keyOf(long keyHash) {
+        return "trace-" + Long.toHexString(keyHash);
+    }
+
+    private static class ReplayedOperation {
+
+        private final TraceRecord record;
+        // Scheduled start of the operation by System.nanoTime(), 0 for the replay at the max speed
+        private final long scheduledTime;
+
+        private ReplayedOperation(TraceRecord record, long scheduledTime) {
+            this.record = record;
+            this.scheduledTime = scheduledTime;
+        }
+    }
+
+    /**
+     * Content of the replayed file with the recorded size
+     */
+
+    private static class GeneratedInputStream extends InputStream {
+
+        private final long size;
+        private long position;
+
+        private GeneratedInputStream(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public int read() {
+            if (this.position >= this.size)
+                return -1;
+            return CONTENT[(int) (this.position++ % CONTENT.length)] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (this.position >= this.size)
+                return -1;
+            final int contentOffset = (int) (this.position % CONTENT.length);
+            final int read = (int) Math.min(Math.min(length, CONTENT.length - contentOffset), this.size - this.position);
+            System.arraycopy(CONTENT, contentOffset, bytes, offset, read);
+            this.position += read;
+            return read;
+        }
+    }
+
+    /**
+     * Replays the trace against the storage in the directory. Arguments: path of the trace, storage root,
+     * max disc space of the storage in bites, optional number of the threads (8 by default)
+     * and optional speed (1 by default, 0 for the max speed)
+     *
+     * @param args arguments of the replay
+     */
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3 || args.length > 5) {
+            System.err.println("Usage: TraceReplayer <trace> <storage root> <max disc space> [threads] [speed]");
+            System.exit(2);
+        }
+        try (FileStorageImpl fileStorage = new FileStorageImpl(args[1], Long.parseLong(args[2]))) {
+            final TraceReplayer replayer = new TraceReplayer(fileStorage, args.length > 3 ? Integer.parseInt(args[3]) : 8,
+                    args.length > 4 ? Double.parseDouble(args[4]) : 1);
+            System.out.println(replayer.replay(args[0]));
+        }
+        System.exit(0);
+    }
+}
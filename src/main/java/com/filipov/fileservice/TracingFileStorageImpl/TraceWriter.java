@@ -0,0 +1,163 @@
+package com.filipov.fileservice.TracingFileStorageImpl;
+
+import com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes records of the trace by its own thread. Operations append records to one of two buffers, while the other one
+ * is written to the file. Operation never waits for the disc: when both buffers are full, the record is dropped and counted
+ *
+ * @author Yevhen Filipov
+ */
+
+class TraceWriter {
+
+    private final static Logger LOGGER = Logger.getLogger(TraceWriter.class);
+    private final static int BUFFER_SIZE = 256 * 1024;
+
+    private final String tracePath;
+    private final FileChannel channel;
+    private final long startNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition bufferFilled = this.lock.newCondition();
+    private final Thread writer;
+
+    private ByteBuffer currentBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    // Buffer, which is written to the file now, is neither filled nor spare
+    private ByteBuffer filledBuffer;
+    private ByteBuffer spareBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private boolean closed;
+    private long writtenRecords;
+    private long droppedRecords;
+
+    TraceWriter(String tracePath) {
+        this.tracePath = tracePath;
+        try {
+            this.channel = FileChannel.open(Paths.get(tracePath), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            final ByteBuffer header = ByteBuffer.allocate(16);
+            header.putInt(TraceReader.TRACE_MAGIC).putInt(TraceReader.TRACE_VERSION).putLong(System.currentTimeMillis());
+            header.flip();
+            while (header.hasRemaining())
+                this.channel.write(header);
+        } catch (IOException e) {
+            throw new ReadWriteFileStorageException("Can't create trace", tracePath, e);
+        }
+        this.startNanos = System.nanoTime();
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeInBackground();
+            }
+        }, "FileStorage trace writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Appends the record of the finished operation
+     *
+     * @param startNanos start of the operation by {@link System#nanoTime()}
+     */
+
+    void append(TraceRecord.Operation operation, TraceRecord.Status status, long keyHash, long size, long lifeTime, long startNanos) {
+        final long time = (startNanos - this.startNanos) / 1000;
+        this.lock.lock();
+        try {
+            if (this.closed)
+                return;
+            if (this.currentBuffer.remaining() < TraceRecord.SIZE) {
+                if (this.spareBuffer == null) {
+                    this.droppedRecords++;
+                    return;
+                }
+                this.filledBuffer = this.currentBuffer;
+                this.currentBuffer = this.spareBuffer;
+                this.spareBuffer = null;
+                this.bufferFilled.signal();
+            }
+            TraceRecord.write(this.currentBuffer, operation, status, keyHash, size, lifeTime, time);
+            this.writtenRecords++;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void writeInBackground() {
+        while (true) {
+            final ByteBuffer buffer;
+            final boolean last;
+            this.lock.lock();
+            try {
+                while (this.filledBuffer == null && !this.closed)
+                    this.bufferFilled.awaitUninterruptibly();
+                last = this.filledBuffer == null;
+                buffer = last ? this.currentBuffer : this.filledBuffer;
+                this.filledBuffer = null;
+            } finally {
+                this.lock.unlock();
+            }
+
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining())
+                    this.channel.write(buffer);
+                if (last)
+                    this.channel.close();
+            } catch (IOException e) {
+                LOGGER.error("Can't write trace: " + this.tracePath, e);
+            }
+            buffer.clear();
+            if (last)
+                return;
+
+            this.lock.lock();
+            try {
+                this.spareBuffer = buffer;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    long getWrittenRecords() {
+        this.lock.lock();
+        try {
+            return this.writtenRecords;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    long getDroppedRecords() {
+        this.lock.lock();
+        try {
+            return this.droppedRecords;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the rest of the records and closes the trace file
+     */
+
+    void close() throws InterruptedException {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.bufferFilled.signal();
+        } finally {
+            this.lock.unlock();
+        }
+        this.writer.join();
+    }
+}
@@ -0,0 +1,225 @@
+package com.filipov.fileservice.TracingFileStorageImpl;
+
+import com.filipov.fileservice.FileStat;
+import com.filipov.fileservice.FileStorage;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyAlreadyExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.NoFreeSpaceFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.KeyHashing;
+import com.filipov.fileservice.KeyIterator;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.util.stream.Stream;
+
+/**
+ * Storage, which records the operations of the other storage to the trace: operation, hash of the key, size, life time,
+ * start time and outcome. Trace can be replayed by {@link TraceReplayer} against any storage, for example to compare
+ * configurations offline.
+ * <p>
+ * Records are written by the own thread of the trace, so the operation only appends its record to the memory buffer.
+ * Listing of the keys and free space aren't recorded. Size of the read file isn't known, when it's opened,
+ * so only the saved files have sizes in the trace
+ *
+ * @author Yevhen Filipov
+ */
+
+public class TracingFileStorageImpl implements FileStorage, Closeable {
+
+    private final FileStorage storage;
+    private final TraceWriter traceWriter;
+
+    /**
+     * Starts recording of the operations of the storage
+     *
+     * @param storage   traced storage
+     * @param tracePath path of the trace file, existing file is overwritten
+     * @throws com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException if the trace file can't be created
+     */
+
+    public TracingFileStorageImpl(FileStorage storage, String tracePath) {
+        if (storage == null || tracePath == null)
+            throw new IncorrectArgumentFileStorageException("Value of storage or tracePath is null");
+        this.storage = storage;
+        this.traceWriter = new TraceWriter(tracePath);
+    }
+
+    @Override
+    public void saveFile(String key, InputStream inputStream) throws NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
+        this.saveFileWithLifeTime(key, inputStream, 0);
+    }
+
+    @Override
+    public void saveFile(String key, InputStream inputStream, long fileLifeTime) throws NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
+        if (fileLifeTime <= 0)
+            throw new IncorrectArgumentFileStorageException("Value of fileLifeTime <= 0");
+        this.saveFileWithLifeTime(key, inputStream, fileLifeTime);
+    }
+
+    private void saveFileWithLifeTime(String key, InputStream inputStream, long fileLifeTime) throws NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
+        final long startTime = System.nanoTime();
+        final CountingInputStream countingInputStream = new CountingInputStream(inputStream);
+        Throwable failure = null;
+        try {
+            if (fileLifeTime > 0)
+                this.storage.saveFile(key, countingInputStream, fileLifeTime);
+            else
+                this.storage.saveFile(key, countingInputStream);
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            this.record(TraceRecord.Operation.SAVE, key, countingInputStream.getCount(), fileLifeTime, startTime, failure);
+        }
+    }
+
+    @Override
+    public InputStream readFile(String key) throws KeyNotExistFileStorageException {
+        final long startTime = System.nanoTime();
+        Throwable failure = null;
+        try {
+            return this.storage.readFile(key);
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            this.record(TraceRecord.Operation.READ, key, 0, 0, startTime, failure);
+        }
+    }
+
+    @Override
+    public void deleteFile(String key) throws KeyNotExistFileStorageException {
+        final long startTime = System.nanoTime();
+        Throwable failure = null;
+        try {
+            this.storage.deleteFile(key);
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            this.record(TraceRecord.Operation.DELETE, key, 0, 0, startTime, failure);
+        }
+    }
+
+    @Override
+    public FileStat stat(String key) throws KeyNotExistFileStorageException {
+        final long startTime = System.nanoTime();
+        Throwable failure = null;
+        try {
+            return this.storage.stat(key);
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            this.record(TraceRecord.Operation.STAT, key, 0, 0, startTime, failure);
+        }
+    }
+
+    @Override
+    public boolean exists(String key) {
+        final long startTime = System.nanoTime();
+        final boolean exists = this.storage.exists(key);
+        this.traceWriter.append(TraceRecord.Operation.EXISTS, exists ? TraceRecord.Status.OK : TraceRecord.Status.KEY_NOT_EXIST,
+                KeyHashing.hash64(key), 0, 0, startTime);
+        return exists;
+    }
+
+    @Override
+    public Stream<String> keys() {
+        return this.storage.keys();
+    }
+
+    @Override
+    public Stream<String> keys(String prefix) {
+        return this.storage.keys(prefix);
+    }
+
+    @Override
+    public KeyIterator keyIterator(String prefix, String cursor) {
+        return this.storage.keyIterator(prefix, cursor);
+    }
+
+    @Override
+    public long freeSpaceInBytes() {
+        return this.storage.freeSpaceInBytes();
+    }
+
+    @Override
+    public int freeSpaceInPercents() {
+        return this.storage.freeSpaceInPercents();
+    }
+
+    @Override
+    public void purge(long discSpaceInBytes) {
+        final long startTime = System.nanoTime();
+        Throwable failure = null;
+        try {
+            this.storage.purge(discSpaceInBytes);
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            this.record(TraceRecord.Operation.PURGE, null, discSpaceInBytes, 0, startTime, failure);
+        }
+    }
+
+    @Override
+    public void purge(int discSpaceInPercents) {
+        final long startTime = System.nanoTime();
+        Throwable failure = null;
+        try {
+            this.storage.purge(discSpaceInPercents);
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            this.record(TraceRecord.Operation.PURGE_IN_PERCENTS, null, discSpaceInPercents, 0, startTime, failure);
+        }
+    }
+
+    private void record(TraceRecord.Operation operation, String key, long size, long lifeTime, long startTime, Throwable failure) {
+        final TraceRecord.Status status;
+        if (failure == null)
+            status = TraceRecord.Status.OK;
+        else if (failure instanceof KeyNotExistFileStorageException)
+            status = TraceRecord.Status.KEY_NOT_EXIST;
+        else if (failure instanceof KeyAlreadyExistFileStorageException)
+            status = TraceRecord.Status.KEY_ALREADY_EXIST;
+        else if (failure instanceof NoFreeSpaceFileStorageException)
+            status = TraceRecord.Status.NO_FREE_SPACE;
+        else
+            status = TraceRecord.Status.FAILED;
+        // Key of the rejected operation may be null
+        this.traceWriter.append(operation, status, key != null ? KeyHashing.hash64(key) : 0, size, lifeTime, startTime);
+    }
+
+    /**
+     * @return number of the operations, which were recorded to the trace
+     */
+
+    public long getRecordedOperations() {
+        return this.traceWriter.getWrittenRecords();
+    }
+
+    /**
+     * @return number of the operations, which weren't recorded, because the trace didn't keep up with the storage
+     */
+
+    public long getDroppedOperations() {
+        return this.traceWriter.getDroppedRecords();
+    }
+
+    /**
+     * Stops recording and writes the rest of the trace. Traced storage isn't closed
+     */
+
+    @Override
+    public void close() {
+        try {
+            this.traceWriter.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import com.filipov.fileservice.FileStorageImpl.AdmissionController;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.RejectedOperationFileStorageException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class AdmissionControllerTest {
+
+    @Test
+    public void fullQueueTest() throws InterruptedException {
+        final AdmissionController admissionController = new AdmissionController(4, 1, 1, 5000l, 1000l);
+        final long admissionTime = admissionController.beginWrite("first");
+        final CountDownLatch queued = new CountDownLatch(1);
+        final Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queued.countDown();
+                admissionController.endWrite(admissionController.beginWrite("second"), 0);
+            }
+        });
+        waiter.start();
+        queued.await();
+        Thread.sleep(50);
+
+        try {
+            admissionController.beginWrite("third");
+            Assert.fail("Operation over the full queue is admitted");
+        } catch (RejectedOperationFileStorageException e) {
+            Assert.assertEquals("Key of the rejected operation test", "third", e.getFileKey());
+        }
+        admissionController.endRead(admissionController.beginRead("read"), 0);
+
+        admissionController.endWrite(admissionTime, 0);
+        waiter.join(1000);
+        Assert.assertFalse("Waiting operation is admitted test", waiter.isAlive());
+        Assert.assertEquals("Rejected operations test", 1, admissionController.getRejectedOperations());
+    }
+
+    @Test
+    public void deadlineTest() {
+        final AdmissionController admissionController = new AdmissionController(1, 1, 10, 100l, 1000l);
+        final long admissionTime = admissionController.beginRead("first");
+        final long start = System.nanoTime();
+        try {
+            admissionController.beginRead("second");
+            Assert.fail("Operation is admitted over the limit");
+        } catch (RejectedOperationFileStorageException e) {
+            Assert.assertTrue("Wait until the deadline test", System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+        }
+        admissionController.endRead(admissionTime, 0);
+    }
+
+    @Test
+    public void fairQueueTest() throws InterruptedException {
+        final AdmissionController admissionController = new AdmissionController(1, 1, 10, 5000l, 1000l);
+        final long admissionTime = admissionController.beginWrite("first");
+        final List<Integer> admissionOrder = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Thread> waiters = new ArrayList<Thread>();
+        for (int i = 0; i < 3; i++) {
+            final int number = i;
+            final Thread waiter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final long time = admissionController.beginWrite("waiter" + number);
+                    admissionOrder.add(number);
+                    admissionController.endWrite(time, 0);
+                }
+            });
+            waiter.start();
+            waiters.add(waiter);
+            Thread.sleep(50);
+        }
+
+        admissionController.endWrite(admissionTime, 0);
+        for (Thread waiter : waiters)
+            waiter.join(1000);
+        Assert.assertEquals("FIFO order test", "[0, 1, 2]", admissionOrder.toString());
+    }
+
+    @Test
+    public void adaptiveLimitTest() throws InterruptedException {
+        final AdmissionController admissionController = new AdmissionController(8, 8, 10, 1000l, 5l);
+        for (int i = 0; i < 3; i++) {
+            final long time = admissionController.beginWrite("slow");
+            Thread.sleep(20);
+            admissionController.endWrite(time, 0);
+        }
+        final int decreasedLimit = admissionController.getWriteLimit();
+        Assert.assertTrue("Limit is decreased by slow operations test", decreasedLimit < 8);
+        Assert.assertEquals("Read limit is independent test", 8, admissionController.getReadLimit());
+
+        for (int i = 0; i < 100; i++)
+            admissionController.endWrite(admissionController.beginWrite("fast"), 0);
+        Assert.assertTrue("Limit is increased by fast operations test", admissionController.getWriteLimit() > decreasedLimit);
+
+        // Latency of the big file is counted per megabyte
+        final long time = admissionController.beginWrite("big");
+        Thread.sleep(20);
+        final int limit = admissionController.getWriteLimit();
+        admissionController.endWrite(time, 100 * 1024 * 1024);
+        Assert.assertTrue("Big file isn't slow test", admissionController.getWriteLimit() >= limit);
+    }
+}
@@ -0,0 +1,156 @@
+import com.filipov.fileservice.FileStorage;
+import com.filipov.fileservice.CachingFileStorageImpl.CachingFileStorageImpl;
+import com.filipov.fileservice.CachingFileStorageImpl.WritePolicy;
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyAlreadyExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.NoFreeSpaceFileStorageException;
+import com.filipov.fileservice.InMemoryFileStorageImpl.InMemoryFileStorageImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class CachingFileStorageTest {
+
+    @Test
+    public void writeThroughTest() throws FileStorageException, IOException {
+        final FileStorage frontStorage = new InMemoryFileStorageImpl(64 * 1024, 16 * 1024);
+        final FileStorage backStorage = new InMemoryFileStorageImpl(4 * 1024 * 1024);
+        final CachingFileStorageImpl fileStorage = new CachingFileStorageImpl(frontStorage, backStorage, WritePolicy.WRITE_THROUGH, 16 * 1024);
+
+        // Front storage liberates space for the new files by its own purge
+        for (int i = 0; i < 20; i++)
+            fileStorage.saveFile("cachedFile" + i, new ByteArrayInputStream(FileContents.content(i, 10 * 1024)));
+        Assert.assertTrue("The newest file is cached test", frontStorage.exists("cachedFile19"));
+        Assert.assertFalse("The oldest file is evicted test", frontStorage.exists("cachedFile0"));
+        Assert.assertEquals("All files are kept by the back storage test", 20, backStorage.keys().count());
+
+        Assert.assertArrayEquals("Cached file test", FileContents.content(19, 10 * 1024), FileContents.readAll(fileStorage.readFile("cachedFile19")));
+        Assert.assertEquals("Hit test", 1, fileStorage.getHits());
+        Assert.assertArrayEquals("Evicted file test", FileContents.content(0, 10 * 1024), FileContents.readAll(fileStorage.readFile("cachedFile0")));
+        Assert.assertEquals("Miss test", 1, fileStorage.getMisses());
+
+        fileStorage.saveFile("bigFile", new ByteArrayInputStream(FileContents.content(40, 20 * 1024)));
+        Assert.assertFalse("Big file isn't cached test", frontStorage.exists("bigFile"));
+
+        fileStorage.deleteFile("cachedFile19");
+        Assert.assertFalse("Deleted file isn't cached test", frontStorage.exists("cachedFile19"));
+    }
+
+    @Test
+    public void writeAroundTest() throws FileStorageException, IOException, InterruptedException {
+        final FileStorage frontStorage = new InMemoryFileStorageImpl(1024 * 1024);
+        final FileStorage backStorage = new InMemoryFileStorageImpl(1024 * 1024);
+        final CachingFileStorageImpl fileStorage = new CachingFileStorageImpl(frontStorage, backStorage, WritePolicy.WRITE_AROUND, 64 * 1024);
+
+        fileStorage.saveFile("aroundFile", new ByteArrayInputStream(FileContents.content(41, 1000)));
+        Assert.assertFalse("File isn't cached by saving test", frontStorage.exists("aroundFile"));
+
+        Assert.assertArrayEquals("Reading of the missed file test", FileContents.content(41, 1000), FileContents.readAll(fileStorage.readFile("aroundFile")));
+        for (int i = 0; i < 100 && !frontStorage.exists("aroundFile"); i++)
+            Thread.sleep(10);
+        Assert.assertTrue("File is cached by reading test", frontStorage.exists("aroundFile"));
+        try {
+            fileStorage.readFile("missingFile");
+            Assert.fail("Missing file is read");
+        } catch (KeyNotExistFileStorageException e) {
+            // The key doesn't exist in both storages
+        }
+    }
+
+    @Test
+    public void singleFlightTest() throws Exception {
+        final FileStorage frontStorage = new InMemoryFileStorageImpl(1024 * 1024);
+        final FileStorage backStorage = new InMemoryFileStorageImpl(1024 * 1024) {
+            @Override
+            public InputStream readFile(String key) throws KeyNotExistFileStorageException {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.readFile(key);
+            }
+        };
+        final CachingFileStorageImpl fileStorage = new CachingFileStorageImpl(frontStorage, backStorage, WritePolicy.WRITE_AROUND, 64 * 1024);
+        final byte[] content = FileContents.content(42, 5000);
+        fileStorage.saveFile("popularFile", new ByteArrayInputStream(content));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<byte[]>> readings = new ArrayList<Future<byte[]>>();
+        for (int i = 0; i < 8; i++) {
+            readings.add(executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    start.await();
+                    return FileContents.readAll(fileStorage.readFile("popularFile"));
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<byte[]> reading : readings)
+            Assert.assertArrayEquals("Coalesced reading test", content, reading.get());
+        executor.shutdown();
+        Assert.assertEquals("One reading of the back storage test", 1, fileStorage.getBackReads());
+    }
+
+    @Test
+    public void purgedFileTest() throws FileStorageException {
+        final FileStorage frontStorage = new InMemoryFileStorageImpl(1024 * 1024);
+        final FileStorage backStorage = new InMemoryFileStorageImpl(1024 * 1024);
+        final CachingFileStorageImpl fileStorage = new CachingFileStorageImpl(frontStorage, backStorage, WritePolicy.WRITE_THROUGH, 64 * 1024);
+
+        fileStorage.saveFile("purgedFile", new ByteArrayInputStream(FileContents.content(43, 1000)));
+        Assert.assertTrue("File is cached test", frontStorage.exists("purgedFile"));
+        fileStorage.purge(1024 * 1024l);
+        Assert.assertFalse("Purged file doesn't exist test", fileStorage.exists("purgedFile"));
+        try {
+            fileStorage.readFile("purgedFile");
+            Assert.fail("Purged file is read from the front storage");
+        } catch (KeyNotExistFileStorageException e) {
+            // Copy in the front storage isn't served without the file in the back storage
+        }
+        Assert.assertFalse("Copy of the purged file is deleted test", frontStorage.exists("purgedFile"));
+    }
+
+    @Test
+    public void replacedDuringPopulationTest() throws Exception {
+        final CountDownLatch populationStarted = new CountDownLatch(1);
+        final CountDownLatch fileReplaced = new CountDownLatch(1);
+        final FileStorage frontStorage = new InMemoryFileStorageImpl(1024 * 1024) {
+            @Override
+            public void saveFile(String key, InputStream inputStream) throws NoFreeSpaceFileStorageException, KeyAlreadyExistFileStorageException {
+                // Population of the old content waits, until the file is replaced
+                if (populationStarted.getCount() > 0) {
+                    populationStarted.countDown();
+                    try {
+                        fileReplaced.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.saveFile(key, inputStream);
+            }
+        };
+        final FileStorage backStorage = new InMemoryFileStorageImpl(1024 * 1024);
+        final CachingFileStorageImpl fileStorage = new CachingFileStorageImpl(frontStorage, backStorage, WritePolicy.WRITE_AROUND, 64 * 1024);
+
+        fileStorage.saveFile("replacedFile", new ByteArrayInputStream(FileContents.content(44, 1000)));
+        Assert.assertArrayEquals("Old content test", FileContents.content(44, 1000), FileContents.readAll(fileStorage.readFile("replacedFile")));
+        Assert.assertTrue("Population started test", populationStarted.await(5, TimeUnit.SECONDS));
+        fileStorage.deleteFile("replacedFile");
+        fileStorage.saveFile("replacedFile", new ByteArrayInputStream(FileContents.content(45, 1000)));
+        fileReplaced.countDown();
+
+        for (int i = 0; i < 100 && frontStorage.exists("replacedFile"); i++)
+            Thread.sleep(10);
+        Assert.assertFalse("Old content isn't cached test", frontStorage.exists("replacedFile"));
+        Assert.assertArrayEquals("New content test", FileContents.content(45, 1000), FileContents.readAll(fileStorage.readFile("replacedFile")));
+    }
+}
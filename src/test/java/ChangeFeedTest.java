@@ -0,0 +1,186 @@
+import com.filipov.fileservice.FileStorageImpl.*;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ChangeFeedTest {
+
+    static FileStorageImpl fileStorage;
+
+    @BeforeClass
+    public static void init() {
+        fileStorage = new FileStorageImpl("target/testRoot", 1000000l, new FileStorageOptions().setChangeBufferSize(8));
+    }
+
+    @Test
+    public void eventTypesTest() throws FileStorageException, InterruptedException {
+        final CollectingListener listener = new CollectingListener(null);
+        final ChangeSubscription subscription = fileStorage.subscribe(listener, OverflowPolicy.BLOCK);
+
+        fileStorage.saveFile("changedFile", new ByteArrayInputStream(new byte[100]));
+        fileStorage.deleteFile("changedFile");
+        fileStorage.saveFile("expiredChangedFile", new ByteArrayInputStream(new byte[100]), 100l);
+        Assert.assertTrue("Expiration event test", listener.await(ChangeEvent.Type.EXPIRED, "expiredChangedFile", 5000l));
+        fileStorage.saveFile("purgedChangedFile", new ByteArrayInputStream(new byte[100]));
+        fileStorage.purge(fileStorage.freeSpaceInBytes() + 1);
+        Assert.assertTrue("Purge event test", listener.await(ChangeEvent.Type.PURGED, null, 5000l));
+        subscription.close();
+
+        final List<ChangeEvent> events = listener.getEvents();
+        Assert.assertEquals("Saving event test", "changedFile", events.get(0).getKey());
+        Assert.assertEquals("Saving event type test", ChangeEvent.Type.SAVED, events.get(0).getType());
+        Assert.assertEquals("Deleting event test", "changedFile", events.get(1).getKey());
+        Assert.assertEquals("Deleting event type test", ChangeEvent.Type.DELETED, events.get(1).getType());
+        for (ChangeEvent event : events) {
+            if (event.getType() == ChangeEvent.Type.PURGED && event.getKey() != null)
+                Assert.assertFalse("Purged file is deleted test", fileStorage.exists(event.getKey()));
+        }
+        Assert.assertEquals("No dropped events test", 0, subscription.getDroppedEvents());
+
+        final int numberOfEvents = events.size();
+        fileStorage.saveFile("unsubscribedChangedFile", new ByteArrayInputStream(new byte[100]));
+        Assert.assertEquals("Closed subscription test", numberOfEvents, listener.getEvents().size());
+    }
+
+    @Test
+    public void dropPolicyTest() throws FileStorageException, InterruptedException {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CollectingListener listener = new CollectingListener(gate);
+        final ChangeSubscription subscription = fileStorage.subscribe(listener, OverflowPolicy.DROP);
+
+        for (int i = 0; i < 50; i++)
+            fileStorage.saveFile("droppedChangeFile" + i, new ByteArrayInputStream(new byte[10]));
+        Assert.assertTrue("Events are dropped test", subscription.getDroppedEvents() > 0);
+        gate.countDown();
+        subscription.close();
+
+        Assert.assertEquals("Delivered and dropped events test", 50, subscription.getDeliveredEvents() + subscription.getDroppedEvents());
+        Assert.assertEquals("Delivered events test", subscription.getDeliveredEvents(), listener.getEvents().size());
+    }
+
+    @Test
+    public void spillPolicyTest() throws FileStorageException, InterruptedException {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CollectingListener listener = new CollectingListener(gate);
+        final ChangeSubscription subscription = fileStorage.subscribe(listener, OverflowPolicy.SPILL);
+
+        for (int i = 0; i < 50; i++)
+            fileStorage.saveFile("spilledChangeFile" + i, new ByteArrayInputStream(new byte[10]));
+        Assert.assertTrue("Events are spilled test", subscription.getSpilledEvents() > 0);
+        gate.countDown();
+        subscription.close();
+
+        final List<ChangeEvent> events = listener.getEvents();
+        Assert.assertEquals("All events are delivered test", 50, events.size());
+        for (int i = 0; i < 50; i++)
+            Assert.assertEquals("Order of the events test", "spilledChangeFile" + i, events.get(i).getKey());
+        Assert.assertEquals("No dropped events test", 0, subscription.getDroppedEvents());
+    }
+
+    @Test
+    public void blockPolicyTest() throws InterruptedException {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CollectingListener listener = new CollectingListener(gate);
+        final ChangeSubscription subscription = fileStorage.subscribe(listener, OverflowPolicy.BLOCK);
+
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 50; i++)
+                        fileStorage.saveFile("blockedChangeFile" + i, new ByteArrayInputStream(new byte[10]));
+                } catch (FileStorageException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        writer.start();
+        writer.join(300);
+        Assert.assertTrue("Writer waits for the slow listener test", writer.isAlive());
+
+        gate.countDown();
+        writer.join(5000);
+        subscription.close();
+        Assert.assertEquals("All events are delivered test", 50, listener.getEvents().size());
+        Assert.assertEquals("No dropped events test", 0, subscription.getDroppedEvents());
+    }
+
+    private static class CollectingListener implements ChangeListener {
+
+        private final CountDownLatch gate;
+        private final List<ChangeEvent> events = new ArrayList<ChangeEvent>();
+
+        private CollectingListener(CountDownLatch gate) {
+            this.gate = gate;
+        }
+
+        @Override
+        public void onChanges(List<ChangeEvent> batch) {
+            try {
+                if (this.gate != null)
+                    this.gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                this.events.addAll(batch);
+                this.notifyAll();
+            }
+        }
+
+        private synchronized List<ChangeEvent> getEvents() {
+            return new ArrayList<ChangeEvent>(this.events);
+        }
+
+        private synchronized boolean await(ChangeEvent.Type type, String key, long timeout) throws InterruptedException {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (true) {
+                for (ChangeEvent event : this.events) {
+                    if (event.getType() == type && (key == null || key.equals(event.getKey())))
+                        return true;
+                }
+                final long remainingTime = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingTime <= 0)
+                    return false;
+                this.wait(remainingTime);
+            }
+        }
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        fileStorage.close();
+        deleteTestFiles();
+    }
+
+    private static void deleteTestFiles() throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get("target/testRoot/userData");
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}
@@ -0,0 +1,104 @@
+import com.filipov.fileservice.FileStat;
+import com.filipov.fileservice.FileStorageImpl.DeflateCodec;
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import com.filipov.fileservice.FileStorageImpl.FileStorageOptions;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+public class CompressionTest {
+
+    static FileStorageImpl fileStorage;
+
+    @BeforeClass
+    public static void init() {
+        fileStorage = compressingFileStorage();
+    }
+
+    @Test
+    public void compressibleFileTest() throws FileStorageException, IOException {
+        final byte[] content = text(200 * 1024);
+        final long freeSpace = fileStorage.freeSpaceInBytes();
+        fileStorage.saveFile("compressibleFile", new ByteArrayInputStream(content));
+
+        final FileStat fileStat = fileStorage.stat("compressibleFile");
+        Assert.assertEquals("Size of the content test", content.length, fileStat.getSize());
+        Assert.assertTrue("Compression test", fileStat.getStoredSize() * 5 < fileStat.getSize());
+        Assert.assertEquals("Used disc space test", fileStat.getStoredSize(), freeSpace - fileStorage.freeSpaceInBytes());
+        Assert.assertArrayEquals("Decompression test", content, FileContents.readAll(fileStorage.readFile("compressibleFile")));
+    }
+
+    @Test
+    public void incompressibleFileTest() throws FileStorageException, IOException {
+        final byte[] content = new byte[100 * 1024];
+        new Random(5).nextBytes(content);
+        fileStorage.saveFile("incompressibleFile", new ByteArrayInputStream(content));
+
+        final FileStat fileStat = fileStorage.stat("incompressibleFile");
+        Assert.assertEquals("Bypass test", fileStat.getSize(), fileStat.getStoredSize());
+        Assert.assertArrayEquals("Reading test", content, FileContents.readAll(fileStorage.readFile("incompressibleFile")));
+    }
+
+    @Test
+    public void stagedFileTest() throws FileStorageException, IOException {
+        final byte[] content = text(3 * 1024);
+        fileStorage.saveFile("compressedStagedFile", new ByteArrayInputStream(content));
+        Assert.assertTrue("Compression of the staged file test",
+                fileStorage.stat("compressedStagedFile").getStoredSize() < content.length);
+        Assert.assertArrayEquals("Reading of the staged file test", content, FileContents.readAll(fileStorage.readFile("compressedStagedFile")));
+
+        fileStorage.close();
+        // Compressed files are readable by the storage without compression
+        final FileStorageImpl plainFileStorage = new FileStorageImpl("target/testRoot", 1000000l);
+        Assert.assertArrayEquals("Reading without compression test", content, FileContents.readAll(plainFileStorage.readFile("compressedStagedFile")));
+        plainFileStorage.close();
+        fileStorage = compressingFileStorage();
+    }
+
+    private static FileStorageImpl compressingFileStorage() {
+        return new FileStorageImpl("target/testRoot", 1000000l, new FileStorageOptions()
+                .setCompressionCodec(new DeflateCodec()).setWriteBehind(64 * 1024, 4 * 1024));
+    }
+
+    private static byte[] text(int size) {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < size; i++)
+            text.append("{\"id\":").append(i).append(",\"name\":\"file").append(i % 17).append("\",\"tags\":[\"a\",\"b\"]}\n");
+        return text.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        fileStorage.close();
+        deleteTestFiles();
+    }
+
+    private static void deleteTestFiles() throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get("target/testRoot/userData");
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}
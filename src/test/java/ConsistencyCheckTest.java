@@ -0,0 +1,100 @@
+import com.filipov.fileservice.FileStorageImpl.ConsistencyReport;
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import com.filipov.fileservice.FileStorageImpl.FileStoragePathServiceImpl.PathServiceImpl;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+public class ConsistencyCheckTest {
+
+    private final static String ROOT_PATH = "target/testRoot/consistency";
+
+    static FileStorageImpl fileStorage;
+
+    @BeforeClass
+    public static void init() {
+        fileStorage = new FileStorageImpl(ROOT_PATH, 1000000l);
+    }
+
+    @Test
+    public void checkTest() throws FileStorageException, IOException {
+        fileStorage.saveFile("lostFile", new ByteArrayInputStream(FileContents.content(51, 1024)));
+        fileStorage.saveFile("changedFile", new ByteArrayInputStream(FileContents.content(52, 1024)));
+        fileStorage.saveFile("keptFile", new ByteArrayInputStream(FileContents.content(53, 1024)));
+
+        final ConsistencyReport cleanReport = fileStorage.checkConsistency(false);
+        Assert.assertEquals("Consistent storage test", 0, cleanReport.getNumberOfProblems());
+        Assert.assertEquals("Checked files test", 3, cleanReport.getCheckedFiles());
+        Assert.assertTrue("Used space is verified test", cleanReport.isUsedSpaceVerified());
+
+        final String userDataPath = ROOT_PATH + "/userData";
+        Files.delete(Paths.get(userDataPath + new PathServiceImpl().generateFilePathPresentation("lostFile")));
+        Files.write(Paths.get(userDataPath + new PathServiceImpl().generateFilePathPresentation("changedFile")),
+                FileContents.content(54, 512), StandardOpenOption.APPEND);
+        // Files, which were changed during the last minute, may be being saved
+        final FileTime oldTime = FileTime.fromMillis(System.currentTimeMillis() - 2 * 60 * 60 * 1000l);
+        final Path partialFile = Paths.get(userDataPath, "1", "2", "partialFile");
+        Files.createDirectories(partialFile.getParent());
+        Files.write(partialFile, FileContents.content(55, 256));
+        Files.setLastModifiedTime(partialFile, oldTime);
+        final Path temporaryFile = Paths.get(ROOT_PATH, "replacing", "orphanedFile");
+        Files.createDirectories(temporaryFile.getParent());
+        Files.write(temporaryFile, FileContents.content(56, 128));
+        Files.setLastModifiedTime(temporaryFile, oldTime);
+
+        // Metadata wasn't changed, so only the changed directory is checked
+        final ConsistencyReport incrementalReport = fileStorage.checkRecentChanges(false);
+        Assert.assertTrue("Incremental check test", incrementalReport.isIncremental());
+        Assert.assertEquals("Checked shards test", 0, incrementalReport.getCheckedShards());
+        Assert.assertEquals("Unregistered file of the changed directory test", 1,
+                incrementalReport.getNumberOfProblems(ConsistencyReport.Problem.UNREGISTERED_FILE));
+        Assert.assertEquals("Lost file isn't checked test", 0, incrementalReport.getNumberOfProblems(ConsistencyReport.Problem.LOST_FILE));
+
+        final ConsistencyReport repairReport = fileStorage.checkConsistency(true);
+        Assert.assertEquals("Lost file test", 1, repairReport.getNumberOfProblems(ConsistencyReport.Problem.LOST_FILE));
+        Assert.assertEquals("Changed file test", 1, repairReport.getNumberOfProblems(ConsistencyReport.Problem.SIZE_MISMATCH));
+        Assert.assertEquals("Unregistered file test", 1, repairReport.getNumberOfProblems(ConsistencyReport.Problem.UNREGISTERED_FILE));
+        Assert.assertEquals("Orphaned file test", 1, repairReport.getNumberOfProblems(ConsistencyReport.Problem.ORPHANED_TEMPORARY_FILE));
+        Assert.assertFalse("Orphaned file is deleted test", Files.exists(temporaryFile));
+
+        final ConsistencyReport repairedReport = fileStorage.checkConsistency(false);
+        Assert.assertEquals("Repaired storage test", 0, repairedReport.getNumberOfProblems());
+        Assert.assertTrue("Repaired used space test", repairedReport.isUsedSpaceVerified());
+        Assert.assertFalse("Lost file is removed test", fileStorage.exists("lostFile"));
+        Assert.assertEquals("Used space test", 1024 + 512 + 1024 + 256, 1000000l - fileStorage.freeSpaceInBytes());
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        fileStorage.close();
+        deleteTestFiles();
+    }
+
+    private static void deleteTestFiles() throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get(ROOT_PATH);
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}
@@ -0,0 +1,109 @@
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import com.filipov.fileservice.FileStorageImpl.FileStorageOptions;
+import com.filipov.fileservice.FileStorageImpl.SpaceReport;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+public class DeduplicationTest {
+
+    static FileStorageImpl fileStorage;
+
+    @BeforeClass
+    public static void init() {
+        fileStorage = new FileStorageImpl("target/testRoot", 1000000l, new FileStorageOptions().setDeduplication(true));
+    }
+
+    @Test
+    public void sameContentTest() throws FileStorageException, IOException {
+        final byte[] content = FileContents.content(11, 50 * 1024);
+        final long freeSpace = fileStorage.freeSpaceInBytes();
+        final long numberOfBlobs = fileStorage.getSpaceReport().getNumberOfBlobs();
+
+        fileStorage.saveFile("dedupFile1", new ByteArrayInputStream(content));
+        fileStorage.saveFile("dedupFile2", new ByteArrayInputStream(content));
+        fileStorage.saveFile("dedupFile3", new ByteArrayInputStream(content));
+
+        Assert.assertEquals("Physical space test", content.length, freeSpace - fileStorage.freeSpaceInBytes());
+        final SpaceReport spaceReport = fileStorage.getSpaceReport();
+        Assert.assertEquals("Number of blobs test", numberOfBlobs + 1, spaceReport.getNumberOfBlobs());
+        Assert.assertTrue("Ratio test", spaceReport.getRatio() >= 2.9);
+        Assert.assertArrayEquals("Reading test", content, FileContents.readAll(fileStorage.readFile("dedupFile2")));
+
+        fileStorage.deleteFile("dedupFile1");
+        fileStorage.deleteFile("dedupFile2");
+        Assert.assertEquals("Blob is kept while referenced test", content.length, freeSpace - fileStorage.freeSpaceInBytes());
+        Assert.assertArrayEquals("Reading of the last reference test", content, FileContents.readAll(fileStorage.readFile("dedupFile3")));
+
+        fileStorage.deleteFile("dedupFile3");
+        Assert.assertEquals("Blob is released test", freeSpace, fileStorage.freeSpaceInBytes());
+        Assert.assertEquals("Blob is deleted test", numberOfBlobs, fileStorage.getSpaceReport().getNumberOfBlobs());
+    }
+
+    @Test
+    public void restartTest() throws FileStorageException, IOException {
+        final byte[] content = FileContents.content(12, 20 * 1024);
+        fileStorage.saveFile("restartDedupFile1", new ByteArrayInputStream(content));
+        fileStorage.saveFile("restartDedupFile2", new ByteArrayInputStream(content));
+        fileStorage.saveFile("restartDedupFile3", new ByteArrayInputStream(FileContents.content(13, 20 * 1024)));
+
+        // Reference counts and physical space are restored from the metadata
+        final long freeSpace = fileStorage.freeSpaceInBytes();
+        fileStorage.close();
+        fileStorage = new FileStorageImpl("target/testRoot", 1000000l, new FileStorageOptions().setDeduplication(true));
+        Assert.assertEquals("Physical space after restart test", freeSpace, fileStorage.freeSpaceInBytes());
+
+        fileStorage.deleteFile("restartDedupFile1");
+        Assert.assertEquals("Shared blob is kept test", freeSpace, fileStorage.freeSpaceInBytes());
+        fileStorage.deleteFile("restartDedupFile2");
+        fileStorage.deleteFile("restartDedupFile3");
+        Assert.assertEquals("Blobs are released test", freeSpace + 2 * content.length, fileStorage.freeSpaceInBytes());
+    }
+
+    @Test
+    public void purgeTest() throws FileStorageException {
+        final byte[] content = FileContents.content(14, 30 * 1024);
+        final FileStorageImpl purgedFileStorage = new FileStorageImpl("target/testRoot/purge", 100000l,
+                new FileStorageOptions().setDeduplication(true));
+        for (int i = 0; i < 3; i++)
+            purgedFileStorage.saveFile("purgeDedupFile" + i, new ByteArrayInputStream(content));
+
+        purgedFileStorage.purge(100000l);
+        Assert.assertEquals("Purge releases the blob test", 100000l, purgedFileStorage.freeSpaceInBytes());
+        Assert.assertEquals("All references are deleted test", 0, purgedFileStorage.getSpaceReport().getNumberOfBlobs());
+        purgedFileStorage.close();
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        fileStorage.close();
+        deleteTestFiles();
+    }
+
+    private static void deleteTestFiles() throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get("target/testRoot/userData");
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}
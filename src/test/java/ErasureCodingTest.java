@@ -0,0 +1,189 @@
+import com.filipov.fileservice.ErasureCodedFileStorageImpl.ErasureCodedFileStorageImpl;
+import com.filipov.fileservice.ErasureCodedFileStorageImpl.RebuildTask;
+import com.filipov.fileservice.FileStorage;
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import com.filipov.fileservice.FileStorageImpl.ReadWriteFileStorageException;
+import com.filipov.fileservice.KeyIterator;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.zip.CRC32;
+
+public class ErasureCodingTest {
+
+    private final static String ROOT_PATH = "target/testRoot/erasureCoding";
+    private final static int STORAGES = 6;
+
+    static List<FileStorage> storages = new ArrayList<FileStorage>();
+    static ErasureCodedFileStorageImpl fileStorage;
+    static FileStorageImpl replacingStorage;
+
+    @BeforeClass
+    public static void init() {
+        for (int i = 0; i < STORAGES; i++)
+            storages.add(new FileStorageImpl(ROOT_PATH + "/root" + i, 10000000l));
+        fileStorage = new ErasureCodedFileStorageImpl(storages, 3, 2, 4 * 1024, 1024);
+    }
+
+    @Test
+    public void saveReadTest() throws FileStorageException, IOException {
+        final byte[] bigContent = FileContents.content(51, 100 * 1024 + 17);
+        final byte[] smallContent = FileContents.content(52, 500);
+        fileStorage.saveFile("bigObject", new ByteArrayInputStream(bigContent));
+        fileStorage.saveFile("smallObject", new ByteArrayInputStream(smallContent));
+        fileStorage.saveFile("emptyObject", new ByteArrayInputStream(new byte[0]));
+
+        Assert.assertArrayEquals("Big object test", bigContent, FileContents.readAll(fileStorage.readFile("bigObject")));
+        Assert.assertArrayEquals("Small object test", smallContent, FileContents.readAll(fileStorage.readFile("smallObject")));
+        Assert.assertEquals("Empty object test", 0, FileContents.readAll(fileStorage.readFile("emptyObject")).length);
+        Assert.assertEquals("Chunks of the big object test", 5, chunks("bigObject"));
+        Assert.assertEquals("Copies of the small object test", 3, chunks("smallObject"));
+        Assert.assertEquals("Size test", bigContent.length, fileStorage.stat("bigObject").getSize());
+        Assert.assertEquals("Checksum test", checksum(bigContent), fileStorage.stat("bigObject").getChecksum());
+        Assert.assertEquals("Listing test", 3, fileStorage.keys("").count());
+
+        fileStorage.deleteFile("emptyObject");
+        Assert.assertFalse("Deleting test", fileStorage.exists("emptyObject"));
+        Assert.assertEquals("Deleted chunks test", 0, chunks("emptyObject"));
+    }
+
+    @Test
+    public void lostChunksTest() throws FileStorageException, IOException {
+        final byte[] content = FileContents.content(53, 50 * 1024);
+        fileStorage.saveFile("lostChunksObject", new ByteArrayInputStream(content));
+        deleteChunks("lostChunksObject", 2);
+
+        Assert.assertArrayEquals("Restored object test", content, FileContents.readAll(fileStorage.readFile("lostChunksObject")));
+        Assert.assertEquals("Listing of the damaged object test", 1, fileStorage.keys("lostChunks").count());
+        Assert.assertEquals("Metadata of the damaged object test", content.length, fileStorage.stat("lostChunksObject").getSize());
+
+        deleteChunks("lostChunksObject", 1);
+        try {
+            FileContents.readAll(fileStorage.readFile("lostChunksObject"));
+            Assert.fail("Too many lost chunks test");
+        } catch (ReadWriteFileStorageException e) {
+            // Only 2 of 3 required chunks are left
+        }
+        fileStorage.deleteFile("lostChunksObject");
+    }
+
+    @Test
+    public void damagedChunkTest() throws FileStorageException, IOException {
+        final byte[] content = FileContents.content(54, 30 * 1024);
+        fileStorage.saveFile("damagedObject", new ByteArrayInputStream(content));
+        for (FileStorage storage : storages) {
+            if (!storage.exists("damagedObject"))
+                continue;
+            final byte[] chunk = FileContents.readAll(storage.readFile("damagedObject"));
+            // Second byte of the first cell
+            chunk[14] ^= 1;
+            ((FileStorageImpl) storage).putFile("damagedObject", new ByteArrayInputStream(chunk));
+            break;
+        }
+        Assert.assertArrayEquals("Damaged chunk test", content, FileContents.readAll(fileStorage.readFile("damagedObject")));
+    }
+
+    @Test
+    public void keyIteratorTest() throws FileStorageException {
+        for (int i = 0; i < 20; i++)
+            fileStorage.saveFile("iterated" + i, new ByteArrayInputStream(FileContents.content(i, 2000)));
+        deleteChunks("iterated7", 2);
+
+        final Set<String> keys = new HashSet<String>();
+        KeyIterator keyIterator = fileStorage.keyIterator("iterated", null);
+        for (int i = 0; i < 5; i++)
+            keys.add(keyIterator.next());
+        keyIterator = fileStorage.keyIterator("iterated", keyIterator.getCursor());
+        while (keyIterator.hasNext())
+            Assert.assertTrue("Key is listed once test", keys.add(keyIterator.next()));
+        Assert.assertEquals("Resumed iteration test", 20, keys.size());
+    }
+
+    @Test
+    public void rebuildTest() throws FileStorageException, IOException, InterruptedException {
+        final Map<String, byte[]> contents = new HashMap<String, byte[]>();
+        for (int i = 0; i < 10; i++) {
+            contents.put("rebuilt" + i, FileContents.content(100 + i, i % 2 == 0 ? 20 * 1024 + i : 700));
+            fileStorage.saveFile("rebuilt" + i, new ByteArrayInputStream(contents.get("rebuilt" + i)));
+        }
+        final FileStorage failedStorage = storages.get(1);
+        replacingStorage = new FileStorageImpl(ROOT_PATH + "/replaced", 10000000l);
+        final FileStorage newStorage = replacingStorage;
+        final RebuildTask rebuildTask = fileStorage.replaceStorage(1, newStorage);
+        Assert.assertTrue("Rebuild finish test", rebuildTask.await(60000));
+        Assert.assertEquals("Failed rebuild test", 0, rebuildTask.getFailedFiles());
+
+        long expectedChunks = 0;
+        for (String key : contents.keySet()) {
+            if (!failedStorage.exists(key))
+                continue;
+            expectedChunks++;
+            Assert.assertArrayEquals("Rebuilt chunk test", FileContents.readAll(failedStorage.readFile(key)), FileContents.readAll(newStorage.readFile(key)));
+        }
+        Assert.assertTrue("Rebuilt chunks test", rebuildTask.getRebuiltFiles() >= expectedChunks);
+        for (Map.Entry<String, byte[]> entry : contents.entrySet())
+            Assert.assertArrayEquals("Content after rebuild test", entry.getValue(), FileContents.readAll(fileStorage.readFile(entry.getKey())));
+    }
+
+    private static void deleteChunks(String key, int number) throws FileStorageException {
+        int deleted = 0;
+        for (FileStorage storage : storages) {
+            if (deleted < number && storage.exists(key)) {
+                storage.deleteFile(key);
+                deleted++;
+            }
+        }
+    }
+
+    private static int chunks(String key) {
+        int chunks = 0;
+        for (FileStorage storage : storages) {
+            if (storage.exists(key))
+                chunks++;
+        }
+        return chunks;
+    }
+
+    private static long checksum(byte[] content) {
+        final CRC32 checksum = new CRC32();
+        checksum.update(content, 0, content.length);
+        return checksum.getValue();
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        for (FileStorage storage : storages)
+            ((FileStorageImpl) storage).close();
+        if (replacingStorage != null)
+            replacingStorage.close();
+        deleteTestFiles();
+    }
+
+    private static void deleteTestFiles() throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get(ROOT_PATH);
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}
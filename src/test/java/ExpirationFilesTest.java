@@ -1,4 +1,3 @@
-import com.filipov.fileservice.FileStorage;
 import com.filipov.fileservice.FileStorageImpl.FileStorageException;
 import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyAlreadyExistFileStorageException;
 import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
@@ -12,7 +11,7 @@ import java.nio.file.attribute.BasicFileAttributes;
 
 public class ExpirationFilesTest {
 
-    static FileStorage fileStorage;
+    static FileStorageImpl fileStorage;
 
     @BeforeClass
     public static void init() throws FileStorageException {
@@ -45,6 +44,7 @@ public class ExpirationFilesTest {
 
     @AfterClass
     public static void cleanAll() throws IOException {
+        fileStorage.close();
         deleteTestFiles();
     }
 
@@ -0,0 +1,49 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Contents of the test files
+ */
+
+public class FileContents {
+
+    private FileContents() {
+    }
+
+    /**
+     * Generates the random content, which is the same for the same seed
+     *
+     * @param seed seed of the content
+     * @param size size of the content
+     * @return content of the file
+     */
+
+    public static byte[] content(int seed, int size) {
+        final byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    /**
+     * Reads the stream to the end and closes it
+     *
+     * @param inputStream stream of the content
+     * @return read content
+     * @throws IOException if the stream can't be read
+     */
+
+    public static byte[] readAll(InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int read;
+        try {
+            while ((read = inputStream.read(buffer)) != -1)
+                output.write(buffer, 0, read);
+        } finally {
+            inputStream.close();
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,80 @@
+import com.filipov.fileservice.FileStat;
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.CRC32;
+
+public class FileStatTest {
+
+    static FileStorageImpl fileStorage;
+
+    @BeforeClass
+    public static void init() throws FileStorageException, FileNotFoundException {
+        fileStorage = new FileStorageImpl("target/testRoot", 120l);
+        File referenceFile = new File("src/test/resources/1.txt");
+        fileStorage.saveFile("statFile", new BufferedInputStream(new FileInputStream(referenceFile)));
+        fileStorage.saveFile("statExpirationFile", new BufferedInputStream(new FileInputStream(referenceFile)), 60 * 1000l);
+    }
+
+    @Test
+    public void statTest() throws FileStorageException, IOException {
+        File referenceFile = new File("src/test/resources/1.txt");
+        CRC32 crc = new CRC32();
+        crc.update(Files.readAllBytes(referenceFile.toPath()));
+
+        FileStat fileStat = fileStorage.stat("statFile");
+        Assert.assertEquals("Size test", referenceFile.length(), fileStat.getSize());
+        Assert.assertTrue("Checksum test", fileStat.isChecksumKnown() && fileStat.getChecksum() == crc.getValue());
+        Assert.assertFalse("Not expiration file test", fileStat.isExpirationFile());
+
+        FileStat expirationFileStat = fileStorage.stat("statExpirationFile");
+        Assert.assertTrue("Expiration time test",
+                expirationFileStat.getExpirationTime() == expirationFileStat.getCreationTime() + 60 * 1000l);
+    }
+
+    @Test
+    public void existsTest() throws FileStorageException {
+        Assert.assertTrue("Existing key test", fileStorage.exists("statFile"));
+        Assert.assertFalse("Missing key test", fileStorage.exists("missingStatFile"));
+    }
+
+    @Test(expected = KeyNotExistFileStorageException.class)
+    public void statMissingKeyTest() throws FileStorageException {
+        fileStorage.stat("missingStatFile");
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        fileStorage.close();
+        deleteTestFiles();
+    }
+
+    private static void deleteTestFiles() throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get("target/testRoot/userData");
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}
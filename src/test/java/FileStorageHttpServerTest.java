@@ -0,0 +1,153 @@
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import com.filipov.fileservice.HttpFileStorageServer.FileStorageHttpServer;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class FileStorageHttpServerTest {
+
+    static FileStorageImpl fileStorage;
+    static FileStorageHttpServer server;
+    static String baseUrl;
+    static AtomicReference<String> replacedOnRead = new AtomicReference<String>();
+
+    @BeforeClass
+    public static void init() throws IOException {
+        // File is replaced after its stream is opened, like the replacing by the concurrent request
+        fileStorage = new FileStorageImpl("target/testRoot", 10000000l) {
+            @Override
+            public InputStream readFile(String key) throws KeyNotExistFileStorageException {
+                final InputStream inputStream = super.readFile(key);
+                final String replacedKey = replacedOnRead.get();
+                if (key.equals(replacedKey) && replacedOnRead.compareAndSet(replacedKey, null)) {
+                    try {
+                        this.putFile(key, new ByteArrayInputStream(FileContents.content(55, 3000)));
+                    } catch (FileStorageException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return inputStream;
+            }
+        };
+        server = new FileStorageHttpServer(fileStorage, new InetSocketAddress("127.0.0.1", 0));
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @Test
+    public void putGetDeleteTest() throws IOException {
+        final byte[] content = FileContents.content(51, 300 * 1024);
+        Assert.assertEquals("PUT test", 201, request("PUT", "/files/http%2Ffile", content, null).getResponseCode());
+        Assert.assertEquals("PUT of the existing key test", 409, request("PUT", "/files/http%2Ffile", content, null).getResponseCode());
+        Assert.assertTrue("Key is decoded test", fileStorage.exists("http/file"));
+
+        final HttpURLConnection get = request("GET", "/files/http%2Ffile", null, null);
+        Assert.assertEquals("GET test", 200, get.getResponseCode());
+        Assert.assertArrayEquals("Content test", content, FileContents.readAll(get.getInputStream()));
+
+        final HttpURLConnection head = request("HEAD", "/files/http%2Ffile", null, null);
+        Assert.assertEquals("HEAD test", 200, head.getResponseCode());
+        Assert.assertEquals("Size of the file test", String.valueOf(content.length), head.getHeaderField("Content-Length"));
+
+        Assert.assertEquals("DELETE test", 204, request("DELETE", "/files/http%2Ffile", null, null).getResponseCode());
+        Assert.assertEquals("GET of the deleted file test", 404, request("GET", "/files/http%2Ffile", null, null).getResponseCode());
+    }
+
+    @Test
+    public void rangeTest() throws IOException {
+        final byte[] content = FileContents.content(52, 10000);
+        request("PUT", "/files/rangeFile", content, null).getResponseCode();
+
+        final HttpURLConnection middle = request("GET", "/files/rangeFile", null, "bytes=100-199");
+        Assert.assertEquals("Partial content test", 206, middle.getResponseCode());
+        Assert.assertEquals("Content-Range test", "bytes 100-199/10000", middle.getHeaderField("Content-Range"));
+        Assert.assertArrayEquals("Range content test", Arrays.copyOfRange(content, 100, 200), FileContents.readAll(middle.getInputStream()));
+
+        final HttpURLConnection suffix = request("GET", "/files/rangeFile", null, "bytes=-10");
+        Assert.assertArrayEquals("Suffix range test", Arrays.copyOfRange(content, 9990, 10000), FileContents.readAll(suffix.getInputStream()));
+
+        Assert.assertEquals("Unsatisfiable range test", 416, request("GET", "/files/rangeFile", null, "bytes=20000-").getResponseCode());
+    }
+
+    @Test
+    public void lifeTimeAndPurgeTest() throws IOException, FileStorageException {
+        final HttpURLConnection put = (HttpURLConnection) new URL(baseUrl + "/files/httpExpiringFile").openConnection();
+        put.setRequestMethod("PUT");
+        put.setRequestProperty(FileStorageHttpServer.LIFETIME_HEADER, "60000");
+        put.setDoOutput(true);
+        put.getOutputStream().write(FileContents.content(53, 100));
+        Assert.assertEquals("PUT with life time test", 201, put.getResponseCode());
+        Assert.assertTrue("Expiration file test", fileStorage.stat("httpExpiringFile").isExpirationFile());
+
+        Assert.assertEquals("Purge test", 200, request("POST", "/admin/purge?percent=10", null, null).getResponseCode());
+        Assert.assertEquals("Incorrect purge test", 400, request("POST", "/admin/purge?count=1", null, null).getResponseCode());
+    }
+
+    @Test
+    public void replacedWhileReadTest() throws IOException, FileStorageException {
+        fileStorage.putFile("httpReplacedFile", new ByteArrayInputStream(FileContents.content(54, 1000)));
+        replacedOnRead.set("httpReplacedFile");
+
+        // Headers and the body describe the same version of the file
+        final HttpURLConnection get = request("GET", "/files/httpReplacedFile", null, null);
+        Assert.assertEquals("GET of the replaced file test", 200, get.getResponseCode());
+        Assert.assertEquals("Content-Length of the replaced file test", "3000", get.getHeaderField("Content-Length"));
+        Assert.assertArrayEquals("Content of the replaced file test", FileContents.content(55, 3000), FileContents.readAll(get.getInputStream()));
+        fileStorage.deleteFile("httpReplacedFile");
+    }
+
+    private static HttpURLConnection request(String method, String path, byte[] body, String range) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        if (range != null)
+            connection.setRequestProperty("Range", range);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(body);
+            }
+        }
+        return connection;
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        server.close();
+        fileStorage.close();
+        deleteTestFiles();
+    }
+
+    private static void deleteTestFiles() throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get("target/testRoot/userData");
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}
@@ -1,4 +1,3 @@
-import com.filipov.fileservice.FileStorage;
 import com.filipov.fileservice.FileStorageImpl.FileStorageException;
 import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyAlreadyExistFileStorageException;
 import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.NoFreeSpaceFileStorageException;
@@ -11,7 +10,7 @@ import java.nio.file.attribute.BasicFileAttributes;
 
 public class FileStoragePurgeTest {
 
-    static FileStorage fileStorage;
+    static FileStorageImpl fileStorage;
 
     @BeforeClass
     public static void init() throws FileStorageException {
@@ -38,6 +37,7 @@ public class FileStoragePurgeTest {
 
     @AfterClass
     public static void cleanAll() throws IOException {
+        fileStorage.close();
         deleteTestFiles();
     }
 
@@ -1,4 +1,3 @@
-import com.filipov.fileservice.FileStorage;
 import com.filipov.fileservice.FileStorageImpl.FileStorageException;
 import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
 import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
@@ -13,7 +12,7 @@ import java.nio.file.attribute.BasicFileAttributes;
 
 public class FileStorageTest {
 
-    static FileStorage fileStorage;
+    static FileStorageImpl fileStorage;
 
     @BeforeClass
     public static void init() throws FileStorageException, FileNotFoundException, InterruptedException {
@@ -66,6 +65,7 @@ public class FileStorageTest {
 
     @AfterClass
     public static void cleanAll() throws IOException {
+        fileStorage.close();
         deleteTestFiles();
     }
 
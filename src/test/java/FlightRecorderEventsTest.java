@@ -0,0 +1,113 @@
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.ParseException;
+import java.util.List;
+
+public class FlightRecorderEventsTest {
+
+    private final static String ROOT_PATH = "target/testRoot/flightRecorder";
+    private final static String OPERATION_EVENT = "com.filipov.fileservice.Operation";
+    private final static String BACKGROUND_TASK_EVENT = "com.filipov.fileservice.BackgroundTask";
+
+    static FileStorageImpl fileStorage;
+
+    @BeforeClass
+    public static void init() {
+        fileStorage = new FileStorageImpl(ROOT_PATH + "/storage", 10000000l);
+    }
+
+    @Test
+    public void enabledEventsTest() throws FileStorageException, IOException {
+        final Path recordingPath = Paths.get(ROOT_PATH, "enabled.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(OPERATION_EVENT);
+            recording.enable(BACKGROUND_TASK_EVENT);
+            recording.start();
+            fileStorage.saveFile("recordedFile", new ByteArrayInputStream(new byte[1000]));
+            fileStorage.readFile("recordedFile").close();
+            try {
+                fileStorage.deleteFile("missingFile");
+                Assert.fail("Missing file test");
+            } catch (KeyNotExistFileStorageException e) {
+                // Failed operation is recorded with its outcome
+            }
+            fileStorage.snapshot();
+            recording.stop();
+            recording.dump(recordingPath);
+        }
+
+        final List<RecordedEvent> events = RecordingFile.readAllEvents(recordingPath);
+        final RecordedEvent savingEvent = find(events, OPERATION_EVENT, "operation", "saveFile");
+        Assert.assertEquals("Saved bytes test", 1000, savingEvent.getLong("bytes"));
+        Assert.assertEquals("Saving outcome test", "OK", savingEvent.getString("outcome"));
+        Assert.assertTrue("Shard test", savingEvent.getInt("shard") >= 0);
+        final RecordedEvent readingEvent = find(events, OPERATION_EVENT, "operation", "readFile");
+        Assert.assertEquals("Same key hash test", savingEvent.getLong("keyHash"), readingEvent.getLong("keyHash"));
+        Assert.assertEquals("Failed operation test", "KeyNotExistFileStorageException",
+                find(events, OPERATION_EVENT, "operation", "deleteFile").getString("outcome"));
+        Assert.assertTrue("Snapshot task test", find(events, BACKGROUND_TASK_EVENT, "task", "snapshot").getLong("files") >= 1);
+    }
+
+    @Test
+    public void disabledByDefaultTest() throws FileStorageException, IOException, ParseException {
+        final Path recordingPath = Paths.get(ROOT_PATH, "default.jfr");
+        try (Recording recording = new Recording(Configuration.getConfiguration("profile"))) {
+            recording.start();
+            fileStorage.saveFile("notRecordedFile", new ByteArrayInputStream(new byte[1000]));
+            recording.stop();
+            recording.dump(recordingPath);
+        }
+
+        for (RecordedEvent event : RecordingFile.readAllEvents(recordingPath))
+            Assert.assertFalse("Disabled events test", event.getEventType().getName().startsWith("com.filipov.fileservice"));
+    }
+
+    private static RecordedEvent find(List<RecordedEvent> events, String eventName, String field, String value) {
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(eventName) && value.equals(event.getString(field)))
+                return event;
+        }
+        throw new AssertionError("Event isn't recorded: " + value);
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        fileStorage.close();
+        deleteTestFiles();
+    }
+
+    private static void deleteTestFiles() throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get(ROOT_PATH);
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}
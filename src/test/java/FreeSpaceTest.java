@@ -1,4 +1,3 @@
-import com.filipov.fileservice.FileStorage;
 import com.filipov.fileservice.FileStorageImpl.FileStorageException;
 import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
 import org.junit.AfterClass;
@@ -12,7 +11,7 @@ import java.nio.file.attribute.BasicFileAttributes;
 
 public class FreeSpaceTest {
 
-    static FileStorage fileStorage;
+    static FileStorageImpl fileStorage;
 
     @BeforeClass
     public static void init() throws FileStorageException, FileNotFoundException {
@@ -37,6 +36,7 @@ public class FreeSpaceTest {
 
     @AfterClass
     public static void cleanAll() throws IOException {
+        fileStorage.close();
         deleteTestFiles();
     }
 
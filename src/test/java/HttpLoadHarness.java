@@ -0,0 +1,117 @@
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import com.filipov.fileservice.HttpFileStorageServer.FileStorageHttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local load test of the HTTP front end. It isn't run by the build, start it by
+ * {@code java HttpLoadHarness [threads] [seconds] [fileSize] [numberOfFiles] [url]}.
+ * Without url the server with the storage in target/loadTestRoot is started in this JVM.
+ * Files are uploaded once, then each thread reads random files and the throughput and latencies of GET are printed.
+ *
+ * @author Yevhen Filipov
+ */
+
+public class HttpLoadHarness {
+
+    public static void main(String[] args) throws Exception {
+        final int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        final int fileSize = args.length > 2 ? Integer.parseInt(args[2]) : 1024 * 1024;
+        final int numberOfFiles = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+
+        FileStorageImpl fileStorage = null;
+        FileStorageHttpServer server = null;
+        final String baseUrl;
+        if (args.length > 4) {
+            baseUrl = args[4];
+        } else {
+            fileStorage = new FileStorageImpl("target/loadTestRoot", 100l * numberOfFiles * fileSize);
+            server = new FileStorageHttpServer(fileStorage, new InetSocketAddress("127.0.0.1", 0));
+            server.start();
+            baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        final byte[] content = new byte[fileSize];
+        new Random(1).nextBytes(content);
+        final String runId = Long.toHexString(System.nanoTime());
+        for (int i = 0; i < numberOfFiles; i++)
+            put(baseUrl + "/files/load-" + runId + "-" + i, content);
+        System.out.println("Uploaded " + numberOfFiles + " files of " + fileSize + " bytes");
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final AtomicLong transferredBytes = new AtomicLong();
+        final List<Future<List<Long>>> results = new ArrayList<Future<List<Long>>>();
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            results.add(executor.submit(new Callable<List<Long>>() {
+                @Override
+                public List<Long> call() throws Exception {
+                    final Random random = new Random(seed);
+                    final List<Long> latencies = new ArrayList<Long>();
+                    final byte[] buffer = new byte[64 * 1024];
+                    while (System.nanoTime() < deadline) {
+                        final long start = System.nanoTime();
+                        final HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + "/files/load-"
+                                + runId + "-" + random.nextInt(numberOfFiles)).openConnection();
+                        try (InputStream inputStream = connection.getInputStream()) {
+                            int read;
+                            while ((read = inputStream.read(buffer)) != -1)
+                                transferredBytes.addAndGet(read);
+                        }
+                        latencies.add(System.nanoTime() - start);
+                    }
+                    return latencies;
+                }
+            }));
+        }
+
+        final List<Long> latencies = new ArrayList<Long>();
+        for (Future<List<Long>> result : results)
+            latencies.addAll(result.get());
+        executor.shutdown();
+        if (server != null) {
+            server.close();
+            fileStorage.close();
+        }
+
+        final long[] sortedLatencies = new long[latencies.size()];
+        for (int i = 0; i < sortedLatencies.length; i++)
+            sortedLatencies[i] = latencies.get(i);
+        Arrays.sort(sortedLatencies);
+        System.out.println("Requests: " + sortedLatencies.length + ", " + sortedLatencies.length / seconds + " per second");
+        System.out.println("Throughput: " + transferredBytes.get() / seconds / (1024 * 1024) + " MB per second");
+        if (sortedLatencies.length > 0) {
+            System.out.println("Latency p50: " + percentile(sortedLatencies, 0.5) + " ms, p99: " + percentile(sortedLatencies, 0.99)
+                    + " ms, max: " + sortedLatencies[sortedLatencies.length - 1] / 1000000.0 + " ms");
+        }
+    }
+
+    private static void put(String url, byte[] content) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("PUT");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(content.length);
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(content);
+        }
+        if (connection.getResponseCode() != 201)
+            throw new IOException("Can't upload " + url + ": " + connection.getResponseCode());
+    }
+
+    private static double percentile(long[] sortedLatencies, double percentile) {
+        return sortedLatencies[(int) Math.min(sortedLatencies.length - 1, sortedLatencies.length * percentile)] / 1000000.0;
+    }
+}
@@ -0,0 +1,107 @@
+import com.filipov.fileservice.FileStorage;
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyAlreadyExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.NoFreeSpaceFileStorageException;
+import com.filipov.fileservice.InMemoryFileStorageImpl.InMemoryFileStorageImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.stream.Collectors;
+
+public class InMemoryFileStorageTest {
+
+    @Test
+    public void saveReadDeleteTest() throws FileStorageException, IOException {
+        final FileStorage fileStorage = new InMemoryFileStorageImpl(4 * 1024 * 1024, 64 * 1024);
+        final byte[] bigContent = FileContents.content(31, 200 * 1024 + 17);
+        final byte[] smallContent = FileContents.content(32, 100);
+        fileStorage.saveFile("memory/big", new ByteArrayInputStream(bigContent));
+        fileStorage.saveFile("memory/small", new ByteArrayInputStream(smallContent));
+        fileStorage.saveFile("other", new ByteArrayInputStream(new byte[0]));
+
+        Assert.assertArrayEquals("Big file test", bigContent, FileContents.readAll(fileStorage.readFile("memory/big")));
+        Assert.assertArrayEquals("Small file test", smallContent, FileContents.readAll(fileStorage.readFile("memory/small")));
+        Assert.assertEquals("Empty file test", 0, FileContents.readAll(fileStorage.readFile("other")).length);
+        Assert.assertEquals("Size test", bigContent.length, fileStorage.stat("memory/big").getSize());
+        Assert.assertEquals("Keys with prefix test", "memory/big,memory/small",
+                fileStorage.keys("memory/").collect(Collectors.joining(",")));
+        try {
+            fileStorage.saveFile("memory/small", new ByteArrayInputStream(smallContent));
+            Assert.fail("File is saved twice");
+        } catch (KeyAlreadyExistFileStorageException e) {
+            // The key already exists
+        }
+
+        final long freeSpace = fileStorage.freeSpaceInBytes();
+        final InputStream openStream = fileStorage.readFile("memory/big");
+        fileStorage.deleteFile("memory/big");
+        Assert.assertFalse("Deleted file test", fileStorage.exists("memory/big"));
+        Assert.assertEquals("Memory of the open file is kept test", freeSpace, fileStorage.freeSpaceInBytes());
+        Assert.assertArrayEquals("Open stream of the deleted file test", bigContent, FileContents.readAll(openStream));
+        Assert.assertTrue("Memory is freed after closing test", fileStorage.freeSpaceInBytes() > freeSpace + bigContent.length);
+        try {
+            fileStorage.readFile("memory/big");
+            Assert.fail("Deleted file is read");
+        } catch (KeyNotExistFileStorageException e) {
+            // The key doesn't exist
+        }
+    }
+
+    @Test
+    public void expirationTest() throws FileStorageException, InterruptedException {
+        final FileStorage fileStorage = new InMemoryFileStorageImpl(1024 * 1024);
+        final long freeSpace = fileStorage.freeSpaceInBytes();
+        fileStorage.saveFile("expiringFile", new ByteArrayInputStream(FileContents.content(33, 1000)), 100l);
+        Assert.assertTrue("File before expiration test", fileStorage.exists("expiringFile"));
+
+        Thread.sleep(200);
+        Assert.assertFalse("Expired file test", fileStorage.exists("expiringFile"));
+        Assert.assertEquals("Memory of the expired file test", freeSpace, fileStorage.freeSpaceInBytes());
+    }
+
+    @Test
+    public void purgeTest() throws FileStorageException {
+        final FileStorage fileStorage = new InMemoryFileStorageImpl(1024 * 1024, 64 * 1024);
+        for (int i = 0; i < 10; i++)
+            fileStorage.saveFile("purgedFile" + i, new ByteArrayInputStream(FileContents.content(i, 64 * 1024)));
+        final long freeSpace = fileStorage.freeSpaceInBytes();
+        try {
+            fileStorage.saveFile("bigFile", new ByteArrayInputStream(FileContents.content(34, 1024 * 1024)));
+            Assert.fail("File bigger than free memory is saved");
+        } catch (NoFreeSpaceFileStorageException e) {
+            // There is no free memory
+        }
+        Assert.assertEquals("Failed file is freed test", freeSpace, fileStorage.freeSpaceInBytes());
+
+        fileStorage.purge(50);
+        Assert.assertTrue("Purge test", fileStorage.freeSpaceInPercents() >= 50);
+        Assert.assertFalse("The oldest file is deleted test", fileStorage.exists("purgedFile0"));
+        Assert.assertTrue("The newest file is kept test", fileStorage.exists("purgedFile9"));
+    }
+
+    @Test
+    public void memoryReuseTest() throws FileStorageException, IOException {
+        final FileStorage fileStorage = new InMemoryFileStorageImpl(1024 * 1024, 64 * 1024);
+        // Memory of the deleted small files is reused by the files of another size
+        for (int round = 0; round < 5; round++) {
+            final int fileSize = round % 2 == 0 ? 100 : 40 * 1024;
+            int numberOfFiles = 0;
+            try {
+                while (true) {
+                    fileStorage.saveFile("reusedFile" + numberOfFiles, new ByteArrayInputStream(FileContents.content(numberOfFiles, fileSize)));
+                    numberOfFiles++;
+                }
+            } catch (NoFreeSpaceFileStorageException e) {
+                // The storage is full
+            }
+            Assert.assertTrue("Memory is reused test", numberOfFiles >= (round % 2 == 0 ? 8000 : 16));
+            Assert.assertArrayEquals("Content test", FileContents.content(numberOfFiles - 1, fileSize),
+                    FileContents.readAll(fileStorage.readFile("reusedFile" + (numberOfFiles - 1))));
+            for (int i = 0; i < numberOfFiles; i++)
+                fileStorage.deleteFile("reusedFile" + i);
+        }
+        Assert.assertEquals("All memory is freed test", 1024 * 1024, fileStorage.freeSpaceInBytes());
+    }
+}
@@ -0,0 +1,89 @@
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import com.filipov.fileservice.FileStorageImpl.KeyPresenceFilter;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+public class KeyPresenceFilterTest {
+
+    static FileStorageImpl fileStorage;
+
+    @BeforeClass
+    public static void init() throws FileStorageException, FileNotFoundException {
+        fileStorage = new FileStorageImpl("target/testRoot", 120l);
+        File referenceFile = new File("src/test/resources/1.txt");
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(referenceFile));
+        fileStorage.saveFile("storedBeforeRestart", inputStream);
+    }
+
+    @Test
+    public void addRemoveTest() {
+        KeyPresenceFilter filter = new KeyPresenceFilter(1000);
+        for (Integer i = 0; i < 1000; i++)
+            filter.add(i.toString());
+        for (Integer i = 0; i < 1000; i++)
+            Assert.assertTrue("No false negatives test", filter.mightContain(i.toString()));
+        for (Integer i = 0; i < 1000; i++)
+            filter.remove(i.toString());
+        int falsePositives = 0;
+        for (Integer i = 0; i < 1000; i++)
+            if (filter.mightContain(i.toString()))
+                falsePositives++;
+        Assert.assertTrue("Removing from filter test", falsePositives < 50);
+    }
+
+    @Test
+    public void rebuildAtStartupTest() throws FileStorageException, IOException {
+        fileStorage.close();
+        fileStorage = new FileStorageImpl("target/testRoot", 120l);
+        fileStorage.readFile("storedBeforeRestart").close();
+    }
+
+    @Test(expected = KeyNotExistFileStorageException.class)
+    public void missingKeyTest() throws FileStorageException {
+        fileStorage.readFile("missingKey");
+    }
+
+    @Test(expected = KeyNotExistFileStorageException.class)
+    public void deletedKeyTest() throws FileStorageException, FileNotFoundException {
+        File referenceFile = new File("src/test/resources/1.txt");
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(referenceFile));
+        fileStorage.saveFile("deletedKey", inputStream);
+        fileStorage.deleteFile("deletedKey");
+        fileStorage.deleteFile("deletedKey");
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        fileStorage.close();
+        deleteTestFiles();
+    }
+
+    private static void deleteTestFiles() throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get("target/testRoot/userData");
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}
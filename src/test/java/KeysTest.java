@@ -0,0 +1,142 @@
+import com.filipov.fileservice.FileStorage;
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import com.filipov.fileservice.FileStorageImpl.IOBudget;
+import com.filipov.fileservice.KeyIterator;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.stream.Collectors;
+
+public class KeysTest {
+
+    static FileStorageImpl fileStorage;
+    static FileStorageImpl indexedFileStorage;
+    static Set<String> savedKeys = new HashSet<String>();
+
+    @BeforeClass
+    public static void init() throws FileStorageException {
+        fileStorage = new FileStorageImpl("target/testRoot", 100000l);
+        indexedFileStorage = new FileStorageImpl("target/testRoot/indexed", 100000l, IOBudget.unlimited(), true);
+        for (int i = 0; i < 300; i++) {
+            final String key = (i % 3 == 0 ? "report/" : "image:") + i;
+            fileStorage.saveFile(key, new ByteArrayInputStream(new byte[]{(byte) i}));
+            indexedFileStorage.saveFile(key, new ByteArrayInputStream(new byte[]{(byte) i}));
+            savedKeys.add(key);
+        }
+    }
+
+    @Test
+    public void allKeysTest() {
+        Assert.assertEquals("Sequential stream test", savedKeys, fileStorage.keys().collect(Collectors.toSet()));
+        final List<String> parallelKeys = fileStorage.keys().parallel().collect(Collectors.toList());
+        Assert.assertEquals("Parallel stream test", savedKeys.size(), parallelKeys.size());
+        Assert.assertEquals("Parallel stream test", savedKeys, new HashSet<String>(parallelKeys));
+    }
+
+    @Test
+    public void prefixTest() {
+        final Set<String> reports = new HashSet<String>();
+        for (String key : savedKeys)
+            if (key.startsWith("report/"))
+                reports.add(key);
+
+        Assert.assertEquals("Prefix scan test", reports, fileStorage.keys("report/").collect(Collectors.toSet()));
+        Assert.assertEquals("Prefix index test", reports, indexedFileStorage.keys("report/").collect(Collectors.toSet()));
+        Assert.assertEquals("Missing prefix test", 0, indexedFileStorage.keys("missing").count());
+    }
+
+    @Test
+    public void cursorTest() {
+        Assert.assertEquals("Resumed scan test", savedKeys, collectByPages(fileStorage, null));
+
+        final Set<String> images = new HashSet<String>();
+        for (String key : savedKeys)
+            if (key.startsWith("image:"))
+                images.add(key);
+        Assert.assertEquals("Resumed prefix scan test", images, collectByPages(fileStorage, "image:"));
+        Assert.assertEquals("Resumed index scan test", images, collectByPages(indexedFileStorage, "image:"));
+    }
+
+    @Test
+    public void cursorOfScanTest() {
+        final Set<String> images = new HashSet<String>();
+        for (String key : savedKeys)
+            if (key.startsWith("image:"))
+                images.add(key);
+
+        // Cursor of the scan, which is given before the index is built, is resumed by the storage with the index
+        final KeyIterator scan = fileStorage.keyIterator("image:", null);
+        final Set<String> keys = new HashSet<String>();
+        for (int i = 0; i < 7; i++)
+            keys.add(scan.next());
+        final KeyIterator resumedScan = indexedFileStorage.keyIterator("image:", scan.getCursor());
+        while (resumedScan.hasNext())
+            Assert.assertTrue("Key is returned once test", keys.add(resumedScan.next()));
+        Assert.assertEquals("Scan resumed by the storage with index test", images, keys);
+    }
+
+    @Test
+    public void expiredKeysTest() throws Exception {
+        // Lifetime is much shorter than the period of the expiration deleter, so the expired files are still registered
+        fileStorage.saveFile("report/expired", new ByteArrayInputStream(new byte[]{1}), 1l);
+        indexedFileStorage.saveFile("report/expired", new ByteArrayInputStream(new byte[]{1}), 1l);
+        Thread.sleep(10);
+
+        Assert.assertFalse("Expired key of all keys test", fileStorage.keys().collect(Collectors.toSet()).contains("report/expired"));
+        Assert.assertFalse("Expired key of prefix scan test", fileStorage.keys("report/").collect(Collectors.toSet()).contains("report/expired"));
+        Assert.assertFalse("Expired key of prefix index test",
+                indexedFileStorage.keys("report/").collect(Collectors.toSet()).contains("report/expired"));
+        Assert.assertFalse("Expired key of resumed scan test", collectByPages(fileStorage, "report/").contains("report/expired"));
+        Assert.assertFalse("Expired key of resumed index scan test",
+                collectByPages(indexedFileStorage, "report/").contains("report/expired"));
+    }
+
+    private static Set<String> collectByPages(FileStorage fileStorage, String prefix) {
+        final Set<String> keys = new HashSet<String>();
+        String cursor = null;
+        while (true) {
+            final KeyIterator keyIterator = fileStorage.keyIterator(prefix, cursor);
+            for (int i = 0; i < 7 && keyIterator.hasNext(); i++)
+                Assert.assertTrue("Key is returned once test", keys.add(keyIterator.next()));
+            if (!keyIterator.hasNext())
+                return keys;
+            cursor = keyIterator.getCursor();
+        }
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        fileStorage.close();
+        indexedFileStorage.close();
+        deleteTestFiles("target/testRoot/userData");
+        deleteTestFiles("target/testRoot/indexed");
+    }
+
+    private static void deleteTestFiles(String path) throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get(path);
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}
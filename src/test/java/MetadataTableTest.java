@@ -0,0 +1,159 @@
+import com.filipov.fileservice.FileStorageImpl.*;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyAlreadyExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.NoFreeSpaceFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStoragePathServiceImpl.PathServiceImpl;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+public class MetadataTableTest {
+
+    @Test
+    public void putGetRemoveTest() {
+        MetadataTable metadataTable = new MetadataTable(2, 16);
+        Map<Long, Long> expectedSizes = new HashMap<Long, Long>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20000; i++) {
+            long hash = random.nextInt(5000) * 0x9E3779B97F4A7C15L;
+            MetadataEntry entry = entry(hash, i);
+            if (random.nextInt(3) == 0) {
+                boolean removed = metadataTable.remove(hash, (int) hash, null);
+                Assert.assertEquals("Removing test", expectedSizes.remove(hash) != null, removed);
+            } else {
+                metadataTable.put(entry);
+                expectedSizes.put(hash, entry.getSize());
+            }
+        }
+
+        Assert.assertEquals("Size test", expectedSizes.size(), metadataTable.size());
+        MetadataEntry entry = new MetadataEntry();
+        for (Map.Entry<Long, Long> expectedSize : expectedSizes.entrySet()) {
+            long hash = expectedSize.getKey();
+            Assert.assertTrue("Reading test", metadataTable.get(hash, (int) hash, entry));
+            Assert.assertEquals("Reading test", (long) expectedSize.getValue(), entry.getSize());
+            Assert.assertFalse("Collision verification test", metadataTable.contains(hash, (int) hash + 1));
+        }
+    }
+
+    @Test
+    public void hashOrderScanTest() {
+        MetadataTable metadataTable = new MetadataTable(3, 16);
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; i++)
+            metadataTable.put(entry(random.nextLong(), i));
+
+        final List<Long> hashes = new ArrayList<Long>();
+        metadataTable.forEach(new MetadataVisitor() {
+            @Override
+            public void visitEntry(MetadataEntry entry) {
+                hashes.add(entry.getHash());
+            }
+        });
+
+        Assert.assertEquals("Scan of all entries test", 5000, hashes.size());
+        for (int i = 1; i < hashes.size(); i++)
+            Assert.assertTrue("Hash order test", Long.compareUnsigned(hashes.get(i - 1), hashes.get(i)) < 0);
+    }
+
+    @Test
+    public void expirationTimeAfterRestartTest() throws FileNotFoundException, KeyAlreadyExistFileStorageException, NoFreeSpaceFileStorageException, KeyNotExistFileStorageException {
+        FileStorageImpl fileStorage = new FileStorageImpl("target/testRoot", 120l);
+        File referenceFile = new File("src/test/resources/1.txt");
+        fileStorage.saveFile("restartedExpirationFile", new BufferedInputStream(new FileInputStream(referenceFile)), 60 * 1000l);
+        fileStorage.saveFile("restartedFile", new BufferedInputStream(new FileInputStream(referenceFile)));
+        fileStorage.close();
+
+        FileStorageData fileStorageData = new FileStorageData(Paths.get("target/testRoot/userData").toString(),
+                "target/testRoot/FileStorage.prop", "target/testRoot/FileStorage.journal");
+        fileStorageData.compactJournal();
+
+        Assert.assertEquals("Number of files after restart test", 2, fileStorageData.getNumberOfFiles());
+        Assert.assertEquals("Size of files after restart test", 18, fileStorageData.getTotalSizeOfFiles());
+        PathService pathService = new PathServiceImpl();
+        String userDataPath = Paths.get("target/testRoot/userData").toString();
+        Assert.assertTrue("Expiration time after restart test",
+                fileStorageData.isExpirationFile(userDataPath + pathService.generateFilePathPresentation("restartedExpirationFile")));
+        Assert.assertFalse("Not expiration file after restart test",
+                fileStorageData.isExpirationFile(userDataPath + pathService.generateFilePathPresentation("restartedFile")));
+        fileStorageData.close();
+    }
+
+    @Test
+    public void packedFieldsTest() {
+        MetadataTable metadataTable = new MetadataTable(0, 16);
+        MetadataEntry entry = entry(0x123456789abcdefL, 5L * 1024 * 1024 * 1024 * 1024);
+        entry.setOriginalSize(7L * 1024 * 1024 * 1024 * 1024);
+        entry.setCreationTime(1790000000000l);
+        entry.setExpirationTime(1790000000000l + 60 * 60 * 1000l);
+        entry.setLifeTime(60 * 60 * 1000l);
+        entry.setChecksum(-5);
+        entry.setFlags(MetadataTable.FLAG_EXPIRATION | MetadataTable.FLAG_CHECKSUM);
+        entry.setJournalOffset(123456789l);
+        entry.setVersion(1L << 40);
+        entry.setNamespace(3);
+        metadataTable.put(entry);
+
+        MetadataEntry readEntry = new MetadataEntry();
+        Assert.assertTrue("Reading test", metadataTable.get(entry.getHash(), entry.getTag(), readEntry));
+        Assert.assertEquals("Size test", entry.getSize(), readEntry.getSize());
+        Assert.assertEquals("Original size test", entry.getOriginalSize(), readEntry.getOriginalSize());
+        Assert.assertEquals("Creation time test", entry.getCreationTime(), readEntry.getCreationTime());
+        Assert.assertEquals("Expiration time test", entry.getExpirationTime(), readEntry.getExpirationTime());
+        Assert.assertEquals("Life time test", entry.getLifeTime(), readEntry.getLifeTime());
+        Assert.assertEquals("Checksum test", entry.getChecksum(), readEntry.getChecksum());
+        Assert.assertEquals("Flags test", entry.getFlags(), readEntry.getFlags());
+        Assert.assertEquals("Journal offset test", entry.getJournalOffset(), readEntry.getJournalOffset());
+        Assert.assertEquals("Version test", entry.getVersion(), readEntry.getVersion());
+        Assert.assertEquals("Namespace test", entry.getNamespace(), readEntry.getNamespace());
+
+        // Too long life time is saturated, so the file still expires in the far future
+        entry.setExpirationTime(Long.MAX_VALUE / 2);
+        entry.setLifeTime(Long.MAX_VALUE / 2);
+        metadataTable.put(entry);
+        metadataTable.get(entry.getHash(), entry.getTag(), readEntry);
+        final long thousandYears = 1000L * 365 * 24 * 60 * 60 * 1000;
+        Assert.assertTrue("Saturated expiration time test", readEntry.getExpirationTime() > 1790000000000l + thousandYears);
+        Assert.assertTrue("Saturated life time test", readEntry.getLifeTime() > thousandYears);
+    }
+
+    private static MetadataEntry entry(long hash, long size) {
+        MetadataEntry entry = new MetadataEntry();
+        entry.setHash(hash);
+        entry.setTag((int) hash);
+        entry.setSize(size);
+        return entry;
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        deleteTestFiles();
+    }
+
+    private static void deleteTestFiles() throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get("target/testRoot/userData");
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}
@@ -0,0 +1,141 @@
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import com.filipov.fileservice.FileStorageImpl.FileStorageOptions;
+import com.filipov.fileservice.FileStorageImpl.UploadPart;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class MultipartUploadTest {
+
+    static FileStorageImpl fileStorage;
+
+    @BeforeClass
+    public static void init() {
+        fileStorage = new FileStorageImpl("target/testRoot", 10000000l);
+    }
+
+    @Test
+    public void parallelPartsTest() throws Exception {
+        final int partSize = 64 * 1024;
+        final byte[] content = FileContents.content(21, 4 * partSize + 100);
+        final String uploadId = fileStorage.initiateUpload("multipartFile");
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final List<Future<Long>> parts = new ArrayList<Future<Long>>();
+        for (int i = 4; i >= 0; i--) {
+            final int offset = i * partSize;
+            parts.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    final int size = Math.min(partSize, content.length - offset);
+                    return fileStorage.uploadPart(uploadId, offset, new ByteArrayInputStream(content, offset, size));
+                }
+            }));
+        }
+        long uploadedSize = 0;
+        for (Future<Long> part : parts)
+            uploadedSize += part.get();
+        executor.shutdown();
+        Assert.assertEquals("Uploaded size test", content.length, uploadedSize);
+        Assert.assertEquals("Uploaded parts test", 5, fileStorage.getUploadedParts(uploadId).size());
+
+        fileStorage.completeUpload(uploadId);
+        Assert.assertEquals("Size of the completed file test", content.length, fileStorage.stat("multipartFile").getSize());
+        Assert.assertArrayEquals("Content of the completed file test", content, FileContents.readAll(fileStorage.readFile("multipartFile")));
+    }
+
+    @Test
+    public void resumeAfterRestartTest() throws FileStorageException, IOException {
+        final byte[] content = FileContents.content(22, 100 * 1024);
+        final long freeSpace = fileStorage.freeSpaceInBytes();
+        final String uploadId = fileStorage.initiateUpload("resumedMultipartFile");
+        fileStorage.uploadPart(uploadId, 0, new ByteArrayInputStream(content, 0, 60 * 1024));
+        Assert.assertEquals("Used disc space of the upload test", 60 * 1024, freeSpace - fileStorage.freeSpaceInBytes());
+
+        fileStorage.close();
+        fileStorage = new FileStorageImpl("target/testRoot", 10000000l);
+        final List<UploadPart> uploadedParts = fileStorage.getUploadedParts(uploadId);
+        Assert.assertEquals("Restored parts test", 1, uploadedParts.size());
+        final long offset = uploadedParts.get(0).getEnd();
+        fileStorage.uploadPart(uploadId, offset, new ByteArrayInputStream(content, (int) offset, content.length - (int) offset));
+        fileStorage.completeUpload(uploadId);
+
+        Assert.assertArrayEquals("Content of the resumed file test", content, FileContents.readAll(fileStorage.readFile("resumedMultipartFile")));
+    }
+
+    @Test
+    public void abortTest() throws FileStorageException {
+        final long freeSpace = fileStorage.freeSpaceInBytes();
+        final String uploadId = fileStorage.initiateUpload("abortedMultipartFile");
+        fileStorage.uploadPart(uploadId, 10 * 1024, new ByteArrayInputStream(FileContents.content(23, 10 * 1024)));
+        try {
+            fileStorage.completeUpload(uploadId);
+            Assert.fail("Upload with missing part is completed");
+        } catch (IncorrectArgumentFileStorageException e) {
+            // The first part is missing
+        }
+
+        fileStorage.abortUpload(uploadId);
+        Assert.assertEquals("Liberated disc space test", freeSpace, fileStorage.freeSpaceInBytes());
+        Assert.assertFalse("Aborted file test", fileStorage.exists("abortedMultipartFile"));
+        try {
+            fileStorage.uploadPart(uploadId, 0, new ByteArrayInputStream(new byte[1]));
+            Assert.fail("Part of the aborted upload is written");
+        } catch (KeyNotExistFileStorageException e) {
+            // Upload doesn't exist
+        }
+    }
+
+    @Test
+    public void abandonedUploadTest() throws FileStorageException, InterruptedException {
+        final FileStorageImpl expiringFileStorage = new FileStorageImpl("target/testRoot/uploads", 1000000l,
+                new FileStorageOptions().setUploadExpirationTime(100l));
+        final long freeSpace = expiringFileStorage.freeSpaceInBytes();
+        final String uploadId = expiringFileStorage.initiateUpload("abandonedMultipartFile");
+        expiringFileStorage.uploadPart(uploadId, 0, new ByteArrayInputStream(FileContents.content(24, 1024)));
+        Assert.assertEquals("Fresh upload isn't deleted test", 0, expiringFileStorage.deleteAbandonedUploads());
+
+        Thread.sleep(200);
+        Assert.assertEquals("Abandoned upload is deleted test", 1, expiringFileStorage.deleteAbandonedUploads());
+        Assert.assertEquals("Liberated disc space test", freeSpace, expiringFileStorage.freeSpaceInBytes());
+        expiringFileStorage.close();
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        fileStorage.close();
+        deleteTestFiles();
+    }
+
+    private static void deleteTestFiles() throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get("target/testRoot/userData");
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}
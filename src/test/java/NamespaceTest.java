@@ -0,0 +1,96 @@
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.NoFreeSpaceFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import com.filipov.fileservice.FileStorageImpl.FileStorageOptions;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+public class NamespaceTest {
+
+    static FileStorageImpl fileStorage;
+
+    @BeforeClass
+    public static void init() {
+        fileStorage = new FileStorageImpl("target/testRoot", 1000000l, options());
+    }
+
+    private static FileStorageOptions options() {
+        return new FileStorageOptions().addNamespace("tenantA", 3000l).addNamespace("tenantB", 100000l);
+    }
+
+    @Test
+    public void quotaTest() throws FileStorageException, InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            fileStorage.saveFile("tenantA/file" + i, new ByteArrayInputStream(new byte[1000]));
+            Thread.sleep(5l);
+        }
+        Assert.assertEquals("Used space of namespace test", 3000, fileStorage.getNamespace("tenantA").getUsedSpace());
+        Assert.assertEquals("Free space of namespace test", 0, fileStorage.freeSpaceInBytes("tenantA"));
+        try {
+            fileStorage.saveFile("tenantA/file3", new ByteArrayInputStream(new byte[1000]));
+            Assert.fail("Saving over the quota test");
+        } catch (NoFreeSpaceFileStorageException e) {
+            Assert.assertFalse("File over the quota isn't saved test", fileStorage.exists("tenantA/file3"));
+        }
+
+        // Full namespace doesn't affect other namespaces and keys out of the namespaces
+        fileStorage.saveFile("tenantB/file0", new ByteArrayInputStream(new byte[1000]));
+        fileStorage.saveFile("noTenantFile", new ByteArrayInputStream(new byte[1000]));
+        Assert.assertEquals("Other namespace test", 1000, fileStorage.getNamespace("tenantB").getUsedSpace());
+
+        // Used space of the namespaces is restored from the metadata
+        fileStorage.close();
+        fileStorage = new FileStorageImpl("target/testRoot", 1000000l, options());
+        Assert.assertEquals("Used space after restart test", 3000, fileStorage.getNamespace("tenantA").getUsedSpace());
+        Assert.assertEquals("Number of files after restart test", 1, fileStorage.getNamespace("tenantB").getNumberOfFiles());
+
+        fileStorage.purge("tenantA", 1500l);
+        Assert.assertFalse("Oldest file of namespace is purged test", fileStorage.exists("tenantA/file0"));
+        Assert.assertFalse("Next oldest file of namespace is purged test", fileStorage.exists("tenantA/file1"));
+        Assert.assertTrue("Newest file of namespace is kept test", fileStorage.exists("tenantA/file2"));
+        Assert.assertTrue("Other namespace isn't purged test", fileStorage.exists("tenantB/file0"));
+        Assert.assertTrue("Keys out of namespaces aren't purged test", fileStorage.exists("noTenantFile"));
+        Assert.assertEquals("Free space after purge test", 2000, fileStorage.freeSpaceInBytes("tenantA"));
+
+        fileStorage.setNamespaceQuota("tenantA", 500l);
+        Assert.assertTrue("Decreased quota test", fileStorage.freeSpaceInBytes("tenantA") < 0);
+
+        fileStorage.deleteFile("tenantA/file2");
+        fileStorage.deleteFile("tenantB/file0");
+        fileStorage.deleteFile("noTenantFile");
+        Assert.assertEquals("Deleted files are released test", 0, fileStorage.getNamespace("tenantA").getUsedSpace());
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        fileStorage.close();
+        deleteTestFiles();
+    }
+
+    private static void deleteTestFiles() throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get("target/testRoot/userData");
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}
@@ -0,0 +1,128 @@
+import com.filipov.fileservice.FileStorageImpl.DeflateCodec;
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import com.filipov.fileservice.FileStorageImpl.FileStorageOptions;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ReadAheadTest {
+
+    private final static String ROOT_PATH = "target/testRoot/readAhead";
+
+    static FileStorageImpl fileStorage;
+    static FileStorageImpl adaptiveFileStorage;
+
+    @BeforeClass
+    public static void init() {
+        fileStorage = new FileStorageImpl(ROOT_PATH + "/prefetch", 10000000l,
+                new FileStorageOptions().setReadAhead(1024 * 1024, 200 * 1024).setCompressionCodec(new DeflateCodec()));
+        adaptiveFileStorage = new FileStorageImpl(ROOT_PATH + "/adaptive", 10000000l,
+                new FileStorageOptions().setReadAhead(1024 * 1024, 200 * 1024).setAdaptiveReadAhead(3));
+    }
+
+    @Test
+    public void prefetchTest() throws FileStorageException, IOException, InterruptedException {
+        final List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            keys.add("prefetched" + i);
+            fileStorage.saveFile("prefetched" + i, new ByteArrayInputStream(FileContents.content(i, 1000 + i * 15000)));
+        }
+        fileStorage.saveFile("bigFile", new ByteArrayInputStream(FileContents.content(20, 300 * 1024)));
+        keys.add("bigFile");
+        keys.add("missingFile");
+
+        Assert.assertEquals("Queued files test", 10, fileStorage.prefetch(keys));
+        awaitPrefetchedFiles(fileStorage, 10);
+        final long misses = fileStorage.getReadAheadMisses();
+        for (int i = 0; i < 10; i++)
+            Assert.assertArrayEquals("Prefetched content test", FileContents.content(i, 1000 + i * 15000), FileContents.readAll(fileStorage.readFile("prefetched" + i)));
+        Assert.assertArrayEquals("Big file test", FileContents.content(20, 300 * 1024), FileContents.readAll(fileStorage.readFile("bigFile")));
+        Assert.assertEquals("Hits test", 10, fileStorage.getReadAheadHits());
+        Assert.assertEquals("Misses test", misses + 1, fileStorage.getReadAheadMisses());
+        Assert.assertEquals("Released buffer test", 0, fileStorage.getPrefetchedFiles());
+    }
+
+    @Test
+    public void replacedFileTest() throws FileStorageException, IOException, InterruptedException {
+        fileStorage.saveFile("replacedFile", new ByteArrayInputStream(FileContents.content(30, 5000)));
+        fileStorage.prefetch(Arrays.asList("replacedFile"));
+        awaitPrefetchedFiles(fileStorage, 1);
+        fileStorage.putFile("replacedFile", new ByteArrayInputStream(FileContents.content(31, 5000)));
+        Assert.assertArrayEquals("Replaced content test", FileContents.content(31, 5000), FileContents.readAll(fileStorage.readFile("replacedFile")));
+
+        fileStorage.saveFile("deletedFile", new ByteArrayInputStream(FileContents.content(32, 5000)));
+        fileStorage.prefetch(Arrays.asList("deletedFile"));
+        awaitPrefetchedFiles(fileStorage, 1);
+        fileStorage.deleteFile("deletedFile");
+        Assert.assertFalse("Deleted file test", fileStorage.exists("deletedFile"));
+    }
+
+    @Test
+    public void adaptiveReadAheadTest() throws FileStorageException, IOException, InterruptedException {
+        for (int i = 0; i < 10; i++)
+            adaptiveFileStorage.saveFile(String.format("part-%04d.dat", i * 2), new ByteArrayInputStream(FileContents.content(40 + i, 3000)));
+        // Sequence with the step 2 is recognized after three reads
+        for (int i = 0; i < 3; i++)
+            FileContents.readAll(adaptiveFileStorage.readFile(String.format("part-%04d.dat", i * 2)));
+        awaitPrefetchedFiles(adaptiveFileStorage, 3);
+        for (int i = 3; i < 10; i++)
+            Assert.assertArrayEquals("Predicted content test", FileContents.content(40 + i, 3000),
+                    FileContents.readAll(adaptiveFileStorage.readFile(String.format("part-%04d.dat", i * 2))));
+        Assert.assertTrue("Sequence hits test", adaptiveFileStorage.getReadAheadHits() >= 5);
+
+        final List<String> keys = Arrays.asList("first", "second", "third");
+        for (String key : keys)
+            adaptiveFileStorage.saveFile(key, new ByteArrayInputStream(FileContents.content(key.hashCode(), 2000)));
+        for (String key : keys)
+            FileContents.readAll(adaptiveFileStorage.readFile(key));
+        final long hits = adaptiveFileStorage.getReadAheadHits();
+        // Repeated order of the keys is predicted
+        FileContents.readAll(adaptiveFileStorage.readFile("first"));
+        awaitPrefetchedFiles(adaptiveFileStorage, 2);
+        Assert.assertArrayEquals("Repeated order test", FileContents.content("second".hashCode(), 2000), FileContents.readAll(adaptiveFileStorage.readFile("second")));
+        Assert.assertEquals("Repeated order hits test", hits + 1, adaptiveFileStorage.getReadAheadHits());
+    }
+
+    private static void awaitPrefetchedFiles(FileStorageImpl fileStorage, int files) throws InterruptedException {
+        for (int i = 0; i < 500 && fileStorage.getPrefetchedFiles() < files; i++)
+            Thread.sleep(10);
+        Assert.assertTrue("Prefetch finish test", fileStorage.getPrefetchedFiles() >= files);
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        fileStorage.close();
+        adaptiveFileStorage.close();
+        deleteTestFiles();
+    }
+
+    private static void deleteTestFiles() throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get(ROOT_PATH);
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}
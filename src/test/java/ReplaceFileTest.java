@@ -0,0 +1,191 @@
+import com.filipov.fileservice.FileStat;
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyAlreadyExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.VersionMismatchFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import com.filipov.fileservice.FileStorageImpl.FileStoragePathServiceImpl.PathServiceImpl;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+public class ReplaceFileTest {
+
+    static FileStorageImpl fileStorage;
+
+    @BeforeClass
+    public static void init() {
+        fileStorage = new FileStorageImpl("target/testRoot", 1000000l);
+    }
+
+    @Test
+    public void putFileTest() throws FileStorageException, IOException {
+        final byte[] firstContent = FileContents.content(21, 30 * 1024);
+        final byte[] secondContent = FileContents.content(22, 10 * 1024);
+        final long freeSpace = fileStorage.freeSpaceInBytes();
+
+        Assert.assertEquals("First version test", 1, fileStorage.putFile("putFile", new ByteArrayInputStream(firstContent)));
+        final InputStream oldReader = fileStorage.readFile("putFile");
+        Assert.assertEquals("Second version test", 2, fileStorage.putFile("putFile", new ByteArrayInputStream(secondContent)));
+
+        Assert.assertArrayEquals("Reader keeps old content test", firstContent, FileContents.readAll(oldReader));
+        Assert.assertArrayEquals("New content test", secondContent, FileContents.readAll(fileStorage.readFile("putFile")));
+        Assert.assertEquals("Old space is released test", secondContent.length, freeSpace - fileStorage.freeSpaceInBytes());
+        Assert.assertEquals("Version in stat test", 2, fileStorage.stat("putFile").getVersion());
+
+        // Version and space are restored from the metadata journal
+        final long replacedFreeSpace = fileStorage.freeSpaceInBytes();
+        fileStorage.close();
+        fileStorage = new FileStorageImpl("target/testRoot", 1000000l);
+        Assert.assertEquals("Version after restart test", 2, fileStorage.stat("putFile").getVersion());
+        Assert.assertEquals("Space after restart test", replacedFreeSpace, fileStorage.freeSpaceInBytes());
+
+        fileStorage.deleteFile("putFile");
+        Assert.assertEquals("Space is released once test", freeSpace, fileStorage.freeSpaceInBytes());
+    }
+
+    @Test
+    public void compareAndSwapTest() throws FileStorageException, IOException {
+        final byte[] content = FileContents.content(23, 1024);
+        fileStorage.saveFile("casFile", new ByteArrayInputStream(content));
+        final FileStat stat = fileStorage.stat("casFile");
+        Assert.assertEquals("Saved file version test", 1, stat.getVersion());
+
+        Assert.assertEquals("Replacing of expected version test", 2,
+                fileStorage.replaceFile("casFile", new ByteArrayInputStream(FileContents.content(24, 1024)), 1));
+        try {
+            fileStorage.replaceFile("casFile", new ByteArrayInputStream(FileContents.content(25, 1024)), 1);
+            Assert.fail("Replacing of outdated version test");
+        } catch (VersionMismatchFileStorageException e) {
+            Assert.assertArrayEquals("Content isn't changed by failed replacing test", FileContents.content(24, 1024), FileContents.readAll(fileStorage.readFile("casFile")));
+        }
+        try {
+            fileStorage.replaceFileIfChecksum("casFile", new ByteArrayInputStream(FileContents.content(25, 1024)), stat.getChecksum());
+            Assert.fail("Replacing of outdated checksum test");
+        } catch (VersionMismatchFileStorageException e) {
+            Assert.assertEquals("Version isn't changed by failed replacing test", 2, fileStorage.stat("casFile").getVersion());
+        }
+        Assert.assertEquals("Replacing of expected checksum test", 3, fileStorage.replaceFileIfChecksum("casFile",
+                new ByteArrayInputStream(FileContents.content(25, 1024)), fileStorage.stat("casFile").getChecksum()));
+        fileStorage.deleteFile("casFile");
+
+        try {
+            fileStorage.replaceFile("casFile", new ByteArrayInputStream(content), 3);
+            Assert.fail("Replacing of deleted file test");
+        } catch (KeyNotExistFileStorageException e) {
+            Assert.assertFalse("Deleted file isn't created test", fileStorage.exists("casFile"));
+        }
+    }
+
+    @Test
+    public void concurrentReplacingTest() throws Exception {
+        final int numberOfThreads = 4;
+        final int replacingsPerThread = 25;
+        final long freeSpace = fileStorage.freeSpaceInBytes();
+        fileStorage.saveFile("concurrentFile", new ByteArrayInputStream(FileContents.content(0, 2048)));
+
+        final Thread[] threads = new Thread[numberOfThreads];
+        final Throwable[] errors = new Throwable[1];
+        for (int i = 0; i < numberOfThreads; i++) {
+            final int seed = i + 1;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < replacingsPerThread; j++) {
+                            fileStorage.putFile("concurrentFile", new ByteArrayInputStream(FileContents.content(seed, 1024 * seed)));
+                            final byte[] content = FileContents.readAll(fileStorage.readFile("concurrentFile"));
+                            Assert.assertArrayEquals("Consistent content test", FileContents.content(content.length / 1024, content.length), content);
+                        }
+                    } catch (Throwable e) {
+                        errors[0] = e;
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        Assert.assertNull("Concurrent replacing errors test", errors[0]);
+        final FileStat stat = fileStorage.stat("concurrentFile");
+        Assert.assertEquals("Every replacing is a version test", 1 + numberOfThreads * replacingsPerThread, stat.getVersion());
+        Assert.assertEquals("Space of the last version test", stat.getStoredSize(), freeSpace - fileStorage.freeSpaceInBytes());
+        fileStorage.deleteFile("concurrentFile");
+    }
+
+    @Test
+    public void concurrentSavingAndDeletingTest() throws Exception {
+        final int numberOfThreads = 4;
+        final int operationsPerThread = 100;
+        final long freeSpace = fileStorage.freeSpaceInBytes();
+
+        final Thread[] threads = new Thread[numberOfThreads];
+        final Throwable[] errors = new Throwable[1];
+        for (int i = 0; i < numberOfThreads; i++) {
+            final boolean saving = i % 2 == 0;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < operationsPerThread; j++) {
+                            try {
+                                if (saving)
+                                    fileStorage.saveFile("savedDeletedFile", new ByteArrayInputStream(FileContents.content(j, 1024)));
+                                else
+                                    fileStorage.deleteFile("savedDeletedFile");
+                            } catch (KeyAlreadyExistFileStorageException | KeyNotExistFileStorageException e) {
+                                // Other thread was the first
+                            }
+                        }
+                    } catch (Throwable e) {
+                        errors[0] = e;
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        Assert.assertNull("Concurrent saving and deleting errors test", errors[0]);
+        final File file = new File("target/testRoot/userData" + new PathServiceImpl().generateFilePathPresentation("savedDeletedFile"));
+        Assert.assertEquals("Registered file is on the disc test", fileStorage.exists("savedDeletedFile"), file.exists());
+        if (fileStorage.exists("savedDeletedFile"))
+            fileStorage.deleteFile("savedDeletedFile");
+        Assert.assertEquals("Space is released test", freeSpace, fileStorage.freeSpaceInBytes());
+        Assert.assertFalse("File is deleted test", file.exists());
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        fileStorage.close();
+        deleteTestFiles();
+    }
+
+    private static void deleteTestFiles() throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get("target/testRoot/userData");
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}
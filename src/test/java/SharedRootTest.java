@@ -0,0 +1,212 @@
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.IncorrectArgumentFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.RejectedOperationFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import com.filipov.fileservice.FileStorageImpl.FileStorageOptions;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Instances of the storage in one JVM lock the shared root in the same way as the processes,
+ * the storage in the other JVM checks the sharing between the real processes
+ */
+
+public class SharedRootTest {
+
+    private final static String ROOT_PATH = "target/testRoot/shared";
+    private final static String OTHER_JVM_ROOT_PATH = "target/testRoot/sharedByJvms";
+
+    static FileStorageImpl firstProcess;
+    static FileStorageImpl secondProcess;
+
+    @BeforeClass
+    public static void init() {
+        firstProcess = new FileStorageImpl(ROOT_PATH, 1000000l, new FileStorageOptions().setSharedRoot(true));
+        secondProcess = new FileStorageImpl(ROOT_PATH, 1000000l, new FileStorageOptions().setSharedRoot(true));
+    }
+
+    @Test
+    public void sharedFilesTest() throws FileStorageException, IOException {
+        Assert.assertTrue("First process holds the lease test", firstProcess.runsMaintenance());
+        Assert.assertFalse("Second process doesn't hold the lease test", secondProcess.runsMaintenance());
+
+        final long freeSpace = firstProcess.freeSpaceInBytes();
+        firstProcess.saveFile("sharedFile", new ByteArrayInputStream(FileContents.content(31, 4096)));
+        Assert.assertTrue("File of other process exists test", secondProcess.exists("sharedFile"));
+        Assert.assertArrayEquals("File of other process is read test", FileContents.content(31, 4096), FileContents.readAll(secondProcess.readFile("sharedFile")));
+        Assert.assertEquals("Used space is shared test", freeSpace - 4096, secondProcess.freeSpaceInBytes());
+
+        Assert.assertEquals("Replacing of the file of other process test", 2,
+                secondProcess.replaceFile("sharedFile", new ByteArrayInputStream(FileContents.content(32, 2048)), 1));
+        Assert.assertEquals("Version of the replaced file test", 2, firstProcess.stat("sharedFile").getVersion());
+        Assert.assertArrayEquals("Replaced content test", FileContents.content(32, 2048), FileContents.readAll(firstProcess.readFile("sharedFile")));
+        Assert.assertEquals("Space of the replaced file test", freeSpace - 2048, firstProcess.freeSpaceInBytes());
+
+        secondProcess.deleteFile("sharedFile");
+        Assert.assertFalse("Deleted by other process test", firstProcess.exists("sharedFile"));
+        Assert.assertEquals("Space of the deleted file test", freeSpace, firstProcess.freeSpaceInBytes());
+
+        try {
+            secondProcess.purge(1000l);
+            Assert.fail("Purge without the lease test");
+        } catch (RejectedOperationFileStorageException e) {
+            // Purge is run by the first process
+        }
+
+        secondProcess.saveFile("secondFile", new ByteArrayInputStream(FileContents.content(33, 1000)));
+        final FileStorageImpl thirdProcess = new FileStorageImpl(ROOT_PATH, 1000000l, new FileStorageOptions().setSharedRoot(true));
+        Assert.assertTrue("Attached process replays the shared journal test", thirdProcess.exists("secondFile"));
+        Assert.assertEquals("Attached process keeps the used space test", freeSpace - 1000, thirdProcess.freeSpaceInBytes());
+        thirdProcess.deleteFile("secondFile");
+        Assert.assertFalse("File is deleted by attached process test", secondProcess.exists("secondFile"));
+        thirdProcess.close();
+    }
+
+    @Test
+    public void expirationTest() throws FileStorageException, InterruptedException {
+        final long freeSpace = firstProcess.freeSpaceInBytes();
+        secondProcess.saveFile("expiringFile", new ByteArrayInputStream(FileContents.content(34, 1000)), 200l);
+        Assert.assertEquals("Space of the expiration file test", freeSpace - 1000, firstProcess.freeSpaceInBytes());
+
+        // Expired file is deleted by the holder of the lease
+        for (int i = 0; i < 50 && firstProcess.freeSpaceInBytes() != freeSpace; i++)
+            Thread.sleep(100l);
+        Assert.assertEquals("Expired file is deleted test", freeSpace, secondProcess.freeSpaceInBytes());
+        Assert.assertFalse("Expired file doesn't exist test", secondProcess.exists("expiringFile"));
+    }
+
+    @Test
+    public void otherJvmTest() throws FileStorageException, IOException, InterruptedException {
+        final String classPath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+        final Process otherJvm = new ProcessBuilder(System.getProperty("java.home") + "/bin/java", "-cp", classPath,
+                OtherJvm.class.getName(), OTHER_JVM_ROOT_PATH).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        final PrintWriter commands = new PrintWriter(new OutputStreamWriter(otherJvm.getOutputStream(), StandardCharsets.UTF_8), true);
+        final BufferedReader answers = new BufferedReader(new InputStreamReader(otherJvm.getInputStream(), StandardCharsets.UTF_8));
+        FileStorageImpl thisJvm = null;
+        try {
+            Assert.assertEquals("Other JVM is started test", "started", answers.readLine());
+            thisJvm = new FileStorageImpl(OTHER_JVM_ROOT_PATH, 1000000l, new FileStorageOptions().setSharedRoot(true));
+            Assert.assertEquals("Other JVM holds the lease test", "true", ask(commands, answers, "lease"));
+            Assert.assertFalse("Lease of other JVM isn't taken test", thisJvm.runsMaintenance());
+
+            final long freeSpace = thisJvm.freeSpaceInBytes();
+            Assert.assertEquals("Saving in other JVM test", "ok", ask(commands, answers, "save otherJvmFile 41 4096"));
+            Assert.assertArrayEquals("File of other JVM is read test", FileContents.content(41, 4096), FileContents.readAll(thisJvm.readFile("otherJvmFile")));
+            Assert.assertEquals("Used space of other JVM test", freeSpace - 4096, thisJvm.freeSpaceInBytes());
+
+            thisJvm.saveFile("thisJvmFile", new ByteArrayInputStream(FileContents.content(42, 1000)));
+            Assert.assertEquals("File is seen by other JVM test", "true", ask(commands, answers, "exists thisJvmFile"));
+            Assert.assertEquals("Used space is seen by other JVM test", String.valueOf(freeSpace - 5096), ask(commands, answers, "free"));
+
+            Assert.assertEquals("Deleting in other JVM test", "ok", ask(commands, answers, "delete otherJvmFile"));
+            Assert.assertFalse("Deleted by other JVM test", thisJvm.exists("otherJvmFile"));
+            Assert.assertEquals("Space of the deleted file test", freeSpace - 1000, thisJvm.freeSpaceInBytes());
+
+            // Closed storage releases the lease and the slot, while its JVM is still running
+            Assert.assertEquals("Closing in other JVM test", "ok", ask(commands, answers, "close"));
+            Assert.assertTrue("Lease is taken over test", thisJvm.runsMaintenance());
+            Assert.assertEquals("Used space of the closed storage is kept test", freeSpace - 1000, thisJvm.freeSpaceInBytes());
+        } finally {
+            commands.println("exit");
+            if (!otherJvm.waitFor(30, TimeUnit.SECONDS))
+                otherJvm.destroy();
+            if (thisJvm != null)
+                thisJvm.close();
+        }
+    }
+
+    private static String ask(PrintWriter commands, BufferedReader answers, String command) throws IOException {
+        commands.println(command);
+        return answers.readLine();
+    }
+
+    /**
+     * Storage in the other JVM, which executes the commands of the standard input and writes the answers to the standard output
+     */
+
+    public static class OtherJvm {
+
+        public static void main(String[] args) throws FileStorageException, IOException {
+            // Log of the storage is written to the error stream, so the standard output carries only the answers
+            final PrintStream answers = System.out;
+            System.setOut(System.err);
+            final FileStorageImpl fileStorage = new FileStorageImpl(args[0], 1000000l, new FileStorageOptions().setSharedRoot(true));
+            final BufferedReader commands = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            answers.println("started");
+            answers.flush();
+            String command;
+            while ((command = commands.readLine()) != null && !command.equals("exit")) {
+                final String[] words = command.split(" ");
+                switch (words[0]) {
+                    case "lease":
+                        answers.println(fileStorage.runsMaintenance());
+                        break;
+                    case "save":
+                        fileStorage.saveFile(words[1], new ByteArrayInputStream(FileContents.content(Integer.parseInt(words[2]), Integer.parseInt(words[3]))));
+                        answers.println("ok");
+                        break;
+                    case "exists":
+                        answers.println(fileStorage.exists(words[1]));
+                        break;
+                    case "delete":
+                        fileStorage.deleteFile(words[1]);
+                        answers.println("ok");
+                        break;
+                    case "free":
+                        answers.println(fileStorage.freeSpaceInBytes());
+                        break;
+                    case "close":
+                        fileStorage.close();
+                        answers.println("ok");
+                        break;
+                    default:
+                        answers.println("unknown command");
+                }
+                answers.flush();
+            }
+            fileStorage.close();
+        }
+    }
+
+    @Test(expected = IncorrectArgumentFileStorageException.class)
+    public void incompatibleOptionsTest() {
+        new FileStorageImpl(ROOT_PATH, 1000000l, new FileStorageOptions().setSharedRoot(true).setDeduplication(true));
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        secondProcess.close();
+        firstProcess.close();
+        deleteTestFiles();
+    }
+
+    private static void deleteTestFiles() throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Files.walkFileTree(Paths.get(ROOT_PATH), new DeleteTestFilesVisitor());
+        if (Files.exists(Paths.get(OTHER_JVM_ROOT_PATH)))
+            Files.walkFileTree(Paths.get(OTHER_JVM_ROOT_PATH), new DeleteTestFilesVisitor());
+
+    }
+}
@@ -0,0 +1,100 @@
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import com.filipov.fileservice.FileStorageImpl.FileStorageOptions;
+import com.filipov.fileservice.FileStorageImpl.Snapshot;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+public class SnapshotTest {
+
+    private final static String ROOT_PATH = "target/testRoot/snapshots";
+
+    static FileStorageImpl fileStorage;
+    static FileStorageImpl restoredFileStorage;
+
+    @BeforeClass
+    public static void init() {
+        fileStorage = new FileStorageImpl(ROOT_PATH + "/source", 10000000l, new FileStorageOptions().setArchiveParallelism(2));
+        restoredFileStorage = new FileStorageImpl(ROOT_PATH + "/restored", 10000000l, new FileStorageOptions().setArchiveParallelism(2));
+    }
+
+    @Test
+    public void exportImportTest() throws FileStorageException, IOException {
+        final byte[] smallContent = FileContents.content(41, 10 * 1024);
+        final byte[] bigContent = FileContents.content(42, 2 * 1024 * 1024);
+        fileStorage.saveFile("smallFile", new ByteArrayInputStream(smallContent));
+        fileStorage.saveFile("bigFile", new ByteArrayInputStream(bigContent));
+        fileStorage.saveFile("expirationFile", new ByteArrayInputStream(FileContents.content(43, 1024)), 60 * 60 * 1000l);
+
+        final Snapshot firstSnapshot = fileStorage.snapshot();
+        Assert.assertEquals("Snapshot files test", 3, firstSnapshot.getNumberOfFiles());
+        // Snapshot keeps the content, which was replaced after it
+        fileStorage.putFile("smallFile", new ByteArrayInputStream(FileContents.content(44, 1024)));
+
+        final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        Assert.assertEquals("Exported files test", 3, fileStorage.exportSnapshot(firstSnapshot.getId(), archive));
+        Assert.assertEquals("Imported files test", 3, restoredFileStorage.importArchive(new ByteArrayInputStream(archive.toByteArray())));
+        Assert.assertArrayEquals("Content of the snapshot test", smallContent, FileContents.readAll(restoredFileStorage.readFile("smallFile")));
+        Assert.assertArrayEquals("Big file test", bigContent, FileContents.readAll(restoredFileStorage.readFile("bigFile")));
+        Assert.assertEquals("Creation time test", fileStorage.stat("bigFile").getCreationTime(),
+                restoredFileStorage.stat("bigFile").getCreationTime());
+        Assert.assertEquals("Expiration time test", fileStorage.stat("expirationFile").getExpirationTime(),
+                restoredFileStorage.stat("expirationFile").getExpirationTime());
+        Assert.assertEquals("Used space test", 10 * 1024 + 2 * 1024 * 1024 + 1024,
+                10000000l - restoredFileStorage.freeSpaceInBytes());
+
+        fileStorage.deleteFile("bigFile");
+        fileStorage.touch("expirationFile", 2 * 60 * 60 * 1000l);
+        fileStorage.saveFile("newFile", new ByteArrayInputStream(FileContents.content(45, 1024)));
+        final Snapshot secondSnapshot = fileStorage.snapshot();
+
+        final ByteArrayOutputStream changes = new ByteArrayOutputStream();
+        Assert.assertEquals("Exported changes test", 4,
+                fileStorage.exportSnapshot(secondSnapshot.getId(), firstSnapshot.getId(), changes));
+        restoredFileStorage.importArchive(new ByteArrayInputStream(changes.toByteArray()));
+        Assert.assertArrayEquals("Replaced file test", FileContents.content(44, 1024), FileContents.readAll(restoredFileStorage.readFile("smallFile")));
+        Assert.assertFalse("Deleted file test", restoredFileStorage.exists("bigFile"));
+        Assert.assertTrue("New file test", restoredFileStorage.exists("newFile"));
+        Assert.assertEquals("Touched file test", fileStorage.stat("expirationFile").getExpirationTime(),
+                restoredFileStorage.stat("expirationFile").getExpirationTime());
+        Assert.assertEquals("Used space after changes test", fileStorage.freeSpaceInBytes(), restoredFileStorage.freeSpaceInBytes());
+
+        fileStorage.deleteSnapshot(firstSnapshot.getId());
+        Assert.assertEquals("Deleted snapshot test", 1, fileStorage.getSnapshots().size());
+        Assert.assertEquals("Left snapshot test", secondSnapshot.getId(), fileStorage.getSnapshots().get(0).getId());
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        fileStorage.close();
+        restoredFileStorage.close();
+        deleteTestFiles();
+    }
+
+    private static void deleteTestFiles() throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get(ROOT_PATH);
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}
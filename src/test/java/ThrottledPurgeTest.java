@@ -0,0 +1,73 @@
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyAlreadyExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.NoFreeSpaceFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import com.filipov.fileservice.FileStorageImpl.IOBudget;
+import com.filipov.fileservice.FileStorageImpl.PurgeTask;
+import org.junit.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+public class ThrottledPurgeTest {
+
+    static FileStorageImpl fileStorage;
+
+    @BeforeClass
+    public static void init() throws FileStorageException {
+        fileStorage = new FileStorageImpl("target/testRoot", 120l, new IOBudget(5, 1024));
+    }
+
+    @Before
+    public void prepareFiles() throws KeyAlreadyExistFileStorageException, NoFreeSpaceFileStorageException, FileNotFoundException {
+        File referenceFile = new File("src/test/resources/1.txt");
+        for (Integer i = 0; i < 10; i++) {
+            InputStream inputStream = new BufferedInputStream(new FileInputStream(referenceFile));
+            fileStorage.saveFile(i.toString(), inputStream);
+        }
+    }
+
+    @Test
+    public void cancelPurgeTest() throws InterruptedException {
+        long initialFreeSpace = fileStorage.freeSpaceInBytes();
+        PurgeTask purgeTask = fileStorage.startPurge(120l);
+        Thread.sleep(100l);
+        purgeTask.cancel();
+        Assert.assertTrue("Cancelled purge finishing test", purgeTask.await(5 * 1000l));
+
+        boolean result = purgeTask.getLiberatedDiscSpace() < 90l
+                && fileStorage.freeSpaceInBytes() == initialFreeSpace + purgeTask.getLiberatedDiscSpace();
+        Assert.assertTrue("Cancelled purge test", result);
+
+        fileStorage.purge(120l);
+        Assert.assertTrue("Purge after cancelling test", fileStorage.freeSpaceInBytes() == 120l);
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        fileStorage.close();
+        deleteTestFiles();
+    }
+
+    private static void deleteTestFiles() throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get("target/testRoot/userData");
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}
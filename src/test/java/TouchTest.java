@@ -0,0 +1,114 @@
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import com.filipov.fileservice.FileStorageImpl.FileStorageOptions;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+public class TouchTest {
+
+    static FileStorageImpl fileStorage;
+
+    @BeforeClass
+    public static void init() {
+        fileStorage = new FileStorageImpl("target/testRoot", 100000l, new FileStorageOptions().setSlidingExpiration(true));
+    }
+
+    @Test
+    public void touchTest() throws FileStorageException, InterruptedException {
+        fileStorage.saveFile("touchedFile", new ByteArrayInputStream(new byte[100]), 300l);
+        fileStorage.touch("touchedFile", 60 * 1000l);
+        Thread.sleep(500l);
+        Assert.assertTrue("Touched file isn't expired test", fileStorage.exists("touchedFile"));
+        Assert.assertTrue("New expiration time test", fileStorage.stat("touchedFile").getExpirationTime() > System.currentTimeMillis() + 50 * 1000l);
+
+        fileStorage.touch("touchedFile", 0);
+        Assert.assertFalse("Touched file doesn't expire test", fileStorage.stat("touchedFile").isExpirationFile());
+
+        fileStorage.saveFile("bulkTouchedFile", new ByteArrayInputStream(new byte[100]));
+        Assert.assertEquals("Bulk touch skips missing keys test", 2,
+                fileStorage.touch(Arrays.asList("touchedFile", "bulkTouchedFile", "missingTouchedFile"), 60 * 1000l));
+        Assert.assertTrue("Bulk touched file expires test", fileStorage.stat("bulkTouchedFile").isExpirationFile());
+
+        try {
+            fileStorage.touch("missingTouchedFile", 1000l);
+            Assert.fail("Touching of missing file test");
+        } catch (KeyNotExistFileStorageException e) {
+            Assert.assertEquals("missingTouchedFile", e.getIncorrectArgument());
+        }
+        fileStorage.deleteFile("touchedFile");
+        fileStorage.deleteFile("bulkTouchedFile");
+    }
+
+    @Test
+    public void lazyExpirationTest() throws FileStorageException, InterruptedException {
+        fileStorage.saveFile("lazyExpiredFile", new ByteArrayInputStream(new byte[100]), 100l);
+        Thread.sleep(150l);
+
+        // Expired file is missing, even if it isn't deleted by the background deleter yet
+        Assert.assertFalse("Expired file doesn't exist test", fileStorage.exists("lazyExpiredFile"));
+        try {
+            fileStorage.readFile("lazyExpiredFile");
+            Assert.fail("Reading of expired file test");
+        } catch (KeyNotExistFileStorageException e) {
+            Assert.assertEquals("lazyExpiredFile", e.getIncorrectArgument());
+        }
+        try {
+            fileStorage.touch("lazyExpiredFile", 1000l);
+            Assert.fail("Touching of expired file test");
+        } catch (KeyNotExistFileStorageException e) {
+            Assert.assertEquals("lazyExpiredFile", e.getIncorrectArgument());
+        }
+
+        fileStorage.saveFile("lazyExpiredFile", new ByteArrayInputStream(new byte[200]));
+        Assert.assertEquals("Expired file is replaced by saving test", 200, fileStorage.stat("lazyExpiredFile").getSize());
+        fileStorage.deleteFile("lazyExpiredFile");
+    }
+
+    @Test
+    public void slidingExpirationTest() throws FileStorageException, IOException, InterruptedException {
+        fileStorage.saveFile("slidingFile", new ByteArrayInputStream(new byte[100]), 800l);
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(300l);
+            FileContents.readAll(fileStorage.readFile("slidingFile"));
+        }
+        Assert.assertTrue("Read file lives longer than its life time test", fileStorage.exists("slidingFile"));
+
+        Thread.sleep(1200l);
+        Assert.assertFalse("Not read file expires test", fileStorage.exists("slidingFile"));
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        fileStorage.close();
+        deleteTestFiles();
+    }
+
+    private static void deleteTestFiles() throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get("target/testRoot/userData");
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}
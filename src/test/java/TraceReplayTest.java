@@ -0,0 +1,91 @@
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyNotExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import com.filipov.fileservice.InMemoryFileStorageImpl.InMemoryFileStorageImpl;
+import com.filipov.fileservice.TracingFileStorageImpl.*;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+public class TraceReplayTest {
+
+    private final static String ROOT_PATH = "target/testRoot/traces";
+
+    @Test
+    public void recordReplayTest() throws FileStorageException, IOException, InterruptedException {
+        final String tracePath = ROOT_PATH + "/operations.trace";
+        final FileStorageImpl recordedStorage = new FileStorageImpl(ROOT_PATH + "/recorded", 10000000l);
+        final TracingFileStorageImpl tracingStorage = new TracingFileStorageImpl(recordedStorage, tracePath);
+        for (int i = 0; i < 100; i++)
+            tracingStorage.saveFile("file" + i, new ByteArrayInputStream(new byte[1000 + i]));
+        tracingStorage.saveFile("expirationFile", new ByteArrayInputStream(new byte[10]), 60 * 60 * 1000l);
+        for (int i = 0; i < 150; i++) {
+            try {
+                tracingStorage.readFile("file" + i).close();
+            } catch (KeyNotExistFileStorageException e) {
+                // Every third read misses
+            }
+        }
+        tracingStorage.deleteFile("file0");
+        tracingStorage.close();
+        recordedStorage.close();
+        Assert.assertEquals("Recorded operations test", 252, tracingStorage.getRecordedOperations());
+        Assert.assertEquals("Dropped operations test", 0, tracingStorage.getDroppedOperations());
+
+        try (TraceReader reader = new TraceReader(tracePath)) {
+            final TraceRecord firstRecord = reader.next();
+            Assert.assertEquals("Operation test", TraceRecord.Operation.SAVE, firstRecord.getOperation());
+            Assert.assertEquals("Size test", 1000, firstRecord.getSize());
+            TraceRecord record = firstRecord;
+            for (int i = 1; i < 101; i++)
+                record = reader.next();
+            Assert.assertEquals("Life time test", 60 * 60 * 1000l, record.getLifeTime());
+            Assert.assertTrue("Time test", record.getTime() >= firstRecord.getTime());
+        }
+
+        final InMemoryFileStorageImpl replayingStorage = new InMemoryFileStorageImpl(10000000l);
+        final ReplayReport report = new TraceReplayer(replayingStorage, 4, 0).replay(tracePath);
+        Assert.assertEquals("Replayed operations test", 252, report.getReplayedOperations());
+        Assert.assertEquals("Mismatched operations test", 0, report.getMismatchedOperations());
+        Assert.assertEquals("Hit rate test", 100.0 / 150, report.getHitRate(), 0.0001);
+        Assert.assertEquals("Original hit rate test", 100.0 / 150, report.getOriginalHitRate(), 0.0001);
+        Assert.assertEquals("Missed reads test", 50, report.getOperations(TraceRecord.Operation.READ, TraceRecord.Status.KEY_NOT_EXIST));
+        Assert.assertEquals("Saved bytes test", 100 * 1000 + 99 * 100 / 2 + 10, report.getSavedBytes());
+        Assert.assertEquals("Read bytes test", 100 * 1000 + 99 * 100 / 2, report.getReadBytes());
+        Assert.assertTrue("Latency test", report.getLatency(TraceRecord.Operation.SAVE, 0.99)
+                <= report.getMaxLatency(TraceRecord.Operation.SAVE));
+        Assert.assertFalse("Space samples test", report.getSpaceSamples().isEmpty());
+        Assert.assertEquals("Free space test", replayingStorage.freeSpaceInBytes(),
+                report.getSpaceSamples().get(report.getSpaceSamples().size() - 1).getFreeSpace());
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        deleteTestFiles();
+    }
+
+    private static void deleteTestFiles() throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get(ROOT_PATH);
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}
@@ -0,0 +1,100 @@
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import com.filipov.fileservice.FileStorageImpl.FileStorageOptions;
+import com.filipov.fileservice.FileStorageImpl.FileStoragePathServiceImpl.PathServiceImpl;
+import com.filipov.fileservice.FileStorageImpl.WarmUpProgress;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+public class WarmUpTest {
+
+    @Test
+    public void unregisteredFileTest() throws Exception {
+        final FileStorageImpl fileStorage = new FileStorageImpl("target/testRoot", 10000000l);
+        fileStorage.saveFile("registeredWarmUpFile", new ByteArrayInputStream(FileContents.content(1, 1000)));
+        final long freeSpace = fileStorage.freeSpaceInBytes();
+        fileStorage.close();
+
+        // File is copied to the storage directly, so it's found by the scanning only
+        final byte[] copiedContent = FileContents.content(2, 3000);
+        final Path copiedFile = Paths.get("target/testRoot/userData" + new PathServiceImpl().generateFilePathPresentation("copiedWarmUpFile"));
+        Files.createDirectories(copiedFile.getParent());
+        Files.write(copiedFile, copiedContent);
+        Files.setLastModifiedTime(copiedFile, FileTime.fromMillis(System.currentTimeMillis() - 60000l));
+
+        final FileStorageImpl warmingFileStorage = new FileStorageImpl("target/testRoot", 10000000l,
+                new FileStorageOptions().setBackgroundWarmUp(true));
+        Assert.assertArrayEquals("Reading of the registered file test", FileContents.content(1, 1000),
+                FileContents.readAll(warmingFileStorage.readFile("registeredWarmUpFile")));
+        Assert.assertArrayEquals("Reading of the unregistered file waits for the warm-up test", copiedContent,
+                FileContents.readAll(warmingFileStorage.readFile("copiedWarmUpFile")));
+
+        warmingFileStorage.getReadiness().get(10, TimeUnit.SECONDS);
+        final WarmUpProgress warmUpProgress = warmingFileStorage.getWarmUpProgress();
+        Assert.assertEquals("Phase test", WarmUpProgress.Phase.READY, warmUpProgress.getPhase());
+        Assert.assertEquals("Ratio test", 1, warmUpProgress.getRatio(), 0);
+        Assert.assertEquals("Used space test", freeSpace - copiedContent.length, warmingFileStorage.freeSpaceInBytes());
+
+        warmingFileStorage.deleteFile("copiedWarmUpFile");
+        warmingFileStorage.deleteFile("registeredWarmUpFile");
+        warmingFileStorage.close();
+    }
+
+    @Test
+    public void concurrentChangesTest() throws Exception {
+        final FileStorageImpl fileStorage = new FileStorageImpl("target/testRoot", 100000000l);
+        for (int i = 0; i < 1000; i++)
+            fileStorage.saveFile("oldWarmUpFile" + i, new ByteArrayInputStream(FileContents.content(i, 100 + i)));
+        fileStorage.close();
+
+        final FileStorageImpl warmingFileStorage = new FileStorageImpl("target/testRoot", 100000000l,
+                new FileStorageOptions().setBackgroundWarmUp(true));
+        for (int i = 0; i < 500; i++) {
+            warmingFileStorage.saveFile("newWarmUpFile" + i, new ByteArrayInputStream(FileContents.content(i, 200 + i)));
+            warmingFileStorage.deleteFile("oldWarmUpFile" + (i * 2));
+        }
+        warmingFileStorage.getReadiness().get(10, TimeUnit.SECONDS);
+        warmingFileStorage.purge(warmingFileStorage.freeSpaceInBytes() + 1);
+        final long freeSpace = warmingFileStorage.freeSpaceInBytes();
+        warmingFileStorage.close();
+
+        // Storage, which is opened with the scanning, counts the used space exactly
+        final FileStorageImpl restartedFileStorage = new FileStorageImpl("target/testRoot", 100000000l);
+        Assert.assertEquals("Used space after the concurrent changes test", restartedFileStorage.freeSpaceInBytes(), freeSpace);
+        Assert.assertTrue("New file test", restartedFileStorage.exists("newWarmUpFile499"));
+        Assert.assertFalse("Deleted file test", restartedFileStorage.exists("oldWarmUpFile0"));
+        restartedFileStorage.close();
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        deleteTestFiles();
+    }
+
+    private static void deleteTestFiles() throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get("target/testRoot/userData");
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}
@@ -0,0 +1,172 @@
+import com.filipov.fileservice.FileStorageImpl.AdmissionController;
+import com.filipov.fileservice.FileStorageImpl.FileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageExceptions.KeyAlreadyExistFileStorageException;
+import com.filipov.fileservice.FileStorageImpl.FileStorageImpl;
+import com.filipov.fileservice.FileStorageImpl.FileStorageOptions;
+import com.filipov.fileservice.FileStorageImpl.FileStoragePathServiceImpl.PathServiceImpl;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+public class WriteBehindTest {
+
+    static FileStorageImpl fileStorage;
+    static FileStorageImpl resavingFileStorage;
+    static FileStorageImpl admittedFileStorage;
+    static FileStorageImpl failingFileStorage;
+
+    @BeforeClass
+    public static void init() {
+        // Buffer keeps only a few files, so saving has to wait for the background writer
+        fileStorage = new FileStorageImpl("target/testRoot", 100000l, new FileStorageOptions().setWriteBehind(256, 64));
+        // Big buffer flushes the deleted and the saved again files in the same batch
+        resavingFileStorage = new FileStorageImpl("target/testRoot/resaving", 100000l, new FileStorageOptions().setWriteBehind(1 << 20, 64));
+        admittedFileStorage = new FileStorageImpl("target/testRoot/admitted", 100000l, new FileStorageOptions().setWriteBehind(256, 64)
+                .setAdmissionController(new AdmissionController(4, 4, 10, 5000l, 1000l)));
+        failingFileStorage = new FileStorageImpl("target/testRoot/failing", 100000l, new FileStorageOptions().setWriteBehind(1024, 64));
+    }
+
+    @Test
+    public void stagedFilesTest() throws FileStorageException, IOException, InterruptedException {
+        for (int i = 0; i < 200; i++) {
+            fileStorage.saveFile("staged" + i, new ByteArrayInputStream(FileContents.content(i, 40)));
+            Assert.assertArrayEquals("Reading of the staged file test", FileContents.content(i, 40), FileContents.readAll(fileStorage.readFile("staged" + i)));
+        }
+        for (int i = 0; i < 200; i += 2)
+            fileStorage.deleteFile("staged" + i);
+
+        fileStorage.flush();
+        for (int i = 0; i < 200; i++) {
+            final File file = new File("target/testRoot/userData" + new PathServiceImpl().generateFilePathPresentation("staged" + i));
+            Assert.assertEquals("Flushing test", i % 2 == 1, file.exists());
+            Assert.assertEquals("Metadata test", i % 2 == 1, fileStorage.exists("staged" + i));
+        }
+        Assert.assertArrayEquals("Reading of the flushed file test", FileContents.content(1, 40), FileContents.readAll(fileStorage.readFile("staged1")));
+    }
+
+    @Test
+    public void bigFileTest() throws FileStorageException, IOException, InterruptedException {
+        fileStorage.saveFile("bigFile", new ByteArrayInputStream(FileContents.content(7, 1000)));
+        Assert.assertArrayEquals("Direct writing test", FileContents.content(7, 1000), FileContents.readAll(fileStorage.readFile("bigFile")));
+        Assert.assertEquals("Size test", 1000, fileStorage.stat("bigFile").getSize());
+    }
+
+    @Test
+    public void resavedFilesTest() throws FileStorageException, IOException, InterruptedException {
+        for (int i = 0; i < 300; i++) {
+            resavingFileStorage.saveFile("resaved" + i, new ByteArrayInputStream(FileContents.content(i, 40)));
+            resavingFileStorage.deleteFile("resaved" + i);
+            resavingFileStorage.saveFile("resaved" + i, new ByteArrayInputStream(FileContents.content(i + 1, 40)));
+        }
+
+        resavingFileStorage.flush();
+        for (int i = 0; i < 300; i++) {
+            final File file = new File("target/testRoot/resaving/userData" + new PathServiceImpl().generateFilePathPresentation("resaved" + i));
+            Assert.assertTrue("Saved again file test", file.exists());
+            Assert.assertArrayEquals("Content of the saved again file test", FileContents.content(i + 1, 40),
+                    FileContents.readAll(resavingFileStorage.readFile("resaved" + i)));
+        }
+    }
+
+    @Test
+    public void replacedStagedFileTest() throws FileStorageException, IOException, InterruptedException {
+        resavingFileStorage.saveFile("replacedStaged", new ByteArrayInputStream(FileContents.content(5, 40)));
+        resavingFileStorage.replaceFile("replacedStaged", new ByteArrayInputStream(FileContents.content(6, 50)),
+                resavingFileStorage.stat("replacedStaged").getVersion());
+        Assert.assertArrayEquals("Replaced content test", FileContents.content(6, 50), FileContents.readAll(resavingFileStorage.readFile("replacedStaged")));
+
+        // Staged content isn't written over the replacing content
+        resavingFileStorage.flush();
+        Assert.assertArrayEquals("Replaced content after flush test", FileContents.content(6, 50),
+                FileContents.readAll(resavingFileStorage.readFile("replacedStaged")));
+    }
+
+    @Test
+    public void importedOverStagedFileTest() throws FileStorageException, IOException, InterruptedException {
+        admittedFileStorage.saveFile("importedStaged", new ByteArrayInputStream(FileContents.content(9, 40)));
+        final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        admittedFileStorage.exportSnapshot(admittedFileStorage.snapshot().getId(), archive);
+
+        resavingFileStorage.saveFile("importedStaged", new ByteArrayInputStream(FileContents.content(10, 40)));
+        resavingFileStorage.importArchive(new ByteArrayInputStream(archive.toByteArray()));
+        // Staged content isn't written over the imported content
+        resavingFileStorage.flush();
+        Assert.assertArrayEquals("Imported content test", FileContents.content(9, 40), FileContents.readAll(resavingFileStorage.readFile("importedStaged")));
+    }
+
+    @Test
+    public void admittedBigFileTest() throws FileStorageException, IOException {
+        // File is too big for the write-behind buffer, so it's written directly under the admission control
+        admittedFileStorage.saveFile("admittedBigFile", new ByteArrayInputStream(FileContents.content(7, 1000)));
+        admittedFileStorage.saveFile("admittedSmallFile", new ByteArrayInputStream(FileContents.content(8, 10)));
+
+        Assert.assertArrayEquals("Big file content test", FileContents.content(7, 1000), FileContents.readAll(admittedFileStorage.readFile("admittedBigFile")));
+        Assert.assertArrayEquals("Small file content test", FileContents.content(8, 10), FileContents.readAll(admittedFileStorage.readFile("admittedSmallFile")));
+    }
+
+    @Test
+    public void retriedWriteTest() throws FileStorageException, IOException, InterruptedException {
+        final String filePath = "target/testRoot/failing/userData" + new PathServiceImpl().generateFilePathPresentation("retriedFile");
+        // File in place of the directory fails the writing of the staged file
+        final File blockingFile = new File(filePath).getParentFile().getParentFile();
+        blockingFile.getParentFile().mkdirs();
+        Assert.assertTrue("Blocking file test", blockingFile.createNewFile());
+
+        failingFileStorage.saveFile("retriedFile", new ByteArrayInputStream(FileContents.content(11, 40)));
+        Thread.sleep(300);
+        Assert.assertFalse("File isn't written test", new File(filePath).exists());
+        Assert.assertTrue("Failed file exists test", failingFileStorage.exists("retriedFile"));
+        Assert.assertArrayEquals("Failed file is read from the buffer test", FileContents.content(11, 40),
+                FileContents.readAll(failingFileStorage.readFile("retriedFile")));
+
+        Assert.assertTrue("Blocking file is deleted test", blockingFile.delete());
+        failingFileStorage.flush();
+        Assert.assertTrue("Retried file is written test", new File(filePath).exists());
+        Assert.assertArrayEquals("Retried file content test", FileContents.content(11, 40), FileContents.readAll(failingFileStorage.readFile("retriedFile")));
+        Assert.assertEquals("Staging journal is truncated test", 0, new File("target/testRoot/failing/FileStorage.staging").length());
+    }
+
+    @Test(expected = KeyAlreadyExistFileStorageException.class)
+    public void stagedKeyAlreadyExistTest() throws FileStorageException {
+        fileStorage.saveFile("stagedTwice", new ByteArrayInputStream(FileContents.content(1, 10)));
+        fileStorage.saveFile("stagedTwice", new ByteArrayInputStream(FileContents.content(2, 10)));
+    }
+
+    @AfterClass
+    public static void cleanAll() throws IOException {
+        fileStorage.close();
+        resavingFileStorage.close();
+        admittedFileStorage.close();
+        failingFileStorage.close();
+        deleteTestFiles("target/testRoot/userData");
+        deleteTestFiles("target/testRoot/resaving");
+        deleteTestFiles("target/testRoot/admitted");
+        deleteTestFiles("target/testRoot/failing");
+    }
+
+    private static void deleteTestFiles(String path) throws IOException {
+
+        class DeleteTestFilesVisitor extends SimpleFileVisitor<Path> {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+
+        Path testFilesPath = Paths.get(path);
+        Files.walkFileTree(testFilesPath, new DeleteTestFilesVisitor());
+
+    }
+}